@@ -14,16 +14,50 @@ package cscie97.asn4.knowledge.engine;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class reads in a file of knowledge graph triples and adds these to the
  * knowledge graph (see assignment design document for more details).
  *
+ * importTripleFile reads and adds the triples one line at a time.
+ * bulkImportTripleFile is meant for large files: it memory-maps the file,
+ * splits it into chunks of about CHUNK_SIZE bytes that end at line breaks,
+ * and parses the chunks in parallel on the common fork-join pool with a
+ * hand-written tokenizer. The parsed chunks are then taken in file order,
+ * their identifiers are encoded as Node and Predicate ordinals, and their
+ * triples are added to the graph in large batches, each of which is sorted
+ * and merged into the triple store's indexes in one pass. Both methods
+ * report malformed lines with the same messages and line numbers, and
+ * build the same graph.
+ *
  * @author Roland L. Galibert
  * @version 1.0
  */
 public class Importer {
 
+    /**
+     * Approximate size of the chunks a bulk import parses in parallel, in
+     * bytes.
+     */
+    private static final int CHUNK_SIZE = 1 << 24;
+
+    /**
+     * Smallest number of triples a bulk import adds to the graph at once. A
+     * batch is also at least a quarter of the size of the graph, so that
+     * each triple is merged into the indexes a bounded number of times.
+     */
+    private static final int MIN_BATCH_SIZE = 1 << 20;
+
     /**
      * Constructor.
      */
@@ -71,6 +105,134 @@ public class Importer {
         }
     }
 
+    /**
+     * Memory-maps a file of knowledge graph triples, parses its lines in
+     * parallel and adds valid triples to the knowledge graph in sorted
+     * batches. Malformed lines are reported as by importTripleFile.
+     *
+     * @param fileName Name of triple input file.
+     */
+    public void bulkImportTripleFile(String fileName) throws ImportException, IOException {
+
+        /*
+         * Check for valid import file name
+         */
+        if (!isValidFileName(fileName)) {
+            throw new ImportException("Triple input file '" + fileName + "' invalid");
+        } else {
+            KnowledgeGraph kg = KnowledgeGraph.getInstance();
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                ArrayList<Long> boundaries = findChunkBoundaries(channel);
+                int chunkCount = boundaries.size() - 1;
+
+                /*
+                 * Parse up to two chunks per worker ahead of the chunk being
+                 * added to the graph, so that parsed chunks waiting to be
+                 * added do not pile up in memory
+                 */
+                ChunkParser[] parsers = new ChunkParser[chunkCount];
+                int submittedCount = 0;
+                int lineNumber = 0;
+                int[] batch = new int[0];
+                int batchCount = 0;
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    while ((submittedCount < chunkCount) && (submittedCount < chunk + pool.getParallelism() * 2)) {
+                        long start = boundaries.get(submittedCount);
+                        long end = boundaries.get(submittedCount + 1);
+                        parsers[submittedCount] = new ChunkParser(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                end - start));
+                        pool.execute(parsers[submittedCount]);
+                        submittedCount++;
+                    }
+                    ChunkParser parser = parsers[chunk];
+                    parser.join();
+                    parsers[chunk] = null;
+
+                    /*
+                     * Report the chunk's malformed lines, numbered from the
+                     * start of the file
+                     */
+                    for (int i = 0; i < parser.errorLineNumbers.size(); i++) {
+                        System.out.println("Triple file " + fileName + " line number "
+                                + (lineNumber + parser.errorLineNumbers.get(i)) + ": " + parser.errorMessages.get(i));
+                    }
+                    lineNumber += parser.lineCount;
+
+                    /*
+                     * Encode the chunk's identifiers, in the order they first
+                     * appear, and add its triples to the batch
+                     */
+                    int[] nodeOrdinals = new int[parser.nodeIdentifiers.size()];
+                    for (int i = 0; i < nodeOrdinals.length; i++) {
+                        nodeOrdinals[i] = kg.getNode(parser.nodeIdentifiers.get(i)).getOrdinal();
+                    }
+                    int[] predicateOrdinals = new int[parser.predicateIdentifiers.size()];
+                    for (int i = 0; i < predicateOrdinals.length; i++) {
+                        predicateOrdinals[i] = kg.getPredicate(parser.predicateIdentifiers.get(i)).getOrdinal();
+                    }
+                    if ((batchCount + parser.tripleCount) * 3 > batch.length) {
+                        batch = Arrays.copyOf(batch, Math.max((batchCount + parser.tripleCount) * 3, batch.length * 2));
+                    }
+                    for (int i = 0; i < parser.tripleCount * 3; i += 3) {
+                        batch[batchCount * 3] = nodeOrdinals[parser.triples[i]];
+                        batch[batchCount * 3 + 1] = predicateOrdinals[parser.triples[i + 1]];
+                        batch[batchCount * 3 + 2] = nodeOrdinals[parser.triples[i + 2]];
+                        batchCount++;
+                    }
+                    if ((batchCount >= MIN_BATCH_SIZE) && (batchCount >= kg.getTripleCount() / 4)) {
+                        kg.importTriples(batch, batchCount);
+                        batchCount = 0;
+                    }
+                }
+                if (batchCount > 0) {
+                    kg.importTriples(batch, batchCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a file into chunks of about CHUNK_SIZE bytes, each of which
+     * ends just after a line feed (or at the end of the file).
+     *
+     * @param channel File.
+     * @return Offset of the start of each chunk, followed by the size of the
+     * file.
+     * @throws IOException
+     */
+    private ArrayList<Long> findChunkBoundaries(FileChannel channel) throws IOException {
+        ArrayList<Long> boundaries = new ArrayList<Long>();
+        long size = channel.size();
+        long boundary = 0;
+        boundaries.add(boundary);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (boundary < size) {
+
+            /*
+             * Move the nominal end of the chunk forward to just after the
+             * next line feed, reading a block of the file at a time
+             */
+            long position = boundary + CHUNK_SIZE - 1;
+            boundary = size;
+            while (position < size) {
+                buffer.clear();
+                int length = channel.read(buffer, position);
+                int i = 0;
+                while ((i < length) && (buffer.get(i) != '\n')) {
+                    i++;
+                }
+                if (i < length) {
+                    boundary = position + i + 1;
+                    break;
+                }
+                position += length;
+            }
+            boundaries.add(boundary);
+        }
+        return boundaries;
+    }
+
     /*
      * This method parses a triple file input line (i.e. a triple) and stores
      * the elements as follows:
@@ -124,4 +286,237 @@ public class Importer {
     public boolean isValidFileName(String fileName) {
         return fileName.endsWith(".nt");
     }
+
+    /**
+     * This class parses one chunk of a triple file for a bulk import. Lines
+     * are split and checked byte by byte, in the same way (and with the same
+     * messages) as parseLine, and the identifiers of the chunk are numbered
+     * in the order they first appear, so that the chunk's triples can be
+     * kept as three ints each until they are encoded for the graph.
+     */
+    private static class ChunkParser extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Chunk of the file.
+         */
+        private MappedByteBuffer buffer;
+
+        /**
+         * Number of lines in the chunk.
+         */
+        private int lineCount = 0;
+
+        /**
+         * Node identifiers, numbered in the order they first appear.
+         */
+        private ArrayList<String> nodeIdentifiers = new ArrayList<String>();
+
+        /**
+         * Numbers of the node identifiers.
+         */
+        private HashMap<String, Integer> nodeNumbers = new HashMap<String, Integer>();
+
+        /**
+         * Predicate identifiers, numbered in the order they first appear.
+         */
+        private ArrayList<String> predicateIdentifiers = new ArrayList<String>();
+
+        /**
+         * Numbers of the predicate identifiers.
+         */
+        private HashMap<String, Integer> predicateNumbers = new HashMap<String, Integer>();
+
+        /**
+         * Subject, predicate and object numbers of each valid triple.
+         */
+        private int[] triples = new int[3 * 1024];
+
+        /**
+         * Number of valid triples.
+         */
+        private int tripleCount = 0;
+
+        /**
+         * Line numbers (within the chunk) of malformed lines.
+         */
+        private ArrayList<Integer> errorLineNumbers = new ArrayList<Integer>();
+
+        /**
+         * Error messages for malformed lines.
+         */
+        private ArrayList<String> errorMessages = new ArrayList<String>();
+
+        /**
+         * Characters of the identifier being read.
+         */
+        private char[] characters = new char[64];
+
+        /**
+         * Constructor.
+         *
+         * @param buffer Chunk of the file.
+         */
+        ChunkParser(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Parses each line of the chunk. Lines end at a line feed, a
+         * carriage return or a carriage return followed by a line feed, as
+         * they do for BufferedReader.readLine.
+         */
+        @Override
+        protected void compute() {
+            int limit = buffer.limit();
+            int position = 0;
+            while (position < limit) {
+                int end = position;
+                while ((end < limit) && (buffer.get(end) != '\n') && (buffer.get(end) != '\r')) {
+                    end++;
+                }
+                lineCount++;
+                parseLine(position, end);
+                if ((end + 1 < limit) && (buffer.get(end) == '\r') && (buffer.get(end + 1) == '\n')) {
+                    position = end + 2;
+                } else {
+                    position = end + 1;
+                }
+            }
+            buffer = null;
+        }
+
+        /**
+         * Parses one line, adding its triple or recording its error.
+         * Elements are separated by runs of spaces and tabs, and, as with
+         * String.split, a line that starts with a space or tab has an empty
+         * first element.
+         *
+         * @param start Offset of the first byte of the line.
+         * @param end Offset of the end of the line (exclusive).
+         */
+        private void parseLine(int start, int end) {
+            int[] elementStarts = new int[3];
+            int[] elementEnds = new int[3];
+            int elementCount = 0;
+            int i = start;
+            while ((i < end) && isBlank(buffer.get(i))) {
+                i++;
+            }
+            if ((i > start) && (i < end)) {
+                elementStarts[0] = start;
+                elementEnds[0] = start;
+                elementCount++;
+            }
+            while (i < end) {
+                int elementStart = i;
+                while ((i < end) && !isBlank(buffer.get(i))) {
+                    i++;
+                }
+                if (elementCount < 3) {
+                    elementStarts[elementCount] = elementStart;
+                    elementEnds[elementCount] = i;
+                }
+                elementCount++;
+                while ((i < end) && isBlank(buffer.get(i))) {
+                    i++;
+                }
+            }
+
+            /*
+             * Check the elements in the same order as parseLine
+             */
+            if (elementCount != 3) {
+                addError("Malformed input: Incorrect number of elements");
+            } else if (!isIdentifier(elementStarts[0], elementEnds[0])) {
+                addError("Malformed input: Bad subject");
+            } else if (!isIdentifier(elementStarts[1], elementEnds[1])) {
+                addError("Malformed input: Bad predicate");
+            } else if ((elementEnds[2] == elementStarts[2]) || (buffer.get(elementEnds[2] - 1) != '.')) {
+                addError("Malformed input: Missing .");
+            } else if (!isIdentifier(elementStarts[2], elementEnds[2] - 1)) {
+                addError("Malformed input: Bad object");
+            } else {
+                if ((tripleCount + 1) * 3 > triples.length) {
+                    triples = Arrays.copyOf(triples, triples.length * 2);
+                }
+                triples[tripleCount * 3] = number(elementStarts[0], elementEnds[0], nodeIdentifiers, nodeNumbers);
+                triples[tripleCount * 3 + 1] = number(elementStarts[1], elementEnds[1], predicateIdentifiers,
+                        predicateNumbers);
+                triples[tripleCount * 3 + 2] = number(elementStarts[2], elementEnds[2] - 1, nodeIdentifiers,
+                        nodeNumbers);
+                tripleCount++;
+            }
+        }
+
+        /**
+         * Records an error for the current line.
+         *
+         * @param message Error message.
+         */
+        private void addError(String message) {
+            errorLineNumbers.add(lineCount);
+            errorMessages.add(message);
+        }
+
+        /**
+         * Returns the number of an identifier, numbering it if it is new.
+         *
+         * @param start Offset of the identifier's first byte.
+         * @param end Offset of the end of the identifier (exclusive).
+         * @param identifiers Identifiers, in number order.
+         * @param numbers Numbers of the identifiers.
+         * @return Identifier number.
+         */
+        private int number(int start, int end, ArrayList<String> identifiers, HashMap<String, Integer> numbers) {
+            if (end - start > characters.length) {
+                characters = new char[end - start];
+            }
+            for (int i = start; i < end; i++) {
+                characters[i - start] = (char) buffer.get(i);
+            }
+            String identifier = new String(characters, 0, end - start);
+            Integer number = numbers.get(identifier);
+            if (number == null) {
+                number = identifiers.size();
+                numbers.put(identifier, number);
+                identifiers.add(identifier);
+            }
+            return number;
+        }
+
+        /**
+         * Returns true if a range of the chunk is a well-formed node or
+         * predicate identifier, that is one or more letters, digits or
+         * underscores (see Node.regex and Predicate.regex).
+         *
+         * @param start Offset of the first byte.
+         * @param end Offset of the end of the range (exclusive).
+         * @return True if the range is a well-formed identifier.
+         */
+        private boolean isIdentifier(int start, int end) {
+            if (start == end) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                byte b = buffer.get(i);
+                if (!(((b >= 'a') && (b <= 'z')) || ((b >= 'A') && (b <= 'Z')) || ((b >= '0') && (b <= '9'))
+                        || (b == '_'))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if a byte separates the elements of a line.
+         *
+         * @param b Byte.
+         * @return True for a space or a tab.
+         */
+        private static boolean isBlank(byte b) {
+            return (b == ' ') || (b == '\t');
+        }
+    }
 }
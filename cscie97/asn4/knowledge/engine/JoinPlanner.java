@@ -0,0 +1,451 @@
+/*
+ * JoinPlanner
+ *
+ * Version 1.0
+ *
+ * September 16, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #1.
+ */
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class plans and executes a conjunctive query over a TripleStore, that
+ * is a list of triple patterns which share named variables, such as
+ *
+ *   ?s has_feature WIFI . ?s has_lat_long 42_-71 .
+ *
+ * Each pattern is encoded as three terms: an ordinal, TripleStore.WILDCARD
+ * for an anonymous ? (which matches anything and is not returned), or
+ * variable(n) for the n-th named variable. The result is the distinct rows
+ * of ordinals of the named variables for which every pattern matches a
+ * triple of the store.
+ *
+ * The planner orders the patterns greedily: it starts with the pattern with
+ * the fewest matching triples, as estimated from the size of its range in
+ * the store's indexes, and then repeatedly takes the pattern with the
+ * fewest matches among those sharing a variable with the patterns already
+ * joined, so that no intermediate result is a cross product unless the
+ * query itself is one. Each pattern is then joined with the rows so far in
+ * one of two ways, chosen on the actual number of rows:
+ *
+ *   index nested loop   each row's variables are substituted into the
+ *                       pattern, which is looked up in the store; used
+ *                       when there are few rows compared with the
+ *                       pattern's matches, or when they share more than
+ *                       one variable
+ *   merge join          the pattern's matches are read once and merged
+ *                       with the rows, both sorted on the variable they
+ *                       share; used otherwise
+ *
+ * so a search such as the one above costs about the size of its smallest
+ * pattern rather than the sum of the sizes of all of them.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class JoinPlanner {
+
+    /**
+     * Triple store the query is executed over.
+     */
+    private final TripleStore tripleStore;
+
+    /**
+     * Terms of each pattern.
+     */
+    private final int[][] patterns;
+
+    /**
+     * Number of named variables.
+     */
+    private final int variableCount;
+
+    /**
+     * Number of ints in a row: one per named variable, and at least one, so
+     * that a query without named variables still has a row when it matches.
+     */
+    private final int width;
+
+    /**
+     * Order in which the patterns are joined, once planned.
+     */
+    private int[] order;
+
+    /**
+     * Constructor.
+     *
+     * @param tripleStore Triple store the query is executed over.
+     * @param patterns Subject, predicate and object terms of each pattern.
+     * @param variableCount Number of named variables.
+     */
+    JoinPlanner(TripleStore tripleStore, int[][] patterns, int variableCount) {
+        this.tripleStore = tripleStore;
+        this.patterns = patterns;
+        this.variableCount = variableCount;
+        this.width = Math.max(variableCount, 1);
+    }
+
+    /**
+     * Returns the term standing for the specified named variable.
+     *
+     * @param index Variable number.
+     * @return Term.
+     */
+    static int variable(int index) {
+        return -2 - index;
+    }
+
+    /**
+     * Returns the number of the named variable a term stands for.
+     *
+     * @param term Term.
+     * @return Variable number, or -1 if the term is an ordinal or
+     * TripleStore.WILDCARD.
+     */
+    private static int variableIndex(int term) {
+        return (term < TripleStore.WILDCARD) ? -2 - term : -1;
+    }
+
+    /**
+     * Returns the order in which the patterns are joined, planning it first
+     * if need be.
+     *
+     * @return Pattern numbers, in join order.
+     */
+    int[] getOrder() {
+        if (order == null) {
+            order = plan();
+        }
+        return order;
+    }
+
+    /**
+     * Orders the patterns: first the one with the fewest estimated matches,
+     * then in turn the one with the fewest among those connected to the
+     * patterns already ordered, that is sharing a variable with them or
+     * having no variable at all.
+     *
+     * @return Pattern numbers, in join order.
+     */
+    private int[] plan() {
+        int[] joinOrder = new int[patterns.length];
+        long[] estimates = new long[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            estimates[i] = count(patterns[i]);
+        }
+        boolean[] planned = new boolean[patterns.length];
+        boolean[] bound = new boolean[variableCount];
+        for (int step = 0; step < patterns.length; step++) {
+            int best = -1;
+            boolean bestConnected = false;
+            for (int i = 0; i < patterns.length; i++) {
+                if (!planned[i]) {
+                    boolean connected = (sharedVariableCount(patterns[i], bound) > 0)
+                            || (variableIndex(patterns[i][0]) < 0) && (variableIndex(patterns[i][1]) < 0)
+                            && (variableIndex(patterns[i][2]) < 0);
+                    if ((best < 0) || (connected && !bestConnected)
+                            || ((connected == bestConnected) && (estimates[i] < estimates[best]))) {
+                        best = i;
+                        bestConnected = connected;
+                    }
+                }
+            }
+            joinOrder[step] = best;
+            planned[best] = true;
+            bind(patterns[best], bound);
+        }
+        return joinOrder;
+    }
+
+    /**
+     * Executes the query.
+     *
+     * @return Distinct rows of the named variables' ordinals, in ascending
+     * order; each row is max(variableCount, 1) ints, and a query without
+     * named variables has one row, holding WILDCARD, if it matches.
+     */
+    int[] execute() {
+        int[] joinOrder = getOrder();
+
+        /*
+         * Start from one row with every variable unbound
+         */
+        int[] rows = new int[width];
+        Arrays.fill(rows, TripleStore.WILDCARD);
+        int rowCount = 1;
+        boolean[] bound = new boolean[variableCount];
+        for (int step = 0; (step < joinOrder.length) && (rowCount > 0); step++) {
+            int[] pattern = patterns[joinOrder[step]];
+            TripleStore.IntList joined = new TripleStore.IntList();
+            int sharedCount = sharedVariableCount(pattern, bound);
+            if (sharedCount == 0) {
+
+                /*
+                 * The pattern's matches are the same for every row
+                 */
+                TripleStore.IntList matches = find(pattern, null, 0);
+                for (int row = 0; row < rowCount; row++) {
+                    for (int match = 0; match < matches.size() / 3; match++) {
+                        addRow(rows, row, pattern, matches, match, joined);
+                    }
+                }
+            } else if ((sharedCount == 1)
+                    && ((long) rowCount * log2(tripleStore.size()) >= count(pattern))) {
+                mergeJoin(rows, rowCount, pattern, bound, joined);
+            } else {
+                for (int row = 0; row < rowCount; row++) {
+                    TripleStore.IntList matches = find(pattern, rows, row);
+                    for (int match = 0; match < matches.size() / 3; match++) {
+                        addRow(rows, row, pattern, matches, match, joined);
+                    }
+                }
+            }
+            bind(pattern, bound);
+            rows = joined.toArray();
+            rowCount = rows.length / width;
+
+            /*
+             * A wildcard can match several triples for the same values of
+             * the variables, so remove the repeated rows it leaves
+             */
+            if ((pattern[0] == TripleStore.WILDCARD) || (pattern[1] == TripleStore.WILDCARD)
+                    || (pattern[2] == TripleStore.WILDCARD)) {
+                rows = distinct(rows, rowCount);
+                rowCount = rows.length / width;
+            }
+        }
+        return distinct(rows, rowCount);
+    }
+
+    /**
+     * Joins a pattern with the rows so far by a merge join on the one
+     * variable they share: the rows and the pattern's matches are both
+     * sorted on that variable, and each group of rows is joined with the
+     * group of matches that has the same value.
+     *
+     * @param rows Rows so far.
+     * @param rowCount Number of rows.
+     * @param pattern Pattern.
+     * @param bound Variables bound in the rows.
+     * @param joined List the joined rows are added to.
+     */
+    private void mergeJoin(int[] rows, int rowCount, int[] pattern, boolean[] bound, TripleStore.IntList joined) {
+        int position = 0;
+        while ((variableIndex(pattern[position]) < 0) || !bound[variableIndex(pattern[position])]) {
+            position++;
+        }
+        int variable = variableIndex(pattern[position]);
+        TripleStore.IntList matches = find(pattern, null, 0);
+        int matchCount = matches.size() / 3;
+
+        /*
+         * Sort both sides as (value, position) pairs packed into longs;
+         * ordinals are never negative
+         */
+        long[] rowKeys = new long[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            rowKeys[row] = ((long) rows[row * width + variable] << 32) | row;
+        }
+        long[] matchKeys = new long[matchCount];
+        for (int match = 0; match < matchCount; match++) {
+            matchKeys[match] = ((long) matches.get(match * 3 + position) << 32) | match;
+        }
+        Arrays.sort(rowKeys);
+        Arrays.sort(matchKeys);
+        int r = 0;
+        int m = 0;
+        while ((r < rowCount) && (m < matchCount)) {
+            long rowValue = rowKeys[r] >>> 32;
+            long matchValue = matchKeys[m] >>> 32;
+            if (rowValue < matchValue) {
+                r++;
+            } else if (rowValue > matchValue) {
+                m++;
+            } else {
+                int matchEnd = m;
+                while ((matchEnd < matchCount) && ((matchKeys[matchEnd] >>> 32) == rowValue)) {
+                    matchEnd++;
+                }
+                while ((r < rowCount) && ((rowKeys[r] >>> 32) == rowValue)) {
+                    for (int i = m; i < matchEnd; i++) {
+                        addRow(rows, (int) rowKeys[r], pattern, matches, (int) matchKeys[i], joined);
+                    }
+                    r++;
+                }
+                m = matchEnd;
+            }
+        }
+    }
+
+    /**
+     * Adds a row joined with a matching triple to a list, unless the triple
+     * gives a variable a value other than the one it already has (as it can
+     * when a variable appears twice in a pattern).
+     *
+     * @param rows Rows.
+     * @param row Row number.
+     * @param pattern Pattern.
+     * @param matches Triples matching the pattern.
+     * @param match Triple number.
+     * @param joined List the joined row is added to.
+     */
+    private void addRow(int[] rows, int row, int[] pattern, TripleStore.IntList matches, int match,
+            TripleStore.IntList joined) {
+        int[] values = Arrays.copyOfRange(rows, row * width, (row + 1) * width);
+        for (int i = 0; i < 3; i++) {
+            int variable = variableIndex(pattern[i]);
+            if (variable >= 0) {
+                int value = matches.get(match * 3 + i);
+                if (values[variable] == TripleStore.WILDCARD) {
+                    values[variable] = value;
+                } else if (values[variable] != value) {
+                    return;
+                }
+            }
+        }
+        for (int i = 0; i < width; i++) {
+            joined.add(values[i]);
+        }
+    }
+
+    /**
+     * Returns the triples matching a pattern, with the values a row gives
+     * its variables substituted.
+     *
+     * @param pattern Pattern.
+     * @param rows Rows, or null to leave every variable a wildcard.
+     * @param row Row number.
+     * @return Subject, predicate and object ordinals of each matching triple.
+     */
+    private TripleStore.IntList find(int[] pattern, int[] rows, int row) {
+        int[] key = new int[3];
+        for (int i = 0; i < 3; i++) {
+            int variable = variableIndex(pattern[i]);
+            if (variable < 0) {
+                key[i] = pattern[i];
+            } else if (rows == null) {
+                key[i] = TripleStore.WILDCARD;
+            } else {
+                key[i] = rows[row * width + variable];
+            }
+        }
+        return tripleStore.find(key[0], key[1], key[2]);
+    }
+
+    /**
+     * Estimates the number of triples matching a pattern, with its variables
+     * taken as wildcards.
+     *
+     * @param pattern Pattern.
+     * @return Estimated number of matching triples.
+     */
+    private int count(int[] pattern) {
+        return tripleStore.count(Math.max(pattern[0], TripleStore.WILDCARD),
+                Math.max(pattern[1], TripleStore.WILDCARD), Math.max(pattern[2], TripleStore.WILDCARD));
+    }
+
+    /**
+     * Returns the number of distinct variables of a pattern that are bound.
+     *
+     * @param pattern Pattern.
+     * @param bound Bound variables.
+     * @return Number of bound variables in the pattern.
+     */
+    private static int sharedVariableCount(int[] pattern, boolean[] bound) {
+        int sharedCount = 0;
+        for (int i = 0; i < 3; i++) {
+            int variable = variableIndex(pattern[i]);
+            if ((variable >= 0) && bound[variable]) {
+                boolean repeated = false;
+                for (int j = 0; j < i; j++) {
+                    repeated = repeated || (pattern[j] == pattern[i]);
+                }
+                if (!repeated) {
+                    sharedCount++;
+                }
+            }
+        }
+        return sharedCount;
+    }
+
+    /**
+     * Marks the variables of a pattern as bound.
+     *
+     * @param pattern Pattern.
+     * @param bound Bound variables.
+     */
+    private static void bind(int[] pattern, boolean[] bound) {
+        for (int i = 0; i < 3; i++) {
+            int variable = variableIndex(pattern[i]);
+            if (variable >= 0) {
+                bound[variable] = true;
+            }
+        }
+    }
+
+    /**
+     * Sorts rows and removes repeated ones.
+     *
+     * @param rows Rows.
+     * @param rowCount Number of rows.
+     * @return Distinct rows, in ascending order.
+     */
+    private int[] distinct(final int[] rows, int rowCount) {
+        Integer[] sorted = new Integer[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            sorted[row] = row;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareRows(rows, a, rows, b);
+            }
+        });
+        int[] distinctRows = new int[rowCount * width];
+        int distinctCount = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if ((distinctCount == 0) || (compareRows(distinctRows, distinctCount - 1, rows, sorted[i]) != 0)) {
+                System.arraycopy(rows, sorted[i] * width, distinctRows, distinctCount * width, width);
+                distinctCount++;
+            }
+        }
+        return Arrays.copyOf(distinctRows, distinctCount * width);
+    }
+
+    /**
+     * Compares two rows, column by column.
+     *
+     * @param rows Rows holding the first row.
+     * @param a First row number.
+     * @param otherRows Rows holding the second row.
+     * @param b Second row number.
+     * @return Negative, zero or positive as the first row is less than, equal
+     * to or greater than the second.
+     */
+    private int compareRows(int[] rows, int a, int[] otherRows, int b) {
+        for (int i = 0; i < width; i++) {
+            int comparison = Integer.compare(rows[a * width + i], otherRows[b * width + i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of bits needed to write a number, as an estimate of
+     * the cost of a lookup in an index of that many triples.
+     *
+     * @param n Number.
+     * @return Number of bits.
+     */
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+}
@@ -11,8 +11,12 @@
  */
 package cscie97.asn4.knowledge.engine;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -21,9 +25,13 @@ import java.util.Set;
  * information from input "triples" consisting of a subject, predicate and object
  * where the subject and object are both saved as graph nodes.
  * 
- * The graph also maintains a set of potential queries and triple sets that match
- * those queries. These are computed in advance in order to vastly improve
- * query performance.
+ * Each node and predicate is assigned an int ordinal when it is first seen,
+ * and triples are stored in a TripleStore as three ordinals, in sorted
+ * permutation indexes, rather than as Triple objects. A query with any
+ * combination of wildcards is answered by one range scan of one index, and
+ * the Triple objects it returns are created from the matching ordinals.
+ * Conjunctive queries, lists of patterns sharing named variables, are
+ * planned and joined over the encoded triples by a JoinPlanner.
  * 
  * KnowledgeGraph is implemented as a singleton, more specifically the
  * "Initialization-on-demand holder idiom" singleton as described in the
@@ -36,6 +44,11 @@ import java.util.Set;
  */
 public class KnowledgeGraph {
 
+    /**
+     * Identifier standing for any subject, predicate or object in a query.
+     */
+    private static final String WILDCARD = "?";
+
     /**
      * Set of nodes in the knowledge graph.
      */
@@ -45,16 +58,21 @@ public class KnowledgeGraph {
      * Set of predicates in the knowledge graph.
      */
     private PredicateMap predicateMap = new PredicateMap();
-    
+
     /**
-     * Set of triples in the knowledge graph.
+     * Nodes in the knowledge graph, indexed by ordinal.
      */
-    private TripleMap tripleMap = new TripleMap();
+    private ArrayList<Node> nodes = new ArrayList<Node>();
+
+    /**
+     * Predicates in the knowledge graph, indexed by ordinal.
+     */
+    private ArrayList<Predicate> predicates = new ArrayList<Predicate>();
     
     /**
-     * Set of pre-computed queries/triple matches over knowledge graph.
+     * Dictionary-encoded triples in the knowledge graph.
      */
-    private QuerySetMap queryMapSet = new QuerySetMap();
+    private TripleStore tripleStore = new TripleStore();
     
     /*
      * Private hidden singleton constructor.
@@ -82,69 +100,184 @@ public class KnowledgeGraph {
     }
 
     /**
-     * Creates new node, predicate and triple objects, if necessary, for the 
-     * triple that is input as subject, predicate and object identifiers,
-     * and updates class maps, including adding possible queryMapSet queries that would return
-     * that tripleand adding the given triple as a match for the related queries
-     * in that map.
+     * Creates new node and predicate objects, if necessary, for the triple
+     * that is input as subject, predicate and object identifiers, and adds
+     * the triple (encoded as their ordinals) to the triple store, unless it
+     * is already there.
      * 
      * @param subject Triple subject.
      * @param predicate Triple predicate.
      * @param object Triple object.
      */
     public void importTriple(String subject, String predicate, String object) {
+        tripleStore.add(getNode(subject).getOrdinal(), getPredicate(predicate).getOrdinal(),
+                getNode(object).getOrdinal());
+    }
 
-        /*
-         * Add subject, predicate and object as well as actual triple
-         */
-        Triple triple = getTriple(getNode(subject), getPredicate(predicate), getNode(object));
+    /**
+     * Adds a batch of triples, encoded as the ordinals of their subject,
+     * predicate and object Node and Predicate objects, to the triple store,
+     * skipping those already there. Used by the Importer's bulk import.
+     * 
+     * @param triples Subject, predicate and object ordinals of each triple
+     * (overwritten).
+     * @param count Number of triples.
+     */
+    void importTriples(int[] triples, int count) {
+        tripleStore.addAll(triples, count);
+    }
 
-        /*
-         * Updates queryMapSet of pre-computed queries/triple matches, also 
-         * pre-computing queries that include ? wildcards
-         */
-        updateQueryMapSet(subject + " " + predicate + " " + object, triple);
-        updateQueryMapSet("? " + predicate + " " + object, triple);
-        updateQueryMapSet(subject + " ? " + object, triple);
-        updateQueryMapSet(subject + " " + predicate + " ?", triple);
-        updateQueryMapSet("? ? " + object, triple);
-        updateQueryMapSet("? " + predicate + " ?", triple);
-        updateQueryMapSet(subject + " ? ?", triple);
-        updateQueryMapSet("? ? ?", triple);
+    /**
+     * Returns the number of triples in the triple store.
+     * 
+     * @return Number of triples.
+     */
+    int getTripleCount() {
+        return tripleStore.size();
     }
 
     /**
-     * Updates queryMapSet of pre-computed queries/triple matches
+     * Executes given query. Any of the query's subject, predicate and object
+     * may be the ? wildcard.
      * 
-     * @param identifier Query string identifier
-     * @param triple Matching triple
+     * @param query Triple object.
+     * @return Set of triples which match input query (null if none match).
      */
-    public void updateQueryMapSet(String identifier, Triple triple) {
-        if (queryMapSet.get(identifier) == null) {
-            queryMapSet.put(identifier, new HashSet<Triple>());
-            queryMapSet.get(identifier).add(triple);
-        } else {
-            if (!queryMapSet.get(identifier).contains(triple)) {
-               queryMapSet.get(identifier).add(triple);
+    public Set<Triple> executeQuery(Triple query) {
+
+        /*
+         * Encode the query; an identifier the graph has never seen matches
+         * no triple
+         */
+        int subject = TripleStore.WILDCARD;
+        int predicate = TripleStore.WILDCARD;
+        int object = TripleStore.WILDCARD;
+        if (!query.getSubject().getIdentifier().equals(WILDCARD)) {
+            Node node = nodeMap.get(query.getSubject().getIdentifier());
+            if (node == null) {
+                return null;
+            }
+            subject = node.getOrdinal();
+        }
+        if (!query.getPredicate().getIdentifier().equals(WILDCARD)) {
+            Predicate queryPredicate = predicateMap.get(query.getPredicate().getIdentifier());
+            if (queryPredicate == null) {
+                return null;
             }
+            predicate = queryPredicate.getOrdinal();
         }
+        if (!query.getObject().getIdentifier().equals(WILDCARD)) {
+            Node node = nodeMap.get(query.getObject().getIdentifier());
+            if (node == null) {
+                return null;
+            }
+            object = node.getOrdinal();
+        }
+
+        /*
+         * Decode the matching triples
+         */
+        TripleStore.IntList matches = tripleStore.find(subject, predicate, object);
+        if (matches.size() == 0) {
+            return null;
+        }
+        HashSet<Triple> triples = new HashSet<Triple>(matches.size() * 4 / 9 + 1);
+        for (int i = 0; i < matches.size(); i += 3) {
+            triples.add(new Triple(nodes.get(matches.get(i)), predicates.get(matches.get(i + 1)),
+                    nodes.get(matches.get(i + 2))));
+        }
+        return triples;
     }
-    
 
     /**
-     * Executes given query
+     * Executes a conjunctive query: a list of patterns whose subjects,
+     * predicates and objects may be the ? wildcard or named variables such
+     * as ?s, which must have the same value in every pattern they appear
+     * in. For example, the patterns
      * 
-     * @param query Triple object.
-     * @return Set of triples which match input query.
+     * ?s has_feature WIFI
+     * ?s has_lat_long 42_-71
+     * 
+     * find the subjects with both a WIFI feature and that location. A
+     * variable stands either for nodes or for predicates, so one used both
+     * as a predicate and as a subject or object matches nothing.
+     * 
+     * @param patterns Triple objects holding the query's patterns.
+     * @return Distinct solutions, each mapping the named variables (with
+     * their ?) to the identifiers they stand for, in the order the variables
+     * first appear (null if there is no solution). A query without named
+     * variables has one empty solution if it matches.
      */
-    public Set<Triple> executeQuery(Triple query) {
-        return queryMapSet.get(query.getIdentifier());
-     }
+    public List<Map<String, String>> executeQuery(List<Triple> patterns) {
+
+        /*
+         * Number the named variables and encode the patterns; a constant
+         * the graph has never seen matches no triple
+         */
+        ArrayList<String> variables = new ArrayList<String>();
+        HashMap<String, Boolean> predicateVariables = new HashMap<String, Boolean>();
+        int[][] encodedPatterns = new int[patterns.size()][];
+        for (int i = 0; i < patterns.size(); i++) {
+            String[] identifiers = {patterns.get(i).getSubject().getIdentifier(),
+                patterns.get(i).getPredicate().getIdentifier(), patterns.get(i).getObject().getIdentifier()};
+            encodedPatterns[i] = new int[3];
+            for (int j = 0; j < 3; j++) {
+                String identifier = identifiers[j];
+                if (identifier.equals(WILDCARD)) {
+                    encodedPatterns[i][j] = TripleStore.WILDCARD;
+                } else if (identifier.startsWith(WILDCARD)) {
+                    Boolean isPredicate = predicateVariables.get(identifier);
+                    if (isPredicate == null) {
+                        variables.add(identifier);
+                        predicateVariables.put(identifier, j == TripleStore.PREDICATE);
+                    } else if (isPredicate != (j == TripleStore.PREDICATE)) {
+                        return null;
+                    }
+                    encodedPatterns[i][j] = JoinPlanner.variable(variables.indexOf(identifier));
+                } else if (j == TripleStore.PREDICATE) {
+                    Predicate predicate = predicateMap.get(identifier);
+                    if (predicate == null) {
+                        return null;
+                    }
+                    encodedPatterns[i][j] = predicate.getOrdinal();
+                } else {
+                    Node node = nodeMap.get(identifier);
+                    if (node == null) {
+                        return null;
+                    }
+                    encodedPatterns[i][j] = node.getOrdinal();
+                }
+            }
+        }
+
+        /*
+         * Decode the solutions
+         */
+        int[] rows = new JoinPlanner(tripleStore, encodedPatterns, variables.size()).execute();
+        if (rows.length == 0) {
+            return null;
+        }
+        int width = Math.max(variables.size(), 1);
+        ArrayList<Map<String, String>> solutions = new ArrayList<Map<String, String>>(rows.length / width);
+        for (int row = 0; row < rows.length; row += width) {
+            LinkedHashMap<String, String> solution = new LinkedHashMap<String, String>();
+            for (int i = 0; i < variables.size(); i++) {
+                String variable = variables.get(i);
+                if (predicateVariables.get(variable)) {
+                    solution.put(variable, predicates.get(rows[row + i]).getIdentifier());
+                } else {
+                    solution.put(variable, nodes.get(rows[row + i]).getIdentifier());
+                }
+            }
+            solutions.add(solution);
+        }
+        return solutions;
+    }
 
     /**
      * Returns Node object with given identifier. If a node with that identifier
-     * doesn't already exist, the method creates a new Node object and updates
-     * the class nodeMap.
+     * doesn't already exist, the method creates a new Node object, with the
+     * next node ordinal, and updates the class nodeMap.
      * 
      * @param identifier
      * @return Node object.
@@ -152,16 +285,17 @@ public class KnowledgeGraph {
     public Node getNode(String identifier) {
         Node node = nodeMap.get(identifier);
         if (node == null) {
-            node = new Node(identifier);
+            node = new Node(identifier, nodes.size());
             nodeMap.put(identifier, node);
+            nodes.add(node);
         }
         return node;
     }
 
     /**
      * Returns Predicate object with given identifier. If a predicate with that identifier
-     * doesn't already exist, the method creates a new Predicate object and updates
-     * the class predicateMap.
+     * doesn't already exist, the method creates a new Predicate object, with
+     * the next predicate ordinal, and updates the class predicateMap.
      * 
      * @param identifier
      * @return Predicate object.
@@ -169,16 +303,18 @@ public class KnowledgeGraph {
     public Predicate getPredicate(String identifier) {
         Predicate predicate = predicateMap.get(identifier);
         if (predicate == null) {
-            predicate = new Predicate(identifier);
+            predicate = new Predicate(identifier, predicates.size());
             predicateMap.put(identifier, predicate);
+            predicates.add(predicate);
         }
         return predicate;
     }
 
     /**
-     * Returns Triple object with given Node (subject and object) and Predicate
-     * objects. If a triple with those elements doesn't already exist, the method
-     * creates a new Triple object and updates the class tripleMap.
+     * Returns a Triple object with given Node (subject and object) and
+     * Predicate objects, for use as a query or to describe a stored triple.
+     * Triples are stored encoded, so a new Triple object is returned on each
+     * call.
      * 
      * @param subject Node object.
      * @param predicate Predicate object.
@@ -186,24 +322,14 @@ public class KnowledgeGraph {
      * @return Triple object matching input parameters.
      */
     public Triple getTriple(Node subject, Predicate predicate, Node object) {
-
-        String tripleMapIdentifier = subject.getIdentifier() + " "
-                + predicate.getIdentifier() + " "
-                + object.getIdentifier();
-
-        Triple triple = tripleMap.get(tripleMapIdentifier);
-        if (triple == null) {
-            triple = new Triple(subject.getIdentifier().concat(" ").concat(predicate.getIdentifier()).concat(" ").concat(object.getIdentifier()), 
-                    subject, predicate, object);
-            tripleMap.put(tripleMapIdentifier, triple);
-        }
-        return triple;
+        return new Triple(subject.getIdentifier().concat(" ").concat(predicate.getIdentifier()).concat(" ")
+                .concat(object.getIdentifier()), subject, predicate, object);
     }
 
     /**
-     * Returns Triple object with given identifiers. If a triple with that identifier
-     * doesn't already exist, the method creates a new Triple object and updates
-     * the class tripleMap.
+     * Returns a Triple object with given identifiers, for use as a query or
+     * to describe a stored triple, creating its Node and Predicate objects if
+     * necessary.
      * 
      * @param subjectIdentifier String identifier for subject Node.
      * @param predicateIdentifier String identifier for Predicate object.
@@ -211,51 +337,36 @@ public class KnowledgeGraph {
      * @return Triple object matching input parameters.
      */
     public Triple getTriple(String subjectIdentifier, String  predicateIdentifier, String objectIdentifier) {
+        return getTriple(getNode(subjectIdentifier), getPredicate(predicateIdentifier), getNode(objectIdentifier));
+    }
 
-        String tripleMapIdentifier = subjectIdentifier + " "
-                + predicateIdentifier + " "
-                + objectIdentifier;
-
-        Triple triple = tripleMap.get(tripleMapIdentifier);
-        if (triple == null) {
-            triple = new Triple(subjectIdentifier.concat(" ").concat(predicateIdentifier).concat(" ").concat(objectIdentifier), 
-                    getNode(subjectIdentifier), getPredicate(predicateIdentifier), getNode(objectIdentifier));
-            tripleMap.put(tripleMapIdentifier, triple);
-        }
-        return triple;
+    /**
+     * Returns a Triple object with given identifiers for use as a query
+     * pattern, without creating Node or Predicate objects in the graph.
+     * Queries name wild cards, variables and identifiers the graph may never
+     * have seen, none of which should be added to the graph, whose Node and
+     * Predicate ordinals are never reclaimed; executeQuery looks the
+     * identifiers up, and one the graph has never seen matches no triple.
+     * 
+     * @param subjectIdentifier String identifier for subject Node.
+     * @param predicateIdentifier String identifier for Predicate object.
+     * @param objectIdentifier String identifier for object Node.
+     * @return Triple object matching input parameters.
+     */
+    public Triple getQueryTriple(String subjectIdentifier, String predicateIdentifier, String objectIdentifier) {
+        return getTriple(new Node(subjectIdentifier), new Predicate(predicateIdentifier), new Node(objectIdentifier));
     }
     
     /**
      * Removes the specified subject from the KnowledgeGraph, by deleting all
-     * Triples that contain that subject from the tripleMap and deleting all
-     * queries that map to triples containing the subject from the map of
-     * pre-formed queries/corresponding triple sets.
+     * triples that contain that subject from the triple store.
      * 
      * @param subjectIdentifier Description of subject to be deleted.
      */
     public void removeSubjectFromKnowledgeGraph(String subjectIdentifier) {
-        
-        /**
-         * Remove triples that start with subject from triple map.
-         */
-        Object[] tripleKeys = tripleMap.keySet().toArray();
-        for (int i = 0; i < tripleKeys.length; i++) {
-            String currentKey = (String) tripleKeys[i];
-            if (currentKey.startsWith(subjectIdentifier + " ")) {
-                tripleMap.remove(currentKey);
-            }
-        }
-        
-        Object[] queryMapSetKeys = queryMapSet.keySet().toArray();
-        for (int i = 0; i < queryMapSetKeys.length; i++) {
-            HashSet<Triple> tripleSet = queryMapSet.get(queryMapSetKeys[i]);
-            Iterator<Triple> iterator = tripleSet.iterator();
-            while (iterator.hasNext()) {
-                Triple currentTriple = iterator.next();
-                if (currentTriple.getSubject().getIdentifier().equals(subjectIdentifier)) {
-                    iterator.remove();
-                }
-            }
+        Node subject = nodeMap.get(subjectIdentifier);
+        if (subject != null) {
+            tripleStore.removeSubject(subject.getOrdinal());
         }
     }
 }
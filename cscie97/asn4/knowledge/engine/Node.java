@@ -29,6 +29,12 @@ public class Node {
      * Node identifier.
      */
     private String identifier;
+
+    /**
+     * Ordinal assigned by the KnowledgeGraph (-1 if the node is not part of
+     * the graph).
+     */
+    private int ordinal;
     
     /**
      * Constructor, takes String identifier for node.
@@ -36,7 +42,18 @@ public class Node {
      * @param Given node identifier.
      */
     public Node(String identifier) {
+        this(identifier, -1);
+    }
+
+    /**
+     * Constructor, takes String identifier and KnowledgeGraph ordinal for node.
+     * 
+     * @param identifier Given node identifier.
+     * @param ordinal Ordinal assigned by the KnowledgeGraph.
+     */
+    Node(String identifier, int ordinal) {
         this.identifier = identifier;
+        this.ordinal = ordinal;
     }
     
     /**
@@ -47,4 +64,14 @@ public class Node {
     public String getIdentifier() {
         return identifier;
     }
+
+    /**
+     * Returns the ordinal the KnowledgeGraph assigned to this node, which
+     * encodes it in the graph's triple store.
+     * 
+     * @return Node ordinal (-1 if not part of the graph).
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
 }
@@ -0,0 +1,645 @@
+/*
+ * PermutationIndex
+ *
+ * Version 1.0
+ *
+ * September 16, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #1.
+ */
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Arrays;
+
+/**
+ * This class is one sorted index of the triples in a TripleStore, such as
+ * subject-predicate-object. Each triple is stored as three consecutive ints
+ * in the index's own element order, and the triples are sorted on their
+ * first, then second, then third element, so the triples matching any
+ * prefix of that order (the first element, or the first two) are one
+ * contiguous range, found by binary search. The search starts in a sample
+ * of every thirty-second triple, which is small enough to stay in the
+ * cache, and ends in the thirty-two triples the sample narrows it to.
+ *
+ * New triples are inserted in a small sorted delta rather than in the main
+ * array, so an insert moves at most the delta; the TripleStore merges the
+ * delta into the main array once it has grown past a threshold. Lookups
+ * search both.
+ *
+ * Triples removed from the main array are only marked as removed, and are
+ * dropped when the delta is next merged, so a removal costs a binary search
+ * rather than a move of the rest of the array. Adding a removed triple again
+ * clears its mark.
+ *
+ * A large batch of triples, such as one from a bulk import, is instead
+ * sorted on its own and merged into the main array in one pass.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class PermutationIndex {
+
+    /**
+     * Number of triples of main per fence.
+     */
+    private static final int FENCE_INTERVAL = 32;
+
+    /**
+     * Column (TripleStore.SUBJECT, PREDICATE or OBJECT) sorted on first.
+     */
+    private final int first;
+
+    /**
+     * Column sorted on second.
+     */
+    private final int second;
+
+    /**
+     * Column sorted on third.
+     */
+    private final int third;
+
+    /**
+     * Triples in index order, three ints each.
+     */
+    private int[] main = new int[0];
+
+    /**
+     * Number of triples in main.
+     */
+    private int mainSize = 0;
+
+    /**
+     * Every FENCE_INTERVAL-th triple of main, three ints each, so that a
+     * search of main starts in an array small enough to stay in the cache.
+     */
+    private int[] fences = new int[0];
+
+    /**
+     * Number of triples in fences.
+     */
+    private int fenceCount = 0;
+
+    /**
+     * Recently added triples, in index order, three ints each.
+     */
+    private int[] delta = new int[48];
+
+    /**
+     * Number of triples in delta.
+     */
+    private int deltaSize = 0;
+
+    /**
+     * Bit set of the positions of the main array's triples that have been
+     * removed, one bit per triple.
+     */
+    private long[] removedTriples = new long[0];
+
+    /**
+     * Number of removed triples in main.
+     */
+    private int removedCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param first Column sorted on first.
+     * @param second Column sorted on second.
+     * @param third Column sorted on third.
+     */
+    PermutationIndex(int first, int second, int third) {
+        this.first = first;
+        this.second = second;
+        this.third = third;
+    }
+
+    /**
+     * Returns true if the index holds the specified triple.
+     *
+     * @param triple Subject, predicate and object ordinals.
+     * @return True if the triple is indexed.
+     */
+    boolean contains(int[] triple) {
+        int position = indexOf(main, mainSize, triple);
+        if ((position >= 0) && !isRemoved(removedTriples, position)) {
+            return true;
+        }
+        return indexOf(delta, deltaSize, triple) >= 0;
+    }
+
+    /**
+     * Inserts a triple in the delta.
+     *
+     * @param triple Subject, predicate and object ordinals.
+     */
+    void insert(int[] triple) {
+        if (deltaSize * 3 == delta.length) {
+            int[] newDelta = new int[delta.length * 2];
+            System.arraycopy(delta, 0, newDelta, 0, deltaSize * 3);
+            delta = newDelta;
+        }
+        int position = upperBound(delta, 0, deltaSize, triple[first], triple[second], triple[third]);
+        System.arraycopy(delta, position * 3, delta, position * 3 + 3, (deltaSize - position) * 3);
+        delta[position * 3] = triple[first];
+        delta[position * 3 + 1] = triple[second];
+        delta[position * 3 + 2] = triple[third];
+        deltaSize++;
+    }
+
+    /**
+     * Clears the removed mark of a triple of the main array.
+     *
+     * @param triple Subject, predicate and object ordinals.
+     * @return True if the triple was in the main array and marked as removed.
+     */
+    boolean revive(int[] triple) {
+        int position = indexOf(main, mainSize, triple);
+        if ((position >= 0) && isRemoved(removedTriples, position)) {
+            removedTriples[position >>> 6] &= ~(1L << position);
+            removedCount--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a triple, by marking it as removed if it is in the main array
+     * or by deleting it from the delta.
+     *
+     * @param triple Subject, predicate and object ordinals.
+     * @return True if the triple was removed.
+     */
+    boolean remove(int[] triple) {
+        int position = indexOf(main, mainSize, triple);
+        if ((position >= 0) && !isRemoved(removedTriples, position)) {
+            removedTriples[position >>> 6] |= 1L << position;
+            removedCount++;
+            return true;
+        }
+        position = indexOf(delta, deltaSize, triple);
+        if (position >= 0) {
+            System.arraycopy(delta, position * 3 + 3, delta, position * 3, (deltaSize - position - 1) * 3);
+            deltaSize--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes every triple whose first element is the specified one, and
+     * adds them to a list, as subject, predicate and object ordinals. The
+     * triples are one range of the main array and one of the delta, so they
+     * are removed without looking each of them up.
+     *
+     * @param firstElement First element.
+     * @param removed List the removed triples are added to.
+     */
+    void removeAll(int firstElement, TripleStore.IntList removed) {
+        int from = search(main, mainSize, firstElement, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        int to = upperBound(main, from, mainSize, firstElement, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        addTriples(main, from, to, removedTriples, removed);
+        for (int position = from; position < to; position++) {
+            if (!isRemoved(removedTriples, position)) {
+                removedTriples[position >>> 6] |= 1L << position;
+                removedCount++;
+            }
+        }
+        from = search(delta, deltaSize, firstElement, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        to = upperBound(delta, from, deltaSize, firstElement, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        addTriples(delta, from, to, null, removed);
+        System.arraycopy(delta, to * 3, delta, from * 3, (deltaSize - to) * 3);
+        deltaSize -= to - from;
+    }
+
+    /**
+     * Merges the delta into the main array, dropping the removed triples.
+     */
+    void merge() {
+        if ((deltaSize == 0) && (removedCount == 0)) {
+            return;
+        }
+        int[] merged = new int[(mainSize - removedCount + deltaSize) * 3];
+        int m = 0;
+        int d = 0;
+        int i = 0;
+        while (m < mainSize * 3) {
+            if (isRemoved(removedTriples, m / 3)) {
+                m += 3;
+            } else if ((d < deltaSize * 3) && (compare(delta, d, main[m], main[m + 1], main[m + 2]) < 0)) {
+                merged[i++] = delta[d++];
+                merged[i++] = delta[d++];
+                merged[i++] = delta[d++];
+            } else {
+                merged[i++] = main[m++];
+                merged[i++] = main[m++];
+                merged[i++] = main[m++];
+            }
+        }
+        System.arraycopy(delta, d, merged, i, deltaSize * 3 - d);
+        deltaSize = 0;
+        setMain(merged, merged.length / 3);
+    }
+
+    /**
+     * Merges a batch of triples into the main array in one pass, after
+     * merging the delta, skipping the triples the index already holds and
+     * the repeats within the batch. The triples that were added replace the
+     * batch, in the order of the index.
+     *
+     * @param triples Subject, predicate and object ordinals of each triple.
+     * @param count Number of triples.
+     * @return Number of triples added, which are left at the start of
+     * triples.
+     */
+    int mergeBatch(int[] triples, int count) {
+        merge();
+        int[] batch = new int[count * 3];
+        for (int i = 0; i < count * 3; i += 3) {
+            batch[i] = triples[i + first];
+            batch[i + 1] = triples[i + second];
+            batch[i + 2] = triples[i + third];
+        }
+        sort(batch, 0, count);
+        int[] merged = new int[(mainSize + count) * 3];
+        int m = 0;
+        int b = 0;
+        int i = 0;
+        int added = 0;
+        while (b < count * 3) {
+            int comparison = (m < mainSize * 3) ? compare(main, m, batch[b], batch[b + 1], batch[b + 2]) : 1;
+            if (comparison < 0) {
+                merged[i++] = main[m++];
+                merged[i++] = main[m++];
+                merged[i++] = main[m++];
+            } else if ((comparison == 0)
+                    || ((i > 0) && (compare(merged, i - 3, batch[b], batch[b + 1], batch[b + 2]) == 0))) {
+                b += 3;
+            } else {
+                triples[added * 3 + first] = batch[b];
+                triples[added * 3 + second] = batch[b + 1];
+                triples[added * 3 + third] = batch[b + 2];
+                added++;
+                merged[i++] = batch[b++];
+                merged[i++] = batch[b++];
+                merged[i++] = batch[b++];
+            }
+        }
+        System.arraycopy(main, m, merged, i, mainSize * 3 - m);
+        i += mainSize * 3 - m;
+        setMain((i < merged.length) ? Arrays.copyOf(merged, i) : merged, i / 3);
+        return added;
+    }
+
+    /**
+     * Replaces the main array, which has no removed triples, and samples its
+     * fences.
+     *
+     * @param triples New main array.
+     * @param size Number of triples.
+     */
+    private void setMain(int[] triples, int size) {
+        main = triples;
+        mainSize = size;
+        fenceCount = (mainSize + FENCE_INTERVAL - 1) / FENCE_INTERVAL;
+        fences = new int[fenceCount * 3];
+        for (int fence = 0; fence < fenceCount; fence++) {
+            System.arraycopy(main, fence * FENCE_INTERVAL * 3, fences, fence * 3, 3);
+        }
+        removedTriples = new long[(mainSize + 63) >>> 6];
+        removedCount = 0;
+    }
+
+    /**
+     * Returns the number of triples in the index.
+     *
+     * @return Number of triples.
+     */
+    int size() {
+        return mainSize - removedCount + deltaSize;
+    }
+
+    /**
+     * Returns the number of triples added to the delta or marked as removed
+     * since the last merge.
+     *
+     * @return Number of pending changes.
+     */
+    int getPendingCount() {
+        return deltaSize + removedCount;
+    }
+
+    /**
+     * Adds the triples whose first element (and second element, unless it is
+     * TripleStore.WILDCARD) match the specified ones to a list, as subject,
+     * predicate and object ordinals.
+     *
+     * @param firstElement First element.
+     * @param secondElement Second element, or TripleStore.WILDCARD.
+     * @param matches List the matching triples are added to.
+     */
+    void find(int firstElement, int secondElement, TripleStore.IntList matches) {
+        findRange(main, mainSize, removedTriples, firstElement, secondElement, matches);
+        findRange(delta, deltaSize, null, firstElement, secondElement, matches);
+    }
+
+    /**
+     * Estimates the number of triples whose first element (and second
+     * element, unless it is TripleStore.WILDCARD) match the specified ones,
+     * from the size of their range, without reading the triples. Triples
+     * marked as removed are still counted, so the estimate may be a little
+     * high.
+     *
+     * @param firstElement First element.
+     * @param secondElement Second element, or TripleStore.WILDCARD.
+     * @return Estimated number of matching triples.
+     */
+    int count(int firstElement, int secondElement) {
+        return findRange(main, mainSize, null, firstElement, secondElement, null)
+                + findRange(delta, deltaSize, null, firstElement, secondElement, null);
+    }
+
+    /**
+     * Adds every triple to a list, as subject, predicate and object ordinals.
+     *
+     * @param matches List the triples are added to.
+     */
+    void findAll(TripleStore.IntList matches) {
+        addTriples(main, 0, mainSize, removedTriples, matches);
+        addTriples(delta, 0, deltaSize, null, matches);
+    }
+
+    /**
+     * This method implements find for one sorted array.
+     *
+     * @param triples Sorted triples.
+     * @param size Number of triples.
+     * @param removed Positions of removed triples, or null.
+     * @param firstElement First element.
+     * @param secondElement Second element, or TripleStore.WILDCARD.
+     * @param matches List the matching triples are added to, or null to
+     * only measure their range.
+     * @return Size of the range of matching triples.
+     */
+    private int findRange(int[] triples, int size, long[] removed, int firstElement, int secondElement,
+            TripleStore.IntList matches) {
+        int from;
+        int to;
+        if (secondElement == TripleStore.WILDCARD) {
+            from = search(triples, size, firstElement, Integer.MIN_VALUE, Integer.MIN_VALUE);
+            to = upperBound(triples, from, size, firstElement, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        } else {
+            from = search(triples, size, firstElement, secondElement, Integer.MIN_VALUE);
+            to = upperBound(triples, from, size, firstElement, secondElement, Integer.MAX_VALUE);
+        }
+        if (matches != null) {
+            addTriples(triples, from, to, removed, matches);
+        }
+        return to - from;
+    }
+
+    /**
+     * Returns the position of a triple in a sorted array, whether or not it
+     * is marked as removed.
+     *
+     * @param triples Sorted triples.
+     * @param size Number of triples.
+     * @param triple Subject, predicate and object ordinals.
+     * @return Position of the triple, or -1 if the array does not hold it.
+     */
+    private int indexOf(int[] triples, int size, int[] triple) {
+        int position = search(triples, size, triple[first], triple[second], triple[third]);
+        if ((position < size)
+                && (compare(triples, position * 3, triple[first], triple[second], triple[third]) == 0)) {
+            return position;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a range of triples to a list, as subject, predicate and object
+     * ordinals.
+     *
+     * @param triples Triples in index order.
+     * @param from First triple.
+     * @param to Last triple (exclusive).
+     * @param removed Positions of removed triples, which are skipped, or null.
+     * @param matches List the triples are added to.
+     */
+    private void addTriples(int[] triples, int from, int to, long[] removed, TripleStore.IntList matches) {
+        int[] triple = new int[3];
+        for (int i = from; i < to; i++) {
+            if ((removed == null) || !isRemoved(removed, i)) {
+                triple[first] = triples[i * 3];
+                triple[second] = triples[i * 3 + 1];
+                triple[third] = triples[i * 3 + 2];
+                matches.add(triple[TripleStore.SUBJECT]);
+                matches.add(triple[TripleStore.PREDICATE]);
+                matches.add(triple[TripleStore.OBJECT]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a position is set in a bit set of removed triples.
+     *
+     * @param removed Bit set of removed triples.
+     * @param position Position of a triple.
+     * @return True if the triple has been removed.
+     */
+    private static boolean isRemoved(long[] removed, int position) {
+        return (removed[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /**
+     * Returns the first position in main or in the delta whose triple is not
+     * less than the specified key. A search of main first finds the fences
+     * the key falls between, and then searches only the triples between
+     * them.
+     *
+     * @param triples Main or delta.
+     * @param size Number of triples.
+     * @param key0 First element of the key.
+     * @param key1 Second element of the key.
+     * @param key2 Third element of the key.
+     * @return Position.
+     */
+    private int search(int[] triples, int size, int key0, int key1, int key2) {
+        if (triples != main) {
+            return lowerBound(triples, 0, size, key0, key1, key2);
+        }
+        int fence = lowerBound(fences, 0, fenceCount, key0, key1, key2);
+        int from = (fence == 0) ? 0 : ((fence - 1) * FENCE_INTERVAL + 1);
+        return lowerBound(main, from, Math.min(fence * FENCE_INTERVAL, mainSize), key0, key1, key2);
+    }
+
+    /**
+     * Returns the first position in a sorted range whose triple is not less
+     * than the specified key.
+     *
+     * @param triples Sorted triples.
+     * @param from Start of the range.
+     * @param to End of the range (exclusive).
+     * @param key0 First element of the key.
+     * @param key1 Second element of the key.
+     * @param key2 Third element of the key.
+     * @return Position.
+     */
+    private static int lowerBound(int[] triples, int from, int to, int key0, int key1, int key2) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (compare(triples, middle * 3, key0, key1, key2) < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Returns the first position in a sorted range whose triple is greater
+     * than the specified key.
+     *
+     * @param triples Sorted triples.
+     * @param from Start of the range.
+     * @param to End of the range (exclusive).
+     * @param key0 First element of the key.
+     * @param key1 Second element of the key.
+     * @param key2 Third element of the key.
+     * @return Position.
+     */
+    private static int upperBound(int[] triples, int from, int to, int key0, int key1, int key2) {
+
+        /*
+         * Matching ranges are usually short, so gallop from the start of the
+         * range before bisecting
+         */
+        int step = 1;
+        while ((from + step < to) && (compare(triples, (from + step) * 3, key0, key1, key2) <= 0)) {
+            from += step + 1;
+            step <<= 1;
+        }
+        to = Math.min(to, from + step);
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (compare(triples, middle * 3, key0, key1, key2) <= 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Sorts a range of triples, by quicksort with three-way partitioning
+     * (so that runs of equal triples cost nothing more) and insertion sort
+     * for short ranges.
+     *
+     * @param triples Triples.
+     * @param from First triple.
+     * @param to Last triple (exclusive).
+     */
+    private static void sort(int[] triples, int from, int to) {
+        while (to - from > 16) {
+
+            /*
+             * Partition around the median of the first, middle and last
+             * triples into less than, equal to and greater than it, then
+             * sort the smaller side recursively and the larger one in turn
+             */
+            int pivot = median(triples, from, (from + to) >>> 1, to - 1);
+            int key0 = triples[pivot * 3];
+            int key1 = triples[pivot * 3 + 1];
+            int key2 = triples[pivot * 3 + 2];
+            int less = from;
+            int greater = to;
+            int i = from;
+            while (i < greater) {
+                int comparison = compare(triples, i * 3, key0, key1, key2);
+                if (comparison < 0) {
+                    swap(triples, less++, i++);
+                } else if (comparison > 0) {
+                    swap(triples, i, --greater);
+                } else {
+                    i++;
+                }
+            }
+            if ((less - from) < (to - greater)) {
+                sort(triples, from, less);
+                from = greater;
+            } else {
+                sort(triples, greater, to);
+                to = less;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; (j > from) && (compare(triples, (j - 1) * 3, triples[j * 3], triples[j * 3 + 1],
+                    triples[j * 3 + 2]) > 0); j--) {
+                swap(triples, j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the median of three triples.
+     *
+     * @param triples Triples.
+     * @param a Position of the first triple.
+     * @param b Position of the second triple.
+     * @param c Position of the third triple.
+     * @return Position of the median triple.
+     */
+    private static int median(int[] triples, int a, int b, int c) {
+        boolean ab = compare(triples, a * 3, triples[b * 3], triples[b * 3 + 1], triples[b * 3 + 2]) < 0;
+        boolean bc = compare(triples, b * 3, triples[c * 3], triples[c * 3 + 1], triples[c * 3 + 2]) < 0;
+        boolean ac = compare(triples, a * 3, triples[c * 3], triples[c * 3 + 1], triples[c * 3 + 2]) < 0;
+        if (ab == bc) {
+            return b;
+        } else if (ab == ac) {
+            return c;
+        } else {
+            return a;
+        }
+    }
+
+    /**
+     * Swaps two triples.
+     *
+     * @param triples Triples.
+     * @param a Position of the first triple.
+     * @param b Position of the second triple.
+     */
+    private static void swap(int[] triples, int a, int b) {
+        for (int i = 0; i < 3; i++) {
+            int element = triples[a * 3 + i];
+            triples[a * 3 + i] = triples[b * 3 + i];
+            triples[b * 3 + i] = element;
+        }
+    }
+
+    /**
+     * Compares a triple with a key, in index order.
+     *
+     * @param triples Triples.
+     * @param index Index of the triple's first element.
+     * @param key0 First element of the key.
+     * @param key1 Second element of the key.
+     * @param key2 Third element of the key.
+     * @return Negative, zero or positive as the triple is less than, equal
+     * to or greater than the key.
+     */
+    private static int compare(int[] triples, int index, int key0, int key1, int key2) {
+        int comparison = Integer.compare(triples[index], key0);
+        if (comparison == 0) {
+            comparison = Integer.compare(triples[index + 1], key1);
+            if (comparison == 0) {
+                comparison = Integer.compare(triples[index + 2], key2);
+            }
+        }
+        return comparison;
+    }
+}
@@ -29,6 +29,12 @@ public class Predicate {
      * Predicate identifier.
      */
     private String identifier;
+
+    /**
+     * Ordinal assigned by the KnowledgeGraph (-1 if the predicate is not part of
+     * the graph).
+     */
+    private int ordinal;
     
     /**
      * Constructor, takes String identifier for predicate.
@@ -36,7 +42,18 @@ public class Predicate {
      * @param identifier Given predicate identifier.
      */
     public Predicate(String identifier) {
+        this(identifier, -1);
+    }
+
+    /**
+     * Constructor, takes String identifier and KnowledgeGraph ordinal for predicate.
+     * 
+     * @param identifier Given predicate identifier.
+     * @param ordinal Ordinal assigned by the KnowledgeGraph.
+     */
+    Predicate(String identifier, int ordinal) {
         this.identifier = identifier;
+        this.ordinal = ordinal;
     }
     
     /**
@@ -47,4 +64,14 @@ public class Predicate {
     public String getIdentifier() {
         return identifier;
     }
+
+    /**
+     * Returns the ordinal the KnowledgeGraph assigned to this predicate, which
+     * encodes it in the graph's triple store.
+     * 
+     * @return Predicate ordinal (-1 if not part of the graph).
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
 }
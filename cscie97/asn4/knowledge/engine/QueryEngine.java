@@ -14,7 +14,11 @@ package cscie97.asn4.knowledge.engine;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -27,6 +31,17 @@ import java.util.Set;
  */
 public class QueryEngine {
 
+    /**
+     * Well-formed named variable or ? wild card.
+     */
+    private static final String VARIABLE_REGEX = "\\?[a-zA-Z0-9_]*";
+
+    /**
+     * Well-formed node or predicate identifier in a query; unlike Node.regex
+     * it allows -, which the SearchEngine's locations contain.
+     */
+    private static final String IDENTIFIER_REGEX = "[a-zA-Z0-9_-]+";
+
     private KnowledgeGraph kg = KnowledgeGraph.getInstance();
 
     /**
@@ -36,53 +51,48 @@ public class QueryEngine {
     }
 
     /**
-     * Executes a single query over a knowledge graph, consisting of
+     * Executes a query over a knowledge graph, consisting of one or more
+     * patterns
+     *
+     * subject predicate object . subject predicate object . ...
+     *
+     * and outputs the triples in the knowledge graph that match it. Any or
+     * all of the elements may be replaced by a wild card ? or by a named
+     * variable such as ?s (see assignment design document for more details as
+     * well as Node and Predicate classes for well-formed regular expressions
+     * for those elements; identifiers in queries may also contain -, as in
+     * the 42_-71 locations the SearchEngine stores). The . ending a pattern
+     * may be attached to its object or separated from it by blanks.
      *
-     * subject predicate object
+     * A single pattern without named variables outputs the matching triples.
+     * Otherwise the patterns are executed together by the KnowledgeGraph,
+     * each named variable having the same value in every pattern it appears
+     * in, and each distinct solution is output as the values of the named
+     * variables, for example
      *
-     * and outputs the triples in the knowledge graph that match the query. Any
-     * or all of the elements may be replaced by a wild card ? See assignment
-     * design document for more details as well as Node and Predicate classes
-     * for well-formed regular expressions for those elements.
+     * ?s has_feature WIFI . ?s has_lat_long 42_-71 .
+     *
+     * outputs one line ?s=... for each node with both.
      *
      * @param query Knowledge graph query
      * @throws QueryEngineException
      */
     public void executeQuery(String query) throws QueryEngineException {
-
-        /*
-         * Split line inputParms[0] = subject inputParms[1] = predicate
-         * inputParms[2] = object (note that in a properly formed input line,
-         * the terminating period will still be included in inputParms[2]
-         * (object) after this point and will have to be deleted later)
-         */
-        String[] queryParms = query.split("[ \t]+");
-
-        /*
-         * Use pattern matching to uncover malformed elements
-         */
-        if (queryParms.length != 3) {
-            throw new QueryEngineException("Malformed query: Incorrect number of elements");
-        } else if (!queryParms[0].matches("\\?|" + Node.regex)) {
-            throw new QueryEngineException("Malformed query: Bad subject");
-        } else if (!queryParms[1].matches("\\?|" + Predicate.regex)) {
-            throw new QueryEngineException("Malformed query: Bad predicate");
-        } else if (!queryParms[2].endsWith(".")) {
-            throw new QueryEngineException("Malformed query: Missing .");
-        } else if (!queryParms[2].substring(0, queryParms[2].length() - 1).matches("\\?|" + Predicate.regex)) {
-            throw new QueryEngineException("Malformed query: Bad object");
-        } else {
-
-            /*
-             * Input line is properly formed, remove . from inputParms[2]
-             * (object).
-             */
-            queryParms[2] = queryParms[2].substring(0, queryParms[2].length() - 1);
+        ArrayList<String[]> patterns = parseQuery(query);
+        boolean hasVariables = false;
+        for (int i = 0; i < patterns.size(); i++) {
+            for (int j = 0; j < 3; j++) {
+                hasVariables = hasVariables || (patterns.get(i)[j].startsWith("?")
+                        && (patterns.get(i)[j].length() > 1));
+            }
+        }
+        if ((patterns.size() == 1) && !hasVariables) {
+            String[] queryParms = patterns.get(0);
 
             /*
              * Execute actual query.
              */
-            Triple triple = kg.getTriple(kg.getNode(queryParms[0]), kg.getPredicate(queryParms[1]), kg.getNode(queryParms[2]));
+            Triple triple = kg.getQueryTriple(queryParms[0], queryParms[1], queryParms[2]);
             Set<Triple> tripleSet = kg.executeQuery(triple);
 
             /*
@@ -102,7 +112,118 @@ public class QueryEngine {
                     System.out.println(setTriple.getIdentifier() + ".");
                 }
             }
+        } else {
+
+            /*
+             * Execute the patterns as one conjunctive query and echo it.
+             */
+            ArrayList<Triple> triples = new ArrayList<Triple>();
+            StringBuilder echo = new StringBuilder();
+            for (int i = 0; i < patterns.size(); i++) {
+                String[] pattern = patterns.get(i);
+                triples.add(kg.getQueryTriple(pattern[0], pattern[1], pattern[2]));
+                echo.append(pattern[0]).append(" ").append(pattern[1]).append(" ").append(pattern[2]).append(" .");
+                if (i < patterns.size() - 1) {
+                    echo.append(" ");
+                }
+            }
+            List<Map<String, String>> solutions = kg.executeQuery(triples);
+            System.out.println(echo);
+
+            /*
+             * Print <null> if there is no solution, otherwise print each
+             * solution's variable values (<true> for a query without named
+             * variables).
+             */
+            if (solutions == null) {
+                System.out.println("<null>");
+            } else if (!hasVariables) {
+                System.out.println("<true>");
+            } else {
+                for (int i = 0; i < solutions.size(); i++) {
+                    StringBuilder line = new StringBuilder();
+                    Iterator<Map.Entry<String, String>> iterator = solutions.get(i).entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<String, String> entry = iterator.next();
+                        line.append(entry.getKey()).append("=").append(entry.getValue());
+                        if (iterator.hasNext()) {
+                            line.append(" ");
+                        }
+                    }
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+
+    /*
+     * This method splits a query into its patterns and checks their
+     * elements, returning the subject, predicate and object of each pattern.
+     */
+    private ArrayList<String[]> parseQuery(String query) throws QueryEngineException {
+
+        /*
+         * Split the query into elements, and group them into patterns, each
+         * ending at a . (either an element of its own or the end of the
+         * object)
+         */
+        String[] queryParms = query.split("[ \t]+");
+        ArrayList<String[]> patterns = new ArrayList<String[]>();
+        ArrayList<String> pattern = new ArrayList<String>();
+        for (int i = 0; i < queryParms.length; i++) {
+            if (queryParms[i].isEmpty()) {
+                continue;
+            } else if (queryParms[i].equals(".")) {
+                if (pattern.size() != 3) {
+                    throw new QueryEngineException("Malformed query: Incorrect number of elements");
+                }
+                patterns.add(pattern.toArray(new String[3]));
+                pattern.clear();
+            } else if (queryParms[i].endsWith(".")) {
+                pattern.add(queryParms[i].substring(0, queryParms[i].length() - 1));
+                if (pattern.size() != 3) {
+                    throw new QueryEngineException("Malformed query: Incorrect number of elements");
+                }
+                patterns.add(pattern.toArray(new String[3]));
+                pattern.clear();
+            } else {
+                pattern.add(queryParms[i]);
+            }
+        }
+        if (pattern.size() == 3) {
+            throw new QueryEngineException("Malformed query: Missing .");
+        } else if ((pattern.size() > 0) || patterns.isEmpty()) {
+            throw new QueryEngineException("Malformed query: Incorrect number of elements");
+        }
+
+        /*
+         * Use pattern matching to uncover malformed elements, and check that
+         * no variable stands for both nodes and predicates
+         */
+        HashSet<String> nodeVariables = new HashSet<String>();
+        HashSet<String> predicateVariables = new HashSet<String>();
+        for (int i = 0; i < patterns.size(); i++) {
+            String[] elements = patterns.get(i);
+            if (!elements[0].matches(VARIABLE_REGEX + "|" + IDENTIFIER_REGEX)) {
+                throw new QueryEngineException("Malformed query: Bad subject");
+            } else if (!elements[1].matches(VARIABLE_REGEX + "|" + IDENTIFIER_REGEX)) {
+                throw new QueryEngineException("Malformed query: Bad predicate");
+            } else if (!elements[2].matches(VARIABLE_REGEX + "|" + IDENTIFIER_REGEX)) {
+                throw new QueryEngineException("Malformed query: Bad object");
+            }
+            for (int j = 0; j < 3; j++) {
+                if (elements[j].startsWith("?") && (elements[j].length() > 1)) {
+                    HashSet<String> variables = (j == 1) ? predicateVariables : nodeVariables;
+                    HashSet<String> otherVariables = (j == 1) ? nodeVariables : predicateVariables;
+                    if (otherVariables.contains(elements[j])) {
+                        throw new QueryEngineException("Malformed query: Variable " + elements[j]
+                                + " used as both a node and a predicate");
+                    }
+                    variables.add(elements[j]);
+                }
+            }
         }
+        return patterns;
     }
 
     /**
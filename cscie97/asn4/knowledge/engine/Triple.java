@@ -54,6 +54,18 @@ public class Triple {
         this.predicate = predicate;
         this.object = object;
     }
+
+    /**
+     * Constructor for triples decoded from the triple store, whose identifier
+     * is only built if it is asked for.
+     * 
+     * @param subject Subject associated with triple.
+     * @param predicate Predicate associated with triple.
+     * @param object Object associated with triple.
+     */
+    Triple(Node subject, Predicate predicate, Node object) {
+        this(null, subject, predicate, object);
+    }
     
     /**
      * Returns String identifier for this triple.
@@ -61,6 +73,9 @@ public class Triple {
      * @return Triple identifier.
      */
     public String getIdentifier() {
+        if (identifier == null) {
+            identifier = subject.getIdentifier() + " " + predicate.getIdentifier() + " " + object.getIdentifier();
+        }
         return identifier;
     }
     
@@ -0,0 +1,303 @@
+/*
+ * TripleStore
+ *
+ * Version 1.0
+ *
+ * September 16, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #1.
+ */
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Arrays;
+
+/**
+ * This class stores the triples of a knowledge graph in dictionary-encoded
+ * form: the subject, predicate and object of each triple are the ordinals
+ * the KnowledgeGraph assigned to its Node and Predicate objects.
+ *
+ * The triples are held in three sorted permutation indexes,
+ * subject-predicate-object, predicate-object-subject and
+ * object-subject-predicate, so that the triples matching a query with any
+ * combination of wildcards are one range of one index:
+ *
+ *   s p o, s p ?, s ? ?   subject-predicate-object
+ *   ? p o, ? p ?          predicate-object-subject
+ *   s ? o, ? ? o          object-subject-predicate
+ *   ? ? ?                 every triple
+ *
+ * Each index inserts new triples in a small sorted delta and only marks
+ * removed triples, and the delta and the marks are merged into the index
+ * once there are more than about sixteen times the square root of the
+ * number of triples of them, so inserts stay cheap and a lookup is still
+ * two binary searches.
+ *
+ * Removing a subject marks its triples in the subject-predicate-object
+ * index, where they are one range, and then looks up and marks each of them
+ * in the other two indexes, so it costs two binary searches per triple of
+ * the subject rather than a pass over the store. Adding a removed triple
+ * back, as happens when an office space's triples are replaced, clears its
+ * marks.
+ *
+ * Ordinals are non-negative; WILDCARD stands for any identifier in a query.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class TripleStore {
+
+    /**
+     * Ordinal standing for any identifier in a query.
+     */
+    static final int WILDCARD = -1;
+
+    /**
+     * Subject column.
+     */
+    static final int SUBJECT = 0;
+
+    /**
+     * Predicate column.
+     */
+    static final int PREDICATE = 1;
+
+    /**
+     * Object column.
+     */
+    static final int OBJECT = 2;
+
+    /**
+     * Smallest number of pending changes at which the indexes are merged.
+     */
+    private static final int MIN_MERGE_SIZE = 1024;
+
+    /**
+     * Subject-predicate-object index.
+     */
+    private final PermutationIndex spoIndex = new PermutationIndex(SUBJECT, PREDICATE, OBJECT);
+
+    /**
+     * Predicate-object-subject index.
+     */
+    private final PermutationIndex posIndex = new PermutationIndex(PREDICATE, OBJECT, SUBJECT);
+
+    /**
+     * Object-subject-predicate index.
+     */
+    private final PermutationIndex ospIndex = new PermutationIndex(OBJECT, SUBJECT, PREDICATE);
+
+    /**
+     * Adds a triple, unless the store already holds it.
+     *
+     * @param subject Subject ordinal.
+     * @param predicate Predicate ordinal.
+     * @param object Object ordinal.
+     * @return True if the triple was added.
+     */
+    boolean add(int subject, int predicate, int object) {
+        int[] triple = new int[] {subject, predicate, object};
+        if (spoIndex.revive(triple)) {
+            posIndex.revive(triple);
+            ospIndex.revive(triple);
+            return true;
+        }
+        if (spoIndex.contains(triple)) {
+            return false;
+        }
+        spoIndex.insert(triple);
+        posIndex.insert(triple);
+        ospIndex.insert(triple);
+        mergeIfNeeded();
+        return true;
+    }
+
+    /**
+     * Adds a batch of triples, skipping those the store already holds. The
+     * batch is sorted in the order of each index and merged into it in one
+     * pass, which for a large batch is much faster than adding its triples
+     * one at a time.
+     *
+     * @param triples Subject, predicate and object ordinals of each triple;
+     * the array is reused to hold the triples that were added.
+     * @param count Number of triples.
+     * @return Number of triples added.
+     */
+    int addAll(int[] triples, int count) {
+        int addedCount = spoIndex.mergeBatch(triples, count);
+        posIndex.mergeBatch(triples, addedCount);
+        ospIndex.mergeBatch(triples, addedCount);
+        return addedCount;
+    }
+
+    /**
+     * Returns the triples that match the specified query.
+     *
+     * @param subject Subject ordinal, or WILDCARD.
+     * @param predicate Predicate ordinal, or WILDCARD.
+     * @param object Object ordinal, or WILDCARD.
+     * @return Subject, predicate and object ordinals of each matching triple.
+     */
+    IntList find(int subject, int predicate, int object) {
+        IntList matches = new IntList();
+        if (subject != WILDCARD) {
+            if (predicate != WILDCARD) {
+                if (object != WILDCARD) {
+                    if (spoIndex.contains(new int[] {subject, predicate, object})) {
+                        matches.add(subject);
+                        matches.add(predicate);
+                        matches.add(object);
+                    }
+                } else {
+                    spoIndex.find(subject, predicate, matches);
+                }
+            } else if (object != WILDCARD) {
+                ospIndex.find(object, subject, matches);
+            } else {
+                spoIndex.find(subject, WILDCARD, matches);
+            }
+        } else if (predicate != WILDCARD) {
+            posIndex.find(predicate, object, matches);
+        } else if (object != WILDCARD) {
+            ospIndex.find(object, WILDCARD, matches);
+        } else {
+            spoIndex.findAll(matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Estimates the number of triples that match the specified query, from
+     * the size of their range in the index find would use, without reading
+     * them.
+     *
+     * @param subject Subject ordinal, or WILDCARD.
+     * @param predicate Predicate ordinal, or WILDCARD.
+     * @param object Object ordinal, or WILDCARD.
+     * @return Estimated number of matching triples.
+     */
+    int count(int subject, int predicate, int object) {
+        if (subject != WILDCARD) {
+            if (predicate != WILDCARD) {
+                if (object != WILDCARD) {
+                    return spoIndex.contains(new int[] {subject, predicate, object}) ? 1 : 0;
+                } else {
+                    return spoIndex.count(subject, predicate);
+                }
+            } else if (object != WILDCARD) {
+                return ospIndex.count(object, subject);
+            } else {
+                return spoIndex.count(subject, WILDCARD);
+            }
+        } else if (predicate != WILDCARD) {
+            return posIndex.count(predicate, object);
+        } else if (object != WILDCARD) {
+            return ospIndex.count(object, WILDCARD);
+        } else {
+            return size();
+        }
+    }
+
+    /**
+     * Removes every triple with the specified subject. They are one range of
+     * the subject-predicate-object index, which is removed at once, but are
+     * scattered through the other two, so each one is looked up and removed
+     * from them in turn.
+     *
+     * @param subject Subject ordinal.
+     * @return Number of triples removed.
+     */
+    int removeSubject(int subject) {
+        IntList triples = new IntList();
+        spoIndex.removeAll(subject, triples);
+        int[] triple = new int[3];
+        for (int i = 0; i < triples.size(); i += 3) {
+            triple[SUBJECT] = triples.get(i);
+            triple[PREDICATE] = triples.get(i + 1);
+            triple[OBJECT] = triples.get(i + 2);
+            posIndex.remove(triple);
+            ospIndex.remove(triple);
+        }
+        mergeIfNeeded();
+        return triples.size() / 3;
+    }
+
+    /**
+     * Merges the indexes once the number of triples added or removed since
+     * they were last merged exceeds MIN_MERGE_SIZE and sixteen times the
+     * square root of the number of triples.
+     */
+    private void mergeIfNeeded() {
+        if (spoIndex.getPendingCount() > Math.max(MIN_MERGE_SIZE, 16 * (int) Math.sqrt(spoIndex.size()))) {
+            spoIndex.merge();
+            posIndex.merge();
+            ospIndex.merge();
+        }
+    }
+
+    /**
+     * Returns the number of triples.
+     *
+     * @return Number of triples.
+     */
+    int size() {
+        return spoIndex.size();
+    }
+
+    /**
+     * This class is a growable list of ints.
+     */
+    static class IntList {
+
+        /**
+         * Elements.
+         */
+        private int[] elements = new int[2];
+
+        /**
+         * Number of elements.
+         */
+        private int size = 0;
+
+        /**
+         * Appends an element.
+         *
+         * @param element Element.
+         */
+        void add(int element) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+            }
+            elements[size++] = element;
+        }
+
+        /**
+         * Returns the element at the specified index.
+         *
+         * @param index Index.
+         * @return Element.
+         */
+        int get(int index) {
+            return elements[index];
+        }
+
+        /**
+         * Returns the number of elements.
+         *
+         * @return Number of elements.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Returns the elements as an array.
+         *
+         * @return Elements.
+         */
+        int[] toArray() {
+            return Arrays.copyOf(elements, size);
+        }
+    }
+}
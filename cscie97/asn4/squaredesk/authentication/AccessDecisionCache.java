@@ -0,0 +1,323 @@
+/*
+ * AccessDecisionCache
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class memoizes checkAccess decisions per access token and permission
+ * ID, so that a client repeatedly checking the same permissions with the same
+ * token skips token resolution and permission lookup.
+ *
+ * Each entry records the User's permission epoch when it was created. Every
+ * change to a User's effective permissions increments that epoch, so an entry
+ * whose epoch no longer matches is never consulted and is replaced on the
+ * next miss. Entries are also removed explicitly when their token is logged
+ * out or reclaimed.
+ *
+ * The cache holds at most a fixed number of entries. When it is full, a new
+ * entry makes room by sampled eviction: the first EVICTION_SAMPLE_SIZE
+ * entries of the map are examined, those that are no longer current are
+ * removed, and if all of them are current the one created first is removed.
+ * A miss therefore costs a bounded amount of work however many tokens are
+ * live, and the other entries keep serving hits.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class AccessDecisionCache {
+
+    /**
+     * This class holds the cached decisions for a single access token.
+     */
+    static class Entry {
+
+        /**
+         * User to whom the token was issued.
+         */
+        private final User user;
+
+        /**
+         * Session access token (null for signed tokens).
+         */
+        private final AccessToken accessToken;
+
+        /**
+         * Expiry time of a signed token (unused for session tokens).
+         */
+        private final long expiryTime;
+
+        /**
+         * Access token epoch carried by a signed token (unused for session
+         * tokens).
+         */
+        private final long accessTokenEpoch;
+
+        /**
+         * User permission epoch when the entry was created.
+         */
+        private final long permissionEpoch;
+
+        /**
+         * Time the entry was created, in nanoseconds (used to choose the
+         * entry to evict).
+         */
+        private final long creationTime = System.nanoTime();
+
+        /**
+         * Permission ID-to-decision map.
+         */
+        private final ConcurrentHashMap<String, Boolean> decisionMap = new ConcurrentHashMap<>();
+
+        /**
+         * Constructor. The permission epoch must be read from the User before
+         * any of the decisions stored in the entry are computed.
+         *
+         * @param user User to whom the token was issued.
+         * @param accessToken Session access token (null for signed tokens).
+         * @param expiryTime Expiry time of a signed token.
+         * @param accessTokenEpoch Access token epoch of a signed token.
+         * @param permissionEpoch User permission epoch.
+         */
+        Entry(User user, AccessToken accessToken, long expiryTime, long accessTokenEpoch,
+                long permissionEpoch) {
+            this.user = user;
+            this.accessToken = accessToken;
+            this.expiryTime = expiryTime;
+            this.accessTokenEpoch = accessTokenEpoch;
+            this.permissionEpoch = permissionEpoch;
+        }
+
+        /**
+         * Returns the User to whom the token was issued.
+         *
+         * @return Token User.
+         */
+        User getUser() {
+            return user;
+        }
+
+        /**
+         * Returns the session access token (null for signed tokens).
+         *
+         * @return Session access token.
+         */
+        AccessToken getAccessToken() {
+            return accessToken;
+        }
+
+        /**
+         * Returns the time the entry was created.
+         *
+         * @return Creation time in nanoseconds.
+         */
+        long getCreationTime() {
+            return creationTime;
+        }
+
+        /**
+         * Returns the User permission epoch recorded in the entry.
+         *
+         * @return Permission epoch.
+         */
+        long getPermissionEpoch() {
+            return permissionEpoch;
+        }
+
+        /**
+         * Returns true if the entry may still be used at the specified time:
+         * the User's permissions are unchanged since it was created and its
+         * token is still live.
+         *
+         * @param currentTime Current time in milliseconds.
+         * @return True if the entry is current.
+         */
+        boolean current(long currentTime) {
+            if (user.getPermissionEpoch() != permissionEpoch) {
+                return false;
+            } else if (accessToken != null) {
+                return accessToken.getState().equals(AccessToken.VALID_STATES[0])
+                        && !accessToken.accessTokenExpired();
+            } else {
+                return (currentTime < expiryTime) && (user.getAccessTokenEpoch() == accessTokenEpoch);
+            }
+        }
+
+        /**
+         * Returns the cached decision for the specified permission.
+         *
+         * @param permissionID Permission ID.
+         * @return Cached decision (null if none).
+         */
+        Boolean getDecision(String permissionID) {
+            return decisionMap.get(permissionID);
+        }
+
+        /**
+         * Caches the decision for the specified permission.
+         *
+         * @param permissionID Permission ID.
+         * @param allowed True if access is allowed.
+         */
+        void putDecision(String permissionID, boolean allowed) {
+            decisionMap.put(permissionID, allowed);
+        }
+    }
+
+    /**
+     * Number of entries examined when the cache is full and room must be
+     * made for a new one.
+     */
+    static final int EVICTION_SAMPLE_SIZE = 16;
+
+    /**
+     * Access token-to-Entry map.
+     */
+    private ConcurrentHashMap<String, Entry> entryMap = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of entries.
+     */
+    private final int capacity;
+
+    /**
+     * Number of decisions served from the cache.
+     */
+    private LongAdder hitCount = new LongAdder();
+
+    /**
+     * Number of decisions that had to be computed.
+     */
+    private LongAdder missCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of entries (access tokens).
+     */
+    public AccessDecisionCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the entry for the specified access token.
+     *
+     * @param accessToken Access token.
+     * @return Entry (null if none).
+     */
+    public Entry get(String accessToken) {
+        return entryMap.get(accessToken);
+    }
+
+    /**
+     * Stores the entry for the specified access token, replacing any previous
+     * one and making room if the cache is full.
+     *
+     * @param accessToken Access token.
+     * @param entry New entry.
+     */
+    public void put(String accessToken, Entry entry) {
+        if ((entryMap.size() >= capacity) && !entryMap.containsKey(accessToken)) {
+            evict(System.currentTimeMillis());
+        }
+        entryMap.put(accessToken, entry);
+    }
+
+    /**
+     * Removes the entry for the specified access token.
+     *
+     * @param accessToken Access token.
+     */
+    public void invalidate(String accessToken) {
+        entryMap.remove(accessToken);
+    }
+
+    /**
+     * Removes every entry (used when a replication follower replaces its
+     * whole model).
+     */
+    public void clear() {
+        entryMap.clear();
+    }
+
+    /**
+     * Makes room for a new entry: removes the entries among the first
+     * EVICTION_SAMPLE_SIZE that are no longer current, or, if they are all
+     * current, the one of them that was created first.
+     *
+     * @param currentTime Current time in milliseconds.
+     */
+    private void evict(long currentTime) {
+        Iterator<Map.Entry<String, Entry>> entries = entryMap.entrySet().iterator();
+        String oldestAccessToken = null;
+        long oldestCreationTime = Long.MAX_VALUE;
+        boolean removed = false;
+        for (int i = 0; (i < EVICTION_SAMPLE_SIZE) && entries.hasNext(); i++) {
+            Map.Entry<String, Entry> mapEntry = entries.next();
+            if (!mapEntry.getValue().current(currentTime)) {
+                entries.remove();
+                removed = true;
+            } else if (mapEntry.getValue().getCreationTime() < oldestCreationTime) {
+                oldestAccessToken = mapEntry.getKey();
+                oldestCreationTime = mapEntry.getValue().getCreationTime();
+            }
+        }
+        if (!removed && (oldestAccessToken != null)) {
+            entryMap.remove(oldestAccessToken);
+        }
+    }
+
+    /**
+     * Records a decision served from the cache.
+     */
+    public void recordHit() {
+        hitCount.increment();
+    }
+
+    /**
+     * Records a decision that had to be computed.
+     */
+    public void recordMiss() {
+        missCount.increment();
+    }
+
+    /**
+     * Returns the number of decisions served from the cache.
+     *
+     * @return Hit count.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Returns the number of decisions that had to be computed.
+     *
+     * @return Miss count.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Returns the number of entries (access tokens) in the cache.
+     *
+     * @return Number of entries.
+     */
+    public int size() {
+        return entryMap.size();
+    }
+}
@@ -44,12 +44,12 @@ public class AccessToken implements AuthServiceVisitorElement {
     /**
      * Actual access token state.
      */
-    private String state;
+    private volatile String state;
     
     /**
      * Time access token was last used.
      */
-    private Date lastAccessTime;
+    private volatile Date lastAccessTime;
     
     /**
      * Constructor.
@@ -60,6 +60,19 @@ public class AccessToken implements AuthServiceVisitorElement {
         state = VALID_STATES[0];
     }
 
+    /**
+     * Constructor for an existing (active) access token, restored from a
+     * snapshot.
+     * 
+     * @param ID Access token ID.
+     * @param lastAccessTime Time access token was last used.
+     */
+    AccessToken(UUID ID, Date lastAccessTime) {
+        this.ID = ID;
+        this.lastAccessTime = lastAccessTime;
+        state = VALID_STATES[0];
+    }
+
     /**
      * Returns true if the access token has expired (i.e. the amount of time
      * between the current time and the time it was previously used exceeds
@@ -0,0 +1,187 @@
+/*
+ * AccessTokenExpiryWheel
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a hashed timing wheel that reclaims access tokens once
+ * they expire. Each access token is placed in the wheel slot corresponding to
+ * its expiry time (last access time plus the access token timeout period). A
+ * background daemon thread advances the wheel once per tick and examines only
+ * the tokens in the current slot: tokens that have since been logged out are
+ * dropped, tokens that have expired are handed to the ExpiryHandler, and
+ * tokens that have been used since they were scheduled (sliding expiry) are
+ * rescheduled according to their new last access time.
+ *
+ * Scheduling a token and touching it are both O(1), and each token is
+ * examined at most once per timeout period in which it is used, so the
+ * amortized cost per token is O(1).
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class AccessTokenExpiryWheel {
+
+    /**
+     * This interface is implemented by the owner of the wheel to evict
+     * expired access tokens from its indexes.
+     */
+    interface ExpiryHandler {
+
+        /**
+         * Called from the wheel thread for each access token found to have
+         * expired.
+         *
+         * @param accessToken Expired access token.
+         */
+        void accessTokenExpired(AccessToken accessToken);
+    }
+
+    /**
+     * Duration of a single wheel tick in milliseconds.
+     */
+    private final long tickDuration;
+
+    /**
+     * Wheel slots (number of slots is a power of two).
+     */
+    private final ArrayList<ConcurrentLinkedQueue<AccessToken>> slots;
+
+    /**
+     * Mask for mapping a tick number onto a slot index.
+     */
+    private final int slotMask;
+
+    /**
+     * Time (in milliseconds) corresponding to tick 0.
+     */
+    private final long startTime;
+
+    /**
+     * Handler for expired access tokens.
+     */
+    private final ExpiryHandler expiryHandler;
+
+    /**
+     * Last tick processed by the wheel thread.
+     */
+    private volatile long currentTick = 0;
+
+    /**
+     * Executor running the wheel thread.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Constructor. The wheel starts advancing immediately.
+     *
+     * @param tickDuration Duration of a single tick in milliseconds.
+     * @param slotCount Number of slots (rounded up to a power of two).
+     * @param expiryHandler Handler for expired access tokens.
+     */
+    public AccessTokenExpiryWheel(long tickDuration, int slotCount, ExpiryHandler expiryHandler) {
+        int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.tickDuration = tickDuration;
+        this.slots = new ArrayList<ConcurrentLinkedQueue<AccessToken>>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new ConcurrentLinkedQueue<AccessToken>());
+        }
+        this.slotMask = size - 1;
+        this.startTime = System.currentTimeMillis();
+        this.expiryHandler = expiryHandler;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AccessTokenExpiryWheel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                advance();
+            }
+        }, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the specified access token for expiry, on the basis of its
+     * current last access time.
+     *
+     * @param accessToken Access token to schedule.
+     */
+    public void schedule(AccessToken accessToken) {
+        long expiryTime = accessToken.getLastAccessTime().getTime() + AccessToken.TIMEOUT_PERIOD;
+        long expiryTick = (expiryTime - startTime) / tickDuration + 1;
+        long nextTick = currentTick + 1;
+        if (expiryTick < nextTick) {
+            expiryTick = nextTick;
+        }
+        slots.get((int) (expiryTick & slotMask)).add(accessToken);
+    }
+
+    /**
+     * Stops the wheel thread. Tokens still in the wheel are no longer reclaimed.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Advances the wheel to the current time, processing every slot passed
+     * since the previous advance.
+     */
+    void advance() {
+        long targetTick = (System.currentTimeMillis() - startTime) / tickDuration;
+        while (currentTick < targetTick) {
+            currentTick++;
+            processSlot(slots.get((int) (currentTick & slotMask)));
+        }
+    }
+
+    /**
+     * Processes the access tokens in the specified slot, dropping tokens that
+     * are no longer active, reclaiming expired tokens and rescheduling the rest.
+     *
+     * @param slot Wheel slot to process.
+     */
+    private void processSlot(ConcurrentLinkedQueue<AccessToken> slot) {
+        ArrayList<AccessToken> pending = new ArrayList<>();
+        AccessToken accessToken;
+        while ((accessToken = slot.poll()) != null) {
+            if (!accessToken.getState().equals(AccessToken.VALID_STATES[0])) {
+                continue;
+            } else if (accessToken.accessTokenExpired()) {
+                try {
+                    expiryHandler.accessTokenExpired(accessToken);
+                } catch (RuntimeException re) {
+                    /*
+                     * Never let a failing handler stop the wheel thread
+                     */
+                }
+            } else {
+                pending.add(accessToken);
+            }
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            schedule(pending.get(i));
+        }
+    }
+}
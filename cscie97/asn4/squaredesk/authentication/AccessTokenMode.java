@@ -0,0 +1,36 @@
+/*
+ * AccessTokenMode
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This enumeration lists the kinds of access tokens the AuthService may issue
+ * upon login.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public enum AccessTokenMode {
+
+    /**
+     * UUID-based AccessToken objects tracked in the session registry, with
+     * sliding expiry.
+     */
+    SESSION,
+
+    /**
+     * Self-contained HMAC-signed tokens carrying the user ID, issue and expiry
+     * times and the User's access token epoch. Signed tokens are verified
+     * without consulting any session state and expire at a fixed time.
+     */
+    SIGNED
+}
@@ -12,6 +12,8 @@
  */
 package cscie97.asn4.squaredesk.authentication;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This interface defines the methods to be implemented by any class that
  * needs to act as an authentication service for a given applications.
@@ -58,7 +60,8 @@ public interface AuthService {
 
     /**
      * This method removes the specified Service from the set of authenticated
-     * Services.
+     * Services, together with each of its permissions that no other Service
+     * holds; those permissions are also removed from every Role and User.
      * 
      * @param accessToken Client access token.
      * @param serviceID ID associated with Service object.
@@ -310,6 +313,36 @@ public interface AuthService {
             throws InvalidAccessTokenException, UnauthorizedAccessException, 
             AuthServiceException;
 
+    /**
+     * This method removes the specified Role from every User to whom it has
+     * been directly assigned (Users holding it through another role keep it).
+     * 
+     * @param accessToken Client access token.
+     * @param roleID ID of Role to be revoked.
+     * @return Number of Users from whom the Role was removed.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     * @throws AuthServiceException
+     */
+    public int revokeRoleFromAllUsers(String accessToken, String roleID)
+            throws InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException;
+
+    /**
+     * This method removes the specified Permission from every User to whom it
+     * has been directly assigned (Users holding it through a role keep it).
+     * 
+     * @param accessToken Client access token.
+     * @param permissionID ID of Permission to be revoked.
+     * @return Number of Users from whom the Permission was removed.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     * @throws AuthServiceException
+     */
+    public int revokePermissionFromAllUsers(String accessToken, String permissionID)
+            throws InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException;
+
     /**
      * This method returns true if the user associated with the given access
      * token has the given permission (to a restricted access method).
@@ -323,6 +356,46 @@ public interface AuthService {
     public boolean checkAccess(String permissionID, String userAccessToken)
             throws InvalidAccessTokenException, UnauthorizedAccessException;
 
+    /**
+     * This method resolves the given access token once and checks each of the
+     * given permissions against the associated user, returning a bitmask in
+     * which bit i is set if the user has permissionIDs[i].
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param userAccessToken Client access token.
+     * @return Bitmask of permissions held.
+     * @throws InvalidAccessTokenException
+     */
+    public long checkAccessMask(String[] permissionIDs, String userAccessToken)
+            throws InvalidAccessTokenException;
+
+    /**
+     * This method returns true if the user associated with the given access
+     * token has all of the given permissions, resolving the token only once.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param userAccessToken Client access token.
+     * @return True if user associated with access token has every permission.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    public boolean checkAccessAll(String[] permissionIDs, String userAccessToken)
+            throws InvalidAccessTokenException, UnauthorizedAccessException;
+
+    /**
+     * This method returns true if the user associated with the given access
+     * token has at least one of the given permissions, resolving the token
+     * only once.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param userAccessToken Client access token.
+     * @return True if user associated with access token has any permission.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    public boolean checkAccessAny(String[] permissionIDs, String userAccessToken)
+            throws InvalidAccessTokenException, UnauthorizedAccessException;
+
     /**
      * This method attempts to log the specified User into the authentication
      * service, returning a valid access token upon successful login or throwing
@@ -339,13 +412,58 @@ public interface AuthService {
             throws InvalidUserIDException, InvalidPasswordException,
             AuthServiceException;
 
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service without blocking the calling thread. The returned future
+     * completes with a valid access token, or fails with the
+     * InvalidUserIDException, InvalidPasswordException or
+     * AuthServiceException that login would have thrown.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @return Future access token.
+     */
+    public CompletableFuture<String> loginAsync(String loginID, String password);
+
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service on behalf of the specified source (such as a client address),
+     * so that failed attempts can be throttled per source as well as per
+     * login ID.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @param source Source of the attempt (null if unknown).
+     * @return Valid access token (upon successful login).
+     * @throws InvalidUserIDException
+     * @throws InvalidPasswordException
+     * @throws AuthServiceException LoginThrottledException if too many
+     * attempts have failed recently.
+     */
+    public String login(String loginID, String password, String source)
+            throws InvalidUserIDException, InvalidPasswordException,
+            AuthServiceException;
+
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service on behalf of the specified source without blocking the calling
+     * thread.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @param source Source of the attempt (null if unknown).
+     * @return Future access token.
+     */
+    public CompletableFuture<String> loginAsync(String loginID, String password, String source);
+
     /**
      * This method logs out the User associated with the specified access token.
      * 
      * @param accessToken Client access token.
      * @throws InvalidAccessTokenException
+     * @throws AuthServiceException If this instance is a read-only replica.
      */
     public void logout(String accessToken)
-            throws InvalidAccessTokenException;
+            throws InvalidAccessTokenException, AuthServiceException;
     
 }
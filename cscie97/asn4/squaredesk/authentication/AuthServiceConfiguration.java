@@ -0,0 +1,658 @@
+/*
+ * AuthServiceConfiguration
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.nio.file.Path;
+
+/**
+ * This class holds the settings with which an AuthServiceImpl object is
+ * constructed. A configuration created with the no-argument constructor
+ * describes the default behavior of the singleton AuthServiceImpl instance.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class AuthServiceConfiguration {
+
+    /**
+     * Maximum number of concurrent sessions per login ID.
+     */
+    private int maxSessionsPerLogin = 1;
+
+    /**
+     * Policy applied to a login that would exceed maxSessionsPerLogin.
+     */
+    private SessionLimitPolicy sessionLimitPolicy = SessionLimitPolicy.REJECT_NEW_SESSION;
+
+    /**
+     * Kind of access token issued upon login.
+     */
+    private AccessTokenMode accessTokenMode = AccessTokenMode.SESSION;
+
+    /**
+     * Key used to sign access tokens in SIGNED mode (null for a random key
+     * generated per AuthServiceImpl object).
+     */
+    private byte[] signingKey = null;
+
+    /**
+     * Lifetime of signed access tokens in milliseconds.
+     */
+    private long signedAccessTokenLifetime = AccessToken.TIMEOUT_PERIOD;
+
+    /**
+     * Maximum number of access tokens for which checkAccess decisions are
+     * cached (0 disables the decision cache).
+     */
+    private int decisionCacheCapacity = 4096;
+
+    /**
+     * PBKDF2 iteration count for new and upgraded password hashes.
+     */
+    private int passwordHashIterations = 10000;
+
+    /**
+     * Number of threads dedicated to password hashing.
+     */
+    private int passwordHashingThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of password hashing tasks waiting for a thread.
+     */
+    private int passwordHashingQueueCapacity = 64;
+
+    /**
+     * Path of the mutation log (null for no mutation log).
+     */
+    private Path mutationLogPath = null;
+
+    /**
+     * Policy for forcing mutation log records to disk.
+     */
+    private MutationLogSyncPolicy mutationLogSyncPolicy = MutationLogSyncPolicy.EVERY_COMMIT;
+
+    /**
+     * Maximum time between forces under the INTERVAL sync policy, in
+     * milliseconds.
+     */
+    private long mutationLogSyncInterval = 1000;
+
+    /**
+     * Path of the snapshot restored at startup (null for none).
+     */
+    private Path snapshotPath = null;
+
+    /**
+     * Number of failed login attempts allowed in a burst per login ID (0
+     * disables login ID throttling).
+     */
+    private int loginThrottleCapacity = 5;
+
+    /**
+     * Time after which one more failed login attempt is allowed per login
+     * ID, in milliseconds.
+     */
+    private long loginThrottleRefillInterval = 6000;
+
+    /**
+     * Number of failed login attempts allowed in a burst per source (0
+     * disables source throttling).
+     */
+    private int sourceThrottleCapacity = 20;
+
+    /**
+     * Time after which one more failed login attempt is allowed per source,
+     * in milliseconds.
+     */
+    private long sourceThrottleRefillInterval = 500;
+
+    /**
+     * Number of token buckets per row of each login throttle table.
+     */
+    private int loginThrottleSlots = 65536;
+
+    /**
+     * True if the AuthServiceImpl keeps metrics (see AuthServiceMetrics).
+     */
+    private boolean metricsEnabled = false;
+
+    /**
+     * One in how many checkAccess and logout calls are sampled when metrics
+     * are enabled.
+     */
+    private int metricsSampleInterval = 64;
+
+    /**
+     * Part the AuthServiceImpl plays in replication.
+     */
+    private ReplicationRole replicationRole = ReplicationRole.STANDALONE;
+
+    /**
+     * Number of most recent change feed records a leader keeps for its
+     * followers.
+     */
+    private int replicationFeedCapacity = 65536;
+
+    /**
+     * Staleness beyond which a follower rejects access tokens, in
+     * milliseconds.
+     */
+    private long replicationMaxStaleness = 5000;
+
+    /**
+     * Constructor (default settings).
+     */
+    public AuthServiceConfiguration() {
+    }
+
+    /**
+     * Returns the maximum number of concurrent sessions per login ID.
+     *
+     * @return Maximum number of sessions per login ID.
+     */
+    public int getMaxSessionsPerLogin() {
+        return maxSessionsPerLogin;
+    }
+
+    /**
+     * Sets the maximum number of concurrent sessions per login ID.
+     *
+     * @param maxSessionsPerLogin Maximum number of sessions (at least 1).
+     */
+    public void setMaxSessionsPerLogin(int maxSessionsPerLogin) {
+        if (maxSessionsPerLogin < 1) {
+            throw new IllegalArgumentException("maxSessionsPerLogin must be at least 1");
+        }
+        this.maxSessionsPerLogin = maxSessionsPerLogin;
+    }
+
+    /**
+     * Returns the policy applied to a login that would exceed the maximum
+     * number of sessions.
+     *
+     * @return Session limit policy.
+     */
+    public SessionLimitPolicy getSessionLimitPolicy() {
+        return sessionLimitPolicy;
+    }
+
+    /**
+     * Sets the policy applied to a login that would exceed the maximum
+     * number of sessions.
+     *
+     * @param sessionLimitPolicy Session limit policy.
+     */
+    public void setSessionLimitPolicy(SessionLimitPolicy sessionLimitPolicy) {
+        this.sessionLimitPolicy = sessionLimitPolicy;
+    }
+
+    /**
+     * Returns the kind of access token issued upon login.
+     *
+     * @return Access token mode.
+     */
+    public AccessTokenMode getAccessTokenMode() {
+        return accessTokenMode;
+    }
+
+    /**
+     * Sets the kind of access token issued upon login.
+     *
+     * @param accessTokenMode Access token mode.
+     */
+    public void setAccessTokenMode(AccessTokenMode accessTokenMode) {
+        this.accessTokenMode = accessTokenMode;
+    }
+
+    /**
+     * Returns the key used to sign access tokens in SIGNED mode.
+     *
+     * @return Signing key (null if a random key is to be generated).
+     */
+    public byte[] getSigningKey() {
+        return (signingKey == null) ? null : signingKey.clone();
+    }
+
+    /**
+     * Sets the key used to sign access tokens in SIGNED mode. AuthService
+     * instances sharing a key accept each other's tokens.
+     *
+     * @param signingKey Signing key (null for a random key).
+     */
+    public void setSigningKey(byte[] signingKey) {
+        this.signingKey = (signingKey == null) ? null : signingKey.clone();
+    }
+
+    /**
+     * Returns the lifetime of signed access tokens.
+     *
+     * @return Signed access token lifetime in milliseconds.
+     */
+    public long getSignedAccessTokenLifetime() {
+        return signedAccessTokenLifetime;
+    }
+
+    /**
+     * Sets the lifetime of signed access tokens.
+     *
+     * @param signedAccessTokenLifetime Lifetime in milliseconds.
+     */
+    public void setSignedAccessTokenLifetime(long signedAccessTokenLifetime) {
+        if (signedAccessTokenLifetime <= 0) {
+            throw new IllegalArgumentException("signedAccessTokenLifetime must be positive");
+        }
+        this.signedAccessTokenLifetime = signedAccessTokenLifetime;
+    }
+
+    /**
+     * Returns the maximum number of access tokens for which checkAccess
+     * decisions are cached.
+     *
+     * @return Decision cache capacity (0 if disabled).
+     */
+    public int getDecisionCacheCapacity() {
+        return decisionCacheCapacity;
+    }
+
+    /**
+     * Sets the maximum number of access tokens for which checkAccess
+     * decisions are cached.
+     *
+     * @param decisionCacheCapacity Decision cache capacity (0 to disable).
+     */
+    public void setDecisionCacheCapacity(int decisionCacheCapacity) {
+        if (decisionCacheCapacity < 0) {
+            throw new IllegalArgumentException("decisionCacheCapacity must not be negative");
+        }
+        this.decisionCacheCapacity = decisionCacheCapacity;
+    }
+
+    /**
+     * Returns the PBKDF2 iteration count for new and upgraded password hashes.
+     *
+     * @return Password hash iteration count.
+     */
+    public int getPasswordHashIterations() {
+        return passwordHashIterations;
+    }
+
+    /**
+     * Sets the PBKDF2 iteration count for new and upgraded password hashes.
+     * Existing hashes with fewer iterations are upgraded on the next login.
+     *
+     * @param passwordHashIterations Iteration count (at least 1).
+     */
+    public void setPasswordHashIterations(int passwordHashIterations) {
+        if (passwordHashIterations < 1) {
+            throw new IllegalArgumentException("passwordHashIterations must be at least 1");
+        }
+        this.passwordHashIterations = passwordHashIterations;
+    }
+
+    /**
+     * Returns the number of threads dedicated to password hashing.
+     *
+     * @return Number of password hashing threads.
+     */
+    public int getPasswordHashingThreads() {
+        return passwordHashingThreads;
+    }
+
+    /**
+     * Sets the number of threads dedicated to password hashing.
+     *
+     * @param passwordHashingThreads Number of threads (at least 1).
+     */
+    public void setPasswordHashingThreads(int passwordHashingThreads) {
+        if (passwordHashingThreads < 1) {
+            throw new IllegalArgumentException("passwordHashingThreads must be at least 1");
+        }
+        this.passwordHashingThreads = passwordHashingThreads;
+    }
+
+    /**
+     * Returns the maximum number of password hashing tasks waiting for a
+     * thread.
+     *
+     * @return Password hashing queue capacity.
+     */
+    public int getPasswordHashingQueueCapacity() {
+        return passwordHashingQueueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of password hashing tasks waiting for a
+     * thread. Logins and password changes beyond that are rejected at once.
+     *
+     * @param passwordHashingQueueCapacity Queue capacity (at least 1).
+     */
+    public void setPasswordHashingQueueCapacity(int passwordHashingQueueCapacity) {
+        if (passwordHashingQueueCapacity < 1) {
+            throw new IllegalArgumentException("passwordHashingQueueCapacity must be at least 1");
+        }
+        this.passwordHashingQueueCapacity = passwordHashingQueueCapacity;
+    }
+
+    /**
+     * Returns the path of the mutation log.
+     *
+     * @return Mutation log path (null if none).
+     */
+    public Path getMutationLogPath() {
+        return mutationLogPath;
+    }
+
+    /**
+     * Sets the path of the mutation log. If set, the log is replayed when
+     * the AuthServiceImpl object is constructed and every subsequent
+     * mutation is appended to it.
+     *
+     * @param mutationLogPath Mutation log path (null for none).
+     */
+    public void setMutationLogPath(Path mutationLogPath) {
+        this.mutationLogPath = mutationLogPath;
+    }
+
+    /**
+     * Returns the policy for forcing mutation log records to disk.
+     *
+     * @return Mutation log sync policy.
+     */
+    public MutationLogSyncPolicy getMutationLogSyncPolicy() {
+        return mutationLogSyncPolicy;
+    }
+
+    /**
+     * Sets the policy for forcing mutation log records to disk.
+     *
+     * @param mutationLogSyncPolicy Mutation log sync policy.
+     */
+    public void setMutationLogSyncPolicy(MutationLogSyncPolicy mutationLogSyncPolicy) {
+        this.mutationLogSyncPolicy = mutationLogSyncPolicy;
+    }
+
+    /**
+     * Returns the maximum time between forces under the INTERVAL sync policy.
+     *
+     * @return Sync interval in milliseconds.
+     */
+    public long getMutationLogSyncInterval() {
+        return mutationLogSyncInterval;
+    }
+
+    /**
+     * Sets the maximum time between forces under the INTERVAL sync policy.
+     *
+     * @param mutationLogSyncInterval Sync interval in milliseconds.
+     */
+    public void setMutationLogSyncInterval(long mutationLogSyncInterval) {
+        if (mutationLogSyncInterval <= 0) {
+            throw new IllegalArgumentException("mutationLogSyncInterval must be positive");
+        }
+        this.mutationLogSyncInterval = mutationLogSyncInterval;
+    }
+
+    /**
+     * Returns the path of the snapshot restored at startup.
+     *
+     * @return Snapshot path (null if none).
+     */
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * Sets the path of the snapshot restored at startup. If a snapshot
+     * exists at that path, it replaces the bootstrap configuration and only
+     * the mutation log records written after it are replayed.
+     *
+     * @param snapshotPath Snapshot path (null for none).
+     */
+    public void setSnapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    /**
+     * Returns the number of failed login attempts allowed in a burst per
+     * login ID.
+     *
+     * @return Login ID throttle capacity (0 if disabled).
+     */
+    public int getLoginThrottleCapacity() {
+        return loginThrottleCapacity;
+    }
+
+    /**
+     * Sets the number of failed login attempts allowed in a burst per login
+     * ID. Further attempts are rejected with a LoginThrottledException until
+     * the bucket refills.
+     *
+     * @param loginThrottleCapacity Capacity (0 to disable login ID throttling).
+     */
+    public void setLoginThrottleCapacity(int loginThrottleCapacity) {
+        if (loginThrottleCapacity < 0 || loginThrottleCapacity > LoginThrottle.MAX_CAPACITY) {
+            throw new IllegalArgumentException("loginThrottleCapacity must be between 0 and "
+                    + LoginThrottle.MAX_CAPACITY);
+        }
+        this.loginThrottleCapacity = loginThrottleCapacity;
+    }
+
+    /**
+     * Returns the time after which one more failed login attempt is allowed
+     * per login ID.
+     *
+     * @return Refill interval in milliseconds.
+     */
+    public long getLoginThrottleRefillInterval() {
+        return loginThrottleRefillInterval;
+    }
+
+    /**
+     * Sets the time after which one more failed login attempt is allowed per
+     * login ID.
+     *
+     * @param loginThrottleRefillInterval Refill interval in milliseconds.
+     */
+    public void setLoginThrottleRefillInterval(long loginThrottleRefillInterval) {
+        if (loginThrottleRefillInterval <= 0) {
+            throw new IllegalArgumentException("loginThrottleRefillInterval must be positive");
+        }
+        this.loginThrottleRefillInterval = loginThrottleRefillInterval;
+    }
+
+    /**
+     * Returns the number of failed login attempts allowed in a burst per
+     * source.
+     *
+     * @return Source throttle capacity (0 if disabled).
+     */
+    public int getSourceThrottleCapacity() {
+        return sourceThrottleCapacity;
+    }
+
+    /**
+     * Sets the number of failed login attempts allowed in a burst per source
+     * (as passed to login). Further attempts are rejected with a
+     * LoginThrottledException until the bucket refills.
+     *
+     * @param sourceThrottleCapacity Capacity (0 to disable source throttling).
+     */
+    public void setSourceThrottleCapacity(int sourceThrottleCapacity) {
+        if (sourceThrottleCapacity < 0 || sourceThrottleCapacity > LoginThrottle.MAX_CAPACITY) {
+            throw new IllegalArgumentException("sourceThrottleCapacity must be between 0 and "
+                    + LoginThrottle.MAX_CAPACITY);
+        }
+        this.sourceThrottleCapacity = sourceThrottleCapacity;
+    }
+
+    /**
+     * Returns the time after which one more failed login attempt is allowed
+     * per source.
+     *
+     * @return Refill interval in milliseconds.
+     */
+    public long getSourceThrottleRefillInterval() {
+        return sourceThrottleRefillInterval;
+    }
+
+    /**
+     * Sets the time after which one more failed login attempt is allowed per
+     * source.
+     *
+     * @param sourceThrottleRefillInterval Refill interval in milliseconds.
+     */
+    public void setSourceThrottleRefillInterval(long sourceThrottleRefillInterval) {
+        if (sourceThrottleRefillInterval <= 0) {
+            throw new IllegalArgumentException("sourceThrottleRefillInterval must be positive");
+        }
+        this.sourceThrottleRefillInterval = sourceThrottleRefillInterval;
+    }
+
+    /**
+     * Returns the number of token buckets per row of each login throttle
+     * table.
+     *
+     * @return Number of buckets per row.
+     */
+    public int getLoginThrottleSlots() {
+        return loginThrottleSlots;
+    }
+
+    /**
+     * Sets the number of token buckets per row of each login throttle table
+     * (rounded up to a power of two). Memory use is fixed at 16 bytes per
+     * slot, however many login IDs or sources are seen; innocent keys start
+     * to be throttled along with attacking ones once the number of keys
+     * failing at the same time approaches this number.
+     *
+     * @param loginThrottleSlots Number of buckets per row (at least 1).
+     */
+    public void setLoginThrottleSlots(int loginThrottleSlots) {
+        if (loginThrottleSlots < 1 || loginThrottleSlots > (1 << 24)) {
+            throw new IllegalArgumentException("loginThrottleSlots must be between 1 and " + (1 << 24));
+        }
+        this.loginThrottleSlots = loginThrottleSlots;
+    }
+
+    /**
+     * Returns true if the AuthServiceImpl keeps metrics.
+     *
+     * @return True if metrics are enabled.
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Sets whether the AuthServiceImpl keeps metrics. When disabled, login,
+     * logout and checkAccess are not instrumented at all.
+     *
+     * @param metricsEnabled True to enable metrics.
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Returns one in how many checkAccess and logout calls are sampled when
+     * metrics are enabled.
+     *
+     * @return Sample interval.
+     */
+    public int getMetricsSampleInterval() {
+        return metricsSampleInterval;
+    }
+
+    /**
+     * Sets one in how many checkAccess and logout calls are sampled when
+     * metrics are enabled. Each sampled call costs two reads of the system
+     * clock and a few atomic updates, so intervals much below the default
+     * noticeably slow checkAccess.
+     *
+     * @param metricsSampleInterval Sample interval (a power of two; 1 to time every call).
+     */
+    public void setMetricsSampleInterval(int metricsSampleInterval) {
+        if (metricsSampleInterval < 1 || Integer.bitCount(metricsSampleInterval) != 1) {
+            throw new IllegalArgumentException("metricsSampleInterval must be a positive power of two");
+        }
+        this.metricsSampleInterval = metricsSampleInterval;
+    }
+
+    /**
+     * Returns the part the AuthServiceImpl plays in replication.
+     *
+     * @return Replication role.
+     */
+    public ReplicationRole getReplicationRole() {
+        return replicationRole;
+    }
+
+    /**
+     * Sets the part the AuthServiceImpl plays in replication. A follower
+     * starts with an empty model, which a ReplicationFollower fills from the
+     * leader, so it cannot also have a mutation log or snapshot path; in
+     * SIGNED mode it must share the leader's signing key.
+     *
+     * @param replicationRole Replication role.
+     */
+    public void setReplicationRole(ReplicationRole replicationRole) {
+        this.replicationRole = replicationRole;
+    }
+
+    /**
+     * Returns the number of most recent change feed records a leader keeps
+     * for its followers.
+     *
+     * @return Feed capacity in records.
+     */
+    public int getReplicationFeedCapacity() {
+        return replicationFeedCapacity;
+    }
+
+    /**
+     * Sets the number of most recent change feed records a leader keeps for
+     * its followers. A follower that falls further behind installs a new
+     * snapshot.
+     *
+     * @param replicationFeedCapacity Feed capacity in records (at least 1).
+     */
+    public void setReplicationFeedCapacity(int replicationFeedCapacity) {
+        if (replicationFeedCapacity < 1) {
+            throw new IllegalArgumentException("replicationFeedCapacity must be at least 1");
+        }
+        this.replicationFeedCapacity = replicationFeedCapacity;
+    }
+
+    /**
+     * Returns the staleness beyond which a follower rejects access tokens.
+     *
+     * @return Maximum staleness in milliseconds.
+     */
+    public long getReplicationMaxStaleness() {
+        return replicationMaxStaleness;
+    }
+
+    /**
+     * Sets the staleness beyond which a follower rejects access tokens: the
+     * longest time for which a follower that has not heard from its leader
+     * keeps answering checkAccess from its copy of the model.
+     *
+     * @param replicationMaxStaleness Maximum staleness in milliseconds (at least 4).
+     */
+    public void setReplicationMaxStaleness(long replicationMaxStaleness) {
+        if (replicationMaxStaleness < 4) {
+            throw new IllegalArgumentException("replicationMaxStaleness must be at least 4");
+        }
+        this.replicationMaxStaleness = replicationMaxStaleness;
+    }
+}
@@ -12,14 +12,101 @@
  */
 package cscie97.asn4.squaredesk.authentication;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 /**
  * This class implements the AuthService interface to provide methods for
  * authenticating users and creating a hierarchy-based set of permissions for
  * applications.
  *
+ * The service is safe for use by multiple threads. checkAccess, login and
+ * logout run without locking against the concurrent maps below, while
+ * administrative methods that change services, permissions, roles or users
+ * are serialized on the AuthServiceImpl object. Those methods never modify an
+ * effective permission bitset that readers may hold: they build a new one and
+ * publish it to the User, so each check sees either the old or the new set
+ * of permissions, never a partial one.
+ *
+ * Depending on its AuthServiceConfiguration, the service issues either
+ * UUID-based access tokens tracked in a session registry (the default) or
+ * HMAC-signed tokens that any instance holding the signing key can verify
+ * without session state. Signed tokens expire at a fixed time and are
+ * revoked on logout through a revocation set that only holds unexpired
+ * entries.
+ *
+ * Passwords are hashed and verified on a bounded pool of hashing threads
+ * with PBKDF2 at a configurable iteration count. Legacy salted SHA-1
+ * digests, and PBKDF2 hashes with fewer iterations than configured, are
+ * rehashed after the next successful login. Administrative methods that
+ * hash a password do so before taking the AuthServiceImpl lock. Failed
+ * login attempts are throttled per login ID and per source with token
+ * buckets in fixed-size tables, and throttled attempts are rejected before
+ * any hashing.
+ *
+ * If enabled in the configuration, login, logout and checkAccess calls
+ * (including checkAccessMask, checkAccessAll and checkAccessAny) are
+ * counted and timed in an AuthServiceMetrics registry; checkAccess and
+ * logout are only sampled, so that they stay within a few nanoseconds of
+ * their uninstrumented cost.
+ *
+ * Each administrative method is split into a check phase (access token,
+ * permission and argument checks) and an apply method that performs the
+ * mutation. If a mutation log is configured, every applied mutation is
+ * appended to it while the lock is held and the caller waits for the record
+ * to become durable after releasing the lock; at startup the log is
+ * replayed through the apply methods, bypassing checkAccess. Neither
+ * checkAccess nor login (apart from a one-off password hash upgrade) ever
+ * touches the log.
+ *
+ * The whole model can also be saved as a binary snapshot, encoded under the
+ * lock and written in the background. An AuthServiceImpl configured with a
+ * snapshot path restores the snapshot (instead of running the bootstrap)
+ * and then replays only the mutation log records that follow it.
+ *
+ * Reverse indexes from each role to the Users holding it directly and from
+ * each permission to the Services, Roles and Users holding it directly let
+ * removeRole, removeService and the revoke*FromAllUsers methods visit only
+ * the affected entries. Each affected User's effective permissions are
+ * rebuilt once, after the structural changes, and published as above.
+ *
+ * Whole authentication CSV files can be provisioned as one transaction
+ * through BulkProvisioner: the token is checked once per kind of directive,
+ * the file is validated in full before anything is applied, and effective
+ * permissions are rebuilt once at the end.
+ *
+ * Several application nodes can share one model through replication. A
+ * LEADER publishes every applied mutation (the same fields as its mutation
+ * log records) and every access token it issues or revokes on an ordered
+ * change feed. A FOLLOWER is kept up to date with the feed by a
+ * ReplicationFollower, starting from a snapshot that records its feed
+ * position, and serves checkAccess from its own copy; it rejects logins,
+ * logouts and administrative calls, and rejects every access token once its
+ * copy may be older than the configured maximum staleness. Access tokens
+ * expire independently on each instance, since checkAccess slides their
+ * expiry only where it is called.
+ *
  * Please see the requirements document for more details.
  *
  * @author Roland L. Galibert
@@ -28,47 +115,290 @@ import java.util.HashMap;
 public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
 
     /**
-     * Active access token ID-to-User map.
+     * Registry of active sessions, indexed by access token ID and by login ID.
+     */
+    private SessionRegistry sessionRegistry;
+    /**
+     * Kind of access token issued upon login.
+     */
+    private AccessTokenMode accessTokenMode;
+    /**
+     * Codec for signed access tokens (SIGNED mode only).
+     */
+    private SignedAccessTokenCodec signedAccessTokenCodec;
+    /**
+     * Signed access tokens logged out before their expiry (SIGNED mode only).
+     */
+    private SignedAccessTokenRevocationSet signedAccessTokenRevocationSet;
+    /**
+     * Lifetime of signed access tokens in milliseconds.
+     */
+    private long signedAccessTokenLifetime;
+    /**
+     * Source of signing keys and signed access token nonces.
+     */
+    private SecureRandom secureRandom = new SecureRandom();
+    /**
+     * Cache of checkAccess decisions per access token and permission (null
+     * if disabled).
+     */
+    private AccessDecisionCache accessDecisionCache;
+    /**
+     * Bounded pool on which passwords are hashed and verified.
+     */
+    private PasswordHashingExecutor passwordHashingExecutor;
+    /**
+     * PBKDF2 iteration count for new and upgraded password hashes.
+     */
+    private int passwordHashIterations;
+    /**
+     * Throttle of failed login attempts per login ID (null if disabled).
+     */
+    private LoginThrottle loginThrottle;
+    /**
+     * Throttle of failed login attempts per source (null if disabled).
+     */
+    private LoginThrottle sourceThrottle;
+    /**
+     * Durable log of applied mutations (null if not configured).
+     */
+    private MutationLog mutationLog;
+    /**
+     * Case-folded login ID-to-User map, so that login resolves a credential
+     * with two hash lookups and no scans.
+     */
+    private ConcurrentHashMap<String, User> loginIDUserMap = new ConcurrentHashMap<>();
+    /**
+     * Registry interning permission IDs to the dense ordinals that index the
+     * permission bitsets held by services, roles and users.
+     */
+    private PermissionRegistry permissionRegistry = PermissionRegistry.getInstance();
+    /**
+     * Role ID-to-set of Users to which that role has been directly assigned.
+     */
+    private HashMap<String, HashSet<User>> roleUserMap = new HashMap<>();
+    /**
+     * Permission ID-to-set of IDs of the Services that include that permission.
      */
-    private HashMap<String, User> activeAccessTokenUserMap = new HashMap<>();
+    private HashMap<String, HashSet<String>> permissionServiceMap = new HashMap<>();
     /**
-     * Active access token ID-to-login ID map.
+     * Permission ID-to-set of IDs of the Roles to which that permission has
+     * been directly assigned.
      */
-    private HashMap<String, String> activeAccessTokenLoginIDMap = new HashMap<>();
+    private HashMap<String, HashSet<String>> permissionRoleMap = new HashMap<>();
     /**
-     * Login ID-to-User ID map.
+     * Permission ID-to-set of Users to which that permission has been
+     * directly assigned.
      */
-    private HashMap<String, String> loginIDUserIDMap = new HashMap<>();
+    private HashMap<String, HashSet<User>> permissionUserMap = new HashMap<>();
     /**
-     * Map of permission IDs to list of Users authorized with that permission.
+     * Cache of flattened role permissions and role ancestors.
      */
-    private HashMap<String, ArrayList<User>> permissionUserMap = new HashMap<>();
+    private RoleClosureCache roleClosureCache = new RoleClosureCache();
     /**
      * Service ID-to-Service map.
      */
-    private HashMap<String, Service> serviceMap = new HashMap<>();
+    private ConcurrentHashMap<String, Service> serviceMap = new ConcurrentHashMap<>();
     /**
      * Permission ID-to-Permission map.
      */
-    private HashMap<String, Permission> permissionMap = new HashMap<>();
+    private ConcurrentHashMap<String, Permission> permissionMap = new ConcurrentHashMap<>();
     /**
      * Role ID-to-Role map.
      */
-    private HashMap<String, Role> roleMap = new HashMap<>();
+    private ConcurrentHashMap<String, Role> roleMap = new ConcurrentHashMap<>();
     /**
      * User ID-to-User map.
      */
-    private HashMap<String, User> userMap = new HashMap<>();
+    private ConcurrentHashMap<String, User> userMap = new ConcurrentHashMap<>();
+    /**
+     * Timing wheel that reclaims access tokens once they expire.
+     */
+    private AccessTokenExpiryWheel accessTokenExpiryWheel;
+    /**
+     * Number of access tokens reclaimed (logged out or expired) since startup.
+     */
+    private AtomicLong reclaimedAccessTokenCount = new AtomicLong();
+    /**
+     * Registry of metrics (null if metrics are disabled).
+     */
+    private AuthServiceMetrics metrics;
+    /**
+     * Part this instance plays in replication.
+     */
+    private ReplicationRole replicationRole;
+    /**
+     * Change feed published to followers (LEADER only).
+     */
+    private ReplicationFeed replicationFeed;
+    /**
+     * Staleness beyond which a follower rejects access tokens, in milliseconds.
+     */
+    private long replicationMaxStaleness;
     /**
-     * Access token ID-to-Access Token map (both active and expired).
+     * Time until which a follower's copy of the model is known to be fresh
+     * enough to serve checkAccess (FOLLOWER only).
      */
-    private HashMap<String, AccessToken> accessTokenMap = new HashMap<>();
+    private volatile long replicaFreshUntil = 0;
 
     /**
-     * Private hidden singleton constructor.
+     * Private hidden singleton constructor (default configuration).
      */
     private AuthServiceImpl() {
-        bootstrap();
+        this(new AuthServiceConfiguration());
+    }
+
+    /**
+     * Constructor for a standalone AuthServiceImpl object with the specified
+     * configuration. Most clients should use the singleton instance returned
+     * by getInstance() instead.
+     *
+     * @param configuration AuthService configuration.
+     */
+    public AuthServiceImpl(AuthServiceConfiguration configuration) {
+        sessionRegistry = new SessionRegistry(configuration.getMaxSessionsPerLogin(),
+                configuration.getSessionLimitPolicy());
+        accessTokenMode = configuration.getAccessTokenMode();
+        if (accessTokenMode == AccessTokenMode.SIGNED) {
+            byte[] signingKey = configuration.getSigningKey();
+            if (signingKey == null) {
+                signingKey = new byte[32];
+                secureRandom.nextBytes(signingKey);
+            }
+            signedAccessTokenCodec = new SignedAccessTokenCodec(signingKey);
+            signedAccessTokenRevocationSet = new SignedAccessTokenRevocationSet();
+            signedAccessTokenLifetime = configuration.getSignedAccessTokenLifetime();
+        }
+        if (configuration.getDecisionCacheCapacity() > 0) {
+            accessDecisionCache = new AccessDecisionCache(configuration.getDecisionCacheCapacity());
+        }
+        passwordHashIterations = configuration.getPasswordHashIterations();
+        passwordHashingExecutor = new PasswordHashingExecutor(configuration.getPasswordHashingThreads(),
+                configuration.getPasswordHashingQueueCapacity());
+        if (configuration.getLoginThrottleCapacity() > 0) {
+            loginThrottle = new LoginThrottle(configuration.getLoginThrottleCapacity(),
+                    configuration.getLoginThrottleRefillInterval(), configuration.getLoginThrottleSlots());
+        }
+        if (configuration.getSourceThrottleCapacity() > 0) {
+            sourceThrottle = new LoginThrottle(configuration.getSourceThrottleCapacity(),
+                    configuration.getSourceThrottleRefillInterval(), configuration.getLoginThrottleSlots());
+        }
+        accessTokenExpiryWheel = new AccessTokenExpiryWheel(100, 64,
+                new AccessTokenExpiryWheel.ExpiryHandler() {
+                    @Override
+                    public void accessTokenExpired(AccessToken accessToken) {
+                        reclaimAccessToken(accessToken);
+                    }
+                });
+
+        replicationRole = configuration.getReplicationRole();
+        replicationMaxStaleness = configuration.getReplicationMaxStaleness();
+        if (replicationRole == ReplicationRole.LEADER) {
+            replicationFeed = new ReplicationFeed(configuration.getReplicationFeedCapacity());
+        } else if ((replicationRole == ReplicationRole.FOLLOWER)
+                && ((configuration.getMutationLogPath() != null) || (configuration.getSnapshotPath() != null))) {
+            throw new IllegalArgumentException("A follower takes its model from the leader and "
+                    + "cannot have a mutation log or snapshot path");
+        }
+
+        /*
+         * Start from the latest snapshot if there is one (it includes the
+         * bootstrap configuration), then replay the mutation log tail. A
+         * follower starts empty and waits for the leader's snapshot.
+         */
+        long snapshotSequence = 0;
+        Path snapshotPath = configuration.getSnapshotPath();
+        if ((snapshotPath != null) && Files.exists(snapshotPath)) {
+            snapshotSequence = restoreSnapshot(snapshotPath);
+        } else if (replicationRole != ReplicationRole.FOLLOWER) {
+            bootstrap();
+        }
+        rebuildPermissionIndexes();
+        if (configuration.getMutationLogPath() != null) {
+            openMutationLog(configuration.getMutationLogPath(), configuration.getMutationLogSyncPolicy(),
+                    configuration.getMutationLogSyncInterval(), snapshotSequence);
+        }
+        if (configuration.isMetricsEnabled()) {
+            metrics = new AuthServiceMetrics(configuration.getMetricsSampleInterval());
+            registerMetricSources();
+        }
+    }
+
+    /**
+     * This method registers the gauges and counters that the metrics registry
+     * reads from this AuthServiceImpl when it is polled.
+     */
+    private void registerMetricSources() {
+        metrics.registerGauge("active_access_tokens", "Live session access tokens.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return getLiveAccessTokenCount();
+                    }
+                });
+        metrics.registerGauge("users", "Registered users.", new AuthServiceMetrics.Source() {
+            @Override
+            public long read() {
+                return userMap.size();
+            }
+        });
+        metrics.registerGauge("roles", "Defined roles.", new AuthServiceMetrics.Source() {
+            @Override
+            public long read() {
+                return roleMap.size();
+            }
+        });
+        metrics.registerGauge("password_hashing_queue_depth", "Password hashing tasks waiting for a thread.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return passwordHashingExecutor.getQueueDepth();
+                    }
+                });
+        metrics.registerCounter("reclaimed_access_tokens", "Access tokens logged out or expired.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return getReclaimedAccessTokenCount();
+                    }
+                });
+        metrics.registerCounter("decision_cache_hits", "checkAccess decisions served from the cache.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return getDecisionCacheHitCount();
+                    }
+                });
+        metrics.registerCounter("decision_cache_misses", "checkAccess decisions computed.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return getDecisionCacheMissCount();
+                    }
+                });
+        metrics.registerCounter("throttled_login_id_attempts", "Login attempts throttled per login ID.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return getThrottledLoginIDAttemptCount();
+                    }
+                });
+        metrics.registerCounter("throttled_source_attempts", "Login attempts throttled per source.",
+                new AuthServiceMetrics.Source() {
+                    @Override
+                    public long read() {
+                        return getThrottledSourceAttemptCount();
+                    }
+                });
+        if (replicationFeed != null) {
+            metrics.registerCounter("replication_feed_records", "Records published on the replication feed.",
+                    new AuthServiceMetrics.Source() {
+                        @Override
+                        public long read() {
+                            return getReplicationFeedSequence();
+                        }
+                    });
+        }
     }
 
     /**
@@ -95,7 +425,7 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
      * 
      * @return Service object map.
      */
-    protected HashMap<String, Service> getServiceMap() {
+    protected Map<String, Service> getServiceMap() {
         return serviceMap;
     }
 
@@ -104,7 +434,7 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
      * 
      * @return Permission object map.
      */
-    protected HashMap<String, Permission> getPermissionMap() {
+    protected Map<String, Permission> getPermissionMap() {
         return permissionMap;
     }
 
@@ -113,7 +443,7 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
      * 
      * @return Role object map.
      */
-    protected HashMap<String, Role> getRoleMap() {
+    protected Map<String, Role> getRoleMap() {
         return roleMap;
     }
 
@@ -122,10 +452,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
      * 
      * @return User object map.
      */
-    protected HashMap<String, User> getUserMap() {
+    protected Map<String, User> getUserMap() {
         return userMap;
     }
 
+    /**
+     * This protected method returns the flattened set of permission ordinals
+     * granted by the specified role, through its subroles as well as
+     * directly. The returned bitset must not be modified.
+     * 
+     * @param roleID ID of role.
+     * @return Bitset of permission ordinals granted by the role.
+     */
+    protected BitSet getRolePermissionClosure(String roleID) {
+        return roleClosureCache.getPermissions(roleID);
+    }
+
     /**
      * This method creates the specified general Service and registers it in the
      * authentication service.
@@ -143,17 +485,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Service createService(String accessToken, String ID, String name, String description)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("create_service", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (serviceMap.containsKey(ID)) {
-            throw new AuthServiceException("Service ID already exists.");
-        } else {
-            Service newService = new Service(ID, name, description);
-            serviceMap.put(ID, newService);
-            return newService;
+        Service newService;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("create_service", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (serviceMap.containsKey(ID)) {
+                throw new AuthServiceException("Service ID already exists.");
+            }
+            newService = applyCreateService(ID, name, description);
+            logSequence = logMutation("create_service", ID, name, description);
         }
+        awaitMutationLog(logSequence);
+        return newService;
     }
 
     /**
@@ -172,22 +519,28 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Service updateServiceDescription(String accessToken, String serviceID, String newDescription)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("update_service_description", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!serviceMap.containsKey(serviceID)) {
-            throw new AuthServiceException("Service with specified ID does not exist.");
-        } else {
-            Service service = serviceMap.get(serviceID);
-            service.setDescription(newDescription);
-            return service;
+        Service service;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("update_service_description", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!serviceMap.containsKey(serviceID)) {
+                throw new AuthServiceException("Service with specified ID does not exist.");
+            }
+            service = applyUpdateServiceDescription(serviceID, newDescription);
+            logSequence = logMutation("update_service_description", serviceID, newDescription);
         }
+        awaitMutationLog(logSequence);
+        return service;
     }
 
     /**
      * This method removes the specified Service from the set of authenticated
-     * Services.
+     * Services, together with each of its permissions that no other Service
+     * holds; those permissions are also removed from every Role and User.
      * 
      * @param accessToken Client access token.
      * @param serviceID ID associated with Service object.
@@ -199,15 +552,20 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void removeService(String accessToken, String serviceID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_service", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!serviceMap.containsKey(serviceID)) {
-            throw new AuthServiceException("Service with specified ID does not exist.");
-        } else {
-            serviceMap.remove(serviceID);
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_service", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!serviceMap.containsKey(serviceID)) {
+                throw new AuthServiceException("Service with specified ID does not exist.");
+            }
+            applyRemoveService(serviceID);
+            logSequence = logMutation("remove_service", serviceID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -226,21 +584,24 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Service addServicePermission(String accessToken, String serviceID, String permissionID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("add_service_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!serviceMap.containsKey(serviceID)) {
-            throw new AuthServiceException("Service with specified ID does not exist.");
-        } else {
-            Service service = serviceMap.get(serviceID);
-            if (service.getPermissions().contains(permissionID)) {
+        Service service;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("add_service_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!serviceMap.containsKey(serviceID)) {
+                throw new AuthServiceException("Service with specified ID does not exist.");
+            } else if (serviceMap.get(serviceID).hasPermission(permissionID)) {
                 throw new AuthServiceException("Service already includes specified permission.");
-            } else {
-                service.getPermissions().add(permissionID);
-                return service;
             }
+            service = applyAddServicePermission(serviceID, permissionID);
+            logSequence = logMutation("add_service_permission", serviceID, permissionID);
         }
+        awaitMutationLog(logSequence);
+        return service;
     }
 
     /**
@@ -260,22 +621,24 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
             String permissionID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_service_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!serviceMap.containsKey(serviceID)) {
-            throw new AuthServiceException("Service with specified ID does not exist.");
-        } else {
-            Service service = serviceMap.get(serviceID);
-            if (!service.getPermissions().contains(permissionID)) {
+        Service service;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_service_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!serviceMap.containsKey(serviceID)) {
+                throw new AuthServiceException("Service with specified ID does not exist.");
+            } else if (!serviceMap.get(serviceID).hasPermission(permissionID)) {
                 throw new AuthServiceException("Service does not include specified permission.");
-            } else {
-                service.getPermissions().remove(permissionID);
-                permissionMap.remove(permissionID);
-                return service;
             }
+            service = applyRemoveServicePermission(serviceID, permissionID);
+            logSequence = logMutation("remove_service_permission", serviceID, permissionID);
         }
+        awaitMutationLog(logSequence);
+        return service;
     }
 
     /**
@@ -294,17 +657,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Permission createPermission(String accessToken, String ID, String name, String description)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("create_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (permissionMap.containsKey(ID)) {
-            throw new AuthServiceException("Permission with specified ID already exists.");
-        } else {
-            Permission newPermission = new Permission(ID, name, description);
-            permissionMap.put(ID, newPermission);
-            return newPermission;
+        Permission newPermission;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("create_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (permissionMap.containsKey(ID)) {
+                throw new AuthServiceException("Permission with specified ID already exists.");
+            }
+            newPermission = applyCreatePermission(ID, name, description);
+            logSequence = logMutation("create_permission", ID, name, description);
         }
+        awaitMutationLog(logSequence);
+        return newPermission;
     }
 
     /**
@@ -323,17 +691,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Permission updatePermissionDescription(String accessToken,
             String permissionID, String newDescription)
             throws InvalidAccessTokenException, UnauthorizedAccessException, AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("update_permission_description", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!permissionMap.containsKey(permissionID)) {
-            throw new AuthServiceException("Permission with specified ID does not exist.");
-        } else {
-            Permission permission = permissionMap.get(permissionID);
-            permission.setDescription(newDescription);
-            return permission;
+        Permission permission;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("update_permission_description", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!permissionMap.containsKey(permissionID)) {
+                throw new AuthServiceException("Permission with specified ID does not exist.");
+            }
+            permission = applyUpdatePermissionDescription(permissionID, newDescription);
+            logSequence = logMutation("update_permission_description", permissionID, newDescription);
         }
+        awaitMutationLog(logSequence);
+        return permission;
     }
 
     /**
@@ -352,17 +725,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Role createRole(String accessToken, String ID, String name, String description)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("create_role", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (roleMap.containsKey(ID)) {
-            throw new AuthServiceException("Role with specified ID already exists.");
-        } else {
-            Role newRole = new Role(ID, name, description);
-            roleMap.put(ID, newRole);
-            return newRole;
+        Role newRole;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("create_role", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (roleMap.containsKey(ID)) {
+                throw new AuthServiceException("Role with specified ID already exists.");
+            }
+            newRole = applyCreateRole(ID, name, description);
+            logSequence = logMutation("create_role", ID, name, description);
         }
+        awaitMutationLog(logSequence);
+        return newRole;
     }
 
     /**
@@ -380,17 +758,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Role updateRoleDescription(String accessToken, String roleID, String newDescription)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("update_role_description", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!roleMap.containsKey(roleID)) {
-            throw new AuthServiceException("Role with specified ID does not exist.");
-        } else {
-            Role role = roleMap.get(roleID);
-            role.setDescription(newDescription);
-            return role;
+        Role role;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("update_role_description", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
+            }
+            role = applyUpdateRoleDescription(roleID, newDescription);
+            logSequence = logMutation("update_role_description", roleID, newDescription);
         }
+        awaitMutationLog(logSequence);
+        return role;
     }
 
     /**
@@ -406,15 +789,20 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void removeRole(String accessToken, String roleID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_role", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!roleMap.containsKey(roleID)) {
-            throw new AuthServiceException("Role with specified ID does not exist.");
-        } else {
-            Role role = roleMap.remove(roleID);
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_role", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
+            }
+            applyRemoveRole(roleID);
+            logSequence = logMutation("remove_role", roleID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -432,21 +820,24 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public Role addRolePermission(String accessToken, String roleID, String permissionID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("add_role_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!roleMap.containsKey(roleID)) {
-            throw new AuthServiceException("Role with specified ID does not exist.");
-        } else {
-            Role role = roleMap.get(roleID);
-            if (role.getPermissions().contains(permissionID)) {
+        Role role;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("add_role_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
+            } else if (roleMap.get(roleID).hasPermission(permissionID)) {
                 throw new AuthServiceException("Role already includes specified permission.");
-            } else {
-                role.getPermissions().add(permissionID);
-                return role;
             }
+            role = applyAddRolePermission(roleID, permissionID);
+            logSequence = logMutation("add_role_permission", roleID, permissionID);
         }
+        awaitMutationLog(logSequence);
+        return role;
     }
 
     /**
@@ -464,20 +855,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
             String permissionID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_role_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!roleMap.containsKey(roleID)) {
-            throw new AuthServiceException("Role with specified ID does not exist.");
-        } else {
-            Role role = roleMap.get(roleID);
-            if (!role.getPermissions().contains(permissionID)) {
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_role_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
+            } else if (!roleMap.get(roleID).hasPermission(permissionID)) {
                 throw new AuthServiceException("Role does not include specified permission.");
-            } else {
-                role.getPermissions().remove(permissionID);
             }
+            applyRemoveRolePermission(roleID, permissionID);
+            logSequence = logMutation("remove_role_permission", roleID, permissionID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -493,20 +886,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void addRoleEntitlement(String accessToken, String roleID, String entitlementID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("add_role_entitlement", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!roleMap.containsKey(roleID)) {
-            throw new AuthServiceException("Role with specified ID does not exist.");
-        } else {
-            Role role = roleMap.get(roleID);
-            if (permissionMap.containsKey(entitlementID)) {
-                role.addPermission(entitlementID);
-            } else if (roleMap.containsKey(entitlementID)) {
-                role.addSubrole(entitlementID);
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("add_role_entitlement", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
+            } else if (!permissionMap.containsKey(entitlementID) && !roleMap.containsKey(entitlementID)) {
+                return;
             }
+            applyAddRoleEntitlement(roleID, entitlementID);
+            logSequence = logMutation("add_role_entitlement", roleID, entitlementID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -524,18 +919,26 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public User createUser(String accessToken, String userName, String userID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("create_user", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID already exists.");
-        } else {
-            User newUser = new User(userName, userID);
-            userMap.put(userID, newUser);
-            addUserRole(accessToken, userID, "user_role");
-            return newUser;
+        User newUser;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("create_user", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID already exists.");
+            } else if (!checkAccess("add_user_role", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey("user_role")) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
+            }
+            newUser = applyCreateUser(userName, userID);
+            logSequence = logMutation("create_user", userName, userID);
         }
+        awaitMutationLog(logSequence);
+        return newUser;
     }
 
     /**
@@ -553,17 +956,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public User updateUserName(String accessToken, String userID, String newName)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("update_user_name", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            user.setUserName(newName);
-            return user;
+        User user;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("update_user_name", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            }
+            user = applyUpdateUserName(userID, newName);
+            logSequence = logMutation("update_user_name", userID, newName);
         }
+        awaitMutationLog(logSequence);
+        return user;
     }
 
     /**
@@ -582,17 +990,36 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
             String password)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
+        checkWritable();
         if (!validAccessToken(accessToken)) {
             throw new InvalidAccessTokenException();
         } else if (!checkAccess("add_user_credential", accessToken)) {
             throw new UnauthorizedAccessException();
         } else if (!userMap.containsKey(userID)) {
             throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            user.addCredential(loginID, password);
-            loginIDUserIDMap.put(loginID, userID);
+        } else if (loginIDHeldByOtherUser(loginID, userID)) {
+            throw new AuthServiceException("Login ID is already in use by another user.");
+        }
+
+        /*
+         * Hash the password on the hashing pool, then add the credential
+         * under the lock (the user may have been removed, or the login ID
+         * taken, meanwhile)
+         */
+        PasswordHash passwordHash = hashPassword(password);
+        long logSequence;
+        synchronized (this) {
+            if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (loginIDHeldByOtherUser(loginID, userID)) {
+                throw new AuthServiceException("Login ID is already in use by another user.");
+            } else if (userMap.get(userID).credentialExists(loginID)) {
+                return;
+            }
+            applyAddUserCredential(userID, loginID, passwordHash);
+            logSequence = logMutation(passwordHashFields("add_user_credential", userID, loginID, passwordHash));
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -609,18 +1036,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void removeUserCredential(String accessToken, String userID, String loginID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_user_credential", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            if (user.credentialExists(loginID)) {
-                user.removeCredential(loginID);
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_user_credential", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (!userMap.get(userID).credentialExists(loginID)) {
+                return;
             }
+            applyRemoveUserCredential(userID, loginID);
+            logSequence = logMutation("remove_user_credential", userID, loginID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -640,19 +1071,36 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public User updateUserPassword(String accessToken, String userID, String loginID, String newPassword)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
+        checkWritable();
         if (!validAccessToken(accessToken)) {
             throw new InvalidAccessTokenException();
         } else if (!checkAccess("update_user_password", accessToken)) {
             throw new UnauthorizedAccessException();
         } else if (!userMap.containsKey(userID)) {
             throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            if (user.credentialExists(loginID)) {
-                user.changePassword(loginID, newPassword);
+        } else if (!userMap.get(userID).credentialExists(loginID)) {
+            return userMap.get(userID);
+        }
+
+        /*
+         * Hash the new password on the hashing pool, then replace the old
+         * hash under the lock
+         */
+        PasswordHash newPasswordHash = hashPassword(newPassword);
+        User user;
+        long logSequence;
+        synchronized (this) {
+            user = userMap.get(userID);
+            if (user == null) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (!user.credentialExists(loginID)) {
+                return user;
             }
-            return user;
+            applyUpdateUserPassword(userID, loginID, newPasswordHash);
+            logSequence = logMutation(passwordHashFields("update_user_password", userID, loginID, newPasswordHash));
         }
+        awaitMutationLog(logSequence);
+        return user;
     }
 
     /**
@@ -669,25 +1117,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void addUserPermission(String accessToken, String userID, String permissionID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("add_user_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            if (user.getPermissions().contains(permissionID)) {
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("add_user_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (userMap.get(userID).hasPermission(permissionID)) {
                 throw new AuthServiceException("User already has specified permission.");
-            } else {
-                user.getPermissions().add(permissionID);
-                if (!permissionUserMap.containsKey(permissionID)) {
-                    ArrayList<User> newUserList = new ArrayList<>();
-                    permissionUserMap.put(permissionID, newUserList);
-                }
-                permissionUserMap.get(permissionID).add(user);
             }
+            applyAddUserPermission(userID, permissionID);
+            logSequence = logMutation("add_user_permission", userID, permissionID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -704,21 +1149,22 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void removeUserPermission(String accessToken, String userID, String permissionID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_user_permission", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            if (!user.getPermissions().contains(permissionID)) {
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_user_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (!userMap.get(userID).hasPermission(permissionID)) {
                 throw new AuthServiceException("User does not own specified permission.");
-            } else {
-                user.getPermissions().remove(permissionID);
-                permissionUserMap.get(permissionID).remove(user);
             }
+            applyRemoveUserPermission(userID, permissionID);
+            logSequence = logMutation("remove_user_permission", userID, permissionID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
@@ -735,226 +1181,1971 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
     public void addUserRole(String accessToken, String userID, String roleID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("add_user_role", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            if (user.getRoles().contains(roleID)) {
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("add_user_role", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (userMap.get(userID).getRoles().contains(roleID)) {
                 throw new AuthServiceException("User already has specified role.");
-            } else {
-                user.getRoles().add(roleID);
-                Role role = roleMap.get(roleID);
-                addRoleToPermissionUserMap(role, user);
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
             }
+            applyAddUserRole(userID, roleID);
+            logSequence = logMutation("add_user_role", userID, roleID);
         }
+        awaitMutationLog(logSequence);
     }
 
     /**
-     * This recursive method updates the permissionUserMap by adding a 
-     * permission-to-user ID element to the map, associating each Permission in the Role
-     * to the specified User.
+     * This method removes the specified Role from the specified User.
      * 
      * @param accessToken Client access token.
-     * @param userID ID of User to whom a Role is to be added.
+     * @param userID ID of User to be modified.
      * @param roleID ID of Role to be removed.
      * @throws InvalidAccessTokenException
      * @throws UnauthorizedAccessException
      * @throws AuthServiceException
      */
-    private void addRoleToPermissionUserMap(Role role, User user) {
-        for (int i = 0; i < role.getPermissions().size(); i++) {
-            if (!permissionUserMap.containsKey(role.getPermissions().get(i))) {
-
-                ArrayList<User> newUserList = new ArrayList<>();
-                permissionUserMap.put(role.getPermissions().get(i), newUserList);
-                permissionUserMap.get(role.getPermissions().get(i)).add(user);
-
-            } else {
-                if (!permissionUserMap.get(role.getPermissions().get(i)).contains(user)) {
-                    permissionUserMap.get(role.getPermissions().get(i)).add(user);
-                }
+    @Override
+    public void removeUserRole(String accessToken, String userID, String roleID)
+            throws InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException {
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_user_role", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!userMap.containsKey(userID)) {
+                throw new AuthServiceException("User with specified ID does not exist.");
+            } else if (!userMap.get(userID).getRoles().contains(roleID)) {
+                throw new AuthServiceException("User does not have specified role.");
             }
+            applyRemoveUserRole(userID, roleID);
+            logSequence = logMutation("remove_user_role", userID, roleID);
         }
-        for (int i = 0; i < role.getSubroles().size(); i++) {
-            Role subrole = roleMap.get(role.getSubroles().get(i));
-            addRoleToPermissionUserMap(subrole, user);
-        }
+        awaitMutationLog(logSequence);
     }
 
     /**
-     * This method removes the specified Role from the specified User.
-     * 
+     * This method removes the specified Role from every User to whom it has
+     * been directly assigned (Users holding it through another role keep it).
+     * The holders are taken from the role's reverse index, so the cost is
+     * proportional to their number, and each of them has its effective
+     * permissions rebuilt once.
+     *
      * @param accessToken Client access token.
-     * @param userID ID of User to be modified.
-     * @param roleID ID of Role to be removed.
+     * @param roleID ID of Role to be revoked.
+     * @return Number of Users from whom the Role was removed.
      * @throws InvalidAccessTokenException
      * @throws UnauthorizedAccessException
      * @throws AuthServiceException
      */
     @Override
-    public void removeUserRole(String accessToken, String userID, String roleID)
+    public int revokeRoleFromAllUsers(String accessToken, String roleID)
             throws InvalidAccessTokenException, UnauthorizedAccessException,
             AuthServiceException {
-        if (!validAccessToken(accessToken)) {
-            throw new InvalidAccessTokenException();
-        } else if (!checkAccess("remove_user_role", accessToken)) {
-            throw new UnauthorizedAccessException();
-        } else if (!userMap.containsKey(userID)) {
-            throw new AuthServiceException("User with specified ID does not exist.");
-        } else {
-            User user = userMap.get(userID);
-            if (!user.getRoles().contains(roleID)) {
-                throw new AuthServiceException("User does not have specified role.");
-            } else {
-                user.getRoles().remove(roleID);
-                Role role = roleMap.get(roleID);
-                removeRoleFromPermissionUserMap(role, user);
+        int revokedCount;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_user_role", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!roleMap.containsKey(roleID)) {
+                throw new AuthServiceException("Role with specified ID does not exist.");
             }
+            revokedCount = applyRevokeRoleFromAllUsers(roleID);
+            logSequence = logMutation("revoke_role_from_all_users", roleID);
         }
+        awaitMutationLog(logSequence);
+        return revokedCount;
     }
 
     /**
-     * This recursive method updates the permissionUserMap by deleting all 
-     * permission-to-user ID elements in the map, where the permission is a
-     * Permission in the Role and the user is the specified User.
-     * to the specified User.
-     * 
+     * This method removes the specified Permission from every User to whom it
+     * has been directly assigned (Users holding it through a role keep it).
+     * The holders are taken from the permission's reverse index, so the cost
+     * is proportional to their number, and each of them has its effective
+     * permissions rebuilt once.
+     *
      * @param accessToken Client access token.
-     * @param userID ID of User whose role is to be removed.
-     * @param roleID ID of Role to be removed.
+     * @param permissionID ID of Permission to be revoked.
+     * @return Number of Users from whom the Permission was removed.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     * @throws AuthServiceException
+     */
+    @Override
+    public int revokePermissionFromAllUsers(String accessToken, String permissionID)
+            throws InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException {
+        int revokedCount;
+        long logSequence;
+        synchronized (this) {
+            checkWritable();
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            } else if (!checkAccess("remove_user_permission", accessToken)) {
+                throw new UnauthorizedAccessException();
+            } else if (!permissionMap.containsKey(permissionID)
+                    && !permissionUserMap.containsKey(permissionID)) {
+                throw new AuthServiceException("Permission with specified ID does not exist.");
+            }
+            revokedCount = applyRevokePermissionFromAllUsers(permissionID);
+            logSequence = logMutation("revoke_permission_from_all_users", permissionID);
+        }
+        awaitMutationLog(logSequence);
+        return revokedCount;
+    }
+
+    /**
+     * This method applies a bulk provisioning file, parsed by
+     * BulkProvisioner, as a single transaction. The access token is checked
+     * once for each permission the file's directives need (rather than once
+     * per line), and every directive is validated against the current
+     * configuration plus the directives that precede it; errors are added
+     * to the report with their line numbers. If there are none, passwords
+     * are hashed on the hashing pool outside the lock, and the directives
+     * are validated again and applied under the lock. Effective permissions
+     * are rebuilt once, at the end, for the users affected, and the whole
+     * file is logged as a single mutation log record, so it is replayed
+     * entirely or not at all.
+     * 
+     * @param accessToken Client access token.
+     * @param directives Parsed directives, in file order.
+     * @param report Provisioning report (may already hold parse errors).
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException If the token lacks a permission the file needs.
+     * @throws AuthServiceException If the changes cannot be logged.
+     */
+    void provision(String accessToken, ArrayList<ProvisioningDirective> directives,
+            BulkProvisioningReport report)
+            throws InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException {
+        checkWritable();
+        authorizeProvisioning(accessToken, directives);
+        synchronized (this) {
+            validateProvisioning(directives, report);
+        }
+        if (report.hasErrors()) {
+            return;
+        }
+
+        /*
+         * Hash every credential's password before taking the lock
+         */
+        long hashingStartTime = System.nanoTime();
+        hashProvisioningPasswords(accessToken, directives);
+        report.setHashingNanos(System.nanoTime() - hashingStartTime);
+
+        /*
+         * Check again under the lock (the configuration may have changed
+         * meanwhile), then apply and log the whole file
+         */
+        long logSequence;
+        synchronized (this) {
+            authorizeProvisioning(accessToken, directives);
+            validateProvisioning(directives, report);
+            if (report.hasErrors()) {
+                return;
+            }
+            applyProvisioning(directives);
+            logSequence = logProvisioning(directives);
+        }
+        awaitMutationLog(logSequence);
+        report.setCommitted(true);
+    }
+
+    /**
+     * This method checks that the specified access token is valid and holds
+     * every permission needed by the specified directives, checking each
+     * kind of directive once.
+     * 
+     * @param accessToken Client access token.
+     * @param directives Provisioning directives.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    private void authorizeProvisioning(String accessToken, ArrayList<ProvisioningDirective> directives)
+            throws InvalidAccessTokenException, UnauthorizedAccessException {
+        if (!validAccessToken(accessToken)) {
+            throw new InvalidAccessTokenException();
+        }
+        HashSet<String> authorizedDirectives = new HashSet<>();
+        for (int i = 0; i < directives.size(); i++) {
+            String directive = directives.get(i).getDirective();
+            if (authorizedDirectives.add(directive)) {
+                String[] permissionIDs;
+                if (directive.equals(ProvisioningDirective.DEFINE_SERVICE)) {
+                    permissionIDs = new String[] {"create_service"};
+                } else if (directive.equals(ProvisioningDirective.DEFINE_PERMISSION)) {
+                    permissionIDs = new String[] {"create_permission", "add_service_permission"};
+                } else if (directive.equals(ProvisioningDirective.DEFINE_ROLE)) {
+                    permissionIDs = new String[] {"create_role"};
+                } else if (directive.equals(ProvisioningDirective.ADD_ENTITLEMENT_TO_ROLE)) {
+                    permissionIDs = new String[] {"add_role_entitlement"};
+                } else if (directive.equals(ProvisioningDirective.CREATE_USER)) {
+                    permissionIDs = new String[] {"create_user", "add_user_role"};
+                } else if (directive.equals(ProvisioningDirective.ADD_CREDENTIAL)) {
+                    permissionIDs = new String[] {"add_user_credential"};
+                } else {
+                    permissionIDs = new String[] {"add_user_role"};
+                }
+                for (int j = 0; j < permissionIDs.length; j++) {
+                    if (!checkAccess(permissionIDs[j], accessToken)) {
+                        throw new UnauthorizedAccessException();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method validates the specified directives in order, against the
+     * current configuration plus the services, permissions, roles, users,
+     * credentials and entitlements staged by the directives before them.
+     * Each error is added to the report; directives that would have no
+     * effect (a credential the user already has, or an entitlement that is
+     * neither a permission nor a role, both of which the individual methods
+     * ignore) are marked as skipped. It is called with the AuthServiceImpl
+     * lock held.
+     * 
+     * @param directives Provisioning directives.
+     * @param report Provisioning report.
+     */
+    private void validateProvisioning(ArrayList<ProvisioningDirective> directives,
+            BulkProvisioningReport report) {
+        HashSet<String> newServiceIDs = new HashSet<>();
+        HashSet<String> newPermissionIDs = new HashSet<>();
+        HashSet<String> newRoleIDs = new HashSet<>();
+        HashSet<String> newUserIDs = new HashSet<>();
+        HashSet<String> newUserRoles = new HashSet<>();
+        HashMap<String, String> newLoginIDUsers = new HashMap<>();
+        HashMap<String, ArrayList<String>> newSubroles = new HashMap<>();
+        int skippedCount = 0;
+        for (int i = 0; i < directives.size(); i++) {
+            ProvisioningDirective directive = directives.get(i);
+            String name = directive.getDirective();
+            String error = null;
+            directive.setSkipped(false);
+            if (name.equals(ProvisioningDirective.DEFINE_SERVICE)) {
+                if (serviceMap.containsKey(directive.getField(0)) || !newServiceIDs.add(directive.getField(0))) {
+                    error = "Service ID already exists.";
+                }
+            } else if (name.equals(ProvisioningDirective.DEFINE_PERMISSION)) {
+                String serviceID = directive.getField(0);
+                String permissionID = directive.getField(1);
+                if (!serviceMap.containsKey(serviceID) && !newServiceIDs.contains(serviceID)) {
+                    error = "Service with specified ID does not exist.";
+                } else if (permissionMap.containsKey(permissionID) || newPermissionIDs.contains(permissionID)) {
+                    error = "Permission with specified ID already exists.";
+                } else if (serviceMap.containsKey(serviceID) && serviceMap.get(serviceID).hasPermission(permissionID)) {
+                    error = "Service already includes specified permission.";
+                } else {
+                    newPermissionIDs.add(permissionID);
+                }
+            } else if (name.equals(ProvisioningDirective.DEFINE_ROLE)) {
+                if (roleMap.containsKey(directive.getField(0)) || !newRoleIDs.add(directive.getField(0))) {
+                    error = "Role with specified ID already exists.";
+                }
+            } else if (name.equals(ProvisioningDirective.ADD_ENTITLEMENT_TO_ROLE)) {
+                String roleID = directive.getField(0);
+                String entitlementID = directive.getField(1);
+                if (!roleMap.containsKey(roleID) && !newRoleIDs.contains(roleID)) {
+                    error = "Role with specified ID does not exist.";
+                } else if (!permissionMap.containsKey(entitlementID) && !newPermissionIDs.contains(entitlementID)) {
+                    if (!roleMap.containsKey(entitlementID) && !newRoleIDs.contains(entitlementID)) {
+                        directive.setSkipped(true);
+                    } else if (createsRoleCycle(roleID, entitlementID, newSubroles)) {
+                        error = "Entitlement would make role a subrole of itself.";
+                    } else {
+                        if (!newSubroles.containsKey(roleID)) {
+                            newSubroles.put(roleID, new ArrayList<String>());
+                        }
+                        newSubroles.get(roleID).add(entitlementID);
+                    }
+                }
+            } else if (name.equals(ProvisioningDirective.CREATE_USER)) {
+                String userID = directive.getField(0);
+                if (userMap.containsKey(userID) || newUserIDs.contains(userID)) {
+                    error = "User with specified ID already exists.";
+                } else if (!roleMap.containsKey("user_role") && !newRoleIDs.contains("user_role")) {
+                    error = "Role with specified ID does not exist.";
+                } else {
+                    newUserIDs.add(userID);
+                    newUserRoles.add(userID + '\u0000' + "user_role");
+                }
+            } else if (name.equals(ProvisioningDirective.ADD_CREDENTIAL)) {
+                String userID = directive.getField(0);
+                String loginID = directive.getField(1);
+                String foldedLoginID = Credential.foldLoginID(loginID);
+                String loginIDUserID = newLoginIDUsers.get(foldedLoginID);
+                if (!userMap.containsKey(userID) && !newUserIDs.contains(userID)) {
+                    error = "User with specified ID does not exist.";
+                } else if (loginIDHeldByOtherUser(loginID, userID)
+                        || ((loginIDUserID != null) && !loginIDUserID.equals(userID))) {
+                    error = "Login ID is already in use by another user.";
+                } else if ((userMap.containsKey(userID) && userMap.get(userID).credentialExists(loginID))
+                        || (loginIDUserID != null)) {
+                    directive.setSkipped(true);
+                } else {
+                    newLoginIDUsers.put(foldedLoginID, userID);
+                }
+            } else if (name.equals(ProvisioningDirective.ADD_ROLE_TO_USER)) {
+                String userID = directive.getField(0);
+                String roleID = directive.getField(1);
+                if (!userMap.containsKey(userID) && !newUserIDs.contains(userID)) {
+                    error = "User with specified ID does not exist.";
+                } else if ((userMap.containsKey(userID) && userMap.get(userID).getRoles().contains(roleID))
+                        || newUserRoles.contains(userID + '\u0000' + roleID)) {
+                    error = "User already has specified role.";
+                } else if (!roleMap.containsKey(roleID) && !newRoleIDs.contains(roleID)) {
+                    error = "Role with specified ID does not exist.";
+                } else {
+                    newUserRoles.add(userID + '\u0000' + roleID);
+                }
+            }
+            if (error != null) {
+                report.addError(directive.getLineNumber(), error);
+            }
+            if (directive.isSkipped()) {
+                skippedCount++;
+            }
+        }
+        report.setSkippedCount(skippedCount);
+    }
+
+    /**
+     * This method returns true if making the specified child role a subrole
+     * of the specified parent role would create a cycle, taking into account
+     * both current subroles and the subroles staged so far.
+     * 
+     * @param parentID ID of parent role.
+     * @param childID ID of prospective subrole.
+     * @param newSubroles Staged role ID-to-subrole IDs map.
+     * @return True if the parent role is reachable from the child role.
+     */
+    private boolean createsRoleCycle(String parentID, String childID,
+            HashMap<String, ArrayList<String>> newSubroles) {
+        ArrayDeque<String> pendingRoleIDs = new ArrayDeque<>();
+        HashSet<String> visitedRoleIDs = new HashSet<>();
+        pendingRoleIDs.push(childID);
+        while (!pendingRoleIDs.isEmpty()) {
+            String roleID = pendingRoleIDs.pop();
+            if (roleID.equals(parentID)) {
+                return true;
+            } else if (visitedRoleIDs.add(roleID)) {
+                if (roleMap.containsKey(roleID)) {
+                    pendingRoleIDs.addAll(roleMap.get(roleID).getSubroles());
+                }
+                if (newSubroles.containsKey(roleID)) {
+                    pendingRoleIDs.addAll(newSubroles.get(roleID));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method hashes the password of every add_credential directive on
+     * the password hashing pool, keeping at most one task per hashing thread
+     * in flight so as to leave the queue to concurrent logins. A password
+     * whose task is rejected anyway is hashed on the calling thread. The
+     * access token is checked again after each round, which keeps a session
+     * token from timing out while a large file is hashed and stops early if
+     * the token is revoked meanwhile.
+     * 
+     * @param accessToken Client access token.
+     * @param directives Provisioning directives.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     * @throws AuthServiceException If interrupted while waiting.
+     */
+    private void hashProvisioningPasswords(String accessToken, ArrayList<ProvisioningDirective> directives)
+            throws InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException {
+        ArrayList<ProvisioningDirective> credentialDirectives = new ArrayList<>();
+        for (int i = 0; i < directives.size(); i++) {
+            if (directives.get(i).getDirective().equals(ProvisioningDirective.ADD_CREDENTIAL)) {
+                credentialDirectives.add(directives.get(i));
+            }
+        }
+        int window = passwordHashingExecutor.getThreadCount();
+        ArrayList<CompletableFuture<PasswordHash>> futures = new ArrayList<>(window);
+        for (int start = 0; start < credentialDirectives.size(); start += window) {
+            int end = Math.min(start + window, credentialDirectives.size());
+            futures.clear();
+            for (int i = start; i < end; i++) {
+                final String password = credentialDirectives.get(i).getField(2);
+                futures.add(passwordHashingExecutor.submit(new Callable<PasswordHash>() {
+                    @Override
+                    public PasswordHash call() {
+                        return PasswordHash.pbkdf2(password, passwordHashIterations);
+                    }
+                }));
+            }
+            for (int i = start; i < end; i++) {
+                ProvisioningDirective directive = credentialDirectives.get(i);
+                try {
+                    directive.setPasswordHash(futures.get(i - start).get());
+                } catch (ExecutionException ee) {
+                    directive.setPasswordHash(PasswordHash.pbkdf2(directive.getField(2), passwordHashIterations));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new AuthServiceException("Interrupted while waiting for password hashing.");
+                }
+            }
+            if (!checkAccess("add_user_credential", accessToken)) {
+                throw new UnauthorizedAccessException();
+            }
+        }
+    }
+
+    /**
+     * This method applies validated provisioning directives. Services,
+     * permissions, roles, role entitlements, users, credentials and user
+     * roles are added as the directives are applied, but effective
+     * permissions are only rebuilt at the end, once for each user created,
+     * given a role or holding a role whose entitlements changed. It is
+     * called with the AuthServiceImpl lock held.
+     * 
+     * @param directives Validated provisioning directives.
+     */
+    private void applyProvisioning(ArrayList<ProvisioningDirective> directives) {
+        HashSet<User> affectedUsers = new HashSet<>();
+        HashSet<String> changedRoleIDs = new HashSet<>();
+        for (int i = 0; i < directives.size(); i++) {
+            ProvisioningDirective directive = directives.get(i);
+            String name = directive.getDirective();
+            if (directive.isSkipped()) {
+                continue;
+            } else if (name.equals(ProvisioningDirective.DEFINE_SERVICE)) {
+                applyCreateService(directive.getField(0), directive.getField(1), directive.getField(2));
+            } else if (name.equals(ProvisioningDirective.DEFINE_PERMISSION)) {
+                applyCreatePermission(directive.getField(1), directive.getField(2), directive.getField(3));
+                applyAddServicePermission(directive.getField(0), directive.getField(1));
+            } else if (name.equals(ProvisioningDirective.DEFINE_ROLE)) {
+                applyCreateRole(directive.getField(0), directive.getField(1), directive.getField(2));
+            } else if (name.equals(ProvisioningDirective.ADD_ENTITLEMENT_TO_ROLE)) {
+                String roleID = directive.getField(0);
+                String entitlementID = directive.getField(1);
+                if (permissionMap.containsKey(entitlementID)) {
+                    roleMap.get(roleID).addPermission(entitlementID);
+                    roleClosureCache.addPermission(roleID, permissionRegistry.intern(entitlementID));
+                    addIndexEntry(permissionRoleMap, entitlementID, roleID);
+                } else {
+                    try {
+                        roleClosureCache.addSubrole(roleID, entitlementID);
+                    } catch (AuthServiceException ase) {
+                        throw new IllegalStateException("Validated role entitlement creates a cycle.");
+                    }
+                    roleMap.get(roleID).addSubrole(entitlementID);
+                }
+                changedRoleIDs.add(roleID);
+            } else if (name.equals(ProvisioningDirective.CREATE_USER)) {
+                User user = new User(directive.getField(1), directive.getField(0));
+                userMap.put(user.getUserID(), user);
+                user.getRoles().add("user_role");
+                roleUserMap.get("user_role").add(user);
+                affectedUsers.add(user);
+            } else if (name.equals(ProvisioningDirective.ADD_CREDENTIAL)) {
+                applyAddUserCredential(directive.getField(0), directive.getField(1), directive.getPasswordHash());
+            } else if (name.equals(ProvisioningDirective.ADD_ROLE_TO_USER)) {
+                User user = userMap.get(directive.getField(0));
+                user.getRoles().add(directive.getField(1));
+                roleUserMap.get(directive.getField(1)).add(user);
+                affectedUsers.add(user);
+            }
+        }
+        for (String roleID : changedRoleIDs) {
+            affectedUsers.addAll(usersHoldingRole(roleID));
+        }
+        rebuildEffectivePermissions(new ArrayList<>(affectedUsers));
+    }
+
+    /**
+     * This method appends applied provisioning directives to the mutation
+     * log, if one is configured, and to the replication feed, if this
+     * instance is a leader, as a single provision_batch record holding the
+     * equivalent individual mutations, each preceded by its field count.
+     * It is called with the AuthServiceImpl lock held.
+     * 
+     * @param directives Applied provisioning directives.
+     * @return Record sequence number (0 if no log is configured).
+     */
+    private long logProvisioning(ArrayList<ProvisioningDirective> directives) {
+        if ((mutationLog == null) && (replicationFeed == null)) {
+            return 0;
+        }
+        ArrayList<String> fields = new ArrayList<>();
+        fields.add("provision_batch");
+        for (int i = 0; i < directives.size(); i++) {
+            ProvisioningDirective directive = directives.get(i);
+            String name = directive.getDirective();
+            if (directive.isSkipped()) {
+                continue;
+            } else if (name.equals(ProvisioningDirective.DEFINE_SERVICE)) {
+                addBatchMutation(fields, "create_service", directive.getField(0), directive.getField(1),
+                        directive.getField(2));
+            } else if (name.equals(ProvisioningDirective.DEFINE_PERMISSION)) {
+                addBatchMutation(fields, "create_permission", directive.getField(1), directive.getField(2),
+                        directive.getField(3));
+                addBatchMutation(fields, "add_service_permission", directive.getField(0), directive.getField(1));
+            } else if (name.equals(ProvisioningDirective.DEFINE_ROLE)) {
+                addBatchMutation(fields, "create_role", directive.getField(0), directive.getField(1),
+                        directive.getField(2));
+            } else if (name.equals(ProvisioningDirective.ADD_ENTITLEMENT_TO_ROLE)) {
+                addBatchMutation(fields, "add_role_entitlement", directive.getField(0), directive.getField(1));
+            } else if (name.equals(ProvisioningDirective.CREATE_USER)) {
+                addBatchMutation(fields, "create_user", directive.getField(1), directive.getField(0));
+            } else if (name.equals(ProvisioningDirective.ADD_CREDENTIAL)) {
+                addBatchMutation(fields, passwordHashFields("add_user_credential", directive.getField(0),
+                        directive.getField(1), directive.getPasswordHash()));
+            } else if (name.equals(ProvisioningDirective.ADD_ROLE_TO_USER)) {
+                addBatchMutation(fields, "add_user_role", directive.getField(0), directive.getField(1));
+            }
+        }
+        return logMutation(fields.toArray(new String[fields.size()]));
+    }
+
+    /**
+     * This method adds the specified mutation, preceded by its field count,
+     * to a provision_batch record.
+     * 
+     * @param fields Record fields.
+     * @param mutation Mutation fields.
+     */
+    private static void addBatchMutation(ArrayList<String> fields, String... mutation) {
+        fields.add(Integer.toString(mutation.length));
+        for (int i = 0; i < mutation.length; i++) {
+            fields.add(mutation[i]);
+        }
+    }
+
+    /**
+     * Returns true if a User other than the specified one holds a credential
+     * whose login ID folds to the same key as the specified login ID. Login
+     * IDs are matched case-insensitively, so two Users may not hold, say,
+     * "alice" and "ALICE".
+     *
+     * @param loginID Login ID.
+     * @param userID ID of the User adding the login ID.
+     * @return True if another User holds the login ID.
+     */
+    private boolean loginIDHeldByOtherUser(String loginID, String userID) {
+        User holder = loginIDUserMap.get(Credential.foldLoginID(loginID));
+        return (holder != null) && !holder.getUserID().equals(userID);
+    }
+
+    /*
+     * Apply methods. Each of the following methods performs one mutation
+     * that has already been authorized and validated by the corresponding
+     * public method, or that is being replayed from the mutation log. They
+     * are called with the AuthServiceImpl lock held and neither check access
+     * nor write to the log. Only applyAddRoleEntitlement can still fail (on
+     * a role cycle), and it does so before changing anything.
+     */
+
+    private Service applyCreateService(String ID, String name, String description) {
+        Service newService = new Service(ID, name, description);
+        serviceMap.put(ID, newService);
+        return newService;
+    }
+
+    private Service applyUpdateServiceDescription(String serviceID, String newDescription) {
+        Service service = serviceMap.get(serviceID);
+        service.setDescription(newDescription);
+        return service;
+    }
+
+    private void applyRemoveService(String serviceID) {
+        Service service = serviceMap.remove(serviceID);
+        HashSet<User> affectedUsers = new HashSet<>();
+        ArrayList<String> permissionIDs = service.getPermissions();
+        for (int i = 0; i < permissionIDs.size(); i++) {
+            detachServicePermission(serviceID, permissionIDs.get(i), affectedUsers);
+        }
+        rebuildEffectivePermissions(new ArrayList<User>(affectedUsers));
+    }
+
+    private Service applyAddServicePermission(String serviceID, String permissionID) {
+        Service service = serviceMap.get(serviceID);
+        service.addPermission(permissionID);
+        addIndexEntry(permissionServiceMap, permissionID, serviceID);
+        return service;
+    }
+
+    private Service applyRemoveServicePermission(String serviceID, String permissionID) {
+        Service service = serviceMap.get(serviceID);
+        service.removePermission(permissionID);
+        HashSet<User> affectedUsers = new HashSet<>();
+        detachServicePermission(serviceID, permissionID, affectedUsers);
+        rebuildEffectivePermissions(new ArrayList<User>(affectedUsers));
+        return service;
+    }
+
+    private Permission applyCreatePermission(String ID, String name, String description) {
+        Permission newPermission = new Permission(ID, name, description);
+        permissionRegistry.intern(ID);
+        permissionMap.put(ID, newPermission);
+        return newPermission;
+    }
+
+    private Permission applyUpdatePermissionDescription(String permissionID, String newDescription) {
+        Permission permission = permissionMap.get(permissionID);
+        permission.setDescription(newDescription);
+        return permission;
+    }
+
+    private Role applyCreateRole(String ID, String name, String description) {
+        Role newRole = new Role(ID, name, description);
+        roleMap.put(ID, newRole);
+        roleClosureCache.addRole(ID, new BitSet());
+        roleUserMap.put(ID, new HashSet<User>());
+        return newRole;
+    }
+
+    private Role applyUpdateRoleDescription(String roleID, String newDescription) {
+        Role role = roleMap.get(roleID);
+        role.setDescription(newDescription);
+        return role;
+    }
+
+    private void applyRemoveRole(String roleID) {
+        ArrayList<User> roleHolders = usersHoldingRole(roleID);
+        for (String parentID : roleClosureCache.getParents(roleID)) {
+            roleMap.get(parentID).removeSubrole(roleID);
+        }
+        for (User user : roleUserMap.get(roleID)) {
+            user.getRoles().remove(roleID);
+        }
+        ArrayList<String> permissionIDs = roleMap.get(roleID).getPermissions();
+        for (int i = 0; i < permissionIDs.size(); i++) {
+            removeIndexEntry(permissionRoleMap, permissionIDs.get(i), roleID);
+        }
+        roleClosureCache.removeRole(roleID);
+        roleUserMap.remove(roleID);
+        roleMap.remove(roleID);
+        rebuildEffectivePermissions(roleHolders);
+    }
+
+    private Role applyAddRolePermission(String roleID, String permissionID) {
+        Role role = roleMap.get(roleID);
+        role.addPermission(permissionID);
+        addIndexEntry(permissionRoleMap, permissionID, roleID);
+        int permissionOrdinal = permissionRegistry.intern(permissionID);
+        roleClosureCache.addPermission(roleID, permissionOrdinal);
+        grantPermissionToRoleHolders(roleID, permissionOrdinal);
+        return role;
+    }
+
+    private void applyRemoveRolePermission(String roleID, String permissionID) {
+        Role role = roleMap.get(roleID);
+        role.removePermission(permissionID);
+        removeIndexEntry(permissionRoleMap, permissionID, roleID);
+        roleClosureCache.removePermission(roleID, permissionRegistry.intern(permissionID));
+        rebuildEffectivePermissions(usersHoldingRole(roleID));
+    }
+
+    private void applyAddRoleEntitlement(String roleID, String entitlementID)
+            throws AuthServiceException {
+        Role role = roleMap.get(roleID);
+        if (permissionMap.containsKey(entitlementID)) {
+            role.addPermission(entitlementID);
+            addIndexEntry(permissionRoleMap, entitlementID, roleID);
+            int permissionOrdinal = permissionRegistry.intern(entitlementID);
+            roleClosureCache.addPermission(roleID, permissionOrdinal);
+            grantPermissionToRoleHolders(roleID, permissionOrdinal);
+        } else if (roleMap.containsKey(entitlementID)) {
+            roleClosureCache.addSubrole(roleID, entitlementID);
+            role.addSubrole(entitlementID);
+            BitSet subrolePermissions = roleClosureCache.getPermissions(entitlementID);
+            ArrayList<User> roleHolders = usersHoldingRole(roleID);
+            for (int i = 0; i < roleHolders.size(); i++) {
+                grantEffectivePermissions(roleHolders.get(i), subrolePermissions);
+            }
+        }
+    }
+
+    private User applyCreateUser(String userName, String userID) {
+        User newUser = new User(userName, userID);
+        userMap.put(userID, newUser);
+        applyAddUserRole(userID, "user_role");
+        return newUser;
+    }
+
+    private User applyUpdateUserName(String userID, String newName) {
+        User user = userMap.get(userID);
+        user.setUserName(newName);
+        return user;
+    }
+
+    private void applyAddUserCredential(String userID, String loginID, PasswordHash passwordHash) {
+        User user = userMap.get(userID);
+        user.addCredential(loginID, passwordHash);
+        loginIDUserMap.put(Credential.foldLoginID(loginID), user);
+    }
+
+    private void applyRemoveUserCredential(String userID, String loginID) {
+        User user = userMap.get(userID);
+        user.removeCredential(loginID);
+        loginIDUserMap.remove(Credential.foldLoginID(loginID), user);
+        user.incrementAccessTokenEpoch();
+    }
+
+    private void applyUpdateUserPassword(String userID, String loginID, PasswordHash newPasswordHash) {
+        User user = userMap.get(userID);
+        user.changePassword(loginID, newPasswordHash);
+        user.incrementAccessTokenEpoch();
+    }
+
+    private void applyAddUserPermission(String userID, String permissionID) {
+        User user = userMap.get(userID);
+        user.addPermission(permissionID);
+        addIndexEntry(permissionUserMap, permissionID, user);
+        BitSet grantedPermission = new BitSet();
+        grantedPermission.set(permissionRegistry.intern(permissionID));
+        grantEffectivePermissions(user, grantedPermission);
+    }
+
+    private void applyRemoveUserPermission(String userID, String permissionID) {
+        User user = userMap.get(userID);
+        user.removePermission(permissionID);
+        removeIndexEntry(permissionUserMap, permissionID, user);
+        rebuildEffectivePermissions(user);
+    }
+
+    private void applyAddUserRole(String userID, String roleID) {
+        User user = userMap.get(userID);
+        user.getRoles().add(roleID);
+        roleUserMap.get(roleID).add(user);
+        grantEffectivePermissions(user, roleClosureCache.getPermissions(roleID));
+    }
+
+    private void applyRemoveUserRole(String userID, String roleID) {
+        User user = userMap.get(userID);
+        user.getRoles().remove(roleID);
+        if (roleUserMap.containsKey(roleID)) {
+            roleUserMap.get(roleID).remove(user);
+        }
+        rebuildEffectivePermissions(user);
+    }
+
+    private int applyRevokeRoleFromAllUsers(String roleID) {
+        HashSet<User> roleHolders = roleUserMap.get(roleID);
+        ArrayList<User> revokedUsers = new ArrayList<>(roleHolders);
+        roleHolders.clear();
+        for (int i = 0; i < revokedUsers.size(); i++) {
+            revokedUsers.get(i).getRoles().remove(roleID);
+        }
+        rebuildEffectivePermissions(revokedUsers);
+        return revokedUsers.size();
+    }
+
+    private int applyRevokePermissionFromAllUsers(String permissionID) {
+        HashSet<User> permissionHolders = permissionUserMap.remove(permissionID);
+        if (permissionHolders == null) {
+            return 0;
+        }
+        ArrayList<User> revokedUsers = new ArrayList<>(permissionHolders);
+        for (int i = 0; i < revokedUsers.size(); i++) {
+            revokedUsers.get(i).removePermission(permissionID);
+        }
+        rebuildEffectivePermissions(revokedUsers);
+        return revokedUsers.size();
+    }
+
+    /**
+     * This method removes the specified Service from the set of Services
+     * including the specified permission and, if no other Service includes
+     * it, deletes the permission. It is called with the AuthServiceImpl lock
+     * held.
+     * 
+     * @param serviceID ID of Service losing the permission.
+     * @param permissionID ID of permission.
+     * @param affectedUsers Set to which Users whose effective permissions
+     * must be rebuilt are added.
+     */
+    private void detachServicePermission(String serviceID, String permissionID,
+            HashSet<User> affectedUsers) {
+        removeIndexEntry(permissionServiceMap, permissionID, serviceID);
+        if (!permissionServiceMap.containsKey(permissionID)) {
+            deletePermission(permissionID, affectedUsers);
+        }
+    }
+
+    /**
+     * This method deletes the specified permission, removing it from every
+     * Role and User to which it has been directly assigned. Only the Roles
+     * and Users found in the reverse indexes are visited, and effective
+     * permissions are left for the caller to rebuild once for all the
+     * affected Users. It is called with the AuthServiceImpl lock held.
+     * 
+     * @param permissionID ID of permission to be deleted.
+     * @param affectedUsers Set to which Users whose effective permissions
+     * must be rebuilt are added.
+     */
+    private void deletePermission(String permissionID, HashSet<User> affectedUsers) {
+        int permissionOrdinal = permissionRegistry.intern(permissionID);
+        HashSet<String> roleIDs = permissionRoleMap.remove(permissionID);
+        if (roleIDs != null) {
+            for (String roleID : roleIDs) {
+                roleMap.get(roleID).removePermission(permissionID);
+                roleClosureCache.removePermission(roleID, permissionOrdinal);
+                affectedUsers.addAll(usersHoldingRole(roleID));
+            }
+        }
+        HashSet<User> permissionHolders = permissionUserMap.remove(permissionID);
+        if (permissionHolders != null) {
+            for (User user : permissionHolders) {
+                user.removePermission(permissionID);
+                affectedUsers.add(user);
+            }
+        }
+        permissionMap.remove(permissionID);
+    }
+
+    /**
+     * This method adds a value to the set held under the specified key of a
+     * reverse index, creating the set if needed.
+     * 
+     * @param index Reverse index.
+     * @param key Key.
+     * @param value Value.
+     */
+    private static <K, V> void addIndexEntry(HashMap<K, HashSet<V>> index, K key, V value) {
+        HashSet<V> values = index.get(key);
+        if (values == null) {
+            values = new HashSet<>();
+            index.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * This method removes a value from the set held under the specified key
+     * of a reverse index, dropping the set once it is empty.
+     * 
+     * @param index Reverse index.
+     * @param key Key.
+     * @param value Value.
+     */
+    private static <K, V> void removeIndexEntry(HashMap<K, HashSet<V>> index, K key, V value) {
+        HashSet<V> values = index.get(key);
+        if ((values != null) && values.remove(value) && values.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * This method rebuilds the permission reverse indexes from the Services,
+     * Roles and Users, after the bootstrap or a snapshot restore has
+     * populated them directly.
+     */
+    private void rebuildPermissionIndexes() {
+        permissionServiceMap.clear();
+        permissionRoleMap.clear();
+        permissionUserMap.clear();
+        for (Service service : serviceMap.values()) {
+            ArrayList<String> permissionIDs = service.getPermissions();
+            for (int i = 0; i < permissionIDs.size(); i++) {
+                addIndexEntry(permissionServiceMap, permissionIDs.get(i), service.getID());
+            }
+        }
+        for (Role role : roleMap.values()) {
+            ArrayList<String> permissionIDs = role.getPermissions();
+            for (int i = 0; i < permissionIDs.size(); i++) {
+                addIndexEntry(permissionRoleMap, permissionIDs.get(i), role.getID());
+            }
+        }
+        for (User user : userMap.values()) {
+            ArrayList<String> permissionIDs = user.getPermissions();
+            for (int i = 0; i < permissionIDs.size(); i++) {
+                addIndexEntry(permissionUserMap, permissionIDs.get(i), user);
+            }
+        }
+    }
+
+    /**
+     * This method applies a single record read back from the mutation log,
+     * by dispatching it to the corresponding apply method.
+     * 
+     * @param fields Record fields (the first names the mutation).
+     * @throws AuthServiceException If the record cannot be applied.
+     */
+    private void replayMutation(String[] fields) throws AuthServiceException {
+        String mutation = fields[0];
+        if (mutation.equals("create_service")) {
+            applyCreateService(fields[1], fields[2], fields[3]);
+        } else if (mutation.equals("update_service_description")) {
+            applyUpdateServiceDescription(fields[1], fields[2]);
+        } else if (mutation.equals("remove_service")) {
+            applyRemoveService(fields[1]);
+        } else if (mutation.equals("add_service_permission")) {
+            applyAddServicePermission(fields[1], fields[2]);
+        } else if (mutation.equals("remove_service_permission")) {
+            applyRemoveServicePermission(fields[1], fields[2]);
+        } else if (mutation.equals("create_permission")) {
+            applyCreatePermission(fields[1], fields[2], fields[3]);
+        } else if (mutation.equals("update_permission_description")) {
+            applyUpdatePermissionDescription(fields[1], fields[2]);
+        } else if (mutation.equals("create_role")) {
+            applyCreateRole(fields[1], fields[2], fields[3]);
+        } else if (mutation.equals("update_role_description")) {
+            applyUpdateRoleDescription(fields[1], fields[2]);
+        } else if (mutation.equals("remove_role")) {
+            applyRemoveRole(fields[1]);
+        } else if (mutation.equals("add_role_permission")) {
+            applyAddRolePermission(fields[1], fields[2]);
+        } else if (mutation.equals("remove_role_permission")) {
+            applyRemoveRolePermission(fields[1], fields[2]);
+        } else if (mutation.equals("add_role_entitlement")) {
+            applyAddRoleEntitlement(fields[1], fields[2]);
+        } else if (mutation.equals("create_user")) {
+            applyCreateUser(fields[1], fields[2]);
+        } else if (mutation.equals("update_user_name")) {
+            applyUpdateUserName(fields[1], fields[2]);
+        } else if (mutation.equals("add_user_credential")) {
+            applyAddUserCredential(fields[1], fields[2], passwordHashFromFields(fields));
+        } else if (mutation.equals("remove_user_credential")) {
+            applyRemoveUserCredential(fields[1], fields[2]);
+        } else if (mutation.equals("update_user_password")) {
+            applyUpdateUserPassword(fields[1], fields[2], passwordHashFromFields(fields));
+        } else if (mutation.equals("upgrade_password_hash")) {
+            userMap.get(fields[1]).getCredential(fields[2]).setPasswordHash(passwordHashFromFields(fields));
+        } else if (mutation.equals("add_user_permission")) {
+            applyAddUserPermission(fields[1], fields[2]);
+        } else if (mutation.equals("remove_user_permission")) {
+            applyRemoveUserPermission(fields[1], fields[2]);
+        } else if (mutation.equals("add_user_role")) {
+            applyAddUserRole(fields[1], fields[2]);
+        } else if (mutation.equals("remove_user_role")) {
+            applyRemoveUserRole(fields[1], fields[2]);
+        } else if (mutation.equals("revoke_role_from_all_users")) {
+            applyRevokeRoleFromAllUsers(fields[1]);
+        } else if (mutation.equals("revoke_permission_from_all_users")) {
+            applyRevokePermissionFromAllUsers(fields[1]);
+        } else if (mutation.equals("provision_batch")) {
+            int position = 1;
+            while (position < fields.length) {
+                int fieldCount = Integer.parseInt(fields[position]);
+                replayMutation(Arrays.copyOfRange(fields, position + 1, position + 1 + fieldCount));
+                position += fieldCount + 1;
+            }
+        } else {
+            throw new IllegalStateException("Unknown mutation log record: " + mutation);
+        }
+    }
+
+    /**
+     * This method appends a record describing a mutation that has just been
+     * applied to the mutation log, if one is configured, and publishes it on
+     * the replication feed of a leader. It is called with the AuthServiceImpl
+     * lock held, so records are logged in the order in which the mutations
+     * were applied; it only queues the record.
+     * 
+     * @param fields Record fields (the first names the mutation).
+     * @return Record sequence number (0 if no log is configured).
+     */
+    private long logMutation(String... fields) {
+        publishReplicationRecord(fields);
+        return (mutationLog == null) ? 0 : mutationLog.append(fields);
+    }
+
+    /**
+     * This method publishes a record on the replication feed, if this
+     * instance is a leader. Mutations are published by logMutation; access
+     * token issues and revocations are published directly, without the
+     * AuthServiceImpl lock, once the session registry or revocation set has
+     * been updated.
+     * 
+     * @param fields Record fields (the first names the mutation or event).
+     */
+    private void publishReplicationRecord(String... fields) {
+        if (replicationFeed != null) {
+            replicationFeed.append(fields);
+        }
+    }
+
+    /**
+     * This method throws an AuthServiceException if this instance is a
+     * follower, whose model may only be changed by the leader's feed.
+     * 
+     * @throws AuthServiceException If this instance is a follower.
+     */
+    private void checkWritable() throws AuthServiceException {
+        if (replicationRole == ReplicationRole.FOLLOWER) {
+            throw new AuthServiceException("Follower is read-only; use the leader.");
+        }
+    }
+
+    /**
+     * This method waits until the specified mutation log record is durable
+     * according to the configured sync policy. It is called after the
+     * AuthServiceImpl lock has been released, so that concurrent mutations
+     * share a single write and force.
+     * 
+     * @param logSequence Record sequence number returned by logMutation.
+     * @throws AuthServiceException If the record could not be written.
+     */
+    private void awaitMutationLog(long logSequence) throws AuthServiceException {
+        if (mutationLog != null) {
+            mutationLog.awaitDurable(logSequence);
+        }
+    }
+
+    /**
+     * This method returns the mutation log fields for a mutation carrying a
+     * password hash. Only the algorithm, iteration count, salt and hash are
+     * logged, never the password itself.
+     * 
+     * @param mutation Mutation name.
+     * @param userID ID of User who owns the credential.
+     * @param loginID Credential login ID.
+     * @param passwordHash Password hash.
+     * @return Record fields.
+     */
+    private static String[] passwordHashFields(String mutation, String userID, String loginID,
+            PasswordHash passwordHash) {
+        return new String[] {mutation, userID, loginID, passwordHash.getAlgorithm(),
+            Integer.toString(passwordHash.getIterations()),
+            Base64.getEncoder().encodeToString(passwordHash.getSalt()),
+            Base64.getEncoder().encodeToString(passwordHash.getHash())};
+    }
+
+    /**
+     * This method rebuilds the password hash logged by passwordHashFields.
+     * 
+     * @param fields Record fields.
+     * @return Password hash.
+     */
+    private static PasswordHash passwordHashFromFields(String[] fields) {
+        return new PasswordHash(fields[3], Integer.parseInt(fields[4]),
+                Base64.getDecoder().decode(fields[5]), Base64.getDecoder().decode(fields[6]));
+    }
+
+    /**
+     * This method recomputes the effective permission bitset of the specified
+     * User from scratch, on the basis of the permissions and roles currently
+     * assigned to the User. It is used whenever a permission may have been
+     * withdrawn, since a single bit cannot be cleared without knowing whether
+     * another role still grants it.
+     * 
+     * @param user User whose effective permissions are to be rebuilt.
+     */
+    private void rebuildEffectivePermissions(User user) {
+        BitSet effectivePermissions = user.getPermissionOrdinals();
+        for (int i = 0; i < user.getRoles().size(); i++) {
+            effectivePermissions.or(roleClosureCache.getPermissions(user.getRoles().get(i)));
+        }
+        user.setEffectivePermissions(effectivePermissions);
+    }
+
+    /**
+     * This method recomputes the effective permission bitset of each User in
+     * the specified list.
+     * 
+     * @param users Users whose effective permissions are to be rebuilt.
+     */
+    private void rebuildEffectivePermissions(ArrayList<User> users) {
+        for (int i = 0; i < users.size(); i++) {
+            rebuildEffectivePermissions(users.get(i));
+        }
+    }
+
+    /**
+     * This method sets the specified permission ordinal in the effective
+     * permission bitset of every User holding the specified Role, whether
+     * directly or through a parent role.
+     * 
+     * @param roleID ID of Role to which the permission has been added.
+     * @param permissionOrdinal Ordinal of the added permission.
+     */
+    private void grantPermissionToRoleHolders(String roleID, int permissionOrdinal) {
+        BitSet grantedPermission = new BitSet();
+        grantedPermission.set(permissionOrdinal);
+        ArrayList<User> roleHolders = usersHoldingRole(roleID);
+        for (int i = 0; i < roleHolders.size(); i++) {
+            grantEffectivePermissions(roleHolders.get(i), grantedPermission);
+        }
+    }
+
+    /**
+     * This method publishes to the specified User a new effective permission
+     * bitset consisting of the User's current effective permissions plus the
+     * specified permissions. The User's current bitset is left unmodified for
+     * any concurrent readers.
+     * 
+     * @param user User being granted permissions.
+     * @param grantedPermissions Bitset of permission ordinals to grant.
+     */
+    private void grantEffectivePermissions(User user, BitSet grantedPermissions) {
+        BitSet effectivePermissions = (BitSet) user.getEffectivePermissions().clone();
+        effectivePermissions.or(grantedPermissions);
+        user.setEffectivePermissions(effectivePermissions);
+    }
+
+    /**
+     * This method returns the list of Users that hold the specified Role,
+     * either directly or as a subrole of one of their roles.
+     * 
+     * @param roleID ID of Role.
+     * @return List of Users holding the Role.
+     */
+    private ArrayList<User> usersHoldingRole(String roleID) {
+        HashSet<User> roleHolders = new HashSet<>();
+        if (roleUserMap.containsKey(roleID)) {
+            roleHolders.addAll(roleUserMap.get(roleID));
+        }
+        for (String ancestorID : roleClosureCache.getAncestors(roleID)) {
+            roleHolders.addAll(roleUserMap.get(ancestorID));
+        }
+        return new ArrayList<>(roleHolders);
+    }
+
+    /**
+     * This method returns true if the user associated with the given access
+     * token has the given permission (to a restricted access method).
+     * 
+     * @param permissionID ID of permission to check.
+     * @param accessToken Client access token.
+     * @return True if user associated with access token has this permission.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    @Override
+    public boolean checkAccess(String permissionID, String accessToken)
+            throws InvalidAccessTokenException, UnauthorizedAccessException {
+        AuthServiceMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return decideAccess(permissionID, accessToken);
+        }
+        long startTime = metrics.startTiming();
+        try {
+            boolean allowed = decideAccess(permissionID, accessToken);
+            metrics.recordCheckAccess(permissionID, startTime, null);
+            return allowed;
+        } catch (InvalidAccessTokenException iate) {
+            metrics.recordCheckAccess(permissionID, startTime, iate);
+            throw iate;
+        } catch (UnauthorizedAccessException uae) {
+            metrics.recordCheckAccess(permissionID, startTime, uae);
+            throw uae;
+        }
+    }
+
+    /**
+     * This method implements checkAccess, without metrics.
+     * 
+     * @param permissionID ID of permission to check.
+     * @param accessToken Client access token.
+     * @return True if user associated with access token has this permission.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    private boolean decideAccess(String permissionID, String accessToken)
+            throws InvalidAccessTokenException, UnauthorizedAccessException {
+        if (!validAccessToken(accessToken)) {
+            throw new InvalidAccessTokenException();
+        }
+
+        /*
+         * Serve the decision from the cache if the token's entry is current
+         */
+        AccessDecisionCache.Entry entry = (accessDecisionCache == null) ? null : accessDecisionCache.get(accessToken);
+        if ((entry != null) && (permissionID != null) && entry.current(System.currentTimeMillis())) {
+            Boolean decision = entry.getDecision(permissionID);
+            if (decision != null) {
+                accessDecisionCache.recordHit();
+                return completeAccessCheck(decision, entry.getAccessToken());
+            }
+        }
+
+        /*
+         * Otherwise resolve the token and compute the decision
+         */
+        User user;
+        AccessToken accessTokenObject = null;
+        SignedAccessToken signedAccessToken = null;
+        if (accessTokenMode == AccessTokenMode.SIGNED) {
+            ResolvedSignedAccessToken resolvedAccessToken = resolveSignedAccessToken(accessToken);
+            user = resolvedAccessToken.getUser();
+            signedAccessToken = resolvedAccessToken.getAccessToken();
+        } else {
+            Session session = resolveSession(accessToken);
+            user = session.getUser();
+            accessTokenObject = session.getAccessToken();
+        }
+        long permissionEpoch = user.getPermissionEpoch();
+        int permissionOrdinal = permissionRegistry.getOrdinal(permissionID);
+        boolean allowed = (permissionOrdinal >= 0) && user.hasEffectivePermission(permissionOrdinal);
+        if ((accessDecisionCache != null) && (permissionID != null)) {
+            accessDecisionCache.recordMiss();
+            if ((entry == null) || (entry.getPermissionEpoch() != permissionEpoch)) {
+                if (signedAccessToken == null) {
+                    entry = new AccessDecisionCache.Entry(user, accessTokenObject, 0, 0, permissionEpoch);
+                } else {
+                    entry = new AccessDecisionCache.Entry(user, null, signedAccessToken.getExpiryTime(),
+                            signedAccessToken.getAccessTokenEpoch(), permissionEpoch);
+                }
+                accessDecisionCache.put(accessToken, entry);
+            }
+            entry.putDecision(permissionID, allowed);
+            if ((signedAccessToken != null) && signedAccessTokenRevocationSet.isRevoked(accessToken)) {
+                /*
+                 * Logged out concurrently; don't leave an entry behind
+                 */
+                accessDecisionCache.invalidate(accessToken);
+            }
+        }
+        return completeAccessCheck(allowed, accessTokenObject);
+    }
+
+    /**
+     * This method resolves the specified access token once and returns a
+     * bitmask in which bit i is set if the associated User holds
+     * permissionIDs[i]. The expiry of a session access token slides if at
+     * least one permission is held.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param accessToken Client access token.
+     * @return Bitmask of permissions held.
+     * @throws InvalidAccessTokenException
+     */
+    @Override
+    public long checkAccessMask(String[] permissionIDs, String accessToken)
+            throws InvalidAccessTokenException {
+        AuthServiceMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return decideAccessMask(permissionIDs, accessToken);
+        }
+        long startTime = metrics.startTiming();
+        try {
+            long grantedMask = decideAccessMask(permissionIDs, accessToken);
+            metrics.recordCheckAccessMask(permissionIDs, grantedMask, startTime, null);
+            return grantedMask;
+        } catch (InvalidAccessTokenException iate) {
+            metrics.recordCheckAccessMask(permissionIDs, 0, startTime, iate);
+            throw iate;
+        }
+    }
+
+    /**
+     * This method implements checkAccessMask, without metrics.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param accessToken Client access token.
+     * @return Bitmask of permissions held.
+     * @throws InvalidAccessTokenException
+     */
+    private long decideAccessMask(String[] permissionIDs, String accessToken)
+            throws InvalidAccessTokenException {
+        if (!validAccessToken(accessToken)) {
+            throw new InvalidAccessTokenException();
+        } else if (permissionIDs.length > 64) {
+            throw new IllegalArgumentException("At most 64 permissions may be checked at once.");
+        }
+        User user;
+        AccessToken accessTokenObject = null;
+        AccessDecisionCache.Entry entry = (accessDecisionCache == null) ? null : accessDecisionCache.get(accessToken);
+        if ((entry != null) && entry.current(System.currentTimeMillis())) {
+            user = entry.getUser();
+            accessTokenObject = entry.getAccessToken();
+        } else if (accessTokenMode == AccessTokenMode.SIGNED) {
+            user = resolveSignedAccessToken(accessToken).getUser();
+        } else {
+            Session session = resolveSession(accessToken);
+            user = session.getUser();
+            accessTokenObject = session.getAccessToken();
+        }
+        BitSet effectivePermissions = user.getEffectivePermissions();
+        long grantedMask = 0;
+        for (int i = 0; i < permissionIDs.length; i++) {
+            int permissionOrdinal = permissionRegistry.getOrdinal(permissionIDs[i]);
+            if ((permissionOrdinal >= 0) && effectivePermissions.get(permissionOrdinal)) {
+                grantedMask |= (1L << i);
+            }
+        }
+        if ((grantedMask != 0) && (accessTokenObject != null)) {
+            accessTokenObject.updateLastAccessTime();
+        }
+        return grantedMask;
+    }
+
+    /**
+     * This method returns true if the User associated with the specified
+     * access token holds all of the specified permissions.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param accessToken Client access token.
+     * @return True if every permission is held.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    @Override
+    public boolean checkAccessAll(String[] permissionIDs, String accessToken)
+            throws InvalidAccessTokenException, UnauthorizedAccessException {
+        return requireAccessMask(permissionIDs, accessToken, true);
+    }
+
+    /**
+     * This method returns true if the User associated with the specified
+     * access token holds at least one of the specified permissions.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param accessToken Client access token.
+     * @return True if any permission is held.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException
+     */
+    @Override
+    public boolean checkAccessAny(String[] permissionIDs, String accessToken)
+            throws InvalidAccessTokenException, UnauthorizedAccessException {
+        return requireAccessMask(permissionIDs, accessToken, false);
+    }
+
+    /**
+     * This method implements checkAccessAll and checkAccessAny, recording
+     * the call, including its UnauthorizedAccessException if any, as one
+     * checkAccessMask call.
+     * 
+     * @param permissionIDs IDs of permissions to check (at most 64).
+     * @param accessToken Client access token.
+     * @param requireAll True if every permission must be held, false if any
+     * one is enough.
+     * @return True if the permissions required are held.
      * @throws InvalidAccessTokenException
      * @throws UnauthorizedAccessException
+     */
+    private boolean requireAccessMask(String[] permissionIDs, String accessToken, boolean requireAll)
+            throws InvalidAccessTokenException, UnauthorizedAccessException {
+        AuthServiceMetrics metrics = this.metrics;
+        long startTime = (metrics == null) ? 0 : metrics.startTiming();
+        long grantedMask = 0;
+        try {
+            grantedMask = decideAccessMask(permissionIDs, accessToken);
+            long allMask = (permissionIDs.length == 64) ? -1L : ((1L << permissionIDs.length) - 1);
+            if (requireAll ? (grantedMask != allMask) : (grantedMask == 0)) {
+                throw new UnauthorizedAccessException();
+            }
+        } catch (InvalidAccessTokenException iate) {
+            if (metrics != null) {
+                metrics.recordCheckAccessMask(permissionIDs, 0, startTime, iate);
+            }
+            throw iate;
+        } catch (UnauthorizedAccessException uae) {
+            if (metrics != null) {
+                metrics.recordCheckAccessMask(permissionIDs, grantedMask, startTime, uae);
+            }
+            throw uae;
+        }
+        if (metrics != null) {
+            metrics.recordCheckAccessMask(permissionIDs, grantedMask, startTime, null);
+        }
+        return true;
+    }
+
+    /**
+     * This method returns the session associated with the specified session
+     * access token, reclaiming the token if it has expired.
+     * 
+     * @param accessToken Client access token.
+     * @return Active session.
+     * @throws InvalidAccessTokenException If no live session exists for the token.
+     */
+    private Session resolveSession(String accessToken) throws InvalidAccessTokenException {
+        Session session = sessionRegistry.getSession(accessToken);
+        if (session == null) {
+            throw new InvalidAccessTokenException();
+        } else if (session.getAccessToken().accessTokenExpired()) {
+            reclaimAccessToken(session.getAccessToken());
+            throw new InvalidAccessTokenException();
+        } else {
+            return session;
+        }
+    }
+
+    /**
+     * This method completes a checkAccess call once the decision is known,
+     * sliding the expiry of a session access token on success.
+     * 
+     * @param allowed True if access is allowed.
+     * @param accessToken Session access token (null for signed tokens).
+     * @return True if access is allowed.
+     * @throws UnauthorizedAccessException If access is denied.
+     */
+    private boolean completeAccessCheck(boolean allowed, AccessToken accessToken)
+            throws UnauthorizedAccessException {
+        if (!allowed) {
+            throw new UnauthorizedAccessException();
+        } else {
+            if (accessToken != null) {
+                accessToken.updateLastAccessTime();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service, returning a valid access token upon successful login or throwing
+     * an appropriate Exception if the login is unsuccessful.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @return Valid access token (upon successful login).
+     * @throws InvalidUserIDException
+     * @throws InvalidPasswordException
+     * @throws AuthServiceException
+     */
+    @Override
+    public String login(String loginID, String password)
+            throws InvalidUserIDException, InvalidPasswordException,
+            AuthServiceException {
+        return login(loginID, password, null);
+    }
+
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service on behalf of the specified source (such as a client address),
+     * so that failed attempts are throttled per source as well as per login
+     * ID.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @param source Source of the attempt (null if unknown).
+     * @return Valid access token (upon successful login).
+     * @throws InvalidUserIDException
+     * @throws InvalidPasswordException
+     * @throws LoginThrottledException If too many attempts have failed recently.
      * @throws AuthServiceException
      */
-    private void removeRoleFromPermissionUserMap(Role role, User user) {
-        for (int i = 0; i < role.getPermissions().size(); i++) {
-            if (permissionUserMap.get(role.getPermissions().get(i)).contains(user)) {
-                permissionUserMap.get(role.getPermissions().get(i)).remove(user);
-            }
+    @Override
+    public String login(String loginID, String password, String source)
+            throws InvalidUserIDException, InvalidPasswordException,
+            AuthServiceException {
+        try {
+            return loginAsync(loginID, password, source).get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof InvalidUserIDException) {
+                throw (InvalidUserIDException) cause;
+            } else if (cause instanceof InvalidPasswordException) {
+                throw (InvalidPasswordException) cause;
+            } else if (cause instanceof AuthServiceException) {
+                throw (AuthServiceException) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AuthServiceException("Interrupted while waiting for login.");
+        }
+    }
+
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service without blocking the calling thread. The password is verified
+     * (and, if its hash is out of date, rehashed) on the password hashing
+     * pool. The returned future completes with a valid access token, or fails
+     * with the Exception that login would have thrown.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @return Future access token.
+     */
+    @Override
+    public CompletableFuture<String> loginAsync(String loginID, String password) {
+        return loginAsync(loginID, password, null);
+    }
+
+    /**
+     * This method attempts to log the specified User into the authentication
+     * service on behalf of the specified source without blocking the calling
+     * thread.
+     *
+     * Each attempt first takes a token from the throttle buckets of its
+     * source and its login ID, and is rejected with a LoginThrottledException,
+     * before any password hashing, if either is empty; the tokens are given
+     * back if the login succeeds or the password hashing queue is full, so
+     * only failed attempts (including unknown login IDs) drain the buckets.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @param source Source of the attempt (null if unknown).
+     * @return Future access token.
+     */
+    @Override
+    public CompletableFuture<String> loginAsync(String loginID, String password, String source) {
+        final AuthServiceMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return startLogin(loginID, password, source);
+        }
+        final long startTime = System.nanoTime();
+        CompletableFuture<String> accessToken = startLogin(loginID, password, source);
+        accessToken.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String result, Throwable failure) {
+                metrics.recordLogin(startTime, failure);
+            }
+        });
+        return accessToken;
+    }
+
+    /**
+     * This method implements loginAsync, without metrics.
+     * 
+     * @param loginID User Credential loginID.
+     * @param password User Credential password.
+     * @param source Source of the attempt (null if unknown).
+     * @return Future access token.
+     */
+    private CompletableFuture<String> startLogin(final String loginID, final String password,
+            final String source) {
+        if (replicationRole == ReplicationRole.FOLLOWER) {
+            return CompletableFuture.failedFuture(new AuthServiceException("Follower is read-only; use the leader."));
+        }
+        final String foldedLoginID = (loginID == null) ? null : Credential.foldLoginID(loginID);
+        final int sourceRows = ((sourceThrottle != null) && (source != null))
+                ? sourceThrottle.tryAcquire(source) : -1;
+        if (sourceRows == 0) {
+            return CompletableFuture.failedFuture(new LoginThrottledException("Too many failed attempts from source."));
+        }
+        final int loginIDRows = ((loginThrottle != null) && (foldedLoginID != null))
+                ? loginThrottle.tryAcquire(foldedLoginID) : -1;
+        if (loginIDRows == 0) {
+            releaseThrottles(source, sourceRows, foldedLoginID, -1);
+            return CompletableFuture.failedFuture(new LoginThrottledException("Too many failed attempts for login ID."));
+        }
+        final User user = (foldedLoginID == null) ? null : loginIDUserMap.get(foldedLoginID);
+        final Credential credential = (user == null) ? null : user.getCredential(loginID);
+        if (credential == null) {
+            return CompletableFuture.failedFuture(new InvalidUserIDException());
+        }
+        CompletableFuture<String> accessToken = passwordHashingExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                PasswordHash passwordHash = credential.getPasswordHash();
+                if (!passwordHash.matches(password)) {
+                    throw new InvalidPasswordException();
+                }
+                releaseThrottles(source, sourceRows, foldedLoginID, loginIDRows);
+                if (passwordHash.needsUpgrade(passwordHashIterations)) {
+                    upgradePasswordHash(user, credential, passwordHash,
+                            PasswordHash.pbkdf2(password, passwordHashIterations));
+                }
+                return issueAccessToken(user, credential);
+            }
+        });
+
+        /*
+         * An attempt rejected because the hashing queue is full has not
+         * tried the password, so it must not count as a failed attempt
+         */
+        if (accessToken.isCompletedExceptionally()) {
+            releaseThrottles(source, sourceRows, foldedLoginID, loginIDRows);
+        }
+        return accessToken;
+    }
+
+    /**
+     * This method gives back the throttle tokens taken for a login attempt.
+     * 
+     * @param source Source of the attempt.
+     * @param sourceRows Rows of the source throttle tokens were taken from
+     * (-1 if the source was not throttled).
+     * @param foldedLoginID Case-folded login ID of the attempt.
+     * @param loginIDRows Rows of the login ID throttle tokens were taken
+     * from (-1 if the login ID was not throttled).
+     */
+    private void releaseThrottles(String source, int sourceRows, String foldedLoginID, int loginIDRows) {
+        if (sourceRows > 0) {
+            sourceThrottle.release(source, sourceRows);
+        }
+        if (loginIDRows > 0) {
+            loginThrottle.release(foldedLoginID, loginIDRows);
+        }
+    }
+
+    /**
+     * This method issues a new access token to the specified User, who has
+     * just logged in under the specified credential.
+     * 
+     * @param user User logging in.
+     * @param credential Credential under which the User logged in.
+     * @return New access token.
+     * @throws AuthServiceException If the session limit rejects the login.
+     */
+    private String issueAccessToken(User user, Credential credential)
+            throws AuthServiceException {
+        if (accessTokenMode == AccessTokenMode.SIGNED) {
+            long issueTime = System.currentTimeMillis();
+            return signedAccessTokenCodec.encode(new SignedAccessToken(user.getUserID(), issueTime,
+                    issueTime + signedAccessTokenLifetime, user.getAccessTokenEpoch(),
+                    secureRandom.nextLong()));
+        } else {
+            AccessToken accessToken = new AccessToken();
+            Session evictedSession = registerSession(new Session(credential.getLoginID(), user, accessToken));
+            if (evictedSession != null) {
+                publishReplicationRecord("revoke_access_token", evictedSession.getAccessTokenID());
+            }
+            publishReplicationRecord("issue_access_token", accessToken.getID().toString(),
+                    credential.getLoginID(), user.getUserID());
+            return accessToken.getID().toString();
+        }
+    }
+
+    /**
+     * This method registers a new session, attaches its access token to its
+     * User and schedules the token's expiry.
+     * 
+     * @param session New session.
+     * @return Session evicted to make room for the new one (null if none).
+     * @throws AuthServiceException If the session limit rejects the session.
+     */
+    private Session registerSession(Session session) throws AuthServiceException {
+        Session evictedSession = sessionRegistry.register(session);
+        if (evictedSession != null) {
+            /*
+             * Session limit reached under the evict-oldest policy
+             */
+            evictedSession.getAccessToken().setStateToExpired();
+            if (accessDecisionCache != null) {
+                accessDecisionCache.invalidate(evictedSession.getAccessTokenID());
+            }
+            reclaimedAccessTokenCount.incrementAndGet();
+        }
+        session.getUser().addAccessToken(session.getAccessToken());
+        accessTokenExpiryWheel.schedule(session.getAccessToken());
+        return evictedSession;
+    }
+
+    /**
+     * This method replaces the verified password hash of the specified
+     * credential with an upgraded hash of the same password, unless the
+     * credential has been removed or its password changed in the meantime.
+     * The upgrade is logged under the AuthServiceImpl lock so that it is
+     * ordered with respect to password changes, but the login does not wait
+     * for it to become durable (an upgrade lost in a crash is simply
+     * repeated on the next login).
+     * 
+     * @param user User who owns the credential.
+     * @param credential Credential to upgrade.
+     * @param currentHash Hash that was verified.
+     * @param upgradedHash Stronger hash of the same password.
+     */
+    private synchronized void upgradePasswordHash(User user, Credential credential,
+            PasswordHash currentHash, PasswordHash upgradedHash) {
+        if ((user.getCredential(credential.getLoginID()) == credential)
+                && credential.upgradePasswordHash(currentHash, upgradedHash)) {
+            logMutation(passwordHashFields("upgrade_password_hash", user.getUserID(),
+                    credential.getLoginID(), upgradedHash));
+        }
+    }
+
+    /**
+     * This method hashes the specified password with PBKDF2 on the password
+     * hashing pool.
+     * 
+     * @param password Password to hash.
+     * @return New password hash.
+     * @throws AuthServiceException If the hashing queue is full.
+     */
+    private PasswordHash hashPassword(final String password)
+            throws AuthServiceException {
+        return passwordHashingExecutor.call(new Callable<PasswordHash>() {
+            @Override
+            public PasswordHash call() {
+                return PasswordHash.pbkdf2(password, passwordHashIterations);
+            }
+        });
+    }
+
+    /**
+     * This method logs out the User associated with the specified access token.
+     * 
+     * @param accessToken Client access token.
+     * @throws InvalidAccessTokenException
+     * @throws AuthServiceException If this instance is a follower.
+     */
+    @Override
+    public void logout(String accessToken)
+            throws InvalidAccessTokenException, AuthServiceException {
+        AuthServiceMetrics metrics = this.metrics;
+        if (metrics == null) {
+            logoutAccessToken(accessToken);
+            return;
         }
-        for (int i = 0; i < role.getSubroles().size(); i++) {
-            Role subrole = roleMap.get(role.getSubroles().get(i));
-            removeRoleFromPermissionUserMap(subrole, user);
+        long startTime = metrics.startTiming();
+        try {
+            logoutAccessToken(accessToken);
+            metrics.recordLogout(startTime, null);
+        } catch (InvalidAccessTokenException iate) {
+            metrics.recordLogout(startTime, iate);
+            throw iate;
+        } catch (AuthServiceException ase) {
+            metrics.recordLogout(startTime, ase);
+            throw ase;
         }
     }
 
     /**
-     * This method returns true if the user associated with the given access
-     * token has the given permission (to a restricted access method).
+     * This method implements logout, without metrics.
      * 
-     * @param permissionID ID of permission to check.
      * @param accessToken Client access token.
-     * @return True if user associated with access token has this permission.
      * @throws InvalidAccessTokenException
-     * @throws UnauthorizedAccessException
+     * @throws AuthServiceException If this instance is a follower.
      */
-    @Override
-    public boolean checkAccess(String permissionID, String accessToken)
-            throws InvalidAccessTokenException, UnauthorizedAccessException {
-        if (!validAccessToken(accessToken)) {
+    private void logoutAccessToken(String accessToken)
+            throws InvalidAccessTokenException, AuthServiceException {
+        checkWritable();
+        if (accessTokenMode == AccessTokenMode.SIGNED) {
+            if (!validAccessToken(accessToken)) {
+                throw new InvalidAccessTokenException();
+            }
+            SignedAccessToken signedAccessToken = resolveSignedAccessToken(accessToken).getAccessToken();
+            if (!signedAccessTokenRevocationSet.revoke(accessToken, signedAccessToken.getExpiryTime())) {
+                throw new InvalidAccessTokenException();
+            }
+            if (accessDecisionCache != null) {
+                accessDecisionCache.invalidate(accessToken);
+            }
+            reclaimedAccessTokenCount.incrementAndGet();
+            publishReplicationRecord("revoke_signed_access_token", accessToken,
+                    Long.toString(signedAccessToken.getExpiryTime()));
+            return;
+        }
+        Session session = (accessToken == null) ? null : sessionRegistry.getSession(accessToken);
+        AccessToken accessTokenObject = (session == null) ? null : session.getAccessToken();
+        if (accessTokenObject == null) {
+            throw new InvalidAccessTokenException();
+        } else if (accessTokenObject.accessTokenExpired()) {
+            reclaimAccessToken(accessTokenObject);
+            throw new InvalidAccessTokenException();
+        } else if (!reclaimAccessToken(accessTokenObject)) {
+            throw new InvalidAccessTokenException();
+        }
+        publishReplicationRecord("revoke_access_token", accessToken);
+    }
+
+    /**
+     * This method verifies the specified signed access token and returns it
+     * together with the User to whom it was issued. Apart from the lookup of
+     * the User itself, no shared state is consulted unless the revocation set
+     * is non-empty.
+     * 
+     * @param accessToken Signed access token string.
+     * @return Resolved token and User.
+     * @throws InvalidAccessTokenException If the token is malformed, forged,
+     * expired, revoked, or issued before the User's access token epoch changed.
+     */
+    private ResolvedSignedAccessToken resolveSignedAccessToken(String accessToken)
+            throws InvalidAccessTokenException {
+        SignedAccessToken signedAccessToken = signedAccessTokenCodec.decode(accessToken);
+        User user = (signedAccessToken == null) ? null : userMap.get(signedAccessToken.getUserID());
+        if (user == null) {
+            throw new InvalidAccessTokenException();
+        } else if (signedAccessToken.expired(System.currentTimeMillis())) {
             throw new InvalidAccessTokenException();
-        } else if (!activeAccessTokenUserMap.containsKey(accessToken)) {
+        } else if (signedAccessToken.getAccessTokenEpoch() != user.getAccessTokenEpoch()) {
+            throw new InvalidAccessTokenException();
+        } else if ((signedAccessTokenRevocationSet.size() > 0)
+                && signedAccessTokenRevocationSet.isRevoked(accessToken)) {
             throw new InvalidAccessTokenException();
         } else {
-            AccessToken accessTokenObject = accessTokenMap.get(accessToken);
-            if (accessTokenObject.accessTokenExpired()) {
-                accessTokenObject.setStateToExpired();
-                throw new InvalidAccessTokenException();
-            } else {
-                User user = activeAccessTokenUserMap.get(accessToken);
-                int i = 0;
-                boolean userFound = false;
-                while (!userFound && (i < permissionUserMap.get(permissionID).size())) {
-                    if (permissionUserMap.get(permissionID).get(i).getUserID().equals(user.getUserID())) {
-                        userFound = true;
-                    }
-                    i++;
-                }
-                if (!userFound) {
-                    throw new UnauthorizedAccessException();
-                } else {
-                    accessTokenMap.get(accessToken).updateLastAccessTime();
-                    return true;
-                }
-            }
+            return new ResolvedSignedAccessToken(signedAccessToken, user);
         }
     }
 
     /**
-     * This method attempts to log the specified User into the authentication
-     * service, returning a valid access token upon successful login or throwing
-     * an appropriate Exception if the login is unsuccessful.
+     * Pairs a verified signed access token with the User to whom it was issued.
+     */
+    private static class ResolvedSignedAccessToken {
+
+        private final SignedAccessToken accessToken;
+        private final User user;
+
+        ResolvedSignedAccessToken(SignedAccessToken accessToken, User user) {
+            this.accessToken = accessToken;
+            this.user = user;
+        }
+
+        SignedAccessToken getAccessToken() {
+            return accessToken;
+        }
+
+        User getUser() {
+            return user;
+        }
+    }
+
+    /**
+     * This method marks the specified access token as expired and removes its
+     * session from the session registry. It is called on logout, when an expired
+     * token is used, and from the expiry wheel.
      * 
-     * @param loginID User Credential loginID.
-     * @param password User Credential password.
-     * @return Valid access token (upon successful login).
-     * @throws InvalidUserIDException
-     * @throws InvalidPasswordException
-     * @throws AuthServiceException
+     * @param accessToken Access token to reclaim.
+     * @return True if this call reclaimed the token, false if it had already
+     * been reclaimed.
      */
-    @Override
-    public String login(String loginID, String password)
-            throws InvalidUserIDException, InvalidPasswordException,
-            AuthServiceException {
-        if (!loginIDUserIDMap.containsKey(loginID)) {
-            throw new InvalidUserIDException();
+    private boolean reclaimAccessToken(AccessToken accessToken) {
+        String accessTokenID = accessToken.getID().toString();
+        accessToken.setStateToExpired();
+        if (accessDecisionCache != null) {
+            accessDecisionCache.invalidate(accessTokenID);
+        }
+        Session session = sessionRegistry.getSession(accessTokenID);
+        if ((session == null) || (session.getAccessToken() != accessToken)) {
+            /*
+             * Already reclaimed, or (on a follower that installed a new
+             * snapshot) replaced by a new session with the same token ID
+             */
+            return false;
+        } else if (sessionRegistry.remove(accessTokenID) == null) {
+            return false;
         } else {
-            String userID = loginIDUserIDMap.get(loginID);
-            User user = userMap.get(userID);
-            if (!user.getCredential(loginID).validPassword(password)) {
-                throw new InvalidPasswordException();
-            } else {
-                if (activeAccessTokenLoginIDMap.containsValue(loginID)) {
-                    throw new AuthServiceException("User is already logged in under login ID");
-                } else {
-                    AccessToken accessToken = new AccessToken();
-                    user.addAccessToken(accessToken);
-                    activeAccessTokenUserMap.put(accessToken.getID().toString(), user);
-                    accessTokenMap.put(accessToken.getID().toString(), accessToken);
-                    activeAccessTokenLoginIDMap.put(accessToken.getID().toString(), loginID);
-                    return accessToken.getID().toString();
-                }
-            }
+            reclaimedAccessTokenCount.incrementAndGet();
+            return true;
         }
     }
 
     /**
-     * This method logs out the User associated with the specified access token.
+     * Returns the number of live (active, unexpired) access tokens.
      * 
-     * @param accessToken Client access token.
-     * @throws InvalidAccessTokenException
+     * @return Number of live access tokens.
      */
-    @Override
-    public void logout(String accessToken)
-            throws InvalidAccessTokenException {
-        if (!activeAccessTokenUserMap.containsKey(accessToken)) {
-            throw new InvalidAccessTokenException();
+    public int getLiveAccessTokenCount() {
+        return sessionRegistry.size();
+    }
+
+    /**
+     * Returns true if at least one session is currently open under the
+     * specified login ID.
+     * 
+     * @param loginID Login ID.
+     * @return True if the login ID has an active session.
+     */
+    public boolean isLoginActive(String loginID) {
+        return (loginID != null) && sessionRegistry.isLoginActive(loginID);
+    }
+
+    /**
+     * Returns the sessions currently open under the specified login ID,
+     * oldest first.
+     * 
+     * @param loginID Login ID.
+     * @return List of active sessions (empty if none).
+     */
+    public List<Session> getActiveSessions(String loginID) {
+        if (loginID == null) {
+            return new ArrayList<>();
         } else {
-            AccessToken accessTokenObject = accessTokenMap.get(accessToken);
-            if (accessTokenObject.accessTokenExpired()) {
-                accessTokenObject.setStateToExpired();
-                throw new InvalidAccessTokenException();
-            } else {
-                activeAccessTokenUserMap.remove(accessToken);
-                activeAccessTokenLoginIDMap.remove(accessToken);
-                accessTokenMap.get(accessToken).setStateToExpired();
+            return sessionRegistry.getSessions(loginID);
+        }
+    }
+
+    /**
+     * Returns the sessions currently open for the specified User, across all
+     * of the User's login IDs.
+     * 
+     * @param userID User ID.
+     * @return List of active sessions (empty if none).
+     */
+    public List<Session> getUserSessions(String userID) {
+        ArrayList<Session> sessions = new ArrayList<>();
+        User user = (userID == null) ? null : userMap.get(userID);
+        if (user != null) {
+            List<Credential> credentials = user.getCredentials();
+            for (int i = 0; i < credentials.size(); i++) {
+                sessions.addAll(sessionRegistry.getSessions(credentials.get(i).getLoginID()));
             }
         }
+        return sessions;
+    }
+
+    /**
+     * Returns the number of access tokens reclaimed (logged out or expired)
+     * since startup.
+     * 
+     * @return Number of reclaimed access tokens.
+     */
+    public long getReclaimedAccessTokenCount() {
+        return reclaimedAccessTokenCount.get();
+    }
+
+    /**
+     * Returns the number of checkAccess decisions served from the decision
+     * cache since startup.
+     * 
+     * @return Decision cache hit count (0 if the cache is disabled).
+     */
+    public long getDecisionCacheHitCount() {
+        return (accessDecisionCache == null) ? 0 : accessDecisionCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of login attempts rejected since startup because
+     * too many attempts had failed under the same login ID.
+     * 
+     * @return Throttled login attempt count (0 if login ID throttling is disabled).
+     */
+    public long getThrottledLoginIDAttemptCount() {
+        return (loginThrottle == null) ? 0 : loginThrottle.getThrottledCount();
+    }
+
+    /**
+     * Returns the number of login attempts rejected since startup because
+     * too many attempts had failed from the same source.
+     * 
+     * @return Throttled login attempt count (0 if source throttling is disabled).
+     */
+    public long getThrottledSourceAttemptCount() {
+        return (sourceThrottle == null) ? 0 : sourceThrottle.getThrottledCount();
+    }
+
+    /**
+     * Returns the metrics registry, through which the login, logout and
+     * checkAccess counters and latency histograms, and the gauges above,
+     * can be polled or dumped.
+     * 
+     * @return Metrics registry (null if metrics are disabled).
+     */
+    public AuthServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of checkAccess decisions that could not be served
+     * from the decision cache since startup.
+     * 
+     * @return Decision cache miss count (0 if the cache is disabled).
+     */
+    public long getDecisionCacheMissCount() {
+        return (accessDecisionCache == null) ? 0 : accessDecisionCache.getMissCount();
     }
 
     /**
      * This method runs a simple check of the given access token and returns
-     * true if it is valid (non-null and non-empty).
+     * true if it is valid (non-null and non-empty). On a follower, every
+     * access token is invalid while its copy of the model may be older than
+     * the maximum staleness.
      * 
      * @param accessToken Client access token.
      * @return True if access token is valid.
      */
     private boolean validAccessToken(String accessToken) {
-        if ((accessToken != null) && (accessToken.length() > 0)) {
+        if ((replicationRole == ReplicationRole.FOLLOWER)
+                && (System.currentTimeMillis() > replicaFreshUntil)) {
+            return false;
+        } else if ((accessToken != null) && (accessToken.length() > 0)) {
             return true;
         } else {
             return false;
@@ -971,6 +3162,377 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
         visitor.visitAuthService(this);
     }
 
+    /**
+     * This method writes any queued mutation log records to disk and closes
+     * the mutation log (if one is configured). Mutating methods called
+     * afterwards fail with an AuthServiceException once applied.
+     */
+    public void closeMutationLog() {
+        if (mutationLog != null) {
+            mutationLog.close();
+        }
+    }
+
+    /**
+     * This method saves a snapshot of the complete authentication model
+     * (services, permissions, roles, users and credentials, and optionally
+     * the live sessions or revoked signed access tokens) to the specified
+     * path. The model is encoded while mutations are held off, which does
+     * not affect checkAccess or login; the snapshot is then written, forced
+     * and moved into place on a background thread.
+     * 
+     * @param path Snapshot file path.
+     * @param includeAccessTokens True to include live sessions (SESSION mode)
+     * or revoked signed access tokens (SIGNED mode).
+     * @return Future completed with the sequence number of the last mutation
+     * log record reflected in the snapshot (0 if there is no mutation log).
+     */
+    public CompletableFuture<Long> writeSnapshot(final Path path, boolean includeAccessTokens) {
+        final long snapshotSequence;
+        final ByteBuffer snapshot;
+        synchronized (this) {
+            snapshotSequence = (mutationLog == null) ? 0 : mutationLog.getLastSequence();
+            snapshot = encodeSnapshot(snapshotSequence, includeAccessTokens);
+        }
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        Thread writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AuthServiceSnapshot.write(snapshot, path);
+                    future.complete(snapshotSequence);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        }, "AuthServiceSnapshotWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        return future;
+    }
+
+    /**
+     * Returns the part this instance plays in replication.
+     * 
+     * @return Replication role.
+     */
+    public ReplicationRole getReplicationRole() {
+        return replicationRole;
+    }
+
+    /**
+     * Returns the sequence number of the last record published on the
+     * replication feed. A follower has applied every change made on the
+     * leader up to a given point once it has applied this record.
+     * 
+     * @return Last feed sequence number (0 unless this instance is a leader).
+     */
+    public long getReplicationFeedSequence() {
+        return (replicationFeed == null) ? 0 : replicationFeed.getLastSequence();
+    }
+
+    /**
+     * This method returns an encoded batch of the replication feed records
+     * that follow the specified one, waiting up to the specified time if
+     * there are none yet, for a ReplicationTransport to pass to a follower.
+     * The batch tells the follower to install a snapshot instead if it has
+     * fallen out of the feed.
+     * 
+     * @param feedID ID of the feed the follower has been following.
+     * @param afterSequence Sequence number of the last record the follower applied.
+     * @param maxRecords Maximum number of records returned.
+     * @param waitMillis Maximum time to wait for a new record, in milliseconds.
+     * @return Encoded batch.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public ByteBuffer readReplicationFeed(long feedID, long afterSequence, int maxRecords, long waitMillis)
+            throws InterruptedException {
+        if (replicationFeed == null) {
+            throw new IllegalStateException("AuthServiceImpl is not configured as a leader");
+        }
+        return replicationFeed.read(feedID, afterSequence, maxRecords, waitMillis);
+    }
+
+    /**
+     * This method encodes a snapshot of the complete model, including live
+     * sessions or revoked signed access tokens, preceded by the ID of the
+     * replication feed; the snapshot records the feed sequence number it
+     * reflects, from which a follower that installs it resumes the feed.
+     * The model is encoded while mutations are held off, so it reflects
+     * every mutation published up to that sequence number and none after;
+     * access token events published around it are applied idempotently.
+     * 
+     * @return Encoded replication snapshot.
+     */
+    public ByteBuffer encodeReplicationSnapshot() {
+        if (replicationFeed == null) {
+            throw new IllegalStateException("AuthServiceImpl is not configured as a leader");
+        }
+        ByteBuffer snapshot;
+        synchronized (this) {
+            snapshot = encodeSnapshot(replicationFeed.getLastSequence(), true);
+        }
+        ByteBuffer replicationSnapshot = ByteBuffer.allocate(8 + snapshot.remaining());
+        replicationSnapshot.putLong(replicationFeed.getFeedID());
+        replicationSnapshot.put(snapshot);
+        return replicationSnapshot.flip();
+    }
+
+    /**
+     * Returns the staleness beyond which a follower rejects access tokens.
+     * 
+     * @return Maximum staleness in milliseconds.
+     */
+    long getReplicationMaxStaleness() {
+        return replicationMaxStaleness;
+    }
+
+    /**
+     * Sets the time until which a follower's copy of the model is fresh
+     * enough to serve checkAccess.
+     * 
+     * @param time Time in milliseconds.
+     */
+    void setReplicaFreshUntil(long time) {
+        replicaFreshUntil = time;
+    }
+
+    /**
+     * This method replaces a follower's model with the model held by the
+     * specified snapshot received from the leader. Access tokens are
+     * rejected until the ReplicationFollower marks the new model fresh.
+     * 
+     * @param snapshot Decoded replication snapshot.
+     */
+    synchronized void installReplicaSnapshot(AuthServiceSnapshot snapshot) {
+        replicaFreshUntil = 0;
+        for (Session session : sessionRegistry.getAllSessions()) {
+            reclaimAccessToken(session.getAccessToken());
+        }
+        if (accessTokenMode == AccessTokenMode.SIGNED) {
+            signedAccessTokenRevocationSet = new SignedAccessTokenRevocationSet();
+        }
+        permissionMap = new ConcurrentHashMap<>();
+        serviceMap = new ConcurrentHashMap<>();
+        roleMap = new ConcurrentHashMap<>();
+        roleUserMap = new HashMap<>();
+        roleClosureCache = new RoleClosureCache();
+        restoreSnapshot(snapshot);
+        rebuildPermissionIndexes();
+        if (accessDecisionCache != null) {
+            accessDecisionCache.clear();
+        }
+    }
+
+    /**
+     * This method applies a single replication feed record received from
+     * the leader on a follower: an access token event, or a mutation applied
+     * through the same apply methods as a mutation log record.
+     * 
+     * @param fields Record fields (the first names the mutation or event).
+     * @throws AuthServiceException If the record cannot be applied.
+     */
+    synchronized void applyReplicatedRecord(String[] fields) throws AuthServiceException {
+        String event = fields[0];
+        if (event.equals("issue_access_token")) {
+            User user = userMap.get(fields[3]);
+            if ((accessTokenMode == AccessTokenMode.SESSION) && (user != null)
+                    && (sessionRegistry.getSession(fields[1]) == null)) {
+                try {
+                    AccessToken accessToken = new AccessToken(UUID.fromString(fields[1]), new Date());
+                    registerSession(new Session(fields[2], user, accessToken));
+                } catch (AuthServiceException ase) {
+                    /*
+                     * Session limit is lower than the leader's
+                     */
+                }
+            }
+        } else if (event.equals("revoke_access_token")) {
+            Session session = sessionRegistry.getSession(fields[1]);
+            if (session != null) {
+                reclaimAccessToken(session.getAccessToken());
+            }
+        } else if (event.equals("revoke_signed_access_token")) {
+            if (accessTokenMode == AccessTokenMode.SIGNED) {
+                signedAccessTokenRevocationSet.revoke(fields[1], Long.parseLong(fields[2]));
+                if (accessDecisionCache != null) {
+                    accessDecisionCache.invalidate(fields[1]);
+                }
+            }
+        } else {
+            replayMutation(fields);
+        }
+    }
+
+    /**
+     * This method encodes a snapshot of the model. It is called with the
+     * AuthServiceImpl lock held.
+     * 
+     * @param sequence Sequence number of the last mutation log (or
+     * replication feed) record reflected.
+     * @param includeAccessTokens True to include live sessions (SESSION mode)
+     * or revoked signed access tokens (SIGNED mode).
+     * @return Encoded snapshot.
+     */
+    private ByteBuffer encodeSnapshot(long sequence, boolean includeAccessTokens) {
+        List<Session> sessions = new ArrayList<>();
+        Map<String, Long> revokedTokens = new HashMap<>();
+        if (includeAccessTokens && (accessTokenMode == AccessTokenMode.SIGNED)) {
+            revokedTokens = signedAccessTokenRevocationSet.getRevokedTokens();
+        } else if (includeAccessTokens) {
+            sessions = sessionRegistry.getAllSessions();
+        }
+        return AuthServiceSnapshot.encode(sequence, permissionRegistry, permissionMap.values(),
+                serviceMap.values(), roleMap.values(), userMap.values(), sessions, revokedTokens);
+    }
+
+    /**
+     * This method restores the model saved in the snapshot at the specified
+     * path in place of the bootstrap configuration.
+     * 
+     * @param path Snapshot file path.
+     * @return Sequence number of the last mutation log record reflected in
+     * the snapshot.
+     */
+    private synchronized long restoreSnapshot(Path path) {
+        AuthServiceSnapshot snapshot;
+        try {
+            snapshot = AuthServiceSnapshot.read(path, permissionRegistry);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to restore snapshot " + path, ioe);
+        }
+        return restoreSnapshot(snapshot);
+    }
+
+    /**
+     * This method restores the model held by the specified decoded snapshot
+     * into an empty model, and rebuilds the derived indexes (role closures,
+     * role holders, effective permissions and login IDs) in bulk. It is
+     * called with the AuthServiceImpl lock held.
+     * 
+     * @param snapshot Decoded snapshot.
+     * @return Sequence number of the last mutation log record reflected in
+     * the snapshot.
+     */
+    private long restoreSnapshot(AuthServiceSnapshot snapshot) {
+        for (Permission permission : snapshot.getPermissions()) {
+            permissionMap.put(permission.getID(), permission);
+        }
+        for (Service service : snapshot.getServices()) {
+            serviceMap.put(service.getID(), service);
+        }
+
+        /*
+         * Register all roles before linking subroles, since a subrole may be
+         * listed after its parent
+         */
+        List<Role> roles = snapshot.getRoles();
+        for (int i = 0; i < roles.size(); i++) {
+            Role role = roles.get(i);
+            roleMap.put(role.getID(), role);
+            roleClosureCache.addRole(role.getID(), role.getPermissionOrdinals());
+            roleUserMap.put(role.getID(), new HashSet<User>());
+        }
+        try {
+            for (int i = 0; i < roles.size(); i++) {
+                ArrayList<String> subroles = roles.get(i).getSubroles();
+                for (int j = 0; j < subroles.size(); j++) {
+                    roleClosureCache.addSubrole(roles.get(i).getID(), subroles.get(j));
+                }
+            }
+        } catch (AuthServiceException ase) {
+            throw new IllegalStateException("Snapshot role hierarchy contains a cycle", ase);
+        }
+
+        /*
+         * Users holding the same roles and permissions share one effective
+         * permission bitset (published bitsets are never modified)
+         */
+        HashMap<BitSet, BitSet> effectivePermissionSets = new HashMap<>();
+        List<User> users = snapshot.getUsers();
+        userMap = new ConcurrentHashMap<>(Math.max(16, users.size() * 4 / 3 + 1));
+        loginIDUserMap = new ConcurrentHashMap<>(Math.max(16, users.size() * 4 / 3 + 1));
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            userMap.put(user.getUserID(), user);
+            List<Credential> credentials = user.getCredentials();
+            for (int j = 0; j < credentials.size(); j++) {
+                loginIDUserMap.put(Credential.foldLoginID(credentials.get(j).getLoginID()), user);
+            }
+            BitSet effectivePermissions = user.getPermissionOrdinals();
+            for (int j = 0; j < user.getRoles().size(); j++) {
+                String roleID = user.getRoles().get(j);
+                if (roleUserMap.containsKey(roleID)) {
+                    roleUserMap.get(roleID).add(user);
+                    effectivePermissions.or(roleClosureCache.getPermissions(roleID));
+                }
+            }
+            BitSet sharedPermissions = effectivePermissionSets.putIfAbsent(effectivePermissions, effectivePermissions);
+            user.setEffectivePermissions((sharedPermissions == null) ? effectivePermissions : sharedPermissions);
+        }
+
+        /*
+         * Reinstate live sessions that have not expired in the meantime, and
+         * revocations of signed tokens that are still valid
+         */
+        List<Session> sessions = snapshot.getSessions();
+        for (int i = 0; i < sessions.size(); i++) {
+            Session session = sessions.get(i);
+            if ((accessTokenMode == AccessTokenMode.SESSION) && !session.getAccessToken().accessTokenExpired()) {
+                try {
+                    sessionRegistry.register(session);
+                    session.getUser().addAccessToken(session.getAccessToken());
+                    accessTokenExpiryWheel.schedule(session.getAccessToken());
+                } catch (AuthServiceException ase) {
+                    /*
+                     * Session limit is lower than when the snapshot was taken
+                     */
+                }
+            }
+        }
+        if (accessTokenMode == AccessTokenMode.SIGNED) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Long> revokedToken : snapshot.getRevokedTokens().entrySet()) {
+                if (revokedToken.getValue() > now) {
+                    signedAccessTokenRevocationSet.revoke(revokedToken.getKey(), revokedToken.getValue());
+                }
+            }
+        }
+        return snapshot.getMutationLogSequence();
+    }
+
+    /**
+     * This method opens the mutation log and replays its records on top of
+     * the bootstrap configuration, through the apply methods and therefore
+     * without any access checks, before new mutations are appended to it.
+     * 
+     * @param path Mutation log file path.
+     * @param syncPolicy Policy for forcing records to disk.
+     * @param syncInterval Maximum time between forces under the INTERVAL policy.
+     * @param snapshotSequence Sequence number of the last record reflected in
+     * the restored snapshot (0 if none).
+     */
+    private void openMutationLog(Path path, MutationLogSyncPolicy syncPolicy, long syncInterval,
+            long snapshotSequence) {
+        mutationLog = new MutationLog(path, syncPolicy, syncInterval);
+        try {
+            synchronized (this) {
+                mutationLog.open(new MutationLog.RecordHandler() {
+                    @Override
+                    public void replay(long sequence, String[] fields) {
+                        try {
+                            replayMutation(fields);
+                        } catch (AuthServiceException ase) {
+                            throw new IllegalStateException("Unable to replay mutation log record " + sequence, ase);
+                        }
+                    }
+                }, snapshotSequence);
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to open mutation log " + path, ioe);
+        }
+    }
+
     /**
      * This method registers the (present) authentication service as well as its
      * restricted methods (i.e. the methods in this class) in the corresponding
@@ -1003,116 +3565,116 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
          */
         Permission permission = new Permission("create_service", "Create Service", "Create Service");
         authService.addPermission("create_service");
-        superAdminRole.getPermissions().add("create_service");
+        superAdminRole.addPermission("create_service");
         permissionMap.put("create_service", permission);
 
         permission = new Permission("update_service_description", "Update Service Description", "Update service description");
         authService.addPermission("update_service_description");
-        superAdminRole.getPermissions().add("update_service_description");
+        superAdminRole.addPermission("update_service_description");
         permissionMap.put("update_service_description", permission);
 
         permission = new Permission("remove_service", "Remove Service", "Remove service");
         authService.addPermission("remove_service");
-        superAdminRole.getPermissions().add("remove_service");
+        superAdminRole.addPermission("remove_service");
         permissionMap.put("remove_service", permission);
 
         permission = new Permission("add_service_permission", "Add Service Permission", "Add service permission");
         authService.addPermission("add_service_permission");
-        superAdminRole.getPermissions().add("add_service_permission");
+        superAdminRole.addPermission("add_service_permission");
         permissionMap.put("add_service_permission", permission);
 
         permission = new Permission("remove_service_permission", "Remove Service Permission", "Remove service permission");
         authService.addPermission("remove_service_permission");
-        superAdminRole.getPermissions().add("remove_service_permission");
+        superAdminRole.addPermission("remove_service_permission");
         permissionMap.put("remove_service_permission", permission);
 
         permission = new Permission("create_permission", "Create Permission", "Create permission");
         authService.addPermission("create_permission");
-        superAdminRole.getPermissions().add("create_permission");
+        superAdminRole.addPermission("create_permission");
         permissionMap.put("create_permission", permission);
 
         permission = new Permission("update_permission_description", "Update Permission Description", "Update permission description");
         authService.addPermission("update_permission_description");
-        superAdminRole.getPermissions().add("update_permission_description");
+        superAdminRole.addPermission("update_permission_description");
         permissionMap.put("update_permission_description", permission);
 
         permission = new Permission("create_role", "Create Role", "Create role");
         authService.addPermission("create_role");
-        superAdminRole.getPermissions().add("create_role");
+        superAdminRole.addPermission("create_role");
         permissionMap.put("create_role", permission);
 
         permission = new Permission("update_role_description", "Update Role Description", "Update role description");
         authService.addPermission("update_role_description");
-        superAdminRole.getPermissions().add("update_role_description");
+        superAdminRole.addPermission("update_role_description");
         permissionMap.put("update_role_description", permission);
 
         permission = new Permission("remove_role", "Remove Role", "Remove role");
         authService.addPermission("remove_role");
-        superAdminRole.getPermissions().add("remove_role");
+        superAdminRole.addPermission("remove_role");
         permissionMap.put("remove_role", permission);
 
         permission = new Permission("add_role_permission", "Add Role Permission", "Add role permission");
         authService.addPermission("add_role_permission");
-        superAdminRole.getPermissions().add("add_role_permission");
+        superAdminRole.addPermission("add_role_permission");
         permissionMap.put("add_role_permission", permission);
 
         permission = new Permission("remove_role_permission", "Remove Role Permission", "Remove role permission");
         authService.addPermission("remove_role_permission");
-        superAdminRole.getPermissions().add("remove_role_permission");
+        superAdminRole.addPermission("remove_role_permission");
         permissionMap.put("remove_role_permission", permission);
 
         permission = new Permission("add_role_entitlement", "Add Role Entitlement", "Add role entitlement");
         authService.addPermission("add_role_entitlement");
-        superAdminRole.getPermissions().add("add_role_entitlement");
+        superAdminRole.addPermission("add_role_entitlement");
         permissionMap.put("add_role_entitlement", permission);
 
         permission = new Permission("create_user", "Create User", "Create user");
         authService.addPermission("create_user");
-        superAdminRole.getPermissions().add("create_user");
+        superAdminRole.addPermission("create_user");
         permissionMap.put("create_user", permission);
 
         permission = new Permission("update_user_name", "Update User Name", "Update user name");
         authService.addPermission("update_user_name");
-        superAdminRole.getPermissions().add("update_user_name");
-        userRole.getPermissions().add("update_user_name");
+        superAdminRole.addPermission("update_user_name");
+        userRole.addPermission("update_user_name");
         permissionMap.put("update_user_name", permission);
 
         permission = new Permission("add_user_credential", "Add User Credential", "Add user credential");
         authService.addPermission("add_user_credential");
-        superAdminRole.getPermissions().add("add_user_credential");
-        userRole.getPermissions().add("add_user_credential");
+        superAdminRole.addPermission("add_user_credential");
+        userRole.addPermission("add_user_credential");
         permissionMap.put("add_user_credential", permission);
 
         permission = new Permission("remove_user_credential", "Remove User Credential", "Remove user credential");
         authService.addPermission("remove_user_credential");
-        superAdminRole.getPermissions().add("remove_user_credential");
-        userRole.getPermissions().add("remove_user_credential");
+        superAdminRole.addPermission("remove_user_credential");
+        userRole.addPermission("remove_user_credential");
         permissionMap.put("remove_user_credential", permission);
 
         permission = new Permission("update_user_password", "Update User Password", "Update user password");
         authService.addPermission("update_user_password");
-        superAdminRole.getPermissions().add("update_user_password");
-        userRole.getPermissions().add("update_user_password");
+        superAdminRole.addPermission("update_user_password");
+        userRole.addPermission("update_user_password");
         permissionMap.put("update_user_password", permission);
 
         permission = new Permission("add_user_permission", "Add User Permission", "Add user permission");
         authService.addPermission("add_user_permission");
-        superAdminRole.getPermissions().add("add_user_permission");
+        superAdminRole.addPermission("add_user_permission");
         permissionMap.put("add_user_permission", permission);
 
         permission = new Permission("remove_user_permission", "Remove User Permission", "Remove user permission");
         authService.addPermission("remove_user_permission");
-        superAdminRole.getPermissions().add("remove_user_permission");
+        superAdminRole.addPermission("remove_user_permission");
         permissionMap.put("remove_user_permission", permission);
 
         permission = new Permission("add_user_role", "Add User Role", "Add user role");
         authService.addPermission("add_user_role");
-        superAdminRole.getPermissions().add("add_user_role");
+        superAdminRole.addPermission("add_user_role");
         permissionMap.put("add_user_role", permission);
 
         permission = new Permission("remove_user_role", "Remove User Role", "Remove user role");
         authService.addPermission("remove_user_role");
-        superAdminRole.getPermissions().add("remove_user_role");
+        superAdminRole.addPermission("remove_user_role");
         permissionMap.put("remove_user_role", permission);
 
         /*
@@ -1121,21 +3683,55 @@ public class AuthServiceImpl implements AuthService, AuthServiceVisitorElement {
         User superAdminUser = new User("Super Admin", "super_admin");
         superAdminUser.addCredential("super_admin", "p4ssw0rd");
         userMap.put("super_admin", superAdminUser);
-        loginIDUserIDMap.put("super_admin", "super_admin");
+        loginIDUserMap.put(Credential.foldLoginID("super_admin"), superAdminUser);
+        roleClosureCache.addRole(superAdminRole.getID(), superAdminRole.getPermissionOrdinals());
+        roleClosureCache.addRole(userRole.getID(), userRole.getPermissionOrdinals());
+        roleUserMap.put(superAdminRole.getID(), new HashSet<User>());
+        roleUserMap.put(userRole.getID(), new HashSet<User>());
         superAdminUser.addRole(superAdminRole.getID());
-        for (int i = 0; i < superAdminRole.getPermissions().size(); i++) {
-            permissionUserMap.put(superAdminRole.getPermissions().get(i), new ArrayList<User>());
-            permissionUserMap.get(superAdminRole.getPermissions().get(i)).add(superAdminUser);
-        }
+        roleUserMap.get(superAdminRole.getID()).add(superAdminUser);
+        superAdminUser.setEffectivePermissions((BitSet) roleClosureCache.getPermissions(superAdminRole.getID()).clone());
     }
 
     /**
      *
      * @return
      */
-    public String currentConfiguration() {
+    public synchronized String currentConfiguration() {
         AuthServiceInventory authServiceInventory = new AuthServiceInventory();
         authServiceInventory.visitAuthService(this);
         return authServiceInventory.getInventoryDescription();
     }
+
+    /**
+     * This method writes an inventory of the authentication service objects
+     * with the specified StreamingAuthServiceInventory, whose writer, format,
+     * filters and page are set by the caller. The inventory is written under
+     * the AuthServiceImpl lock, so it describes a consistent state, and
+     * administrative methods wait until it is complete (checkAccess, login
+     * and logout do not).
+     *
+     * @param inventory Streaming inventory visitor.
+     * @throws IOException If the inventory could not be written.
+     */
+    public void writeConfiguration(StreamingAuthServiceInventory inventory) throws IOException {
+        synchronized (this) {
+            inventory.visitAuthService(this);
+        }
+        if (inventory.getError() != null) {
+            throw inventory.getError();
+        }
+    }
+
+    /**
+     * This method writes a complete inventory of the authentication service
+     * objects to the specified writer, in the specified format.
+     *
+     * @param writer Writer the inventory is written to.
+     * @param format Output format.
+     * @throws IOException If the inventory could not be written.
+     */
+    public void writeConfiguration(Writer writer, InventoryFormat format) throws IOException {
+        writeConfiguration(new StreamingAuthServiceInventory(writer, format));
+    }
 }
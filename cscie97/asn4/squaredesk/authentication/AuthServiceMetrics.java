@@ -0,0 +1,587 @@
+/*
+ * AuthServiceMetrics
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class is the registry of an AuthServiceImpl's metrics: counters and
+ * latency histograms for login, logout and checkAccess, latency histograms
+ * per permission ID checked, and counters and gauges read on demand from
+ * registered sources (active access tokens, users, roles, decision cache
+ * hits and so on). The registry can be polled through its getters or dumped
+ * in JSON or Prometheus text format.
+ *
+ * To keep checkAccess within a few nanoseconds of its uninstrumented cost,
+ * checkAccess and logout calls are only sampled one time in sampleInterval,
+ * chosen at random per call; the calls that are not sampled cost a random
+ * number and a branch, with no clock reads and no shared writes. Sampled
+ * calls are timed and counted with a weight of sampleInterval, so call
+ * counts (and, per permission ID, decision counts) are unbiased estimates,
+ * as are the latency percentiles. Failures of checkAccess and logout with
+ * InvalidAccessTokenException or UnauthorizedAccessException, which are
+ * expensive anyway, are counted exactly. A checkAccessMask, checkAccessAll
+ * or checkAccessAny call counts as one checkAccess call, and as a decision
+ * for each permission ID it checks. login calls, whose cost is
+ * dominated by password hashing, are always counted and timed. An
+ * AuthServiceImpl with metrics disabled has no registry at all and pays
+ * only a null check.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class AuthServiceMetrics {
+
+    /**
+     * Interface of a counter or gauge read when the registry is polled.
+     */
+    public interface Source {
+
+        /**
+         * Returns the current value.
+         *
+         * @return Value.
+         */
+        long read();
+    }
+
+    /**
+     * Operation names.
+     */
+    public static final String LOGIN = "login";
+    public static final String LOGOUT = "logout";
+    public static final String CHECK_ACCESS = "checkAccess";
+
+    /**
+     * Start time returned by startTiming for calls that are not sampled.
+     */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * Prefix of the Prometheus metric names.
+     */
+    private static final String PREFIX = "authservice_";
+
+    /**
+     * Quantiles reported in the dumps, with their JSON names.
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    /**
+     * Mask applied to a random number to decide whether a call is sampled.
+     */
+    private final int sampleMask;
+
+    /**
+     * Metrics of the instrumented operations.
+     */
+    private final OperationMetrics loginMetrics = new OperationMetrics(LOGIN);
+    private final OperationMetrics logoutMetrics = new OperationMetrics(LOGOUT);
+    private final OperationMetrics checkAccessMetrics = new OperationMetrics(CHECK_ACCESS);
+
+    /**
+     * Permission ID-to-checkAccess metrics of the sampled calls.
+     */
+    private final ConcurrentHashMap<String, OperationMetrics> permissionMetricsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Registry of interned permission IDs; only known permission IDs get
+     * metrics of their own, so that clients cannot grow the registry.
+     */
+    private final PermissionRegistry permissionRegistry = PermissionRegistry.getInstance();
+
+    /**
+     * Registered counters and gauges, in registration order.
+     */
+    private final CopyOnWriteArrayList<RegisteredSource> sources = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param sampleInterval One in how many checkAccess and logout calls are
+     * sampled (a power of two; 1 to sample every call).
+     */
+    public AuthServiceMetrics(int sampleInterval) {
+        if (sampleInterval < 1 || Integer.bitCount(sampleInterval) != 1) {
+            throw new IllegalArgumentException("sampleInterval must be a positive power of two");
+        }
+        this.sampleMask = sampleInterval - 1;
+    }
+
+    /**
+     * Returns one in how many checkAccess and logout calls are sampled.
+     *
+     * @return Sample interval.
+     */
+    public int getSampleInterval() {
+        return sampleMask + 1;
+    }
+
+    /**
+     * Registers a counter (a value that only increases) read on demand.
+     *
+     * @param name Name, in lower case with underscores.
+     * @param help One-line description.
+     * @param source Source of the value.
+     */
+    public void registerCounter(String name, String help, Source source) {
+        sources.add(new RegisteredSource(name, help, true, source));
+    }
+
+    /**
+     * Registers a gauge (a value that may go up and down) read on demand.
+     *
+     * @param name Name, in lower case with underscores.
+     * @param help One-line description.
+     * @param source Source of the value.
+     */
+    public void registerGauge(String name, String help, Source source) {
+        sources.add(new RegisteredSource(name, help, false, source));
+    }
+
+    /**
+     * Returns the current value of the specified registered counter or gauge.
+     *
+     * @param name Name of counter or gauge.
+     * @return Current value.
+     * @throws IllegalArgumentException If no such counter or gauge is registered.
+     */
+    public long getValue(String name) {
+        for (RegisteredSource registeredSource : sources) {
+            if (registeredSource.name.equals(name)) {
+                return registeredSource.source.read();
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric: " + name);
+    }
+
+    /**
+     * Returns the metrics of the specified operation.
+     *
+     * @param name LOGIN, LOGOUT or CHECK_ACCESS.
+     * @return Operation metrics (null if the operation is not instrumented).
+     */
+    public OperationMetrics getOperationMetrics(String name) {
+        if (LOGIN.equals(name)) {
+            return loginMetrics;
+        } else if (LOGOUT.equals(name)) {
+            return logoutMetrics;
+        } else if (CHECK_ACCESS.equals(name)) {
+            return checkAccessMetrics;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the checkAccess metrics of the specified permission ID, which
+     * are estimated from the sampled calls.
+     *
+     * @param permissionID Permission ID.
+     * @return Permission metrics (null if no sampled call has checked it).
+     */
+    public OperationMetrics getPermissionMetrics(String permissionID) {
+        return (permissionID == null) ? null : permissionMetricsMap.get(permissionID);
+    }
+
+    /**
+     * Starts a call that is sampled one time in sampleInterval.
+     *
+     * @return Start time in nanoseconds, or NOT_TIMED.
+     */
+    long startTiming() {
+        if ((ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+            return System.nanoTime();
+        } else {
+            return NOT_TIMED;
+        }
+    }
+
+    /**
+     * Records a login call.
+     *
+     * @param startTime Start time in nanoseconds.
+     * @param failure Exception thrown (null on success).
+     */
+    void recordLogin(long startTime, Throwable failure) {
+        record(loginMetrics, System.nanoTime() - startTime, 1, failure, 1);
+    }
+
+    /**
+     * Records a logout call.
+     *
+     * @param startTime Start time from startTiming.
+     * @param failure Exception thrown (null on success).
+     */
+    void recordLogout(long startTime, Throwable failure) {
+        if (startTime == NOT_TIMED) {
+            record(logoutMetrics, NOT_TIMED, 0, failure, 1);
+        } else {
+            record(logoutMetrics, System.nanoTime() - startTime, getSampleInterval(), failure, 1);
+        }
+    }
+
+    /**
+     * Records a checkAccess call, and for sampled calls of a known permission
+     * ID, the permission's metrics as well.
+     *
+     * @param permissionID Permission ID checked.
+     * @param startTime Start time from startTiming.
+     * @param failure Exception thrown (null if access was allowed).
+     */
+    void recordCheckAccess(String permissionID, long startTime, Throwable failure) {
+        if (startTime == NOT_TIMED) {
+            if (failure != null) {
+                record(checkAccessMetrics, NOT_TIMED, 0, failure, 1);
+            }
+            return;
+        }
+        long latency = System.nanoTime() - startTime;
+        int weight = getSampleInterval();
+        record(checkAccessMetrics, latency, weight, failure, 1);
+        OperationMetrics permissionMetrics = permissionMetrics(permissionID);
+        if (permissionMetrics != null) {
+            record(permissionMetrics, latency, weight, failure, weight);
+        }
+    }
+
+    /**
+     * Records a checkAccessMask, checkAccessAll or checkAccessAny call as one
+     * checkAccess call, and for sampled calls, a decision for each known
+     * permission ID checked. An InvalidAccessTokenException is charged to
+     * every permission ID; an UnauthorizedAccessException (thrown by
+     * checkAccessAll and checkAccessAny) only to those that were not
+     * granted. A permission a plain checkAccessMask call finds not granted
+     * is not a failure, since the caller decides what the mask means.
+     *
+     * @param permissionIDs Permission IDs checked.
+     * @param grantedMask Bitmask of the permissions granted (0 if the
+     * access token was invalid).
+     * @param startTime Start time from startTiming.
+     * @param failure Exception thrown (null if none).
+     */
+    void recordCheckAccessMask(String[] permissionIDs, long grantedMask, long startTime, Throwable failure) {
+        if (startTime == NOT_TIMED) {
+            if (failure != null) {
+                record(checkAccessMetrics, NOT_TIMED, 0, failure, 1);
+            }
+            return;
+        }
+        long latency = System.nanoTime() - startTime;
+        int weight = getSampleInterval();
+        record(checkAccessMetrics, latency, weight, failure, 1);
+        for (int i = 0; i < permissionIDs.length; i++) {
+            OperationMetrics permissionMetrics = permissionMetrics(permissionIDs[i]);
+            if (permissionMetrics != null) {
+                Throwable permissionFailure = failure;
+                if ((failure instanceof UnauthorizedAccessException) && ((grantedMask & (1L << i)) != 0)) {
+                    permissionFailure = null;
+                }
+                record(permissionMetrics, latency, weight, permissionFailure, weight);
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics of the specified permission ID, creating them on
+     * its first sampled check.
+     *
+     * @param permissionID Permission ID.
+     * @return Permission metrics (null if the permission ID is not known).
+     */
+    private OperationMetrics permissionMetrics(String permissionID) {
+        if (permissionRegistry.getOrdinal(permissionID) < 0) {
+            return null;
+        }
+        OperationMetrics permissionMetrics = permissionMetricsMap.get(permissionID);
+        if (permissionMetrics == null) {
+            permissionMetrics = new OperationMetrics(permissionID);
+            OperationMetrics existing = permissionMetricsMap.putIfAbsent(permissionID, permissionMetrics);
+            if (existing != null) {
+                permissionMetrics = existing;
+            }
+        }
+        return permissionMetrics;
+    }
+
+    /**
+     * Records a call of the specified operation.
+     *
+     * @param operation Operation metrics.
+     * @param latency Latency in nanoseconds, or NOT_TIMED.
+     * @param callWeight Number of calls the call stands for (0 if it is
+     * counted elsewhere).
+     * @param failure Exception thrown (null on success).
+     * @param failureWeight Number of failures the failure stands for.
+     */
+    private static void record(OperationMetrics operation, long latency, long callWeight,
+            Throwable failure, long failureWeight) {
+        if (callWeight > 0) {
+            operation.recordCalls(callWeight);
+        }
+        if (latency != NOT_TIMED) {
+            operation.recordLatency(latency);
+        }
+        if (failure == null) {
+            return;
+        } else if (failure instanceof InvalidAccessTokenException) {
+            operation.recordInvalidAccessTokens(failureWeight);
+        } else if (failure instanceof UnauthorizedAccessException) {
+            operation.recordUnauthorizedAccesses(failureWeight);
+        } else {
+            operation.recordFailures(failureWeight);
+        }
+    }
+
+    /**
+     * Returns all metrics as a JSON object.
+     *
+     * @return JSON string.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"sampleInterval\": ").append(getSampleInterval()).append(",\n");
+        json.append("  \"operations\": {");
+        OperationMetrics[] operations = {loginMetrics, logoutMetrics, checkAccessMetrics};
+        for (int i = 0; i < operations.length; i++) {
+            appendJson(json, operations[i], i == 0);
+        }
+        json.append("\n  },\n  \"permissions\": {");
+        boolean first = true;
+        for (OperationMetrics permissionMetrics : sortedPermissionMetrics().values()) {
+            appendJson(json, permissionMetrics, first);
+            first = false;
+        }
+        json.append("\n  },\n  \"counters\": {");
+        appendJsonSources(json, true);
+        json.append("\n  },\n  \"gauges\": {");
+        appendJsonSources(json, false);
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text exposition format. Latency
+     * histograms are exported as summaries, in seconds.
+     *
+     * @return Prometheus text.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        OperationMetrics[] operations = {loginMetrics, logoutMetrics, checkAccessMetrics};
+        ArrayList<OperationMetrics> permissions = new ArrayList<>(sortedPermissionMetrics().values());
+
+        appendHeader(text, "operation_calls_total", "counter", "Calls per operation.");
+        for (int i = 0; i < operations.length; i++) {
+            appendSample(text, "operation_calls_total", "operation", operations[i].getName(), null,
+                    operations[i].getCallCount());
+        }
+        appendHeader(text, "operation_errors_total", "counter", "Failed calls per operation and error.");
+        for (int i = 0; i < operations.length; i++) {
+            String name = operations[i].getName();
+            appendSample(text, "operation_errors_total", "operation", name, "error=\"invalid_access_token\"",
+                    operations[i].getInvalidAccessTokenCount());
+            appendSample(text, "operation_errors_total", "operation", name, "error=\"unauthorized_access\"",
+                    operations[i].getUnauthorizedAccessCount());
+            appendSample(text, "operation_errors_total", "operation", name, "error=\"other\"",
+                    operations[i].getFailureCount());
+        }
+        appendHeader(text, "operation_latency_seconds", "summary", "Latency of the sampled calls per operation.");
+        for (int i = 0; i < operations.length; i++) {
+            appendSummary(text, "operation_latency_seconds", "operation", operations[i]);
+        }
+
+        appendHeader(text, "permission_checks_total", "counter",
+                "Estimated checkAccess calls per permission and decision.");
+        for (int i = 0; i < permissions.size(); i++) {
+            OperationMetrics permissionMetrics = permissions.get(i);
+            long denied = permissionMetrics.getUnauthorizedAccessCount();
+            long invalid = permissionMetrics.getInvalidAccessTokenCount();
+            appendSample(text, "permission_checks_total", "permission", permissionMetrics.getName(),
+                    "decision=\"allowed\"", permissionMetrics.getCallCount() - denied - invalid);
+            appendSample(text, "permission_checks_total", "permission", permissionMetrics.getName(),
+                    "decision=\"denied\"", denied);
+            appendSample(text, "permission_checks_total", "permission", permissionMetrics.getName(),
+                    "decision=\"invalid_access_token\"", invalid);
+        }
+        appendHeader(text, "permission_latency_seconds", "summary", "Latency of the sampled checkAccess calls per permission.");
+        for (int i = 0; i < permissions.size(); i++) {
+            appendSummary(text, "permission_latency_seconds", "permission", permissions.get(i));
+        }
+
+        for (RegisteredSource registeredSource : sources) {
+            String name = registeredSource.counter ? registeredSource.name + "_total" : registeredSource.name;
+            appendHeader(text, name, registeredSource.counter ? "counter" : "gauge", registeredSource.help);
+            text.append(PREFIX).append(name).append(' ').append(registeredSource.source.read()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a sorted copy of the permission metrics map, so that dumps are
+     * in a stable order.
+     *
+     * @return Permission ID-to-metrics map.
+     */
+    private TreeMap<String, OperationMetrics> sortedPermissionMetrics() {
+        return new TreeMap<>(permissionMetricsMap);
+    }
+
+    /**
+     * Appends the JSON member of the specified operation metrics.
+     *
+     * @param json JSON being built.
+     * @param operation Operation metrics.
+     * @param first True if this is the first member of its object.
+     */
+    private static void appendJson(StringBuilder json, OperationMetrics operation, boolean first) {
+        LatencyHistogram histogram = operation.getLatencyHistogram();
+        long[] quantiles = histogram.getQuantiles(QUANTILES);
+        json.append(first ? "\n    " : ",\n    ");
+        appendJsonString(json, operation.getName());
+        json.append(": {\"calls\": ").append(operation.getCallCount())
+                .append(", \"invalidAccessToken\": ").append(operation.getInvalidAccessTokenCount())
+                .append(", \"unauthorizedAccess\": ").append(operation.getUnauthorizedAccessCount())
+                .append(", \"failures\": ").append(operation.getFailureCount())
+                .append(", \"latencyNanos\": {\"count\": ").append(histogram.getCount())
+                .append(", \"sum\": ").append(histogram.getSum());
+        for (int i = 0; i < quantiles.length; i++) {
+            json.append(", \"").append(QUANTILE_NAMES[i]).append("\": ").append(quantiles[i]);
+        }
+        json.append(", \"max\": ").append(histogram.getMax()).append("}}");
+    }
+
+    /**
+     * Appends the JSON members of the registered counters or gauges.
+     *
+     * @param json JSON being built.
+     * @param counters True for counters, false for gauges.
+     */
+    private void appendJsonSources(StringBuilder json, boolean counters) {
+        boolean first = true;
+        for (RegisteredSource registeredSource : sources) {
+            if (registeredSource.counter == counters) {
+                json.append(first ? "\n    " : ",\n    ");
+                appendJsonString(json, registeredSource.name);
+                json.append(": ").append(registeredSource.source.read());
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Appends the specified string as a quoted JSON string.
+     *
+     * @param json JSON being built.
+     * @param value String value.
+     */
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Appends the HELP and TYPE lines of a Prometheus metric.
+     *
+     * @param text Text being built.
+     * @param name Metric name (without prefix).
+     * @param type Metric type.
+     * @param help One-line description.
+     */
+    private static void appendHeader(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a Prometheus sample line.
+     *
+     * @param text Text being built.
+     * @param name Metric name (without prefix).
+     * @param label Name of the label identifying the operation or permission.
+     * @param labelValue Value of that label.
+     * @param extraLabels Further labels, already formatted (null if none).
+     * @param value Sample value.
+     */
+    private static void appendSample(StringBuilder text, String name, String label, String labelValue,
+            String extraLabels, Object value) {
+        text.append(PREFIX).append(name).append('{').append(label).append("=\"");
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            if (c == '"' || c == '\\') {
+                text.append('\\').append(c);
+            } else if (c == '\n') {
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+        text.append('"');
+        if (extraLabels != null) {
+            text.append(',').append(extraLabels);
+        }
+        text.append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Appends the quantile, sum and count lines of a Prometheus summary.
+     *
+     * @param text Text being built.
+     * @param name Metric name (without prefix).
+     * @param label Name of the label identifying the operation or permission.
+     * @param operation Operation metrics.
+     */
+    private static void appendSummary(StringBuilder text, String name, String label, OperationMetrics operation) {
+        LatencyHistogram histogram = operation.getLatencyHistogram();
+        long[] quantiles = histogram.getQuantiles(QUANTILES);
+        for (int i = 0; i < quantiles.length; i++) {
+            appendSample(text, name, label, operation.getName(), "quantile=\"" + QUANTILES[i] + "\"",
+                    quantiles[i] / 1e9);
+        }
+        appendSample(text, name + "_sum", label, operation.getName(), null, histogram.getSum() / 1e9);
+        appendSample(text, name + "_count", label, operation.getName(), null, histogram.getCount());
+    }
+
+    /**
+     * A registered counter or gauge.
+     */
+    private static class RegisteredSource {
+
+        private final String name;
+        private final String help;
+        private final boolean counter;
+        private final Source source;
+
+        RegisteredSource(String name, String help, boolean counter, Source source) {
+            this.name = name;
+            this.help = help;
+            this.counter = counter;
+            this.source = source;
+        }
+    }
+}
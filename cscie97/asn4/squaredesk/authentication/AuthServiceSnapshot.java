@@ -0,0 +1,586 @@
+/*
+ * AuthServiceSnapshot
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * This class encodes and decodes a compact binary snapshot of the model held
+ * by an AuthServiceImpl object: permissions, services, roles with their
+ * subroles, users with their credentials (hash parameters, salt and hash,
+ * never passwords) and, optionally, live sessions and revoked signed access
+ * tokens. The snapshot also records the sequence number of the last
+ * mutation log record it reflects, so that only the log tail needs to be
+ * replayed after it has been restored.
+ *
+ * Permissions are stored as bitsets of PermissionRegistry ordinals, preceded
+ * by the table of permission IDs the ordinals refer to; if the registry of
+ * the restoring process assigns the same ordinals (as it does in a fresh
+ * process), the bitsets are used as they are. Strings are stored as UTF-8
+ * with a length prefix, and the whole snapshot is followed by a CRC-32.
+ *
+ * A snapshot is read through a read-only memory mapping of the file (or,
+ * on a replication follower, received from the leader in a buffer) and
+ * decoded in a single sequential pass; derived indexes (role closures, role
+ * holders, effective permissions, login IDs) are rebuilt in bulk by the
+ * AuthServiceImpl afterwards. Since restore time for a large directory is
+ * dominated by the garbage collector copying the freshly built model,
+ * strings that recur in every user record (role IDs, hash algorithms) are
+ * decoded to shared instances.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class AuthServiceSnapshot {
+
+    /**
+     * Snapshot file magic number ("SDS1").
+     */
+    private static final int MAGIC = 0x53445331;
+
+    /**
+     * Snapshot format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Sequence number of the last mutation log record reflected.
+     */
+    private long mutationLogSequence;
+
+    /**
+     * Permissions.
+     */
+    private ArrayList<Permission> permissions = new ArrayList<>();
+
+    /**
+     * Services.
+     */
+    private ArrayList<Service> services = new ArrayList<>();
+
+    /**
+     * Roles.
+     */
+    private ArrayList<Role> roles = new ArrayList<>();
+
+    /**
+     * Users.
+     */
+    private ArrayList<User> users = new ArrayList<>();
+
+    /**
+     * Live sessions (empty if not included).
+     */
+    private ArrayList<Session> sessions = new ArrayList<>();
+
+    /**
+     * Revoked signed access tokens and their expiry times (empty if not
+     * included).
+     */
+    private HashMap<String, Long> revokedTokens = new HashMap<>();
+
+    /**
+     * Private constructor (use read()).
+     */
+    private AuthServiceSnapshot() {
+    }
+
+    /**
+     * Returns the sequence number of the last mutation log record reflected
+     * in this snapshot.
+     *
+     * @return Mutation log sequence number.
+     */
+    public long getMutationLogSequence() {
+        return mutationLogSequence;
+    }
+
+    /**
+     * Returns the restored permissions.
+     *
+     * @return List of permissions.
+     */
+    public List<Permission> getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Returns the restored services.
+     *
+     * @return List of services.
+     */
+    public List<Service> getServices() {
+        return services;
+    }
+
+    /**
+     * Returns the restored roles (with their own permissions and subroles).
+     *
+     * @return List of roles.
+     */
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Returns the restored users (with their own permissions, roles,
+     * credentials and access token epochs; effective permissions are left
+     * for the caller to rebuild).
+     *
+     * @return List of users.
+     */
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Returns the restored sessions.
+     *
+     * @return List of sessions.
+     */
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the restored revoked signed access tokens.
+     *
+     * @return Revoked token-to-expiry time map.
+     */
+    public Map<String, Long> getRevokedTokens() {
+        return revokedTokens;
+    }
+
+    /**
+     * Encodes a snapshot of the specified model into a new buffer, ready to
+     * be written. The caller must prevent concurrent mutations while this
+     * method runs.
+     *
+     * @param mutationLogSequence Sequence number of the last mutation log record applied.
+     * @param permissionRegistry Registry whose ordinals index the permission bitsets.
+     * @param permissions Permissions.
+     * @param services Services.
+     * @param roles Roles.
+     * @param users Users.
+     * @param sessions Live sessions to include (empty for none).
+     * @param revokedTokens Revoked signed access tokens to include (empty for none).
+     * @return Encoded snapshot (position 0, limit at its end).
+     */
+    public static ByteBuffer encode(long mutationLogSequence, PermissionRegistry permissionRegistry,
+            Collection<Permission> permissions, Collection<Service> services, Collection<Role> roles,
+            Collection<User> users, Collection<Session> sessions, Map<String, Long> revokedTokens) {
+        Encoder encoder = new Encoder(64 * 1024 + users.size() * 128);
+        encoder.putInt(MAGIC);
+        encoder.putInt(VERSION);
+        encoder.putLong(mutationLogSequence);
+
+        int permissionIDCount = permissionRegistry.size();
+        encoder.putInt(permissionIDCount);
+        for (int i = 0; i < permissionIDCount; i++) {
+            encoder.putString(permissionRegistry.getPermissionID(i));
+        }
+
+        encoder.putInt(permissions.size());
+        for (Permission permission : permissions) {
+            encoder.putString(permission.getID());
+            encoder.putString(permission.getName());
+            encoder.putString(permission.getDescription());
+        }
+
+        encoder.putInt(services.size());
+        for (Service service : services) {
+            encoder.putString(service.getID());
+            encoder.putString(service.getName());
+            encoder.putString(service.getDescription());
+            encoder.putBitSet(service.getPermissionOrdinals());
+        }
+
+        encoder.putInt(roles.size());
+        for (Role role : roles) {
+            encoder.putString(role.getID());
+            encoder.putString(role.getName());
+            encoder.putString(role.getDescription());
+            encoder.putBitSet(role.getPermissionOrdinals());
+            encoder.putStrings(role.getSubroles());
+        }
+
+        encoder.putInt(users.size());
+        for (User user : users) {
+            encoder.putString(user.getUserID());
+            encoder.putString(user.getUserName());
+            encoder.putLong(user.getAccessTokenEpoch());
+            encoder.putBitSet(user.getPermissionOrdinals());
+            encoder.putStrings(user.getRoles());
+            List<Credential> credentials = user.getCredentials();
+            encoder.putInt(credentials.size());
+            for (Credential credential : credentials) {
+                PasswordHash passwordHash = credential.getPasswordHash();
+                encoder.putString(credential.getLoginID());
+                encoder.putString(passwordHash.getAlgorithm());
+                encoder.putInt(passwordHash.getIterations());
+                encoder.putBytes(passwordHash.getSalt());
+                encoder.putBytes(passwordHash.getHash());
+            }
+        }
+
+        encoder.putInt(sessions.size());
+        for (Session session : sessions) {
+            UUID ID = session.getAccessToken().getID();
+            encoder.putLong(ID.getMostSignificantBits());
+            encoder.putLong(ID.getLeastSignificantBits());
+            encoder.putLong(session.getAccessToken().getLastAccessTime().getTime());
+            encoder.putString(session.getLoginID());
+            encoder.putString(session.getUser().getUserID());
+        }
+
+        encoder.putInt(revokedTokens.size());
+        for (Map.Entry<String, Long> revokedToken : revokedTokens.entrySet()) {
+            encoder.putString(revokedToken.getKey());
+            encoder.putLong(revokedToken.getValue());
+        }
+        return encoder.finish();
+    }
+
+    /**
+     * Writes the specified encoded snapshot to the specified path. The
+     * snapshot is written to a temporary file, forced to disk and then
+     * moved into place, so that the path always holds a complete snapshot.
+     *
+     * @param snapshot Encoded snapshot.
+     * @param path Snapshot file path.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static void write(ByteBuffer snapshot, Path path) throws IOException {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot at the specified path through a memory mapping and
+     * decodes it, interning its permission IDs into the specified registry.
+     *
+     * @param path Snapshot file path.
+     * @param permissionRegistry Registry into which permission IDs are interned.
+     * @return Decoded snapshot.
+     * @throws IOException If the snapshot cannot be read, or is corrupt.
+     */
+    public static AuthServiceSnapshot read(Path path, PermissionRegistry permissionRegistry) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return decode(buffer, permissionRegistry);
+        } catch (IOException ioe) {
+            throw new IOException(ioe.getMessage() + ": " + path, ioe);
+        }
+    }
+
+    /**
+     * Decodes the snapshot held in the specified buffer (from its position
+     * 0 to its limit), interning its permission IDs into the specified
+     * registry. Snapshots received from a leader by a ReplicationFollower
+     * are decoded this way.
+     *
+     * @param buffer Encoded snapshot.
+     * @param permissionRegistry Registry into which permission IDs are interned.
+     * @return Decoded snapshot.
+     * @throws IOException If the snapshot is corrupt.
+     */
+    public static AuthServiceSnapshot decode(ByteBuffer buffer, PermissionRegistry permissionRegistry)
+            throws IOException {
+
+        /*
+         * Verify the trailing checksum before decoding anything
+         */
+        if (buffer.limit() < 24) {
+            throw new IOException("Snapshot truncated");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        content.position(0);
+        content.limit(buffer.limit() - 4);
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        buffer.limit(buffer.limit() - 4);
+
+        Decoder decoder = new Decoder(buffer);
+        if ((decoder.getInt() != MAGIC) || (decoder.getInt() != VERSION)) {
+            throw new IOException("Not a snapshot");
+        }
+        AuthServiceSnapshot snapshot = new AuthServiceSnapshot();
+        snapshot.mutationLogSequence = decoder.getLong();
+
+        /*
+         * Map the snapshot's permission ordinals onto this process's ordinals
+         */
+        int permissionIDCount = decoder.getInt();
+        int[] ordinalMap = new int[permissionIDCount];
+        boolean identity = true;
+        for (int i = 0; i < permissionIDCount; i++) {
+            ordinalMap[i] = permissionRegistry.intern(decoder.getString());
+            identity = identity && (ordinalMap[i] == i);
+        }
+        decoder.setOrdinalMap(identity ? null : ordinalMap);
+
+        int permissionCount = decoder.getInt();
+        snapshot.permissions.ensureCapacity(permissionCount);
+        for (int i = 0; i < permissionCount; i++) {
+            snapshot.permissions.add(new Permission(decoder.getString(), decoder.getString(), decoder.getString()));
+        }
+
+        int serviceCount = decoder.getInt();
+        snapshot.services.ensureCapacity(serviceCount);
+        for (int i = 0; i < serviceCount; i++) {
+            Service service = new Service(decoder.getString(), decoder.getString(), decoder.getString());
+            service.setPermissionOrdinals(decoder.getBitSet());
+            snapshot.services.add(service);
+        }
+
+        int roleCount = decoder.getInt();
+        snapshot.roles.ensureCapacity(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            Role role = new Role(decoder.getSharedString(), decoder.getString(), decoder.getString());
+            role.setPermissionOrdinals(decoder.getBitSet());
+            int subroleCount = decoder.getInt();
+            for (int j = 0; j < subroleCount; j++) {
+                role.addSubrole(decoder.getSharedString());
+            }
+            snapshot.roles.add(role);
+        }
+
+        int userCount = decoder.getInt();
+        snapshot.users.ensureCapacity(userCount);
+        for (int i = 0; i < userCount; i++) {
+            String userID = decoder.getString();
+            User user = new User(decoder.getString(), userID);
+            user.setAccessTokenEpoch(decoder.getLong());
+            user.setPermissionOrdinals(decoder.getBitSet());
+            int userRoleCount = decoder.getInt();
+            for (int j = 0; j < userRoleCount; j++) {
+                user.getRoles().add(decoder.getSharedString());
+            }
+            user.getRoles().trimToSize();
+            int credentialCount = decoder.getInt();
+            for (int j = 0; j < credentialCount; j++) {
+                String loginID = decoder.getString();
+                user.addCredential(loginID, new PasswordHash(decoder.getSharedString(), decoder.getInt(),
+                        decoder.getBytes(), decoder.getBytes()));
+            }
+            snapshot.users.add(user);
+        }
+
+        /*
+         * Sessions refer to users by ID (the ID index is only built if needed)
+         */
+        int sessionCount = decoder.getInt();
+        HashMap<String, User> userMap = new HashMap<>();
+        if (sessionCount > 0) {
+            for (int i = 0; i < userCount; i++) {
+                userMap.put(snapshot.users.get(i).getUserID(), snapshot.users.get(i));
+            }
+        }
+        for (int i = 0; i < sessionCount; i++) {
+            UUID ID = new UUID(decoder.getLong(), decoder.getLong());
+            AccessToken accessToken = new AccessToken(ID, new Date(decoder.getLong()));
+            String loginID = decoder.getString();
+            User user = userMap.get(decoder.getString());
+            if (user != null) {
+                snapshot.sessions.add(new Session(loginID, user, accessToken));
+            }
+        }
+
+        int revokedTokenCount = decoder.getInt();
+        for (int i = 0; i < revokedTokenCount; i++) {
+            snapshot.revokedTokens.put(decoder.getString(), decoder.getLong());
+        }
+        return snapshot;
+    }
+
+    /**
+     * This class appends snapshot fields to a growable heap buffer.
+     */
+    private static class Encoder {
+
+        private ByteBuffer buffer;
+
+        Encoder(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+
+        void ensureRemaining(int length) {
+            if (buffer.remaining() < length) {
+                long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + length);
+                if (capacity > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Snapshot exceeds 2GB");
+                }
+                ByteBuffer newBuffer = ByteBuffer.allocate((int) capacity);
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            }
+        }
+
+        void putInt(int value) {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) {
+            ensureRemaining(8);
+            buffer.putLong(value);
+        }
+
+        void putBytes(byte[] bytes) {
+            ensureRemaining(4 + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putString(String string) {
+            if (string == null) {
+                putInt(-1);
+            } else {
+                putBytes(string.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        void putStrings(List<String> strings) {
+            putInt(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                putString(strings.get(i));
+            }
+        }
+
+        void putBitSet(BitSet bitSet) {
+            long[] words = bitSet.toLongArray();
+            ensureRemaining(4 + words.length * 8);
+            buffer.putInt(words.length);
+            for (int i = 0; i < words.length; i++) {
+                buffer.putLong(words[i]);
+            }
+        }
+
+        /**
+         * Appends the CRC-32 of everything written so far and returns the
+         * buffer, flipped for writing.
+         */
+        ByteBuffer finish() {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            putInt((int) crc.getValue());
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * This class reads snapshot fields sequentially from a (mapped) buffer.
+     */
+    private static class Decoder {
+
+        private final ByteBuffer buffer;
+        private byte[] scratch = new byte[256];
+        private int[] ordinalMap = null;
+        private HashMap<String, String> sharedStrings = new HashMap<>();
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void setOrdinalMap(int[] ordinalMap) {
+            this.ordinalMap = ordinalMap;
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        long getLong() {
+            return buffer.getLong();
+        }
+
+        byte[] getBytes() {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        String getString() {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns a string that recurs across many records (a role ID or a
+         * hash algorithm), as a single shared instance.
+         */
+        String getSharedString() {
+            String string = getString();
+            String sharedString = sharedStrings.putIfAbsent(string, string);
+            return (sharedString == null) ? string : sharedString;
+        }
+
+        BitSet getBitSet() {
+            long[] words = new long[buffer.getInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = buffer.getLong();
+            }
+            BitSet bitSet = BitSet.valueOf(words);
+            if (ordinalMap == null) {
+                return bitSet;
+            }
+            BitSet mappedBitSet = new BitSet();
+            for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+                mappedBitSet.set(ordinalMap[i]);
+            }
+            return mappedBitSet;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * BulkProvisioner
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * This class provisions an AuthServiceImpl from an authentication CSV file
+ * (the format read by TestDriver) as a single transaction.
+ *
+ * The file is read a line at a time; each line's fields are located and
+ * trimmed in place, and only the field values themselves are copied out.
+ * The supported directives are:
+ *
+ *   define_service, service_id, service_name, service_description
+ *   define_permission, service_id, permission_id, permission_name, permission_description
+ *   define_role, role_id, role_name, role_description
+ *   add_entitlement_to_role, role_id, permission_or_role_id
+ *   create_user, user_id, user_name
+ *   add_credential, user_id, login_id, password
+ *   add_role_to_user, user_id, role_id
+ *
+ * The last field of each directive runs to the end of the line, so
+ * descriptions may contain commas. Blank lines and lines starting with '#'
+ * are ignored.
+ *
+ * The whole file is then handed to AuthServiceImpl.provision, which checks
+ * each permission the file needs once, validates every directive against
+ * the current configuration plus the directives before it, and either
+ * applies all of them or none. Every error found is reported with its line
+ * number.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class BulkProvisioner {
+
+    /**
+     * Directives, with the number of fields following each.
+     */
+    private static final String[] DIRECTIVES = {
+        ProvisioningDirective.DEFINE_SERVICE,
+        ProvisioningDirective.DEFINE_PERMISSION,
+        ProvisioningDirective.DEFINE_ROLE,
+        ProvisioningDirective.ADD_ENTITLEMENT_TO_ROLE,
+        ProvisioningDirective.CREATE_USER,
+        ProvisioningDirective.ADD_CREDENTIAL,
+        ProvisioningDirective.ADD_ROLE_TO_USER
+    };
+    private static final int[] FIELD_COUNTS = {3, 4, 3, 2, 2, 3, 2};
+
+    /**
+     * AuthService being provisioned.
+     */
+    private AuthServiceImpl authService;
+
+    /**
+     * Constructor.
+     *
+     * @param authService AuthService being provisioned.
+     */
+    public BulkProvisioner(AuthServiceImpl authService) {
+        this.authService = authService;
+    }
+
+    /**
+     * Provisions the AuthService from the specified UTF-8 file.
+     *
+     * @param accessToken Client access token.
+     * @param file Authentication CSV file.
+     * @return Provisioning report.
+     * @throws IOException If the file cannot be read.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException If the token lacks a permission the file needs.
+     * @throws AuthServiceException If the changes cannot be logged.
+     */
+    public BulkProvisioningReport provision(String accessToken, Path file)
+            throws IOException, InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return provision(accessToken, reader);
+        }
+    }
+
+    /**
+     * Provisions the AuthService from the specified reader. Nothing is
+     * applied if any line is in error; the returned report lists the errors
+     * and says whether the file was committed.
+     *
+     * @param accessToken Client access token.
+     * @param reader Reader of authentication CSV lines.
+     * @return Provisioning report.
+     * @throws IOException If the reader fails.
+     * @throws InvalidAccessTokenException
+     * @throws UnauthorizedAccessException If the token lacks a permission the file needs.
+     * @throws AuthServiceException If the changes cannot be logged.
+     */
+    public BulkProvisioningReport provision(String accessToken, Reader reader)
+            throws IOException, InvalidAccessTokenException, UnauthorizedAccessException,
+            AuthServiceException {
+        long startTime = System.nanoTime();
+        BulkProvisioningReport report = new BulkProvisioningReport();
+        BufferedReader bufferedReader = (reader instanceof BufferedReader)
+                ? (BufferedReader) reader : new BufferedReader(reader);
+
+        /*
+         * Parse the file a line at a time
+         */
+        ArrayList<ProvisioningDirective> directives = new ArrayList<>();
+        int lineNumber = 0;
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+            ProvisioningDirective directive = parseLine(line, lineNumber, report);
+            if (directive != null) {
+                directives.add(directive);
+            }
+        }
+        report.setLineCount(lineNumber);
+        report.setDirectiveCount(directives.size());
+
+        /*
+         * Validate and apply the whole file
+         */
+        authService.provision(accessToken, directives, report);
+        report.sortErrors();
+        report.setElapsedNanos(System.nanoTime() - startTime);
+        return report;
+    }
+
+    /*
+     * Parses the specified line, returning its directive (null for blank
+     * lines, comments and lines in error, which are added to the report).
+     */
+    private static ProvisioningDirective parseLine(String line, int lineNumber,
+            BulkProvisioningReport report) {
+        int length = line.length();
+        int start = skipWhitespace(line, 0, length);
+        if (start == length || line.charAt(start) == '#') {
+            return null;
+        }
+
+        /*
+         * Identify the directive without copying it
+         */
+        int comma = line.indexOf(',', start);
+        int end = trimEnd(line, start, (comma < 0) ? length : comma);
+        int directiveIndex = -1;
+        for (int i = 0; i < DIRECTIVES.length; i++) {
+            if (end - start == DIRECTIVES[i].length()
+                    && line.regionMatches(true, start, DIRECTIVES[i], 0, end - start)) {
+                directiveIndex = i;
+                break;
+            }
+        }
+        if (directiveIndex < 0) {
+            report.addError(lineNumber, "Unknown directive: " + line.substring(start, end));
+            return null;
+        }
+
+        /*
+         * Copy out the trimmed fields; the last one runs to the end of the line
+         */
+        int fieldCount = FIELD_COUNTS[directiveIndex];
+        String[] fields = new String[fieldCount];
+        int position = (comma < 0) ? length : comma + 1;
+        for (int i = 0; i < fieldCount; i++) {
+            if (position > length || (comma < 0)) {
+                report.addError(lineNumber, DIRECTIVES[directiveIndex] + " expects " + fieldCount
+                        + " fields, found " + i + ".");
+                return null;
+            }
+            int fieldEnd;
+            if (i == fieldCount - 1) {
+                fieldEnd = length;
+            } else {
+                comma = line.indexOf(',', position);
+                fieldEnd = (comma < 0) ? length : comma;
+            }
+            int fieldStart = skipWhitespace(line, position, fieldEnd);
+            fields[i] = line.substring(fieldStart, trimEnd(line, fieldStart, fieldEnd));
+            if (fields[i].isEmpty()) {
+                report.addError(lineNumber, DIRECTIVES[directiveIndex] + " field " + (i + 1) + " is empty.");
+                return null;
+            }
+            position = fieldEnd + 1;
+        }
+        return new ProvisioningDirective(DIRECTIVES[directiveIndex], lineNumber, fields);
+    }
+
+    /*
+     * Returns the index of the first non-whitespace character at or after
+     * start (end if none).
+     */
+    private static int skipWhitespace(String line, int start, int end) {
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /*
+     * Returns the end of the specified range with trailing whitespace
+     * removed.
+     */
+    private static int trimEnd(String line, int start, int end) {
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * BulkProvisioningError
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This class describes an error found on one line of a bulk provisioning
+ * file.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class BulkProvisioningError {
+
+    /**
+     * Number of the line on which the error was found (starting at 1).
+     */
+    private final int lineNumber;
+
+    /**
+     * Description of the error.
+     */
+    private final String message;
+
+    /**
+     * Constructor.
+     *
+     * @param lineNumber Line number.
+     * @param message Description of the error.
+     */
+    public BulkProvisioningError(int lineNumber, String message) {
+        this.lineNumber = lineNumber;
+        this.message = message;
+    }
+
+    /**
+     * Returns the number of the line on which the error was found.
+     *
+     * @return Line number.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the description of the error.
+     *
+     * @return Error description.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the error as "line N: message".
+     *
+     * @return Error string.
+     */
+    @Override
+    public String toString() {
+        return "line " + lineNumber + ": " + message;
+    }
+}
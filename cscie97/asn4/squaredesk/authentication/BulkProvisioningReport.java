@@ -0,0 +1,250 @@
+/*
+ * BulkProvisioningReport
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class reports the outcome of a bulk provisioning run: whether the
+ * file was applied, the errors found on individual lines (in which case
+ * nothing was applied), and how many lines and directives were processed
+ * and how fast.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class BulkProvisioningReport {
+
+    /**
+     * Errors found, in line order.
+     */
+    private ArrayList<BulkProvisioningError> errors = new ArrayList<>();
+
+    /**
+     * Number of lines read (including blank lines and comments).
+     */
+    private int lineCount = 0;
+
+    /**
+     * Number of directives read.
+     */
+    private int directiveCount = 0;
+
+    /**
+     * Number of directives skipped because they had no effect.
+     */
+    private int skippedCount = 0;
+
+    /**
+     * True once the file has been applied.
+     */
+    private boolean committed = false;
+
+    /**
+     * Total elapsed time, in nanoseconds.
+     */
+    private long elapsedNanos = 0;
+
+    /**
+     * Time spent hashing passwords, in nanoseconds.
+     */
+    private long hashingNanos = 0;
+
+    /**
+     * Constructor.
+     */
+    public BulkProvisioningReport() {
+    }
+
+    /**
+     * Returns the errors found, in line order (empty if the file was applied).
+     *
+     * @return List of errors.
+     */
+    public List<BulkProvisioningError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Adds an error found on the specified line.
+     *
+     * @param lineNumber Line number.
+     * @param message Description of the error.
+     */
+    void addError(int lineNumber, String message) {
+        errors.add(new BulkProvisioningError(lineNumber, message));
+    }
+
+    /**
+     * Sorts the errors by line number (parse errors are found before
+     * validation errors).
+     */
+    void sortErrors() {
+        Collections.sort(errors, new Comparator<BulkProvisioningError>() {
+            @Override
+            public int compare(BulkProvisioningError first, BulkProvisioningError second) {
+                return Integer.compare(first.getLineNumber(), second.getLineNumber());
+            }
+        });
+    }
+
+    /**
+     * Returns true if errors have been found.
+     *
+     * @return True if there are errors.
+     */
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * Returns true if the file was applied (all of its directives took
+     * effect); false if it was rejected (none did).
+     *
+     * @return True if committed.
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Sets whether the file was applied.
+     *
+     * @param committed True if committed.
+     */
+    void setCommitted(boolean committed) {
+        this.committed = committed;
+    }
+
+    /**
+     * Returns the number of lines read.
+     *
+     * @return Line count.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Sets the number of lines read.
+     *
+     * @param lineCount Line count.
+     */
+    void setLineCount(int lineCount) {
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Returns the number of directives read.
+     *
+     * @return Directive count.
+     */
+    public int getDirectiveCount() {
+        return directiveCount;
+    }
+
+    /**
+     * Sets the number of directives read.
+     *
+     * @param directiveCount Directive count.
+     */
+    void setDirectiveCount(int directiveCount) {
+        this.directiveCount = directiveCount;
+    }
+
+    /**
+     * Returns the number of directives skipped because they had no effect
+     * (a credential the user already has, or an unknown entitlement).
+     *
+     * @return Skipped directive count.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Sets the number of directives skipped.
+     *
+     * @param skippedCount Skipped directive count.
+     */
+    void setSkippedCount(int skippedCount) {
+        this.skippedCount = skippedCount;
+    }
+
+    /**
+     * Returns the total elapsed time of the run, in nanoseconds.
+     *
+     * @return Elapsed time.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Sets the total elapsed time, in nanoseconds.
+     *
+     * @param elapsedNanos Elapsed time.
+     */
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the time spent hashing passwords, in nanoseconds.
+     *
+     * @return Hashing time.
+     */
+    public long getHashingNanos() {
+        return hashingNanos;
+    }
+
+    /**
+     * Sets the time spent hashing passwords, in nanoseconds.
+     *
+     * @param hashingNanos Hashing time.
+     */
+    void setHashingNanos(long hashingNanos) {
+        this.hashingNanos = hashingNanos;
+    }
+
+    /**
+     * Returns the number of directives processed per second.
+     *
+     * @return Directives per second (0 if no time elapsed).
+     */
+    public double getDirectivesPerSecond() {
+        return (elapsedNanos == 0) ? 0 : directiveCount * 1000000000.0 / elapsedNanos;
+    }
+
+    /**
+     * Returns a summary of the run followed by one line per error.
+     *
+     * @return Report string.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(committed ? "Committed " : "Rejected ").append(directiveCount)
+                .append(" directives (").append(skippedCount).append(" skipped) from ")
+                .append(lineCount).append(" lines in ").append(elapsedNanos / 1000000)
+                .append(" ms (").append(hashingNanos / 1000000).append(" ms hashing), ")
+                .append(String.format("%.0f", getDirectivesPerSecond())).append(" directives/s\n");
+        for (int i = 0; i < errors.size(); i++) {
+            report.append(errors.get(i).toString()).append("\n");
+        }
+        return report.toString();
+    }
+}
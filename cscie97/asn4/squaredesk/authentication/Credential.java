@@ -12,14 +12,18 @@
  */
 package cscie97.asn4.squaredesk.authentication;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class provides properties and methods allowing for description of a
  * SquareDesk user's credentials to the system (user name and password).
  *
+ * The password is held as an immutable PasswordHash, which is either a
+ * legacy salted SHA-1 digest or a PBKDF2 hash. A legacy or weaker hash may
+ * be swapped for a stronger one after a successful login without disturbing
+ * a concurrent password change.
+ *
  * @author Roland L. Galibert
  * @version 1.0
  */
@@ -31,34 +35,29 @@ public class Credential implements AuthServiceVisitorElement {
     private String loginID = new String();
     
     /**
-     * Hashed password.
+     * Hashed password (replaced but never modified).
      */
-    private String passwordMessageDigest = new String();
-    
-    /**
-     * "Salt" for creating password message digest.
-     */
-    private byte[] salt = new byte[16];
+    private AtomicReference<PasswordHash> passwordHash = new AtomicReference<>();
 
     /**
-     * Constructor
+     * Constructor (the password is hashed with salted SHA-1).
      * 
      * @param loginID User's login ID.
      * @param password User's password.
      */
     public Credential(String loginID, String password) {
-        this.loginID = loginID;
-
-        /*
-         * Create salt
-         */
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(salt);
+        this(loginID, PasswordHash.sha1(password));
+    }
 
-        /*
-         * Create message digest
-         */
-        passwordMessageDigest = messageDigest(password);
+    /**
+     * Constructor.
+     * 
+     * @param loginID User's login ID.
+     * @param passwordHash Hash of the user's password.
+     */
+    Credential(String loginID, PasswordHash passwordHash) {
+        this.loginID = loginID;
+        this.passwordHash.set(passwordHash);
     }
 
     /**
@@ -70,60 +69,75 @@ public class Credential implements AuthServiceVisitorElement {
     }
 
     /**
-     * Returns hashed password.
+     * Returns the case-folded form of the specified login ID, under which
+     * login IDs are indexed and compared.
+     * 
+     * @param loginID Login ID.
+     * @return Case-folded login ID.
+     */
+    static String foldLoginID(String loginID) {
+        return loginID.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns hashed password as a hexadecimal string (for display).
      * 
      * @return Hashed password.
      */
     public String getPasswordMessageDigest() {
-        return passwordMessageDigest;
+        return passwordHash.get().toHexString();
     }
 
     /**
+     * Replaces the stored hash with the salted SHA-1 digest of the specified
+     * password.
      * 
-     * @param password
+     * @param password New password.
      */
     public void setPasswordMessageDigest(String password) {
-        passwordMessageDigest = messageDigest(password);
+        passwordHash.set(PasswordHash.sha1(password));
     }
-    
+
     /**
-     * Returns true if message digest of input password matches the message
-     * digest that was stored for the present password.
-     * 
-     * @param password Input password.
-     * @return True if password is valid.
+     * Returns the stored password hash.
+     *
+     * @return Password hash.
      */
-    public boolean validPassword(String password) {
-        String currentMessageDigest = messageDigest(password);
-        if (currentMessageDigest.equals(passwordMessageDigest)) {
-            return true;
-        } else {
-            return false;
-        }
+    PasswordHash getPasswordHash() {
+        return passwordHash.get();
+    }
+
+    /**
+     * Replaces the stored password hash.
+     *
+     * @param passwordHash New password hash.
+     */
+    void setPasswordHash(PasswordHash passwordHash) {
+        this.passwordHash.set(passwordHash);
     }
 
     /**
-     * This method for creating a message digest is based on the code presented in the article "How to
-     * generate secure password hash : MD5, SHA, PBKDF2, BCrypt examples" by
-     * Lokesh Gupta on the "How To Do It In Java" website.
+     * Replaces the stored password hash with an upgraded hash of the same
+     * password, provided the password has not been changed in the meantime.
      *
-     * @param input String to hash.
-     * @return Hash of input string.
+     * @param currentHash Hash that was verified.
+     * @param upgradedHash Stronger hash of the same password.
+     * @return True if the hash was replaced.
      */
-    private String messageDigest(String input) {
-        String passwordHash = new String();
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update(salt);
-            byte[] bytes = md.digest(input.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < bytes.length; i++) {
-                sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
-            }
-            passwordHash = sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-        }
-        return passwordHash;
+    boolean upgradePasswordHash(PasswordHash currentHash, PasswordHash upgradedHash) {
+        return passwordHash.compareAndSet(currentHash, upgradedHash);
+    }
+    
+    /**
+     * Returns true if the hash of input password matches the hash that was
+     * stored for the present password. The comparison takes the same time
+     * wherever the hashes differ.
+     * 
+     * @param password Input password.
+     * @return True if password is valid.
+     */
+    public boolean validPassword(String password) {
+        return passwordHash.get().matches(password);
     }
 
     /**
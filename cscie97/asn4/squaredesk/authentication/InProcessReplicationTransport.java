@@ -0,0 +1,97 @@
+/*
+ * InProcessReplicationTransport
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class connects a ReplicationFollower to a leader AuthServiceImpl
+ * object in the same JVM. Batches and snapshots are still passed in their
+ * encoded form, exactly as a network transport would carry them, so a
+ * leader and its followers can be tested in one process. The connection
+ * can be cut and restored to simulate an unreachable leader.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class InProcessReplicationTransport implements ReplicationTransport {
+
+    /**
+     * Leader AuthServiceImpl object.
+     */
+    private final AuthServiceImpl leader;
+
+    /**
+     * False while the connection is cut.
+     */
+    private volatile boolean connected = true;
+
+    /**
+     * Constructor.
+     *
+     * @param leader Leader AuthServiceImpl object.
+     */
+    public InProcessReplicationTransport(AuthServiceImpl leader) {
+        this.leader = leader;
+    }
+
+    /**
+     * Cuts or restores the connection to the leader. While it is cut, both
+     * fetch methods fail with an IOException.
+     *
+     * @param connected False to cut the connection, true to restore it.
+     */
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    /**
+     * Fetches the change feed records that follow the specified one from the
+     * leader.
+     *
+     * @param feedID ID of the feed the follower has been following.
+     * @param afterSequence Sequence number of the last record applied.
+     * @param maxRecords Maximum number of records returned.
+     * @param waitMillis Maximum time the leader may wait for a new record.
+     * @return Encoded batch.
+     * @throws IOException If the connection is cut, or the wait is interrupted.
+     */
+    @Override
+    public ByteBuffer fetchChanges(long feedID, long afterSequence, int maxRecords, long waitMillis)
+            throws IOException {
+        if (!connected) {
+            throw new IOException("Leader unreachable.");
+        }
+        try {
+            return leader.readReplicationFeed(feedID, afterSequence, maxRecords, waitMillis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the leader.", ie);
+        }
+    }
+
+    /**
+     * Fetches a snapshot of the leader's model.
+     *
+     * @return Encoded replication snapshot.
+     * @throws IOException If the connection is cut.
+     */
+    @Override
+    public ByteBuffer fetchSnapshot() throws IOException {
+        if (!connected) {
+            throw new IOException("Leader unreachable.");
+        }
+        return leader.encodeReplicationSnapshot();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * InventoryFormat
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This enumeration lists the output formats supported by the
+ * StreamingAuthServiceInventory.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public enum InventoryFormat {
+
+    /**
+     * YAML block sequences of mappings (scalars double-quoted, references as
+     * flow sequences).
+     */
+    YAML,
+
+    /**
+     * A single JSON object holding one array per section.
+     */
+    JSON
+}
@@ -0,0 +1,195 @@
+/*
+ * LatencyHistogram
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a lock-free histogram of latencies in nanoseconds.
+ *
+ * Latencies are counted in log-linear buckets: each power of two is split
+ * into SUB_BUCKETS equal buckets, so a reported percentile is within 1 part
+ * in SUB_BUCKETS (12.5%) of the true value, from 1 ns up to about 18 minutes,
+ * in a fixed array of a few hundred counters. Recording a latency is a
+ * single atomic increment of its bucket plus a LongAdder addition to the
+ * running sum; readers never block writers, and a reading taken while
+ * latencies are being recorded may miss the most recent ones.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets per power of two (a power of two itself).
+     */
+    private static final int SUB_BUCKETS = 8;
+
+    /**
+     * log2(SUB_BUCKETS).
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * Largest power of two with buckets of its own; larger latencies are
+     * counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 39;
+
+    /**
+     * Number of buckets.
+     */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Latency counts per bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Sum of the recorded latencies, in nanoseconds.
+     */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Records the specified latency.
+     *
+     * @param nanos Latency in nanoseconds (negative values count as 0).
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.getAndIncrement(bucketIndex(nanos));
+        sum.add(nanos);
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return Count.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the latencies recorded.
+     *
+     * @return Sum in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the latency below which the specified fraction of the recorded
+     * latencies fall, as the upper bound of the bucket holding it.
+     *
+     * @param quantile Fraction between 0 and 1.
+     * @return Latency in nanoseconds (0 if nothing has been recorded).
+     */
+    public long getQuantile(double quantile) {
+        return getQuantiles(new double[] {quantile})[0];
+    }
+
+    /**
+     * Returns the latencies below which each of the specified fractions of
+     * the recorded latencies fall, from a single pass over the buckets.
+     *
+     * @param quantiles Fractions between 0 and 1, in increasing order.
+     * @return Latencies in nanoseconds (0 if nothing has been recorded).
+     */
+    public long[] getQuantiles(double[] quantiles) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        long[] latencies = new long[quantiles.length];
+        if (count == 0) {
+            return latencies;
+        }
+        int bucket = 0;
+        long seen = counts[0];
+        for (int q = 0; q < quantiles.length; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * count));
+            while (seen < rank && bucket < BUCKET_COUNT - 1) {
+                bucket++;
+                seen += counts[bucket];
+            }
+            latencies[q] = bucketUpperBound(bucket);
+        }
+        return latencies;
+    }
+
+    /**
+     * Returns the upper bound of the highest non-empty bucket.
+     *
+     * @return Maximum latency in nanoseconds, to within one bucket (0 if
+     * nothing has been recorded).
+     */
+    public long getMax() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (buckets.get(i) != 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index of the bucket counting the specified latency.
+     *
+     * @param nanos Latency in nanoseconds (non-negative).
+     * @return Bucket index.
+     */
+    private static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS) + subBucket;
+    }
+
+    /**
+     * Returns the largest latency counted in the specified bucket.
+     *
+     * @param index Bucket index.
+     * @return Latency in nanoseconds.
+     */
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index / SUB_BUCKETS) + SUB_BUCKET_BITS - 1;
+        long subBucket = index & (SUB_BUCKETS - 1);
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
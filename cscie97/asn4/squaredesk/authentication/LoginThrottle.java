@@ -0,0 +1,246 @@
+/*
+ * LoginThrottle
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class limits the rate of login attempts per key (a login ID or a
+ * source address) with token buckets held in a fixed-size, count-min
+ * sketch-like table, so that its memory use does not grow however many
+ * distinct keys an attacker tries.
+ *
+ * Each key hashes to one slot in each of two rows, and each slot is a token
+ * bucket packed into a single long (time of last refill and token deficit)
+ * updated by compare-and-set. As with the minimum of a count-min sketch, an
+ * attempt is throttled only once every one of its buckets is empty, and it
+ * takes a token from each bucket that still has one. Keys sharing a slot
+ * share its bucket, so collisions can only make throttling stricter, and an
+ * innocent key is only throttled if all of its slots have been drained by
+ * other keys. That becomes likely once the number of keys failing at the
+ * same time approaches the number of slots per row, so the table should be
+ * sized accordingly. Slot hashes use a random per-instance seed, so
+ * colliding keys cannot be chosen in advance.
+ *
+ * Callers take a token before each attempt and give it back if the attempt
+ * succeeds, so in effect only failed attempts are counted. A token is only
+ * given back to the buckets it was taken from, so that the successes of an
+ * innocent key do not refill a bucket it shares with a key under attack
+ * whose own bucket was already empty.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class LoginThrottle {
+
+    /**
+     * Number of hash rows.
+     */
+    private static final int ROWS = 2;
+
+    /**
+     * Bits of a slot holding the token deficit (the rest hold the time of
+     * the last refill).
+     */
+    private static final int DEFICIT_BITS = 20;
+
+    /**
+     * Mask of the token deficit bits.
+     */
+    private static final long DEFICIT_MASK = (1L << DEFICIT_BITS) - 1;
+
+    /**
+     * One token, in the thousandths of a token in which deficits are kept.
+     */
+    private static final long TOKEN = 1000;
+
+    /**
+     * Largest supported bucket capacity.
+     */
+    public static final int MAX_CAPACITY = (int) (DEFICIT_MASK / TOKEN);
+
+    /**
+     * Token buckets (ROWS rows of slotsPerRow slots). A zero slot is a full
+     * bucket.
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * Number of slots per row (a power of two).
+     */
+    private final int slotsPerRow;
+
+    /**
+     * Bucket capacity, in thousandths of a token.
+     */
+    private final long capacity;
+
+    /**
+     * Time to refill one token, in milliseconds.
+     */
+    private final long refillInterval;
+
+    /**
+     * Random seed of the slot hash.
+     */
+    private final long seed;
+
+    /**
+     * Time origin of the slot timestamps (System.nanoTime).
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Number of attempts throttled.
+     */
+    private final LongAdder throttledCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of tokens per bucket (burst size).
+     * @param refillInterval Time to refill one token, in milliseconds.
+     * @param slotsPerRow Number of buckets per row (rounded up to a power of two).
+     */
+    public LoginThrottle(int capacity, long refillInterval, int slotsPerRow) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        this.capacity = capacity * TOKEN;
+        this.refillInterval = refillInterval;
+        this.slotsPerRow = Integer.highestOneBit(Math.max(1, slotsPerRow - 1)) << 1;
+        this.slots = new AtomicLongArray(ROWS * this.slotsPerRow);
+        this.seed = new SecureRandom().nextLong();
+    }
+
+    /**
+     * Takes a token from each bucket of the specified key that has one.
+     *
+     * @param key Login ID or source.
+     * @return Rows whose buckets a token was taken from, as a bit mask (bit
+     * n for row n); 0 if the attempt is throttled (no bucket had a token).
+     */
+    public int tryAcquire(String key) {
+        long hash = hash(key);
+        long now = now();
+        int rows = 0;
+        for (int row = 0; row < ROWS; row++) {
+            if (adjust(slot(hash, row), now, TOKEN)) {
+                rows |= 1 << row;
+            }
+        }
+        if (rows == 0) {
+            throttledCount.increment();
+        }
+        return rows;
+    }
+
+    /**
+     * Gives back the tokens taken for a successful attempt.
+     *
+     * @param key Login ID or source.
+     * @param rows Rows returned by tryAcquire for the attempt.
+     */
+    public void release(String key, int rows) {
+        long hash = hash(key);
+        long now = now();
+        for (int row = 0; row < ROWS; row++) {
+            if ((rows & (1 << row)) != 0) {
+                adjust(slot(hash, row), now, -TOKEN);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of attempts throttled since construction.
+     *
+     * @return Throttled attempt count.
+     */
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    /**
+     * Refills the specified bucket and then adds the specified amount to its
+     * deficit (taking tokens if positive, giving them back if negative).
+     * Taking tokens fails, leaving the bucket unchanged, if it would leave
+     * the bucket overdrawn.
+     *
+     * @param index Slot index.
+     * @param now Current time, in milliseconds since startTime.
+     * @param amount Deficit change, in thousandths of a token.
+     * @return False if tokens could not be taken.
+     */
+    private boolean adjust(int index, long now, long amount) {
+        while (true) {
+            long state = slots.get(index);
+            long lastRefill = state >>> DEFICIT_BITS;
+            long deficit = state & DEFICIT_MASK;
+            if (now > lastRefill) {
+                deficit = Math.max(0, deficit - (now - lastRefill) * TOKEN / refillInterval);
+            } else {
+                now = lastRefill;
+            }
+            deficit += amount;
+            if (deficit > capacity) {
+                return false;
+            } else if (deficit < 0) {
+                deficit = 0;
+            }
+            if (slots.compareAndSet(index, state, (now << DEFICIT_BITS) | deficit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the specified row's slot for a key hash.
+     *
+     * @param hash Key hash.
+     * @param row Row number.
+     * @return Slot index.
+     */
+    private int slot(long hash, int row) {
+        int rowHash = (int) ((row == 0) ? hash : (hash >>> 32));
+        return (row * slotsPerRow) + (rowHash & (slotsPerRow - 1));
+    }
+
+    /**
+     * Returns a seeded 64-bit hash of the specified key (String.hashCode
+     * collisions are well known, and would be shared by every row).
+     *
+     * @param key Key.
+     * @return Hash.
+     */
+    private long hash(String key) {
+        long hash = seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        hash ^= hash >>> 32;
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Returns the current time, in milliseconds since startTime.
+     *
+     * @return Current time.
+     */
+    private long now() {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * LoginThrottledException
+ * 
+ * Version 1.0
+ * 
+ * November 20, 2014
+ * 
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This class is used to indicate that a login attempt has been rejected,
+ * before the password was checked, because too many attempts have recently
+ * failed under the same login ID or from the same source.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class LoginThrottledException extends AuthServiceException {
+    
+    private static final long serialVersionUID = 1L;
+    /**
+     * No-argument constructor.
+     */
+    public LoginThrottledException() {
+    }
+
+    /**
+     * Constructor with message describing exception.
+     * 
+     * @param message Exception description.
+     */
+    public LoginThrottledException(String message) {
+        super(message);
+    }
+}
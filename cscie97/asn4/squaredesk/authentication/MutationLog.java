@@ -0,0 +1,401 @@
+/*
+ * MutationLog
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements a durable, append-only log of the mutations applied
+ * to an AuthServiceImpl object, so that its configuration can be rebuilt at
+ * startup by replaying the log instead of re-running every provisioning
+ * call through the authorized API.
+ *
+ * Each record holds a sequence number and a list of string fields, the first
+ * of which names the mutation. Records are framed by their length and a
+ * CRC-32 checksum; a torn record at the end of the file (left by a crash in
+ * mid-write) is discarded and truncated when the log is opened.
+ *
+ * Appending a record only queues it. A single writer thread drains the queue
+ * in batches, writes each batch with one call, and forces it to disk
+ * according to the MutationLogSyncPolicy, so that concurrent mutations share
+ * one force (group commit). Callers then wait for their own sequence number
+ * to be acknowledged.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class MutationLog {
+
+    /**
+     * This interface is implemented by the owner of the log to apply the
+     * records read back when the log is opened.
+     */
+    interface RecordHandler {
+
+        /**
+         * Applies a single replayed record.
+         *
+         * @param sequence Record sequence number.
+         * @param fields Record fields (the first names the mutation).
+         */
+        void replay(long sequence, String[] fields);
+    }
+
+    /**
+     * Maximum length of a single record in bytes (anything longer is treated
+     * as corruption on replay).
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+
+    /**
+     * Log file path.
+     */
+    private final Path path;
+
+    /**
+     * Policy for forcing records to disk.
+     */
+    private final MutationLogSyncPolicy syncPolicy;
+
+    /**
+     * Maximum time between forces under the INTERVAL policy, in milliseconds.
+     */
+    private final long syncInterval;
+
+    /**
+     * Log file channel (positioned at the end of the log once opened).
+     */
+    private FileChannel channel;
+
+    /**
+     * Lock guarding the queue and sequence numbers below.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Encoded records waiting for the writer thread.
+     */
+    private ArrayDeque<ByteBuffer> pendingRecords = new ArrayDeque<>();
+
+    /**
+     * Sequence number of the last record appended.
+     */
+    private long appendedSequence = 0;
+
+    /**
+     * Sequence number of the last record written to the file.
+     */
+    private long writtenSequence = 0;
+
+    /**
+     * Sequence number of the last record forced to disk.
+     */
+    private long syncedSequence = 0;
+
+    /**
+     * Exception that stopped the writer thread (null if none).
+     */
+    private IOException failure = null;
+
+    /**
+     * True once close() has been called.
+     */
+    private boolean closed = false;
+
+    /**
+     * Writer thread.
+     */
+    private Thread writerThread;
+
+    /**
+     * Constructor. The log is not read or written until open() is called.
+     *
+     * @param path Log file path.
+     * @param syncPolicy Policy for forcing records to disk.
+     * @param syncInterval Maximum time between forces under the INTERVAL policy.
+     */
+    public MutationLog(Path path, MutationLogSyncPolicy syncPolicy, long syncInterval) {
+        this.path = path;
+        this.syncPolicy = syncPolicy;
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Opens the log file (creating it if necessary), replays its records
+     * through the specified handler, truncates any torn record at the end
+     * and starts the writer thread. Records up to the specified base
+     * sequence number (already reflected in a restored snapshot) are
+     * skipped, and new records are numbered after both the last record and
+     * the base sequence number.
+     *
+     * @param handler Handler applying replayed records.
+     * @param baseSequence Sequence number of the last record already applied.
+     * @return Number of records replayed.
+     * @throws IOException If the log cannot be read or opened for writing.
+     */
+    public long open(RecordHandler handler, long baseSequence) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long replayedCount = 0;
+        long validLength = 0;
+        long lastSequence = 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), 65536));
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] record;
+            try {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                if ((length < 12) || (length > MAX_RECORD_LENGTH)) {
+                    break;
+                }
+                record = new byte[length];
+                input.readFully(record);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+            } catch (EOFException eofe) {
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            lastSequence = buffer.getLong();
+            String[] fields = new String[buffer.getInt()];
+            for (int i = 0; i < fields.length; i++) {
+                int fieldLength = buffer.getInt();
+                if (fieldLength >= 0) {
+                    fields[i] = new String(record, buffer.position(), fieldLength, StandardCharsets.UTF_8);
+                    buffer.position(buffer.position() + fieldLength);
+                }
+            }
+            if (lastSequence > baseSequence) {
+                handler.replay(lastSequence, fields);
+                replayedCount++;
+            }
+            validLength += 8 + record.length;
+        }
+
+        /*
+         * Drop anything after the last complete record and start appending
+         * there
+         */
+        channel.truncate(validLength);
+        channel.position(validLength);
+        lastSequence = Math.max(lastSequence, baseSequence);
+        appendedSequence = lastSequence;
+        writtenSequence = lastSequence;
+        syncedSequence = lastSequence;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, "MutationLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        return replayedCount;
+    }
+
+    /**
+     * Queues a record for writing and returns its sequence number. Callers
+     * that need the record to be durable pass the sequence number to
+     * awaitDurable() once they have released any locks.
+     *
+     * @param fields Record fields (the first names the mutation).
+     * @return Record sequence number.
+     */
+    public long append(String... fields) {
+        byte[][] encodedFields = new byte[fields.length][];
+        int length = 12;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                encodedFields[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+                length += encodedFields[i].length;
+            }
+            length += 4;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putLong(0);
+        buffer.putInt(fields.length);
+        for (int i = 0; i < encodedFields.length; i++) {
+            if (encodedFields[i] == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(encodedFields[i].length);
+                buffer.put(encodedFields[i]);
+            }
+        }
+        synchronized (lock) {
+            long sequence = ++appendedSequence;
+            buffer.putLong(8, sequence);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 8, length);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.flip();
+            pendingRecords.add(buffer);
+            lock.notifyAll();
+            return sequence;
+        }
+    }
+
+    /**
+     * Waits until the record with the specified sequence number has been
+     * forced to disk (EVERY_COMMIT policy) or written to the file (other
+     * policies).
+     *
+     * @param sequence Record sequence number.
+     * @throws AuthServiceException If the log could not be written, or the
+     * wait was interrupted.
+     */
+    public void awaitDurable(long sequence) throws AuthServiceException {
+        synchronized (lock) {
+            while (acknowledgedSequence() < sequence) {
+                if (failure != null) {
+                    throw new AuthServiceException("Mutation log write failed.");
+                } else if (closed && !writerThread.isAlive()) {
+                    throw new AuthServiceException("Mutation log is closed.");
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new AuthServiceException("Interrupted while waiting for mutation log.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last record appended.
+     *
+     * @return Last sequence number.
+     */
+    public long getLastSequence() {
+        synchronized (lock) {
+            return appendedSequence;
+        }
+    }
+
+    /**
+     * Writes and forces any queued records, then stops the writer thread and
+     * closes the file.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the sequence number up to which callers of awaitDurable() may
+     * proceed (called with the lock held).
+     *
+     * @return Acknowledged sequence number.
+     */
+    private long acknowledgedSequence() {
+        return (syncPolicy == MutationLogSyncPolicy.EVERY_COMMIT) ? syncedSequence : writtenSequence;
+    }
+
+    /**
+     * Writer thread body: repeatedly drains the queue, writes the batch and
+     * forces it to disk according to the sync policy.
+     */
+    private void writeRecords() {
+        ArrayList<ByteBuffer> batch = new ArrayList<>();
+        long lastSyncTime = System.currentTimeMillis();
+        try {
+            while (true) {
+                long batchSequence;
+                boolean closing;
+                synchronized (lock) {
+                    while (pendingRecords.isEmpty() && !closed) {
+                        if ((syncPolicy == MutationLogSyncPolicy.INTERVAL) && (syncedSequence < writtenSequence)) {
+                            long remaining = lastSyncTime + syncInterval - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            lock.wait(remaining);
+                        } else {
+                            lock.wait();
+                        }
+                    }
+                    batch.addAll(pendingRecords);
+                    pendingRecords.clear();
+                    batchSequence = appendedSequence;
+                    closing = closed;
+                }
+
+                /*
+                 * Write the whole batch, then force it if the policy (or
+                 * shutdown) calls for it
+                 */
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+                long remainingBytes = 0;
+                for (int i = 0; i < buffers.length; i++) {
+                    remainingBytes += buffers[i].remaining();
+                }
+                while (remainingBytes > 0) {
+                    remainingBytes -= channel.write(buffers);
+                }
+                batch.clear();
+                boolean sync = closing || (syncPolicy == MutationLogSyncPolicy.EVERY_COMMIT)
+                        || ((syncPolicy == MutationLogSyncPolicy.INTERVAL)
+                                && (System.currentTimeMillis() - lastSyncTime >= syncInterval));
+                if (sync) {
+                    channel.force(false);
+                    lastSyncTime = System.currentTimeMillis();
+                }
+                synchronized (lock) {
+                    writtenSequence = batchSequence;
+                    if (sync) {
+                        syncedSequence = batchSequence;
+                    }
+                    lock.notifyAll();
+                    if (closing && pendingRecords.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+            channel.close();
+        } catch (IOException ioe) {
+            synchronized (lock) {
+                failure = ioe;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * MutationLogSyncPolicy
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This enumeration lists the ways in which the AuthService mutation log may
+ * force its records to stable storage.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public enum MutationLogSyncPolicy {
+
+    /**
+     * Force every batch of records to disk before the mutating calls that
+     * wrote them return (concurrent calls share a single force).
+     */
+    EVERY_COMMIT,
+
+    /**
+     * Return once records are written, and force them to disk at most once
+     * per sync interval.
+     */
+    INTERVAL,
+
+    /**
+     * Return once records are written, and leave forcing them to disk to
+     * the operating system.
+     */
+    NEVER
+}
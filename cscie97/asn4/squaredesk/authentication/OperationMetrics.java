@@ -0,0 +1,173 @@
+/*
+ * OperationMetrics
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the counters and latency histogram of one instrumented
+ * AuthService operation (or, for checkAccess, of one permission ID).
+ *
+ * Calls and their outcomes are counted in LongAdders, which stay cheap
+ * under contention. For checkAccess and logout only a random sample of the
+ * calls is recorded (see AuthServiceMetrics), each standing for several
+ * calls, so the call count is an estimate and the latency histogram count
+ * is smaller than the call count.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class OperationMetrics {
+
+    /**
+     * Operation name (or permission ID).
+     */
+    private final String name;
+
+    /**
+     * Number of calls.
+     */
+    private final LongAdder callCount = new LongAdder();
+
+    /**
+     * Number of calls that threw an InvalidAccessTokenException.
+     */
+    private final LongAdder invalidAccessTokenCount = new LongAdder();
+
+    /**
+     * Number of calls that threw an UnauthorizedAccessException.
+     */
+    private final LongAdder unauthorizedAccessCount = new LongAdder();
+
+    /**
+     * Number of calls that failed with any other Exception.
+     */
+    private final LongAdder failureCount = new LongAdder();
+
+    /**
+     * Latencies of the timed calls.
+     */
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+    /**
+     * Constructor.
+     *
+     * @param name Operation name (or permission ID).
+     */
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the operation name (or permission ID).
+     *
+     * @return Name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Counts a call, with the specified weight.
+     *
+     * @param weight Number of calls the call stands for.
+     */
+    void recordCalls(long weight) {
+        callCount.add(weight);
+    }
+
+    /**
+     * Counts a call that threw an InvalidAccessTokenException, with the specified
+     * weight.
+     *
+     * @param weight Number of calls the call stands for.
+     */
+    void recordInvalidAccessTokens(long weight) {
+        invalidAccessTokenCount.add(weight);
+    }
+
+    /**
+     * Counts a call that threw an UnauthorizedAccessException, with the specified
+     * weight.
+     *
+     * @param weight Number of calls the call stands for.
+     */
+    void recordUnauthorizedAccesses(long weight) {
+        unauthorizedAccessCount.add(weight);
+    }
+
+    /**
+     * Counts a call that failed with any other Exception, with the specified
+     * weight.
+     *
+     * @param weight Number of calls the call stands for.
+     */
+    void recordFailures(long weight) {
+        failureCount.add(weight);
+    }
+
+    /**
+     * Records the latency of a timed call.
+     *
+     * @param nanos Latency in nanoseconds.
+     */
+    void recordLatency(long nanos) {
+        latencyHistogram.record(nanos);
+    }
+
+    /**
+     * Returns the number of calls (estimated for checkAccess and logout).
+     *
+     * @return Call count.
+     */
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    /**
+     * Returns the number of calls that threw an InvalidAccessTokenException.
+     *
+     * @return Invalid access token count.
+     */
+    public long getInvalidAccessTokenCount() {
+        return invalidAccessTokenCount.sum();
+    }
+
+    /**
+     * Returns the number of calls that threw an UnauthorizedAccessException.
+     *
+     * @return Unauthorized access count.
+     */
+    public long getUnauthorizedAccessCount() {
+        return unauthorizedAccessCount.sum();
+    }
+
+    /**
+     * Returns the number of calls that failed with any other Exception (for
+     * login, unknown login IDs, wrong passwords and throttled attempts).
+     *
+     * @return Failure count.
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * Returns the latency histogram of the timed (sampled) calls.
+     *
+     * @return Latency histogram.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * PasswordHash
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This immutable class holds a salted password hash together with the
+ * algorithm and cost with which it was produced.
+ *
+ * Two algorithms are supported: the original single-round salted SHA-1
+ * digest, which is kept for existing credentials, and PBKDF2 with
+ * HMAC-SHA256 and a tunable iteration count, which is used for new and
+ * upgraded credentials. Hashes are compared in constant time.
+ *
+ * SHA-1 verification reuses a per-thread MessageDigest, encoder and scratch
+ * buffers, so it allocates next to nothing. PBKDF2 verification is
+ * deliberately expensive and is run on the password hashing executor.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class PasswordHash {
+
+    /**
+     * Legacy single-round salted digest algorithm.
+     */
+    public static final String SHA1 = "SHA-1";
+
+    /**
+     * Iterated key derivation algorithm.
+     */
+    public static final String PBKDF2 = "PBKDF2WithHmacSHA256";
+
+    /**
+     * Length of a PBKDF2 hash in bits.
+     */
+    private static final int PBKDF2_KEY_LENGTH = 256;
+
+    /**
+     * Length of the salt in bytes.
+     */
+    private static final int SALT_LENGTH = 16;
+
+    /**
+     * Hexadecimal digits used when displaying the hash.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Source of salts.
+     */
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    /**
+     * Per-thread reusable SHA-1 hashing state.
+     */
+    private static final ThreadLocal<DigestScratch> DIGEST_SCRATCH = new ThreadLocal<DigestScratch>() {
+        @Override
+        protected DigestScratch initialValue() {
+            return new DigestScratch();
+        }
+    };
+
+    /**
+     * Hash algorithm (SHA1 or PBKDF2).
+     */
+    private final String algorithm;
+
+    /**
+     * PBKDF2 iteration count (1 for SHA1).
+     */
+    private final int iterations;
+
+    /**
+     * Salt.
+     */
+    private final byte[] salt;
+
+    /**
+     * Hash bytes.
+     */
+    private final byte[] hash;
+
+    /**
+     * Constructor.
+     *
+     * @param algorithm Hash algorithm.
+     * @param iterations Iteration count.
+     * @param salt Salt.
+     * @param hash Hash bytes.
+     */
+    PasswordHash(String algorithm, int iterations, byte[] salt, byte[] hash) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * Hashes the specified password with a new salt using salted SHA-1.
+     *
+     * @param password Password.
+     * @return New password hash.
+     */
+    public static PasswordHash sha1(String password) {
+        byte[] salt = newSalt();
+        return new PasswordHash(SHA1, 1, salt, DIGEST_SCRATCH.get().digest(salt, password).clone());
+    }
+
+    /**
+     * Hashes the specified password with a new salt using PBKDF2.
+     *
+     * @param password Password.
+     * @param iterations Iteration count.
+     * @return New password hash.
+     */
+    public static PasswordHash pbkdf2(String password, int iterations) {
+        byte[] salt = newSalt();
+        return new PasswordHash(PBKDF2, iterations, salt, deriveKey(password, salt, iterations));
+    }
+
+    /**
+     * Returns true if the specified password matches this hash.
+     *
+     * @param password Password to check.
+     * @return True if the password matches.
+     */
+    public boolean matches(String password) {
+        if (password == null) {
+            return false;
+        } else if (algorithm.equals(SHA1)) {
+            return MessageDigest.isEqual(DIGEST_SCRATCH.get().digest(salt, password), hash);
+        } else {
+            return MessageDigest.isEqual(deriveKey(password, salt, iterations), hash);
+        }
+    }
+
+    /**
+     * Returns true if this hash is weaker than a PBKDF2 hash with the
+     * specified iteration count, and should be replaced on the next
+     * successful login.
+     *
+     * @param targetIterations Configured PBKDF2 iteration count.
+     * @return True if the hash should be upgraded.
+     */
+    public boolean needsUpgrade(int targetIterations) {
+        return algorithm.equals(SHA1) || (iterations < targetIterations);
+    }
+
+    /**
+     * Returns the hash algorithm.
+     *
+     * @return Hash algorithm.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the iteration count.
+     *
+     * @return Iteration count.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns a copy of the salt.
+     *
+     * @return Salt bytes.
+     */
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    /**
+     * Returns a copy of the hash bytes.
+     *
+     * @return Hash bytes.
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /**
+     * Returns the hash bytes as a hexadecimal string (for display).
+     *
+     * @return Hexadecimal hash.
+     */
+    public String toHexString() {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Returns a new random salt.
+     *
+     * @return Salt bytes.
+     */
+    private static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        SECURE_RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Derives a PBKDF2 key from the specified password.
+     *
+     * @param password Password.
+     * @param salt Salt.
+     * @param iterations Iteration count.
+     * @return Derived key bytes.
+     */
+    private static byte[] deriveKey(String password, byte[] salt, int iterations) {
+        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, iterations, PBKDF2_KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(PBKDF2).generateSecret(keySpec).getEncoded();
+        } catch (GeneralSecurityException gse) {
+            throw new IllegalStateException(PBKDF2 + " unavailable", gse);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * This class holds the SHA-1 hashing state reused by a single thread: the
+     * MessageDigest, a UTF-8 encoder and the input and output buffers.
+     */
+    private static class DigestScratch {
+
+        private final MessageDigest messageDigest;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer input = ByteBuffer.allocate(64);
+        private final byte[] output;
+
+        DigestScratch() {
+            try {
+                messageDigest = MessageDigest.getInstance(SHA1);
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new IllegalStateException(SHA1 + " unavailable", nsae);
+            }
+            output = new byte[messageDigest.getDigestLength()];
+        }
+
+        /**
+         * Computes SHA-1(salt || UTF-8(text)) into the reusable output buffer.
+         * The result is only valid until the next call on this thread.
+         *
+         * @param salt Salt bytes.
+         * @param text Text to hash.
+         * @return Reusable output buffer holding the digest.
+         */
+        byte[] digest(byte[] salt, String text) {
+            int maxLength = (int) (text.length() * encoder.maxBytesPerChar());
+            if (input.capacity() < maxLength) {
+                input = ByteBuffer.allocate(maxLength);
+            }
+            input.clear();
+
+            /*
+             * ASCII text (the usual case) is copied straight into the buffer;
+             * anything else goes through the encoder
+             */
+            byte[] inputBytes = input.array();
+            int length = text.length();
+            int i = 0;
+            while ((i < length) && (text.charAt(i) < 0x80)) {
+                inputBytes[i] = (byte) text.charAt(i);
+                i++;
+            }
+            if (i == length) {
+                input.position(length);
+            } else {
+                encoder.reset();
+                encoder.encode(CharBuffer.wrap(text), input, true);
+                encoder.flush(input);
+            }
+            messageDigest.update(salt);
+            messageDigest.update(input.array(), 0, input.position());
+            try {
+                messageDigest.digest(output, 0, output.length);
+            } catch (DigestException de) {
+                throw new IllegalStateException(de);
+            }
+            return output;
+        }
+    }
+}
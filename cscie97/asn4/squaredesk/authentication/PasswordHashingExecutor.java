@@ -0,0 +1,132 @@
+/*
+ * PasswordHashingExecutor
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs password hashing and verification on a small, dedicated
+ * pool of daemon threads, so that the deliberately expensive key derivation
+ * neither blocks callers' threads indefinitely nor competes without limit
+ * for the CPU. Tasks wait in a bounded queue; once the queue is full, new
+ * tasks are rejected at once with an AuthServiceException instead of
+ * piling up behind a burst of logins.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class PasswordHashingExecutor {
+
+    /**
+     * Number of hashing threads created so far (for thread names).
+     */
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Thread pool running the hashing tasks.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param threads Number of hashing threads.
+     * @param queueCapacity Maximum number of tasks waiting for a thread.
+     */
+    public PasswordHashingExecutor(int threads, int queueCapacity) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PasswordHashing-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Submits the specified task and returns a future completed with its
+     * result or exception. If the queue is full, the returned future has
+     * already failed with an AuthServiceException.
+     *
+     * @param task Hashing task.
+     * @return Future result of the task.
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(task.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            future.completeExceptionally(new AuthServiceException("Password hashing queue is full."));
+        }
+        return future;
+    }
+
+    /**
+     * Runs the specified task on the pool and waits for its result.
+     *
+     * @param task Hashing task.
+     * @return Result of the task.
+     * @throws AuthServiceException If the queue is full or the wait is interrupted.
+     */
+    public <T> T call(Callable<T> task) throws AuthServiceException {
+        try {
+            return submit(task).get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof AuthServiceException) {
+                throw (AuthServiceException) ee.getCause();
+            } else {
+                throw new IllegalStateException(ee.getCause());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AuthServiceException("Interrupted while waiting for password hashing.");
+        }
+    }
+
+    /**
+     * Returns the number of hashing threads.
+     *
+     * @return Number of hashing threads.
+     */
+    public int getThreadCount() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Returns the number of tasks waiting for a hashing thread.
+     *
+     * @return Queue depth.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * PermissionRegistry
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This singleton class interns permission IDs to dense int ordinals. Services,
+ * roles and users store their permissions as bitsets indexed by these
+ * ordinals, and translate back to permission IDs only at the String-based
+ * API boundary.
+ *
+ * An ordinal, once assigned, is never reused or reassigned, so bitsets built
+ * at different times remain comparable. Lookups are lock-free; interning a
+ * new permission ID is serialized.
+ *
+ * The class uses the "Initialization-on-demand holder idiom" singleton.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class PermissionRegistry {
+
+    /**
+     * Permission ID-to-ordinal map.
+     */
+    private ConcurrentHashMap<String, Integer> ordinalMap = new ConcurrentHashMap<>();
+
+    /**
+     * Ordinal-to-permission ID table (replaced, never modified in place,
+     * when it has to grow).
+     */
+    private volatile String[] permissionIDs = new String[64];
+
+    /**
+     * Number of ordinals assigned so far.
+     */
+    private volatile int size = 0;
+
+    /**
+     * Private hidden singleton constructor.
+     */
+    private PermissionRegistry() {
+    }
+
+    /**
+     * PermissionRegistryHolder is loaded on the first execution of
+     * PermissionRegistry.getInstance(), not before.
+     */
+    private static class PermissionRegistryHolder {
+
+        private static final PermissionRegistry PERMISSION_REGISTRY_INSTANCE = new PermissionRegistry();
+    }
+
+    /**
+     * Returns singleton object instance.
+     *
+     * @return Singleton PermissionRegistry object.
+     */
+    public static PermissionRegistry getInstance() {
+        return PermissionRegistryHolder.PERMISSION_REGISTRY_INSTANCE;
+    }
+
+    /**
+     * Returns the ordinal of the specified permission ID, assigning the next
+     * free ordinal if the permission ID has not been seen before.
+     *
+     * @param permissionID Permission ID.
+     * @return Permission ordinal.
+     */
+    public int intern(String permissionID) {
+        Integer ordinal = ordinalMap.get(permissionID);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (this) {
+            ordinal = ordinalMap.get(permissionID);
+            if (ordinal == null) {
+                ordinal = size;
+                if (ordinal == permissionIDs.length) {
+                    permissionIDs = Arrays.copyOf(permissionIDs, ordinal * 2);
+                }
+                permissionIDs[ordinal] = permissionID;
+                size = ordinal + 1;
+                ordinalMap.put(permissionID, ordinal);
+            }
+            return ordinal;
+        }
+    }
+
+    /**
+     * Returns the ordinal of the specified permission ID without interning it.
+     *
+     * @param permissionID Permission ID.
+     * @return Permission ordinal, or -1 if the permission ID is unknown (or null).
+     */
+    public int getOrdinal(String permissionID) {
+        Integer ordinal = (permissionID == null) ? null : ordinalMap.get(permissionID);
+        return (ordinal == null) ? -1 : ordinal;
+    }
+
+    /**
+     * Returns the permission ID with the specified ordinal.
+     *
+     * @param ordinal Permission ordinal.
+     * @return Permission ID (null if the ordinal has not been assigned).
+     */
+    public String getPermissionID(int ordinal) {
+        String[] table = permissionIDs;
+        return ((ordinal >= 0) && (ordinal < table.length)) ? table[ordinal] : null;
+    }
+
+    /**
+     * Translates the specified bitset of permission ordinals into a list of
+     * permission IDs, in ordinal order.
+     *
+     * @param ordinals Bitset of permission ordinals.
+     * @return List of permission IDs.
+     */
+    public ArrayList<String> toPermissionIDs(BitSet ordinals) {
+        ArrayList<String> permissionIDList = new ArrayList<>(ordinals.cardinality());
+        for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+            permissionIDList.add(getPermissionID(i));
+        }
+        return permissionIDList;
+    }
+
+    /**
+     * Interns each of the specified permission IDs and returns the bitset of
+     * their ordinals.
+     *
+     * @param permissionIDList Permission IDs.
+     * @return Bitset of permission ordinals.
+     */
+    public BitSet toOrdinals(List<String> permissionIDList) {
+        BitSet ordinals = new BitSet();
+        for (int i = 0; i < permissionIDList.size(); i++) {
+            ordinals.set(intern(permissionIDList.get(i)));
+        }
+        return ordinals;
+    }
+
+    /**
+     * Returns the number of permission IDs interned so far.
+     *
+     * @return Number of ordinals assigned.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * ProvisioningDirective
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This class holds one parsed line of a bulk provisioning file: the
+ * directive, the line number it was read from and its trimmed fields, in the
+ * order in which they appear on the line.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class ProvisioningDirective {
+
+    /**
+     * Supported directives.
+     */
+    public static final String DEFINE_SERVICE = "define_service";
+    public static final String DEFINE_PERMISSION = "define_permission";
+    public static final String DEFINE_ROLE = "define_role";
+    public static final String ADD_ENTITLEMENT_TO_ROLE = "add_entitlement_to_role";
+    public static final String CREATE_USER = "create_user";
+    public static final String ADD_CREDENTIAL = "add_credential";
+    public static final String ADD_ROLE_TO_USER = "add_role_to_user";
+
+    /**
+     * Directive (one of the constants above).
+     */
+    private final String directive;
+
+    /**
+     * Number of the line the directive was read from (starting at 1).
+     */
+    private final int lineNumber;
+
+    /**
+     * Directive fields (excluding the directive itself).
+     */
+    private final String[] fields;
+
+    /**
+     * True if the directive has no effect on the current configuration and
+     * is to be skipped (set during validation).
+     */
+    private boolean skipped = false;
+
+    /**
+     * Password hash of an add_credential directive (set once hashed).
+     */
+    private PasswordHash passwordHash = null;
+
+    /**
+     * Constructor.
+     *
+     * @param directive Directive.
+     * @param lineNumber Line number.
+     * @param fields Directive fields.
+     */
+    public ProvisioningDirective(String directive, int lineNumber, String[] fields) {
+        this.directive = directive;
+        this.lineNumber = lineNumber;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns the directive.
+     *
+     * @return Directive.
+     */
+    public String getDirective() {
+        return directive;
+    }
+
+    /**
+     * Returns the number of the line the directive was read from.
+     *
+     * @return Line number.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the specified field.
+     *
+     * @param index Field index (0 for the first field after the directive).
+     * @return Field value.
+     */
+    public String getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * Returns true if the directive is to be skipped.
+     *
+     * @return True if skipped.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Marks the directive as skipped (or not).
+     *
+     * @param skipped True if the directive is to be skipped.
+     */
+    public void setSkipped(boolean skipped) {
+        this.skipped = skipped;
+    }
+
+    /**
+     * Returns the password hash of an add_credential directive.
+     *
+     * @return Password hash (null until hashed).
+     */
+    public PasswordHash getPasswordHash() {
+        return passwordHash;
+    }
+
+    /**
+     * Sets the password hash of an add_credential directive.
+     *
+     * @param passwordHash Password hash.
+     */
+    public void setPasswordHash(PasswordHash passwordHash) {
+        this.passwordHash = passwordHash;
+    }
+}
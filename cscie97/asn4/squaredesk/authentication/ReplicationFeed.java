@@ -0,0 +1,317 @@
+/*
+ * ReplicationFeed
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements the ordered change feed that a leader AuthServiceImpl
+ * object publishes to its followers: every mutation it applies (with the
+ * same fields as its mutation log record) and every access token it issues
+ * or revokes, each numbered by a feed sequence number.
+ *
+ * The most recent records are kept in memory, already encoded, in a ring of
+ * fixed capacity. A follower reads the records that follow the last one it
+ * applied, waiting for new ones for a bounded time if it is up to date; a
+ * follower that has fallen further behind than the ring reaches, or that
+ * was following a different feed (the leader has restarted), is told to
+ * start again from a snapshot, which records the feed sequence number it
+ * reflects.
+ *
+ * Batches are returned as self-contained byte buffers, so that transports
+ * can pass them across a network unchanged:
+ *
+ *   feed ID (long), leader sequence (long), leader time (long),
+ *   record count (int, -1 if a snapshot is required), then for each
+ *   record: length (int), sequence (long), time (long), field count (int)
+ *   and each field as a UTF-8 length (int, -1 for null) and bytes.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class ReplicationFeed {
+
+    /**
+     * A single decoded feed record.
+     */
+    static class Record {
+
+        private final long sequence;
+        private final long time;
+        private final String[] fields;
+
+        Record(long sequence, long time, String[] fields) {
+            this.sequence = sequence;
+            this.time = time;
+            this.fields = fields;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        String[] getFields() {
+            return fields;
+        }
+    }
+
+    /**
+     * A decoded batch of feed records.
+     */
+    static class Batch {
+
+        private final long feedID;
+        private final long leaderSequence;
+        private final long leaderTime;
+        private final boolean snapshotRequired;
+        private final ArrayList<Record> records;
+
+        Batch(long feedID, long leaderSequence, long leaderTime, boolean snapshotRequired,
+                ArrayList<Record> records) {
+            this.feedID = feedID;
+            this.leaderSequence = leaderSequence;
+            this.leaderTime = leaderTime;
+            this.snapshotRequired = snapshotRequired;
+            this.records = records;
+        }
+
+        long getFeedID() {
+            return feedID;
+        }
+
+        long getLeaderSequence() {
+            return leaderSequence;
+        }
+
+        long getLeaderTime() {
+            return leaderTime;
+        }
+
+        boolean isSnapshotRequired() {
+            return snapshotRequired;
+        }
+
+        ArrayList<Record> getRecords() {
+            return records;
+        }
+    }
+
+    /**
+     * Length of a batch header in bytes.
+     */
+    private static final int HEADER_LENGTH = 28;
+
+    /**
+     * Random ID of this feed, which distinguishes it from the feed of a
+     * restarted leader.
+     */
+    private final long feedID = new SecureRandom().nextLong();
+
+    /**
+     * Encoded records, record n being held at index (n - 1) % capacity.
+     */
+    private final byte[][] records;
+
+    /**
+     * Lock guarding the ring and sequence number below.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Sequence number of the last record appended.
+     */
+    private long lastSequence = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Number of most recent records kept.
+     */
+    public ReplicationFeed(int capacity) {
+        records = new byte[capacity][];
+    }
+
+    /**
+     * Returns the random ID of this feed.
+     *
+     * @return Feed ID.
+     */
+    public long getFeedID() {
+        return feedID;
+    }
+
+    /**
+     * Returns the sequence number of the last record appended.
+     *
+     * @return Last sequence number.
+     */
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Appends a record to the feed, dropping the oldest record if the ring is
+     * full, and wakes any waiting readers.
+     *
+     * @param fields Record fields (the first names the mutation or event).
+     * @return Record sequence number.
+     */
+    public long append(String... fields) {
+        byte[][] encodedFields = new byte[fields.length][];
+        int length = 20;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                encodedFields[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+                length += encodedFields[i].length;
+            }
+            length += 4;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putLong(0);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(fields.length);
+        for (int i = 0; i < encodedFields.length; i++) {
+            if (encodedFields[i] == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(encodedFields[i].length);
+                buffer.put(encodedFields[i]);
+            }
+        }
+        synchronized (lock) {
+            long sequence = ++lastSequence;
+            buffer.putLong(0, sequence);
+            records[(int) ((sequence - 1) % records.length)] = buffer.array();
+            lock.notifyAll();
+            return sequence;
+        }
+    }
+
+    /**
+     * Returns an encoded batch of the records that follow the specified one,
+     * waiting up to the specified time for a record to be appended if there
+     * are none yet. The batch requires a snapshot instead if the specified
+     * feed ID is not this feed's, or if the specified record is no longer
+     * (or not yet) in the ring.
+     *
+     * @param feedID ID of the feed the reader has been following (any value
+     * if it has none).
+     * @param afterSequence Sequence number of the last record the reader applied.
+     * @param maxRecords Maximum number of records returned.
+     * @param waitMillis Maximum time to wait for a new record, in milliseconds.
+     * @return Encoded batch (position 0, limit at its end).
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public ByteBuffer read(long feedID, long afterSequence, int maxRecords, long waitMillis)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        synchronized (lock) {
+            if ((feedID != this.feedID) || (afterSequence > lastSequence)
+                    || (afterSequence < lastSequence - records.length)) {
+                return encodeHeader(HEADER_LENGTH, -1).flip();
+            }
+            while (afterSequence == lastSequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                lock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+            if (afterSequence < lastSequence - records.length) {
+                return encodeHeader(HEADER_LENGTH, -1).flip();
+            }
+            int count = (int) Math.min(maxRecords, lastSequence - afterSequence);
+            int length = HEADER_LENGTH;
+            for (int i = 0; i < count; i++) {
+                length += 4 + records[(int) ((afterSequence + i) % records.length)].length;
+            }
+            ByteBuffer buffer = encodeHeader(length, count);
+            for (int i = 0; i < count; i++) {
+                byte[] record = records[(int) ((afterSequence + i) % records.length)];
+                buffer.putInt(record.length);
+                buffer.put(record);
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Allocates a batch buffer and writes its header. It is called with the
+     * lock held.
+     *
+     * @param length Batch length in bytes.
+     * @param count Record count (-1 if a snapshot is required).
+     * @return Buffer positioned after the header.
+     */
+    private ByteBuffer encodeHeader(int length, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putLong(feedID);
+        buffer.putLong(lastSequence);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(count);
+        return buffer;
+    }
+
+    /**
+     * Decodes a batch returned by read().
+     *
+     * @param buffer Encoded batch.
+     * @return Decoded batch.
+     * @throws IOException If the batch is malformed.
+     */
+    public static Batch decodeBatch(ByteBuffer buffer) throws IOException {
+        try {
+            long feedID = buffer.getLong();
+            long leaderSequence = buffer.getLong();
+            long leaderTime = buffer.getLong();
+            int count = buffer.getInt();
+            ArrayList<Record> records = new ArrayList<>(Math.max(0, count));
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                long sequence = buffer.getLong();
+                long time = buffer.getLong();
+                String[] fields = new String[buffer.getInt()];
+                for (int j = 0; j < fields.length; j++) {
+                    int fieldLength = buffer.getInt();
+                    if (fieldLength >= 0) {
+                        byte[] field = new byte[fieldLength];
+                        buffer.get(field);
+                        fields[j] = new String(field, StandardCharsets.UTF_8);
+                    }
+                }
+                if (buffer.position() != end) {
+                    throw new IOException("Malformed replication record " + sequence);
+                }
+                records.add(new Record(sequence, time, fields));
+            }
+            return new Batch(feedID, leaderSequence, leaderTime, count < 0, records);
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Truncated replication batch", bue);
+        } catch (NegativeArraySizeException nase) {
+            throw new IOException("Malformed replication batch", nase);
+        }
+    }
+}
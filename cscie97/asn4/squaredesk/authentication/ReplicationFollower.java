@@ -0,0 +1,402 @@
+/*
+ * ReplicationFollower
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * This class keeps a follower AuthServiceImpl object up to date with its
+ * leader, through a ReplicationTransport.
+ *
+ * The follower starts from a snapshot of the leader's model, which records
+ * the change feed position it reflects, and then repeatedly fetches and
+ * applies the feed records that follow the last one applied. Each fetch
+ * may wait on the leader for up to a quarter of the follower's maximum
+ * staleness, so an idle follower costs the leader one request per wait
+ * period and still hears of a change as soon as it is published. If the
+ * follower falls out of the leader's feed (it lagged further than the
+ * leader keeps records, or the leader restarted), it installs a new
+ * snapshot.
+ *
+ * Every fetch that leaves the follower holding everything the leader had
+ * published when the fetch was sent extends the follower's freshness to
+ * that time plus the maximum staleness. Past that deadline (for instance
+ * while the leader is unreachable) the follower rejects every access token
+ * until it has caught up again, so a check it answers never reflects a
+ * model older than the bound.
+ *
+ * Fetching can be driven by the background thread started by start(), or
+ * by calling pollOnce() directly.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class ReplicationFollower {
+
+    /**
+     * Maximum number of records fetched at once.
+     */
+    private static final int MAX_BATCH_RECORDS = 4096;
+
+    /**
+     * Longest pause between retries after a failed fetch, in milliseconds.
+     */
+    private static final long MAX_RETRY_DELAY = 1000;
+
+    /**
+     * Follower AuthServiceImpl object.
+     */
+    private final AuthServiceImpl follower;
+
+    /**
+     * Channel to the leader.
+     */
+    private final ReplicationTransport transport;
+
+    /**
+     * Staleness beyond which the follower rejects access tokens, in milliseconds.
+     */
+    private final long maxStaleness;
+
+    /**
+     * Maximum time the leader may hold a fetch waiting for a new record.
+     */
+    private final long fetchWait;
+
+    /**
+     * Lock serializing fetches.
+     */
+    private final Object pollLock = new Object();
+
+    /**
+     * Lock guarding the replication state below.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * True once a snapshot has been installed and the follower is following
+     * the feed with ID feedID.
+     */
+    private boolean following = false;
+
+    /**
+     * ID of the feed being followed.
+     */
+    private long feedID = 0;
+
+    /**
+     * Feed sequence number of the last record applied.
+     */
+    private long appliedSequence = 0;
+
+    /**
+     * Leader's last feed sequence number, as of the last contact.
+     */
+    private long leaderSequence = 0;
+
+    /**
+     * Time at which the follower was last known to be up to date (-1 if never).
+     */
+    private long upToDateTime = -1;
+
+    /**
+     * Time at which the leader last answered (-1 if never).
+     */
+    private long lastContactTime = -1;
+
+    /**
+     * Number of feed records applied.
+     */
+    private long appliedRecordCount = 0;
+
+    /**
+     * Number of snapshots installed.
+     */
+    private long snapshotCount = 0;
+
+    /**
+     * Number of failed fetches.
+     */
+    private long failureCount = 0;
+
+    /**
+     * Background fetching thread (null if not started).
+     */
+    private Thread pollerThread;
+
+    /**
+     * False once stop() has been called.
+     */
+    private volatile boolean running = false;
+
+    /**
+     * Constructor. Nothing is fetched until start() or pollOnce() is called.
+     * If the follower keeps metrics, its record lag and staleness are
+     * registered as gauges.
+     *
+     * @param follower AuthServiceImpl object configured as a FOLLOWER.
+     * @param transport Channel to the leader.
+     */
+    public ReplicationFollower(AuthServiceImpl follower, ReplicationTransport transport) {
+        if (follower.getReplicationRole() != ReplicationRole.FOLLOWER) {
+            throw new IllegalArgumentException("AuthServiceImpl is not configured as a follower");
+        }
+        this.follower = follower;
+        this.transport = transport;
+        this.maxStaleness = follower.getReplicationMaxStaleness();
+        this.fetchWait = Math.max(1, maxStaleness / 4);
+        AuthServiceMetrics metrics = follower.getMetrics();
+        if (metrics != null) {
+            metrics.registerGauge("replication_record_lag", "Leader change feed records not yet applied.",
+                    new AuthServiceMetrics.Source() {
+                        @Override
+                        public long read() {
+                            return getStatus().getRecordLag();
+                        }
+                    });
+            metrics.registerGauge("replication_staleness_milliseconds",
+                    "Time since the follower was last up to date with its leader.",
+                    new AuthServiceMetrics.Source() {
+                        @Override
+                        public long read() {
+                            long staleness = getStatus().getStaleness();
+                            return (staleness == Long.MAX_VALUE) ? -1 : staleness;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Starts the background thread that fetches and applies the leader's
+     * changes until stop() is called. Failed fetches are retried after a
+     * pause that doubles up to one second.
+     */
+    public synchronized void start() {
+        if (pollerThread != null) {
+            return;
+        }
+        running = true;
+        pollerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long retryDelay = 10;
+                while (running) {
+                    try {
+                        pollOnce();
+                        retryDelay = 10;
+                    } catch (IOException ioe) {
+                        try {
+                            Thread.sleep(retryDelay);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                        retryDelay = Math.min(MAX_RETRY_DELAY, retryDelay * 2);
+                    }
+                }
+            }
+        }, "ReplicationFollower");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+    }
+
+    /**
+     * Stops the background thread and waits for it to finish.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (pollerThread != null) {
+            pollerThread.interrupt();
+            try {
+                pollerThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            pollerThread = null;
+        }
+    }
+
+    /**
+     * Performs one replication step: installs a snapshot if the follower is
+     * not following the leader's feed, and otherwise fetches the records
+     * that follow the last one applied (waiting on the leader if there are
+     * none) and applies them.
+     *
+     * @return Number of feed records applied (0 if a snapshot was installed).
+     * @throws IOException If the leader cannot be reached or its answer is
+     * malformed.
+     */
+    public int pollOnce() throws IOException {
+        synchronized (pollLock) {
+            try {
+                return fetchAndApply();
+            } catch (IOException ioe) {
+                synchronized (lock) {
+                    failureCount++;
+                }
+                throw ioe;
+            }
+        }
+    }
+
+    /**
+     * Waits until the follower has applied the specified feed record (as
+     * returned by the leader's getReplicationFeedSequence), while the
+     * background thread or other callers fetch.
+     *
+     * @param sequence Feed sequence number.
+     * @param timeoutMillis Maximum time to wait, in milliseconds.
+     * @return True if the record has been applied.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!following || (appliedSequence < sequence)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns a report of how far the follower lags behind the leader.
+     *
+     * @return Replication status.
+     */
+    public ReplicationStatus getStatus() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            return new ReplicationStatus(appliedSequence, leaderSequence,
+                    (upToDateTime < 0) ? Long.MAX_VALUE : Math.max(0, now - upToDateTime), maxStaleness,
+                    (lastContactTime < 0) ? Long.MAX_VALUE : Math.max(0, now - lastContactTime),
+                    appliedRecordCount, snapshotCount, failureCount);
+        }
+    }
+
+    /**
+     * This method implements pollOnce. It is called with the poll lock held,
+     * which is the only place the feed position changes.
+     *
+     * @return Number of feed records applied.
+     * @throws IOException If the leader cannot be reached.
+     */
+    private int fetchAndApply() throws IOException {
+        long requestTime = System.currentTimeMillis();
+        if (!following) {
+            installSnapshot(requestTime);
+            return 0;
+        }
+        ReplicationFeed.Batch batch = ReplicationFeed.decodeBatch(
+                transport.fetchChanges(feedID, appliedSequence, MAX_BATCH_RECORDS, fetchWait));
+        if (batch.isSnapshotRequired()) {
+            installSnapshot(System.currentTimeMillis());
+            return 0;
+        }
+        ArrayList<ReplicationFeed.Record> records = batch.getRecords();
+        int appliedCount = 0;
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                ReplicationFeed.Record record = records.get(i);
+                if (record.getSequence() != appliedSequence + appliedCount + 1) {
+                    throw new IOException("Replication feed gap before record " + record.getSequence());
+                }
+                follower.applyReplicatedRecord(record.getFields());
+                appliedCount++;
+            }
+        } catch (AuthServiceException ase) {
+            /*
+             * The follower's model has diverged from the leader's; start
+             * again from a snapshot on the next step
+             */
+            synchronized (lock) {
+                following = false;
+            }
+            throw new IOException("Unable to apply replication record", ase);
+        } catch (RuntimeException re) {
+            /*
+             * A record that refers to objects the follower does not hold
+             * also means the models have diverged
+             */
+            synchronized (lock) {
+                following = false;
+            }
+            throw new IOException("Unable to apply replication record", re);
+        } finally {
+            synchronized (lock) {
+                appliedSequence += appliedCount;
+                appliedRecordCount += appliedCount;
+                leaderSequence = batch.getLeaderSequence();
+                lastContactTime = System.currentTimeMillis();
+                lock.notifyAll();
+            }
+        }
+        synchronized (lock) {
+            if (appliedSequence >= batch.getLeaderSequence()) {
+                markUpToDate(requestTime);
+            }
+        }
+        return appliedCount;
+    }
+
+    /**
+     * This method fetches a snapshot of the leader's model, installs it in
+     * the follower in place of its current model and resumes following the
+     * feed from the position the snapshot reflects.
+     *
+     * @param requestTime Time at which the snapshot was requested.
+     * @throws IOException If the leader cannot be reached or the snapshot is
+     * malformed.
+     */
+    private void installSnapshot(long requestTime) throws IOException {
+        ByteBuffer buffer = transport.fetchSnapshot();
+        long snapshotFeedID;
+        try {
+            snapshotFeedID = buffer.getLong();
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Truncated replication snapshot", bue);
+        }
+        AuthServiceSnapshot snapshot = AuthServiceSnapshot.decode(buffer.slice(), PermissionRegistry.getInstance());
+        follower.installReplicaSnapshot(snapshot);
+        synchronized (lock) {
+            following = true;
+            feedID = snapshotFeedID;
+            appliedSequence = snapshot.getMutationLogSequence();
+            leaderSequence = appliedSequence;
+            lastContactTime = System.currentTimeMillis();
+            snapshotCount++;
+            markUpToDate(requestTime);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * This method records that the follower held everything the leader had
+     * published at the specified time, and extends the follower's freshness
+     * accordingly. It is called with the lock held.
+     *
+     * @param time Time at which the follower was up to date.
+     */
+    private void markUpToDate(long time) {
+        if (time > upToDateTime) {
+            upToDateTime = time;
+            follower.setReplicaFreshUntil(time + maxStaleness);
+        }
+    }
+}
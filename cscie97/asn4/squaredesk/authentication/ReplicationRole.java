@@ -0,0 +1,41 @@
+/*
+ * ReplicationRole
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This enumeration lists the parts an AuthServiceImpl object may play in
+ * replicating the authentication model between application nodes.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public enum ReplicationRole {
+
+    /**
+     * Keep an isolated model and publish no change feed.
+     */
+    STANDALONE,
+
+    /**
+     * Accept logins and administrative calls, and publish every applied
+     * mutation and every access token issue or revocation on a change feed.
+     */
+    LEADER,
+
+    /**
+     * Serve checkAccess from a read-only copy of the leader's model, kept up
+     * to date by a ReplicationFollower. Logins, logouts and administrative
+     * calls are rejected.
+     */
+    FOLLOWER
+}
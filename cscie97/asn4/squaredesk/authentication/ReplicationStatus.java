@@ -0,0 +1,193 @@
+/*
+ * ReplicationStatus
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This class is an immutable report of how far a ReplicationFollower lags
+ * behind its leader, as of the moment it was taken.
+ *
+ * The record lag is the number of change feed records the leader had
+ * published, at the follower's last contact, that the follower has not yet
+ * applied. The staleness is the time since the follower was last known to
+ * hold everything the leader had published: its copy of the model may miss
+ * changes made on the leader during that time, and no more.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class ReplicationStatus {
+
+    /**
+     * Feed sequence number of the last record applied.
+     */
+    private final long appliedSequence;
+
+    /**
+     * Leader's last feed sequence number, as of the last contact.
+     */
+    private final long leaderSequence;
+
+    /**
+     * Time since the follower was last up to date, in milliseconds.
+     */
+    private final long staleness;
+
+    /**
+     * Staleness beyond which the follower rejects access tokens, in milliseconds.
+     */
+    private final long maxStaleness;
+
+    /**
+     * Time since the leader last answered, in milliseconds.
+     */
+    private final long lastContactAge;
+
+    /**
+     * Number of feed records applied.
+     */
+    private final long appliedRecordCount;
+
+    /**
+     * Number of snapshots installed.
+     */
+    private final long snapshotCount;
+
+    /**
+     * Number of failed fetches.
+     */
+    private final long failureCount;
+
+    /**
+     * Constructor.
+     *
+     * @param appliedSequence Feed sequence number of the last record applied.
+     * @param leaderSequence Leader's last feed sequence number, as of the last contact.
+     * @param staleness Time since the follower was last up to date, in
+     * milliseconds (Long.MAX_VALUE if it never has been).
+     * @param maxStaleness Staleness beyond which the follower rejects access
+     * tokens, in milliseconds.
+     * @param lastContactAge Time since the leader last answered, in
+     * milliseconds (Long.MAX_VALUE if it never has).
+     * @param appliedRecordCount Number of feed records applied.
+     * @param snapshotCount Number of snapshots installed.
+     * @param failureCount Number of failed fetches.
+     */
+    public ReplicationStatus(long appliedSequence, long leaderSequence, long staleness, long maxStaleness,
+            long lastContactAge, long appliedRecordCount, long snapshotCount, long failureCount) {
+        this.appliedSequence = appliedSequence;
+        this.leaderSequence = leaderSequence;
+        this.staleness = staleness;
+        this.maxStaleness = maxStaleness;
+        this.lastContactAge = lastContactAge;
+        this.appliedRecordCount = appliedRecordCount;
+        this.snapshotCount = snapshotCount;
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * Returns the feed sequence number of the last record applied.
+     *
+     * @return Applied sequence number.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Returns the leader's last feed sequence number, as of the last contact.
+     *
+     * @return Leader sequence number.
+     */
+    public long getLeaderSequence() {
+        return leaderSequence;
+    }
+
+    /**
+     * Returns the number of records published by the leader, as of the last
+     * contact, that have not been applied.
+     *
+     * @return Record lag.
+     */
+    public long getRecordLag() {
+        return Math.max(0, leaderSequence - appliedSequence);
+    }
+
+    /**
+     * Returns the time since the follower was last known to be up to date.
+     *
+     * @return Staleness in milliseconds (Long.MAX_VALUE if never).
+     */
+    public long getStaleness() {
+        return staleness;
+    }
+
+    /**
+     * Returns true if the staleness is within the bound beyond which the
+     * follower rejects access tokens.
+     *
+     * @return True if the follower is serving checkAccess.
+     */
+    public boolean isWithinStalenessBound() {
+        return staleness <= maxStaleness;
+    }
+
+    /**
+     * Returns the time since the leader last answered.
+     *
+     * @return Last contact age in milliseconds (Long.MAX_VALUE if never).
+     */
+    public long getLastContactAge() {
+        return lastContactAge;
+    }
+
+    /**
+     * Returns the number of feed records applied.
+     *
+     * @return Applied record count.
+     */
+    public long getAppliedRecordCount() {
+        return appliedRecordCount;
+    }
+
+    /**
+     * Returns the number of snapshots installed (the first catch-up, plus one
+     * for each time the follower fell out of the leader's feed).
+     *
+     * @return Snapshot count.
+     */
+    public long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    /**
+     * Returns the number of fetches that failed.
+     *
+     * @return Failure count.
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns a one-line summary of the report.
+     *
+     * @return Summary.
+     */
+    @Override
+    public String toString() {
+        return "applied=" + appliedSequence + " leader=" + leaderSequence + " lag=" + getRecordLag()
+                + " staleness=" + ((staleness == Long.MAX_VALUE) ? "-" : staleness + "ms")
+                + " lastContact=" + ((lastContactAge == Long.MAX_VALUE) ? "-" : lastContactAge + "ms")
+                + " records=" + appliedRecordCount + " snapshots=" + snapshotCount + " failures=" + failureCount;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * ReplicationTransport
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface is implemented by the channels through which a
+ * ReplicationFollower reaches the leader AuthServiceImpl object. Both calls
+ * carry opaque byte buffers produced by the leader's
+ * readReplicationFeed and encodeReplicationSnapshot methods, so an
+ * implementation only has to move bytes (in process, over a socket, or
+ * through any request/response protocol).
+ *
+ * Implementations should fail with an IOException rather than block for
+ * much longer than the requested wait, so that the follower notices an
+ * unreachable leader.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public interface ReplicationTransport {
+
+    /**
+     * Fetches the change feed records that follow the specified one.
+     *
+     * @param feedID ID of the feed the follower has been following.
+     * @param afterSequence Sequence number of the last record applied.
+     * @param maxRecords Maximum number of records returned.
+     * @param waitMillis Maximum time the leader may wait for a new record.
+     * @return Encoded batch.
+     * @throws IOException If the leader cannot be reached.
+     */
+    public ByteBuffer fetchChanges(long feedID, long afterSequence, int maxRecords, long waitMillis)
+            throws IOException;
+
+    /**
+     * Fetches a snapshot of the leader's model together with the change feed
+     * position it reflects.
+     *
+     * @return Encoded replication snapshot.
+     * @throws IOException If the leader cannot be reached.
+     */
+    public ByteBuffer fetchSnapshot() throws IOException;
+}
@@ -13,6 +13,7 @@
 package cscie97.asn4.squaredesk.authentication;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.UUID;
 
 /**
@@ -46,9 +47,10 @@ public class Role implements Entitlement, AuthServiceVisitorElement {
     private ArrayList<String> subroles = new ArrayList<>();
     
     /**
-     * Permissions associated with Role object.
+     * Permissions associated with Role object, stored as a bitset of the
+     * ordinals assigned by the PermissionRegistry.
      */
-    private ArrayList<String> permissions = new ArrayList<>();
+    private BitSet permissions = new BitSet();
 
     /**
      * Constructor.
@@ -135,10 +137,11 @@ public class Role implements Entitlement, AuthServiceVisitorElement {
     /**
      * Returns permissions associated with Role object.
      * 
-     * @return List of permissions.
+     * @return List of permissions (a new list; use addPermission and
+     * removePermission to make changes).
      */
     public ArrayList<String> getPermissions() {
-        return permissions;
+        return PermissionRegistry.getInstance().toPermissionIDs(permissions);
     }
     
     /**
@@ -148,7 +151,7 @@ public class Role implements Entitlement, AuthServiceVisitorElement {
      * @param permissionID ID of permission being added.
      */
     public void addPermission(String permissionID) {
-        permissions.add(permissionID);
+        permissions.set(PermissionRegistry.getInstance().intern(permissionID));
     }
     
     /**
@@ -158,7 +161,41 @@ public class Role implements Entitlement, AuthServiceVisitorElement {
      * @param permissionID ID of permission being removed.
      */
     public void removePermission(String permissionID) {
-        permissions.remove(permissionID);
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        if (permissionOrdinal >= 0) {
+            permissions.clear(permissionOrdinal);
+        }
+    }
+
+    /**
+     * Returns true if the specified permission is associated with this Role object.
+     * 
+     * @param permissionID ID of permission to look for.
+     * @return True if the permission is present.
+     */
+    public boolean hasPermission(String permissionID) {
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        return (permissionOrdinal >= 0) && permissions.get(permissionOrdinal);
+    }
+
+    /**
+     * Returns a copy of the bitset of permission ordinals associated with
+     * this Role object.
+     * 
+     * @return Bitset of permission ordinals.
+     */
+    public BitSet getPermissionOrdinals() {
+        return (BitSet) permissions.clone();
+    }
+
+    /**
+     * Replaces the bitset of permission ordinals associated with this Role
+     * object (used when restoring a snapshot).
+     * 
+     * @param permissionOrdinals Bitset of permission ordinals.
+     */
+    void setPermissionOrdinals(BitSet permissionOrdinals) {
+        permissions = permissionOrdinals;
     }
     
     /**
@@ -0,0 +1,324 @@
+/*
+ * RoleClosureCache
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class caches the transitive closure of the AuthService role hierarchy.
+ * For each role it stores the flattened set of permission ordinals granted by
+ * the role and all of its subroles, together with the set of ancestor roles
+ * (roles that include the given role, directly or indirectly, as a subrole).
+ *
+ * The cache is maintained incrementally: when a role's permissions or subroles
+ * change, only that role, its ancestors and (for subrole changes) its
+ * descendants are recomputed. Subrole assignments that would introduce a
+ * cycle into the hierarchy are rejected.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class RoleClosureCache {
+
+    /**
+     * Role ID-to-bitset of permission ordinals assigned directly to the role.
+     */
+    private HashMap<String, BitSet> ownPermissionMap = new HashMap<>();
+
+    /**
+     * Role ID-to-bitset of permission ordinals granted by the role and all of
+     * its subroles.
+     */
+    private HashMap<String, BitSet> closurePermissionMap = new HashMap<>();
+
+    /**
+     * Role ID-to-set of IDs of the roles that directly include it as a subrole.
+     */
+    private HashMap<String, HashSet<String>> parentMap = new HashMap<>();
+
+    /**
+     * Role ID-to-set of IDs of the roles that directly or indirectly include
+     * it as a subrole.
+     */
+    private HashMap<String, HashSet<String>> ancestorMap = new HashMap<>();
+
+    /**
+     * Role ID-to-set of IDs of the roles it directly includes as subroles.
+     */
+    private HashMap<String, HashSet<String>> childMap = new HashMap<>();
+
+    /**
+     * Constructor.
+     */
+    public RoleClosureCache() {
+    }
+
+    /**
+     * Registers a new role (with no subroles) in the cache.
+     *
+     * @param roleID ID of new role.
+     * @param ownPermissions Bitset of permission ordinals assigned to the role.
+     */
+    public void addRole(String roleID, BitSet ownPermissions) {
+        ownPermissionMap.put(roleID, (BitSet) ownPermissions.clone());
+        closurePermissionMap.put(roleID, (BitSet) ownPermissions.clone());
+        parentMap.put(roleID, new HashSet<String>());
+        ancestorMap.put(roleID, new HashSet<String>());
+        childMap.put(roleID, new HashSet<String>());
+    }
+
+    /**
+     * Removes the specified role from the cache, detaching it from its
+     * parent roles and subroles first.
+     *
+     * @param roleID ID of role to remove.
+     */
+    public void removeRole(String roleID) {
+        if (!ownPermissionMap.containsKey(roleID)) {
+            return;
+        }
+        ArrayList<String> parents = new ArrayList<>(parentMap.get(roleID));
+        for (int i = 0; i < parents.size(); i++) {
+            removeSubrole(parents.get(i), roleID);
+        }
+        ArrayList<String> children = new ArrayList<>(childMap.get(roleID));
+        for (int i = 0; i < children.size(); i++) {
+            removeSubrole(roleID, children.get(i));
+        }
+        ownPermissionMap.remove(roleID);
+        closurePermissionMap.remove(roleID);
+        parentMap.remove(roleID);
+        ancestorMap.remove(roleID);
+        childMap.remove(roleID);
+    }
+
+    /**
+     * Returns true if the specified role is registered in the cache.
+     *
+     * @param roleID ID of role.
+     * @return True if role is registered.
+     */
+    public boolean containsRole(String roleID) {
+        return ownPermissionMap.containsKey(roleID);
+    }
+
+    /**
+     * Returns the flattened set of permission ordinals granted by the
+     * specified role (an empty set for an unknown role). The returned bitset
+     * must not be modified by the caller.
+     *
+     * @param roleID ID of role.
+     * @return Bitset of permission ordinals granted by the role.
+     */
+    public BitSet getPermissions(String roleID) {
+        BitSet closure = closurePermissionMap.get(roleID);
+        if (closure == null) {
+            return new BitSet();
+        } else {
+            return closure;
+        }
+    }
+
+    /**
+     * Returns the IDs of the roles that directly include the specified role
+     * as a subrole (an empty set for an unknown role).
+     *
+     * @param roleID ID of role.
+     * @return Set of parent role IDs.
+     */
+    public Set<String> getParents(String roleID) {
+        HashSet<String> parents = parentMap.get(roleID);
+        if (parents == null) {
+            return Collections.emptySet();
+        } else {
+            return Collections.unmodifiableSet(new HashSet<>(parents));
+        }
+    }
+
+    /**
+     * Returns the IDs of all roles that directly or indirectly include the
+     * specified role as a subrole (an empty set for an unknown role).
+     *
+     * @param roleID ID of role.
+     * @return Set of ancestor role IDs.
+     */
+    public Set<String> getAncestors(String roleID) {
+        HashSet<String> ancestors = ancestorMap.get(roleID);
+        if (ancestors == null) {
+            return Collections.emptySet();
+        } else {
+            return Collections.unmodifiableSet(ancestors);
+        }
+    }
+
+    /**
+     * Adds a permission to the specified role and propagates it to the
+     * role's ancestors.
+     *
+     * @param roleID ID of role.
+     * @param permissionOrdinal Ordinal of permission being added.
+     */
+    public void addPermission(String roleID, int permissionOrdinal) {
+        ownPermissionMap.get(roleID).set(permissionOrdinal);
+        closurePermissionMap.get(roleID).set(permissionOrdinal);
+        for (String ancestorID : ancestorMap.get(roleID)) {
+            closurePermissionMap.get(ancestorID).set(permissionOrdinal);
+        }
+    }
+
+    /**
+     * Removes a permission from the specified role and recomputes the
+     * closures of the role and its ancestors.
+     *
+     * @param roleID ID of role.
+     * @param permissionOrdinal Ordinal of permission being removed.
+     */
+    public void removePermission(String roleID, int permissionOrdinal) {
+        ownPermissionMap.get(roleID).clear(permissionOrdinal);
+        recomputeClosures(roleID);
+    }
+
+    /**
+     * Adds the specified child role as a subrole of the specified parent role,
+     * merging the child's permissions into the parent and its ancestors and
+     * extending the ancestor sets of the child and its descendants.
+     *
+     * @param parentID ID of parent role.
+     * @param childID ID of role being added as a subrole.
+     * @throws AuthServiceException If the subrole would introduce a cycle.
+     */
+    public void addSubrole(String parentID, String childID) throws AuthServiceException {
+        if (parentID.equals(childID) || ancestorMap.get(parentID).contains(childID)) {
+            throw new AuthServiceException("Subrole would introduce a cycle into the role hierarchy.");
+        } else if (childMap.get(parentID).contains(childID)) {
+            return;
+        }
+        childMap.get(parentID).add(childID);
+        parentMap.get(childID).add(parentID);
+
+        /*
+         * Merge child's closure into parent and parent's ancestors
+         */
+        BitSet childClosure = closurePermissionMap.get(childID);
+        closurePermissionMap.get(parentID).or(childClosure);
+        for (String ancestorID : ancestorMap.get(parentID)) {
+            closurePermissionMap.get(ancestorID).or(childClosure);
+        }
+
+        /*
+         * Parent and its ancestors become ancestors of child and its descendants
+         */
+        HashSet<String> newAncestors = new HashSet<>(ancestorMap.get(parentID));
+        newAncestors.add(parentID);
+        ancestorMap.get(childID).addAll(newAncestors);
+        for (String descendantID : descendants(childID)) {
+            ancestorMap.get(descendantID).addAll(newAncestors);
+        }
+    }
+
+    /**
+     * Removes the specified child role from the subroles of the specified
+     * parent role, recomputing the ancestor sets of the child and its
+     * descendants and the closures of the parent and its ancestors.
+     *
+     * @param parentID ID of parent role.
+     * @param childID ID of subrole being removed.
+     */
+    public void removeSubrole(String parentID, String childID) {
+        if (!childMap.containsKey(parentID) || !childMap.get(parentID).contains(childID)) {
+            return;
+        }
+        childMap.get(parentID).remove(childID);
+        parentMap.get(childID).remove(parentID);
+
+        /*
+         * Recompute ancestors of child and its descendants, parents first
+         */
+        ArrayList<String> affected = new ArrayList<>(descendants(childID));
+        affected.add(childID);
+        sortByAncestorCount(affected, false);
+        for (int i = 0; i < affected.size(); i++) {
+            HashSet<String> ancestors = new HashSet<>();
+            for (String directParentID : parentMap.get(affected.get(i))) {
+                ancestors.add(directParentID);
+                ancestors.addAll(ancestorMap.get(directParentID));
+            }
+            ancestorMap.put(affected.get(i), ancestors);
+        }
+        recomputeClosures(parentID);
+    }
+
+    /**
+     * Recomputes the closure of the specified role and of each of its
+     * ancestors, subroles before the roles that include them.
+     *
+     * @param roleID ID of role whose closure has changed.
+     */
+    private void recomputeClosures(String roleID) {
+        ArrayList<String> affected = new ArrayList<>(ancestorMap.get(roleID));
+        affected.add(roleID);
+        sortByAncestorCount(affected, true);
+        for (int i = 0; i < affected.size(); i++) {
+            String affectedID = affected.get(i);
+            BitSet closure = (BitSet) ownPermissionMap.get(affectedID).clone();
+            for (String childID : childMap.get(affectedID)) {
+                closure.or(closurePermissionMap.get(childID));
+            }
+            closurePermissionMap.put(affectedID, closure);
+        }
+    }
+
+    /**
+     * Returns the IDs of all roles directly or indirectly included as
+     * subroles of the specified role.
+     *
+     * @param roleID ID of role.
+     * @return Set of descendant role IDs.
+     */
+    private HashSet<String> descendants(String roleID) {
+        HashSet<String> descendants = new HashSet<>();
+        ArrayList<String> pending = new ArrayList<>(childMap.get(roleID));
+        while (!pending.isEmpty()) {
+            String descendantID = pending.remove(pending.size() - 1);
+            if (descendants.add(descendantID)) {
+                pending.addAll(childMap.get(descendantID));
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Sorts the specified role IDs by number of ancestors. Since a subrole
+     * always has strictly more ancestors than any role that includes it,
+     * ascending order places parents before subroles and descending order
+     * places subroles before parents.
+     *
+     * @param roleIDs Role IDs to sort.
+     * @param descending True to sort subroles first, false to sort parents first.
+     */
+    private void sortByAncestorCount(ArrayList<String> roleIDs, final boolean descending) {
+        Collections.sort(roleIDs, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                int difference = ancestorMap.get(first).size() - ancestorMap.get(second).size();
+                return descending ? -difference : difference;
+            }
+        });
+    }
+}
@@ -13,6 +13,7 @@
 package cscie97.asn4.squaredesk.authentication;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -41,9 +42,10 @@ public class Service implements AuthServiceVisitorElement {
     private String description = new String();
     
     /**
-     * Permissions (restricted methods) associated with Service object.
+     * Permissions (restricted methods) associated with Service object, stored as a bitset of the
+     * ordinals assigned by the PermissionRegistry.
      */
-    private ArrayList<String> permissions = new ArrayList<>();
+    private BitSet permissions = new BitSet();
 
     /**
      * Constructor.
@@ -98,10 +100,11 @@ public class Service implements AuthServiceVisitorElement {
      * Returns permissions (restricted access methods) associated with
      * Service object.
      * 
-     * @return List of permissions (restricted access methods).
+     * @return List of permissions (restricted access methods); this is a new
+     * list, so use addPermission and removePermission to make changes.
      */
     public ArrayList<String> getPermissions() {
-        return permissions;
+        return PermissionRegistry.getInstance().toPermissionIDs(permissions);
     }
     
     /**
@@ -111,7 +114,7 @@ public class Service implements AuthServiceVisitorElement {
      * @param permissionID ID of permission being added.
      */
     public void addPermission(String permissionID) {
-        permissions.add(permissionID);
+        permissions.set(PermissionRegistry.getInstance().intern(permissionID));
     }
 
     /**
@@ -121,7 +124,41 @@ public class Service implements AuthServiceVisitorElement {
      * @param permissionID ID of permission being removed.
      */
     public void removePermission(String permissionID) {
-        permissions.remove(permissionID);
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        if (permissionOrdinal >= 0) {
+            permissions.clear(permissionOrdinal);
+        }
+    }
+
+    /**
+     * Returns true if the specified permission is associated with this Service object.
+     * 
+     * @param permissionID ID of permission to look for.
+     * @return True if the permission is present.
+     */
+    public boolean hasPermission(String permissionID) {
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        return (permissionOrdinal >= 0) && permissions.get(permissionOrdinal);
+    }
+
+    /**
+     * Returns a copy of the bitset of permission ordinals associated with
+     * this Service object.
+     * 
+     * @return Bitset of permission ordinals.
+     */
+    public BitSet getPermissionOrdinals() {
+        return (BitSet) permissions.clone();
+    }
+
+    /**
+     * Replaces the bitset of permission ordinals associated with this Service
+     * object (used when restoring a snapshot).
+     * 
+     * @param permissionOrdinals Bitset of permission ordinals.
+     */
+    void setPermissionOrdinals(BitSet permissionOrdinals) {
+        permissions = permissionOrdinals;
     }
     
     /**
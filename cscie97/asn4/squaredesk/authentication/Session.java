@@ -0,0 +1,93 @@
+/*
+ * Session
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This class describes an active AuthService session, i.e. an access token
+ * issued to a User upon login under a given login ID.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class Session {
+
+    /**
+     * Access token ID (string form of the access token UUID).
+     */
+    private String accessTokenID;
+
+    /**
+     * Login ID under which the session was opened.
+     */
+    private String loginID;
+
+    /**
+     * User who owns the session.
+     */
+    private User user;
+
+    /**
+     * Access token issued for the session.
+     */
+    private AccessToken accessToken;
+
+    /**
+     * Constructor.
+     *
+     * @param loginID Login ID under which the session was opened.
+     * @param user User who owns the session.
+     * @param accessToken Access token issued for the session.
+     */
+    public Session(String loginID, User user, AccessToken accessToken) {
+        this.accessTokenID = accessToken.getID().toString();
+        this.loginID = loginID;
+        this.user = user;
+        this.accessToken = accessToken;
+    }
+
+    /**
+     * Returns the access token ID.
+     *
+     * @return Access token ID.
+     */
+    public String getAccessTokenID() {
+        return accessTokenID;
+    }
+
+    /**
+     * Returns the login ID under which the session was opened.
+     *
+     * @return Login ID.
+     */
+    public String getLoginID() {
+        return loginID;
+    }
+
+    /**
+     * Returns the User who owns the session.
+     *
+     * @return Session User.
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the access token issued for the session.
+     *
+     * @return Session access token.
+     */
+    public AccessToken getAccessToken() {
+        return accessToken;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * SessionLimitPolicy
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This enumeration lists the ways in which the AuthService may handle a login
+ * under a login ID that already has the maximum number of concurrent sessions.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public enum SessionLimitPolicy {
+
+    /**
+     * Reject the new login with an AuthServiceException.
+     */
+    REJECT_NEW_SESSION,
+
+    /**
+     * Accept the new login and expire the oldest session of the login ID.
+     */
+    EVICT_OLDEST_SESSION
+}
@@ -0,0 +1,183 @@
+/*
+ * SessionRegistry
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps track of the active AuthService sessions, indexed both by
+ * access token ID and by login ID, and enforces the maximum number of
+ * concurrent sessions per login ID.
+ *
+ * Lookups by access token ID go straight to a concurrent map and take no
+ * lock. Registration and removal lock only the session list of the login ID
+ * concerned, so that both indexes are always updated together.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class SessionRegistry {
+
+    /**
+     * Access token ID-to-Session map.
+     */
+    private ConcurrentHashMap<String, Session> accessTokenSessionMap = new ConcurrentHashMap<>();
+
+    /**
+     * Case-folded login ID-to-sessions map (each list holds the login's
+     * sessions, oldest first, and is also the lock for that login ID).
+     */
+    private ConcurrentHashMap<String, ArrayDeque<Session>> loginIDSessionMap = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of concurrent sessions per login ID.
+     */
+    private final int maxSessionsPerLogin;
+
+    /**
+     * Policy applied to a login that would exceed maxSessionsPerLogin.
+     */
+    private final SessionLimitPolicy sessionLimitPolicy;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSessionsPerLogin Maximum number of concurrent sessions per login ID.
+     * @param sessionLimitPolicy Policy applied when the maximum is reached.
+     */
+    public SessionRegistry(int maxSessionsPerLogin, SessionLimitPolicy sessionLimitPolicy) {
+        this.maxSessionsPerLogin = maxSessionsPerLogin;
+        this.sessionLimitPolicy = sessionLimitPolicy;
+    }
+
+    /**
+     * Registers the specified new session. If its login ID already has the
+     * maximum number of sessions, the new session is either rejected or the
+     * login ID's oldest session is removed to make room for it, depending on
+     * the session limit policy.
+     *
+     * @param session New session.
+     * @return Session evicted to make room for the new one (null if none).
+     * @throws AuthServiceException If the new session is rejected.
+     */
+    public Session register(Session session) throws AuthServiceException {
+        String foldedLoginID = Credential.foldLoginID(session.getLoginID());
+        ArrayDeque<Session> sessions = loginIDSessionMap.get(foldedLoginID);
+        if (sessions == null) {
+            ArrayDeque<Session> newSessions = new ArrayDeque<>();
+            sessions = loginIDSessionMap.putIfAbsent(foldedLoginID, newSessions);
+            if (sessions == null) {
+                sessions = newSessions;
+            }
+        }
+        Session evictedSession = null;
+        synchronized (sessions) {
+            if (sessions.size() >= maxSessionsPerLogin) {
+                if (sessionLimitPolicy == SessionLimitPolicy.REJECT_NEW_SESSION) {
+                    throw new AuthServiceException("User is already logged in under login ID");
+                } else {
+                    evictedSession = sessions.pollFirst();
+                    accessTokenSessionMap.remove(evictedSession.getAccessTokenID());
+                }
+            }
+            sessions.addLast(session);
+            accessTokenSessionMap.put(session.getAccessTokenID(), session);
+        }
+        return evictedSession;
+    }
+
+    /**
+     * Removes the session with the specified access token ID from both indexes.
+     *
+     * @param accessTokenID Access token ID.
+     * @return Removed session (null if no such session was registered).
+     */
+    public Session remove(String accessTokenID) {
+        Session session = accessTokenSessionMap.get(accessTokenID);
+        if (session == null) {
+            return null;
+        }
+        ArrayDeque<Session> sessions = loginIDSessionMap.get(Credential.foldLoginID(session.getLoginID()));
+        synchronized (sessions) {
+            if (accessTokenSessionMap.remove(accessTokenID, session)) {
+                sessions.remove(session);
+                return session;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the session with the specified access token ID.
+     *
+     * @param accessTokenID Access token ID.
+     * @return Session (null if none exists).
+     */
+    public Session getSession(String accessTokenID) {
+        return accessTokenSessionMap.get(accessTokenID);
+    }
+
+    /**
+     * Returns true if at least one session is open under the specified login ID.
+     *
+     * @param loginID Login ID.
+     * @return True if the login ID has an active session.
+     */
+    public boolean isLoginActive(String loginID) {
+        ArrayDeque<Session> sessions = loginIDSessionMap.get(Credential.foldLoginID(loginID));
+        if (sessions == null) {
+            return false;
+        }
+        synchronized (sessions) {
+            return !sessions.isEmpty();
+        }
+    }
+
+    /**
+     * Returns the sessions open under the specified login ID, oldest first.
+     *
+     * @param loginID Login ID.
+     * @return List of sessions (empty if none).
+     */
+    public List<Session> getSessions(String loginID) {
+        ArrayDeque<Session> sessions = loginIDSessionMap.get(Credential.foldLoginID(loginID));
+        if (sessions == null) {
+            return new ArrayList<>();
+        }
+        synchronized (sessions) {
+            return new ArrayList<>(sessions);
+        }
+    }
+
+    /**
+     * Returns all active sessions, in no particular order.
+     *
+     * @return List of sessions.
+     */
+    public List<Session> getAllSessions() {
+        return new ArrayList<>(accessTokenSessionMap.values());
+    }
+
+    /**
+     * Returns the number of active sessions.
+     *
+     * @return Number of active sessions.
+     */
+    public int size() {
+        return accessTokenSessionMap.size();
+    }
+}
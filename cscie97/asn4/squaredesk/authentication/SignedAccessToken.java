@@ -0,0 +1,121 @@
+/*
+ * SignedAccessToken
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+/**
+ * This class holds the claims carried by a signed access token, as issued by
+ * SignedAccessTokenCodec.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class SignedAccessToken {
+
+    /**
+     * ID of the User to whom the token was issued.
+     */
+    private final String userID;
+
+    /**
+     * Issue time (milliseconds since the epoch).
+     */
+    private final long issueTime;
+
+    /**
+     * Expiry time (milliseconds since the epoch).
+     */
+    private final long expiryTime;
+
+    /**
+     * User access token epoch at issue time.
+     */
+    private final long accessTokenEpoch;
+
+    /**
+     * Random value distinguishing tokens issued with identical claims.
+     */
+    private final long nonce;
+
+    /**
+     * Constructor.
+     *
+     * @param userID ID of the User to whom the token was issued.
+     * @param issueTime Issue time.
+     * @param expiryTime Expiry time.
+     * @param accessTokenEpoch User access token epoch at issue time.
+     * @param nonce Random value.
+     */
+    public SignedAccessToken(String userID, long issueTime, long expiryTime,
+            long accessTokenEpoch, long nonce) {
+        this.userID = userID;
+        this.issueTime = issueTime;
+        this.expiryTime = expiryTime;
+        this.accessTokenEpoch = accessTokenEpoch;
+        this.nonce = nonce;
+    }
+
+    /**
+     * Returns the ID of the User to whom the token was issued.
+     *
+     * @return User ID.
+     */
+    public String getUserID() {
+        return userID;
+    }
+
+    /**
+     * Returns the issue time.
+     *
+     * @return Issue time in milliseconds.
+     */
+    public long getIssueTime() {
+        return issueTime;
+    }
+
+    /**
+     * Returns the expiry time.
+     *
+     * @return Expiry time in milliseconds.
+     */
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    /**
+     * Returns the User access token epoch at issue time.
+     *
+     * @return Access token epoch.
+     */
+    public long getAccessTokenEpoch() {
+        return accessTokenEpoch;
+    }
+
+    /**
+     * Returns the token nonce.
+     *
+     * @return Nonce.
+     */
+    public long getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Returns true if the token has expired at the specified time.
+     *
+     * @param currentTime Current time in milliseconds.
+     * @return True if expired.
+     */
+    public boolean expired(long currentTime) {
+        return currentTime >= expiryTime;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * SignedAccessTokenCodec
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class encodes SignedAccessToken claims into compact HMAC-SHA256 signed
+ * strings and verifies and decodes them again.
+ *
+ * An encoded token has the form payload.signature, where both parts are
+ * unpadded base64url strings. The payload holds the issue time, expiry time,
+ * access token epoch and nonce as 8-byte values, followed by the UTF-8 bytes
+ * of the user ID. The signature is the HMAC of the encoded payload.
+ *
+ * Mac objects are not thread-safe, so each thread keeps its own.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class SignedAccessTokenCodec {
+
+    /**
+     * HMAC algorithm used to sign tokens.
+     */
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Length of the fixed-size part of the payload.
+     */
+    private static final int FIXED_PAYLOAD_LENGTH = 4 * 8;
+
+    /**
+     * Signing key.
+     */
+    private final SecretKeySpec signingKey;
+
+    /**
+     * Per-thread Mac initialized with the signing key.
+     */
+    private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac newMac = Mac.getInstance(HMAC_ALGORITHM);
+                newMac.init(signingKey);
+                return newMac;
+            } catch (GeneralSecurityException gse) {
+                throw new IllegalStateException(HMAC_ALGORITHM + " unavailable", gse);
+            }
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param signingKey Secret key bytes.
+     */
+    public SignedAccessTokenCodec(byte[] signingKey) {
+        this.signingKey = new SecretKeySpec(signingKey.clone(), HMAC_ALGORITHM);
+    }
+
+    /**
+     * Encodes and signs the specified token claims.
+     *
+     * @param token Token claims.
+     * @return Signed token string.
+     */
+    public String encode(SignedAccessToken token) {
+        byte[] userID = token.getUserID().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(FIXED_PAYLOAD_LENGTH + userID.length);
+        payload.putLong(token.getIssueTime());
+        payload.putLong(token.getExpiryTime());
+        payload.putLong(token.getAccessTokenEpoch());
+        payload.putLong(token.getNonce());
+        payload.put(userID);
+        String encodedPayload = Base64.getUrlEncoder().withoutPadding().encodeToString(payload.array());
+        return encodedPayload + "." + sign(encodedPayload);
+    }
+
+    /**
+     * Verifies the signature of the specified token string and decodes its
+     * claims. Expiry is not checked here.
+     *
+     * @param encodedToken Signed token string.
+     * @return Token claims, or null if the string is malformed or its
+     * signature does not match.
+     */
+    public SignedAccessToken decode(String encodedToken) {
+        int separator = encodedToken.indexOf('.');
+        if ((separator <= 0) || (separator != encodedToken.lastIndexOf('.'))) {
+            return null;
+        }
+        String encodedPayload = encodedToken.substring(0, separator);
+        byte[] expectedSignature = sign(encodedPayload).getBytes(StandardCharsets.US_ASCII);
+        byte[] actualSignature = encodedToken.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expectedSignature, actualSignature)) {
+            return null;
+        }
+        byte[] payloadBytes;
+        try {
+            payloadBytes = Base64.getUrlDecoder().decode(encodedPayload);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+        if (payloadBytes.length < FIXED_PAYLOAD_LENGTH) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.wrap(payloadBytes);
+        long issueTime = payload.getLong();
+        long expiryTime = payload.getLong();
+        long accessTokenEpoch = payload.getLong();
+        long nonce = payload.getLong();
+        String userID = new String(payloadBytes, FIXED_PAYLOAD_LENGTH,
+                payloadBytes.length - FIXED_PAYLOAD_LENGTH, StandardCharsets.UTF_8);
+        return new SignedAccessToken(userID, issueTime, expiryTime, accessTokenEpoch, nonce);
+    }
+
+    /**
+     * Returns the base64url-encoded HMAC of the specified encoded payload.
+     *
+     * @param encodedPayload Encoded payload.
+     * @return Encoded signature.
+     */
+    private String sign(String encodedPayload) {
+        byte[] signature = mac.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+}
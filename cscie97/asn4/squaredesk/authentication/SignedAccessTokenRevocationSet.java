@@ -0,0 +1,106 @@
+/*
+ * SignedAccessTokenRevocationSet
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class records signed access tokens that have been logged out before
+ * their expiry time. An entry is only needed until the token it revokes
+ * expires, after which the token is rejected anyway; expired entries are
+ * purged every PURGE_INTERVAL revocations, so the set stays bounded by the
+ * number of logouts within one token lifetime.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+class SignedAccessTokenRevocationSet {
+
+    /**
+     * Number of revocations between purges of expired entries.
+     */
+    private static final int PURGE_INTERVAL = 256;
+
+    /**
+     * Revoked token-to-expiry time map.
+     */
+    private ConcurrentHashMap<String, Long> revokedTokenMap = new ConcurrentHashMap<>();
+
+    /**
+     * Revocations since the last purge.
+     */
+    private AtomicInteger revocationsSincePurge = new AtomicInteger();
+
+    /**
+     * Revokes the specified token.
+     *
+     * @param encodedToken Signed token string.
+     * @param expiryTime Expiry time of the token.
+     * @return True if the token was revoked by this call, false if it had
+     * already been revoked.
+     */
+    public boolean revoke(String encodedToken, long expiryTime) {
+        boolean revoked = (revokedTokenMap.putIfAbsent(encodedToken, expiryTime) == null);
+        if (revocationsSincePurge.incrementAndGet() >= PURGE_INTERVAL) {
+            revocationsSincePurge.set(0);
+            purge(System.currentTimeMillis());
+        }
+        return revoked;
+    }
+
+    /**
+     * Returns true if the specified token has been revoked.
+     *
+     * @param encodedToken Signed token string.
+     * @return True if revoked.
+     */
+    public boolean isRevoked(String encodedToken) {
+        return revokedTokenMap.containsKey(encodedToken);
+    }
+
+    /**
+     * Returns a copy of the revoked tokens and their expiry times.
+     *
+     * @return Revoked token-to-expiry time map.
+     */
+    public Map<String, Long> getRevokedTokens() {
+        return new HashMap<>(revokedTokenMap);
+    }
+
+    /**
+     * Removes entries for tokens that have expired at the specified time.
+     *
+     * @param currentTime Current time in milliseconds.
+     */
+    public void purge(long currentTime) {
+        Iterator<Map.Entry<String, Long>> entries = revokedTokenMap.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getValue() <= currentTime) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries currently in the set.
+     *
+     * @return Number of revoked, unexpired tokens (plus any not yet purged).
+     */
+    public int size() {
+        return revokedTokenMap.size();
+    }
+}
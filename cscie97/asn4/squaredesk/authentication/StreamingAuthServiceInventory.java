@@ -0,0 +1,859 @@
+/*
+ * StreamingAuthServiceInventory
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ *
+ */
+package cscie97.asn4.squaredesk.authentication;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class implements AuthServiceVisitor and writes an inventory of the
+ * AuthService objects to a Writer as it visits them, in YAML or JSON.
+ *
+ * Unlike AuthServiceInventory, which builds the whole description in memory
+ * and describes every subrole and permission again under each role and user
+ * that holds it, this visitor writes each permission, service and role once,
+ * in sections of their own, and lets services, roles and users refer to them
+ * by ID. Output therefore grows with the number of objects rather than with
+ * users times roles times permissions, and only the current line is held in
+ * memory.
+ *
+ * The inventory may be restricted to the objects relevant to one service
+ * (its permissions, the roles that grant any of them and the users who
+ * effectively hold any of them) and to users whose ID starts with a given
+ * prefix. Users may also be written a page at a time: pages are ordered by
+ * user ID, and each page ends with the ID to pass as the start of the next.
+ *
+ * Writer errors do not propagate through the visitor methods; the first one
+ * stops the output and is returned by getError.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class StreamingAuthServiceInventory implements AuthServiceVisitor {
+
+    /**
+     * Writer the inventory is written to.
+     */
+    private Writer writer;
+
+    /**
+     * Emitter producing the selected output format.
+     */
+    private Emitter emitter;
+
+    /**
+     * ID of the service the inventory is restricted to (null for all).
+     */
+    private String serviceID = null;
+
+    /**
+     * Prefix of the user IDs the inventory is restricted to (null for all).
+     */
+    private String userIDPrefix = null;
+
+    /**
+     * Users are written starting after this user ID (null for the first page).
+     */
+    private String pageAfterUserID = null;
+
+    /**
+     * Maximum number of users per page (0 to write all users, unordered).
+     */
+    private int pageSize = 0;
+
+    /**
+     * First error raised by the writer (null if none).
+     */
+    private IOException error = null;
+
+    /**
+     * AuthService being visited.
+     */
+    private AuthServiceImpl authService;
+
+    /**
+     * Permission ordinals the inventory is restricted to (null for all).
+     */
+    private BitSet permissionFilter = null;
+
+    /**
+     * IDs of the roles included in the inventory (null for all).
+     */
+    private HashSet<String> includedRoleIDs = null;
+
+    /**
+     * Constructor.
+     *
+     * @param writer Writer the inventory is written to.
+     * @param format Output format.
+     */
+    public StreamingAuthServiceInventory(Writer writer, InventoryFormat format) {
+        this.writer = writer;
+        if (format == InventoryFormat.JSON) {
+            emitter = new JsonEmitter(writer);
+        } else {
+            emitter = new YamlEmitter(writer);
+        }
+    }
+
+    /**
+     * Constructor writing UTF-8 text to an output stream (through a buffer,
+     * flushed once the inventory is complete).
+     *
+     * @param outputStream Output stream the inventory is written to.
+     * @param format Output format.
+     */
+    public StreamingAuthServiceInventory(OutputStream outputStream, InventoryFormat format) {
+        this(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)), format);
+    }
+
+    /**
+     * Restricts the inventory to the specified service, its permissions, the
+     * roles that grant any of them and the users who hold any of them.
+     *
+     * @param serviceID ID of service (null for all services).
+     */
+    public void setServiceFilter(String serviceID) {
+        this.serviceID = serviceID;
+    }
+
+    /**
+     * Restricts the users in the inventory to those whose ID starts with the
+     * specified prefix.
+     *
+     * @param userIDPrefix User ID prefix (null for all users).
+     */
+    public void setUserIDPrefix(String userIDPrefix) {
+        this.userIDPrefix = userIDPrefix;
+    }
+
+    /**
+     * Writes users a page at a time, in user ID order.
+     *
+     * @param afterUserID Users are written starting after this ID (null for
+     * the first page).
+     * @param pageSize Maximum number of users written (0 to write all users
+     * in no particular order).
+     */
+    public void setUserPage(String afterUserID, int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative.");
+        }
+        this.pageAfterUserID = afterUserID;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the first error raised by the writer.
+     *
+     * @return Writer error (null if the inventory was written successfully).
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Visitor of the actual AuthService object; the method writes the
+     * permission, service, role and user sections, then flushes the writer.
+     * Users are written in pages when a page size is set, in which case the
+     * inventory ends with the user ID the next page starts after (null after
+     * the last page).
+     *
+     * @param authService1 AuthService object.
+     */
+    @Override
+    public void visitAuthService(AuthService authService1) {
+        authService = (AuthServiceImpl) authService1;
+        try {
+            /*
+             * Work out which permissions and roles a service filter keeps
+             */
+            Service filterService = null;
+            if (serviceID != null) {
+                filterService = authService.getServiceMap().get(serviceID);
+                if (filterService == null) {
+                    permissionFilter = new BitSet();
+                } else {
+                    permissionFilter = filterService.getPermissionOrdinals();
+                }
+                includedRoleIDs = new HashSet<>();
+                Iterator<Role> roleIterator = authService.getRoleMap().values().iterator();
+                while (roleIterator.hasNext()) {
+                    Role role = roleIterator.next();
+                    if (authService.getRolePermissionClosure(role.getID()).intersects(permissionFilter)) {
+                        includedRoleIDs.add(role.getID());
+                    }
+                }
+            }
+            emitter.startDocument();
+
+            /*
+             * Permissions
+             */
+            emitter.startList("permissions");
+            Iterator<Permission> permissionIterator = authService.getPermissionMap().values().iterator();
+            while (permissionIterator.hasNext() && error == null) {
+                Permission permission = permissionIterator.next();
+                if (permissionIncluded(permission.getID())) {
+                    visitPermission(permission);
+                }
+            }
+            emitter.endList();
+
+            /*
+             * Services
+             */
+            emitter.startList("services");
+            if (serviceID != null) {
+                if (filterService != null) {
+                    visitService(filterService);
+                }
+            } else {
+                Iterator<Service> serviceIterator = authService.getServiceMap().values().iterator();
+                while (serviceIterator.hasNext() && error == null) {
+                    visitService(serviceIterator.next());
+                }
+            }
+            emitter.endList();
+
+            /*
+             * Roles
+             */
+            emitter.startList("roles");
+            Iterator<Role> roleIterator = authService.getRoleMap().values().iterator();
+            while (roleIterator.hasNext() && error == null) {
+                Role role = roleIterator.next();
+                if (roleIncluded(role.getID())) {
+                    visitRole(role);
+                }
+            }
+            emitter.endList();
+
+            /*
+             * Users, either streamed straight from the user map or one page
+             * at a time
+             */
+            emitter.startList("users");
+            if (pageSize == 0) {
+                Iterator<User> userIterator = authService.getUserMap().values().iterator();
+                while (userIterator.hasNext() && error == null) {
+                    User user = userIterator.next();
+                    if (userIncluded(user)) {
+                        visitUser(user);
+                    }
+                }
+                emitter.endList();
+            } else {
+                String nextPageAfterUserID = visitUserPage();
+                emitter.endList();
+                emitter.field("nextPageAfter", nextPageAfterUserID);
+            }
+            emitter.endDocument();
+            writer.flush();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /**
+     * AuthService Service object visitor, writes the service with the IDs of
+     * its permissions.
+     *
+     * @param service Service object being visited.
+     */
+    @Override
+    public void visitService(Service service) {
+        if (error != null) {
+            return;
+        }
+        try {
+            emitter.startObject();
+            emitter.field("ID", service.getID());
+            emitter.field("name", service.getName());
+            emitter.field("description", service.getDescription());
+            emitter.referenceList("permissions", service.getPermissions());
+            emitter.endObject();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /**
+     * AuthService Permission object visitor, writes the permission.
+     *
+     * @param permission Permission object being visited.
+     */
+    @Override
+    public void visitPermission(Permission permission) {
+        if (error != null) {
+            return;
+        }
+        try {
+            emitter.startObject();
+            emitter.field("ID", permission.getID());
+            emitter.field("name", permission.getName());
+            emitter.field("description", permission.getDescription());
+            emitter.endObject();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /**
+     * AuthService Role object visitor, writes the role with the IDs of its
+     * subroles and of the permissions it grants directly.
+     *
+     * @param role Role object being visited.
+     */
+    @Override
+    public void visitRole(Role role) {
+        if (error != null) {
+            return;
+        }
+        try {
+            emitter.startObject();
+            emitter.field("ID", role.getID());
+            emitter.field("name", role.getName());
+            emitter.field("description", role.getDescription());
+            emitter.referenceList("subroles", includedRoles(role.getSubroles()));
+            emitter.referenceList("permissions", includedPermissions(role.getPermissionOrdinals()));
+            emitter.endObject();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /**
+     * AuthService User object visitor, writes the user with its credentials,
+     * the IDs of its roles and direct permissions, and its access tokens.
+     *
+     * @param user User object being visited.
+     */
+    @Override
+    public void visitUser(User user) {
+        if (error != null) {
+            return;
+        }
+        try {
+            emitter.startObject();
+            emitter.field("ID", user.getUserID());
+            emitter.field("name", user.getUserName());
+            emitter.startList("credentials");
+            List<Credential> credentials = user.getCredentials();
+            for (int i = 0; i < credentials.size(); i++) {
+                visitCredential(credentials.get(i));
+            }
+            emitter.endList();
+            emitter.referenceList("roles", includedRoles(user.getRoles()));
+            emitter.referenceList("permissions", includedPermissions(user.getPermissionOrdinals()));
+            emitter.startList("accessTokens");
+            List<AccessToken> accessTokens = user.getAccessTokens();
+            for (int i = 0; i < accessTokens.size(); i++) {
+                visitAccessToken(accessTokens.get(i));
+            }
+            emitter.endList();
+            emitter.endObject();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /**
+     * AuthService Credential object visitor, writes the credential.
+     *
+     * @param credential Credential object being visited.
+     */
+    @Override
+    public void visitCredential(Credential credential) {
+        if (error != null) {
+            return;
+        }
+        try {
+            emitter.startObject();
+            emitter.field("loginID", credential.getLoginID());
+            emitter.field("passwordMessageDigest", credential.getPasswordMessageDigest());
+            emitter.endObject();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /**
+     * AuthService AccessToken object visitor, writes the access token.
+     *
+     * @param accessToken AccessToken object being visited.
+     */
+    @Override
+    public void visitAccessToken(AccessToken accessToken) {
+        if (error != null) {
+            return;
+        }
+        try {
+            emitter.startObject();
+            emitter.field("ID", accessToken.getID().toString());
+            emitter.field("state", accessToken.getState());
+            emitter.field("lastAccessTime", accessToken.getLastAccessTime().toInstant().toString());
+            emitter.endObject();
+        } catch (IOException e) {
+            recordError(e);
+        }
+    }
+
+    /*
+     * Visits the next page of users: the pageSize lowest user IDs after
+     * pageAfterUserID, found with a bounded heap so that only one page of IDs
+     * is held at a time. Returns the ID the following page starts after (null
+     * if this is the last page).
+     */
+    private String visitUserPage() {
+        PriorityQueue<String> pageUserIDs = new PriorityQueue<>(pageSize + 1, Collections.<String>reverseOrder());
+        int matchCount = 0;
+        Iterator<User> userIterator = authService.getUserMap().values().iterator();
+        while (userIterator.hasNext()) {
+            User user = userIterator.next();
+            String userID = user.getUserID();
+            if ((pageAfterUserID == null || userID.compareTo(pageAfterUserID) > 0) && userIncluded(user)) {
+                matchCount++;
+                if (pageUserIDs.size() < pageSize) {
+                    pageUserIDs.add(userID);
+                } else if (userID.compareTo(pageUserIDs.peek()) < 0) {
+                    pageUserIDs.poll();
+                    pageUserIDs.add(userID);
+                }
+            }
+        }
+        String[] userIDs = pageUserIDs.toArray(new String[pageUserIDs.size()]);
+        Arrays.sort(userIDs);
+        for (int i = 0; i < userIDs.length && error == null; i++) {
+            User user = authService.getUserMap().get(userIDs[i]);
+            if (user != null) {
+                visitUser(user);
+            }
+        }
+        if (matchCount > pageSize) {
+            return userIDs[userIDs.length - 1];
+        } else {
+            return null;
+        }
+    }
+
+    /*
+     * Returns true if the specified permission passes the service filter.
+     */
+    private boolean permissionIncluded(String permissionID) {
+        if (permissionFilter == null) {
+            return true;
+        }
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        return (permissionOrdinal >= 0) && permissionFilter.get(permissionOrdinal);
+    }
+
+    /*
+     * Returns true if the specified role passes the service filter.
+     */
+    private boolean roleIncluded(String roleID) {
+        return (includedRoleIDs == null) || includedRoleIDs.contains(roleID);
+    }
+
+    /*
+     * Returns true if the specified user passes the user ID prefix and
+     * service filters.
+     */
+    private boolean userIncluded(User user) {
+        if (userIDPrefix != null && !user.getUserID().startsWith(userIDPrefix)) {
+            return false;
+        }
+        return (permissionFilter == null) || user.getEffectivePermissions().intersects(permissionFilter);
+    }
+
+    /*
+     * Returns the IDs of the permissions in the specified bitset that pass
+     * the service filter.
+     */
+    private List<String> includedPermissions(BitSet permissionOrdinals) {
+        if (permissionFilter != null) {
+            permissionOrdinals.and(permissionFilter);
+        }
+        return PermissionRegistry.getInstance().toPermissionIDs(permissionOrdinals);
+    }
+
+    /*
+     * Returns the specified role IDs that pass the service filter.
+     */
+    private List<String> includedRoles(List<String> roleIDs) {
+        if (includedRoleIDs == null) {
+            return roleIDs;
+        }
+        ArrayList<String> includedRoles = new ArrayList<>();
+        for (int i = 0; i < roleIDs.size(); i++) {
+            if (includedRoleIDs.contains(roleIDs.get(i))) {
+                includedRoles.add(roleIDs.get(i));
+            }
+        }
+        return includedRoles;
+    }
+
+    /*
+     * Records the first writer error.
+     */
+    private void recordError(IOException e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    /**
+     * This class holds what the YAML and JSON emitters share: the writer,
+     * a cache of indentation strings, the nesting stack and string quoting.
+     * Both formats quote strings the same way, since a JSON string is also a
+     * valid YAML double-quoted scalar.
+     */
+    private abstract static class Emitter {
+
+        /**
+         * Indentation strings, indexed by depth.
+         */
+        private static String[] indents = new String[0];
+
+        /**
+         * Writer the output is written to.
+         */
+        protected Writer writer;
+
+        /**
+         * Per nesting level, true until the level's first entry is written.
+         */
+        protected boolean[] empty = new boolean[8];
+
+        /**
+         * Current nesting level.
+         */
+        protected int level = 0;
+
+        Emitter(Writer writer) {
+            this.writer = writer;
+        }
+
+        abstract void startDocument() throws IOException;
+
+        abstract void startList(String name) throws IOException;
+
+        abstract void startObject() throws IOException;
+
+        abstract void field(String name, String value) throws IOException;
+
+        abstract void referenceList(String name, List<String> IDs) throws IOException;
+
+        abstract void endObject() throws IOException;
+
+        abstract void endList() throws IOException;
+
+        abstract void endDocument() throws IOException;
+
+        /*
+         * Enters a new, empty nesting level.
+         */
+        protected void push() {
+            level++;
+            if (level == empty.length) {
+                empty = Arrays.copyOf(empty, empty.length * 2);
+            }
+            empty[level] = true;
+        }
+
+        /*
+         * Leaves the current nesting level, returning true if it was empty.
+         */
+        protected boolean pop() {
+            return empty[level--];
+        }
+
+        /*
+         * Writes the indentation for the specified depth (two spaces per
+         * level).
+         */
+        protected void indent(int depth) throws IOException {
+            String[] cachedIndents = indents;
+            if (depth >= cachedIndents.length) {
+                cachedIndents = Arrays.copyOf(cachedIndents, depth + 8);
+                for (int i = 0; i < cachedIndents.length; i++) {
+                    if (cachedIndents[i] == null) {
+                        char[] spaces = new char[i * 2];
+                        Arrays.fill(spaces, ' ');
+                        cachedIndents[i] = new String(spaces);
+                    }
+                }
+                indents = cachedIndents;
+            }
+            writer.write(cachedIndents[depth]);
+        }
+
+        /*
+         * Writes the specified string as a double-quoted, escaped string
+         * (null unquoted). Runs of characters that need no escaping are
+         * written straight from the string.
+         */
+        protected void quote(String value) throws IOException {
+            if (value == null) {
+                writer.write("null");
+                return;
+            }
+            writer.write('"');
+            int runStart = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\' || c < 0x20 || c == 0x7f || c == 0x2028 || c == 0x2029) {
+                    writer.write(value, runStart, i - runStart);
+                    if (c == '"') {
+                        writer.write("\\\"");
+                    } else if (c == '\\') {
+                        writer.write("\\\\");
+                    } else if (c == '\n') {
+                        writer.write("\\n");
+                    } else if (c == '\r') {
+                        writer.write("\\r");
+                    } else if (c == '\t') {
+                        writer.write("\\t");
+                    } else {
+                        writer.write("\\u");
+                        String hex = Integer.toHexString(c);
+                        for (int j = hex.length(); j < 4; j++) {
+                            writer.write('0');
+                        }
+                        writer.write(hex);
+                    }
+                    runStart = i + 1;
+                }
+            }
+            writer.write(value, runStart, value.length() - runStart);
+            writer.write('"');
+        }
+
+        /*
+         * Writes the specified IDs as a bracketed, comma-separated list of
+         * quoted strings.
+         */
+        protected void quoteList(List<String> IDs) throws IOException {
+            writer.write('[');
+            for (int i = 0; i < IDs.size(); i++) {
+                if (i > 0) {
+                    writer.write(", ");
+                }
+                quote(IDs.get(i));
+            }
+            writer.write(']');
+        }
+    }
+
+    /**
+     * This class writes the inventory as YAML: each section is a block
+     * sequence of mappings, and each reference list a flow sequence of IDs.
+     */
+    private static class YamlEmitter extends Emitter {
+
+        /**
+         * Depth at which the next mapping key is written.
+         */
+        private int depth = 0;
+
+        /**
+         * True right after a sequence entry's "- ", where the entry's first
+         * key goes on the same line.
+         */
+        private boolean entryStart = false;
+
+        YamlEmitter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void startDocument() throws IOException {
+            writer.write("---\n");
+        }
+
+        @Override
+        void startList(String name) throws IOException {
+            key(name);
+            push();
+        }
+
+        @Override
+        void startObject() throws IOException {
+            if (empty[level]) {
+                writer.write('\n');
+                empty[level] = false;
+            }
+            indent(depth + 1);
+            writer.write("- ");
+            depth += 2;
+            entryStart = true;
+        }
+
+        @Override
+        void field(String name, String value) throws IOException {
+            key(name);
+            writer.write(' ');
+            quote(value);
+            writer.write('\n');
+        }
+
+        @Override
+        void referenceList(String name, List<String> IDs) throws IOException {
+            key(name);
+            writer.write(' ');
+            quoteList(IDs);
+            writer.write('\n');
+        }
+
+        @Override
+        void endObject() throws IOException {
+            if (entryStart) {
+                writer.write("{}\n");
+                entryStart = false;
+            }
+            depth -= 2;
+        }
+
+        @Override
+        void endList() throws IOException {
+            if (pop()) {
+                writer.write(" []\n");
+            }
+        }
+
+        @Override
+        void endDocument() throws IOException {
+        }
+
+        /*
+         * Writes the specified mapping key and its colon.
+         */
+        private void key(String name) throws IOException {
+            if (entryStart) {
+                entryStart = false;
+            } else {
+                indent(depth);
+            }
+            writer.write(name);
+            writer.write(':');
+        }
+    }
+
+    /**
+     * This class writes the inventory as a single JSON object holding one
+     * array per section.
+     */
+    private static class JsonEmitter extends Emitter {
+
+        JsonEmitter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void startDocument() throws IOException {
+            writer.write('{');
+            empty[level] = true;
+        }
+
+        @Override
+        void startList(String name) throws IOException {
+            key(name);
+            writer.write('[');
+            push();
+        }
+
+        @Override
+        void startObject() throws IOException {
+            separator();
+            writer.write('{');
+            push();
+        }
+
+        @Override
+        void field(String name, String value) throws IOException {
+            key(name);
+            quote(value);
+        }
+
+        @Override
+        void referenceList(String name, List<String> IDs) throws IOException {
+            key(name);
+            quoteList(IDs);
+        }
+
+        @Override
+        void endObject() throws IOException {
+            close('}');
+        }
+
+        @Override
+        void endList() throws IOException {
+            close(']');
+        }
+
+        @Override
+        void endDocument() throws IOException {
+            if (!empty[level]) {
+                writer.write('\n');
+            }
+            writer.write("}\n");
+        }
+
+        /*
+         * Writes the separator and indentation preceding a new entry at the
+         * current level.
+         */
+        private void separator() throws IOException {
+            if (empty[level]) {
+                empty[level] = false;
+            } else {
+                writer.write(',');
+            }
+            writer.write('\n');
+            indent(level + 1);
+        }
+
+        /*
+         * Writes the specified object key and its colon.
+         */
+        private void key(String name) throws IOException {
+            separator();
+            writer.write('"');
+            writer.write(name);
+            writer.write("\": ");
+        }
+
+        /*
+         * Closes the current level with the specified bracket.
+         */
+        private void close(char bracket) throws IOException {
+            if (!pop()) {
+                writer.write('\n');
+                indent(level + 1);
+            }
+            writer.write(bracket);
+        }
+    }
+}
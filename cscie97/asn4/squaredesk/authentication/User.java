@@ -13,20 +13,37 @@
 package cscie97.asn4.squaredesk.authentication;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is used to describe an AuthService user, including his/her name,
  * user ID, credentials and entitlements (permissions and roles).
  *
+ * Credentials, access tokens and effective permissions are read by login and
+ * checkAccess without locking, so they are held in concurrent collections and
+ * the effective permission bitset is replaced, never modified, once published.
+ *
  * @author Roland L. Galibert
  * @version 1.0
  */
 public class User implements AuthServiceVisitorElement {
 
+    /**
+     * Maximum number of access tokens (most recent first) retained in each
+     * User's access token history.
+     */
+    public static final int ACCESS_TOKEN_HISTORY_SIZE = 10;
+
     /**
      * User's name.
      */
-    private String userName;
+    private volatile String userName;
     
     /**
      * User's ID (immutable after initial creation).
@@ -36,12 +53,20 @@ public class User implements AuthServiceVisitorElement {
     /**
      * List of credentials (login ID/password) associated with given User.
      */
-    private ArrayList<Credential> credentials = new ArrayList<>();
+    private CopyOnWriteArrayList<Credential> credentials = new CopyOnWriteArrayList<>();
+
+    /**
+     * Case-folded login ID-to-Credential map (same credentials as above,
+     * indexed for constant-time lookup; sized for the usual one or two
+     * credentials).
+     */
+    private ConcurrentHashMap<String, Credential> credentialMap = new ConcurrentHashMap<>(2);
     
     /**
-     * List of permissions (to restricted methods) associated with given User.
+     * Permissions (to restricted methods) associated with given User, stored as a bitset of the
+     * ordinals assigned by the PermissionRegistry.
      */
-    private ArrayList<String> permissions = new ArrayList<>();
+    private BitSet permissions = new BitSet();
 
     /**
      * List of roles associated with given User.
@@ -49,10 +74,37 @@ public class User implements AuthServiceVisitorElement {
     private ArrayList<String> roles = new ArrayList<>();
     
     /**
-     * List of all access tokens (active as well as expired) associated with 
-     * given User.
+     * History of the most recent access tokens (active as well as expired)
+     * associated with given User, oldest first.
+     */
+    private ConcurrentLinkedDeque<AccessToken> accessTokens = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Number of access tokens in the access token history (kept separately
+     * since ConcurrentLinkedDeque.size() is not a constant-time operation).
      */
-    private ArrayList<AccessToken> accessTokens = new ArrayList<>();
+    private AtomicInteger accessTokenCount = new AtomicInteger();
+
+    /**
+     * Effective permissions of given User (permissions granted directly as
+     * well as through roles and subroles), stored as a bitset indexed by the
+     * permission ordinals assigned by the PermissionRegistry.
+     */
+    private volatile BitSet effectivePermissions = new BitSet();
+
+    /**
+     * Access token epoch of given User. Signed access tokens carry the epoch
+     * current when they were issued, and are rejected once it has moved on,
+     * so incrementing it revokes every outstanding signed token of the User.
+     */
+    private AtomicLong accessTokenEpoch = new AtomicLong();
+
+    /**
+     * Permission epoch of given User, incremented every time a new effective
+     * permission bitset is published, so that cached authorization decisions
+     * can tell whether they are still current.
+     */
+    private AtomicLong permissionEpoch = new AtomicLong();
 
     /**
      * Constructor.
@@ -100,20 +152,7 @@ public class User implements AuthServiceVisitorElement {
      * @return Credential associated with loginID input (null if none exists).
      */
     public Credential getCredential(String loginID) {
-        boolean credentialFound = false;
-        int i = 0;
-        while (!credentialFound && i < credentials.size()) {
-            if (credentials.get(i).getLoginID().equalsIgnoreCase(loginID)) {
-                credentialFound = true;
-            } else {
-                i++;
-            }
-        }
-        if (credentialFound) {
-            return credentials.get(i);
-        } else {
-            return null;
-        }
+        return (loginID == null) ? null : credentialMap.get(Credential.foldLoginID(loginID));
     }
     
     /**
@@ -122,7 +161,7 @@ public class User implements AuthServiceVisitorElement {
      * 
      * @return List of User's credentials.
      */
-    public ArrayList<Credential> getCredentials() {
+    public List<Credential> getCredentials() {
         return credentials;
     }
 
@@ -133,8 +172,21 @@ public class User implements AuthServiceVisitorElement {
      * @param password Password for new credential
      */
     public void addCredential(String loginID, String password) {
+        addCredential(loginID, PasswordHash.sha1(password));
+    }
+
+    /**
+     * Creates and adds a credential with an already hashed password to the
+     * User's list of credentials.
+     * 
+     * @param loginID Login ID for new credential.
+     * @param passwordHash Password hash for new credential.
+     */
+    void addCredential(String loginID, PasswordHash passwordHash) {
         if (!credentialExists(loginID)) {
-            credentials.add(new Credential(loginID, password));
+            Credential credential = new Credential(loginID, passwordHash);
+            credentials.add(credential);
+            credentialMap.put(Credential.foldLoginID(loginID), credential);
         }
     }
 
@@ -144,15 +196,10 @@ public class User implements AuthServiceVisitorElement {
      * @param loginID Login ID of credential to remove.
      */
     public void removeCredential(String loginID) {
-        boolean credentialFound = false;
-        int i = 0;
-        while (!credentialFound && i < credentials.size()) {
-            if (credentials.get(i).getLoginID().equalsIgnoreCase(loginID)) {
-                credentials.remove(i);
-                credentialFound = true;
-            } else {
-                i++;
-            }
+        Credential credential = getCredential(loginID);
+        if (credential != null) {
+            credentialMap.remove(Credential.foldLoginID(loginID));
+            credentials.remove(credential);
         }
     }
 
@@ -163,16 +210,7 @@ public class User implements AuthServiceVisitorElement {
      * @return True if such a credential exists, false otherwise.
      */
     public boolean credentialExists(String loginID) {
-        boolean credentialFound = false;
-        int i = 0;
-        while (!credentialFound && i < credentials.size()) {
-            if (credentials.get(i).getLoginID().equalsIgnoreCase(loginID)) {
-                credentialFound = true;
-            } else {
-                i++;
-            }
-        }
-        return credentialFound;
+        return getCredential(loginID) != null;
     }
     
     /**
@@ -182,27 +220,34 @@ public class User implements AuthServiceVisitorElement {
      * @param newPassword New password for this credential.
      */
     public void changePassword(String loginID, String newPassword) {
-        boolean credentialFound = false;
-        int i = 0;
-        while (!credentialFound && i < credentials.size()) {
-            if (credentials.get(i).getLoginID().equalsIgnoreCase(loginID)) {
-                credentialFound = true;
-            } else {
-                i++;
-            }
+        Credential credential = getCredential(loginID);
+        if (credential != null) {
+            credential.setPasswordMessageDigest(newPassword);
         }
-        if (credentialFound) {
-            credentials.get(i).setPasswordMessageDigest(newPassword);
+    }
+
+    /**
+     * Updates the credential associated with the specified login ID with an
+     * already hashed new password.
+     * 
+     * @param loginID Login ID of desired credential.
+     * @param newPasswordHash Hash of the new password for this credential.
+     */
+    void changePassword(String loginID, PasswordHash newPasswordHash) {
+        Credential credential = getCredential(loginID);
+        if (credential != null) {
+            credential.setPasswordHash(newPasswordHash);
         }
     }
 
     /**
      * Returns permissions associated with this User.
      * 
-     * @return List of permissions.
+     * @return List of permissions (a new list; use addPermission and
+     * removePermission to make changes).
      */
     public ArrayList<String> getPermissions() {
-        return permissions;
+        return PermissionRegistry.getInstance().toPermissionIDs(permissions);
     }
 
     /**
@@ -211,7 +256,7 @@ public class User implements AuthServiceVisitorElement {
      * @param permissionID ID of permission being added.
      */
     public void addPermission(String permissionID) {
-        permissions.add(permissionID);
+        permissions.set(PermissionRegistry.getInstance().intern(permissionID));
     }
 
     /**
@@ -220,7 +265,41 @@ public class User implements AuthServiceVisitorElement {
      * @param permissionID ID of permission being removed.
      */
     public void removePermission(String permissionID) {
-        permissions.remove(permissionID);
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        if (permissionOrdinal >= 0) {
+            permissions.clear(permissionOrdinal);
+        }
+    }
+
+    /**
+     * Returns true if the specified permission is associated with this User.
+     * 
+     * @param permissionID ID of permission to look for.
+     * @return True if the permission is present.
+     */
+    public boolean hasPermission(String permissionID) {
+        int permissionOrdinal = PermissionRegistry.getInstance().getOrdinal(permissionID);
+        return (permissionOrdinal >= 0) && permissions.get(permissionOrdinal);
+    }
+
+    /**
+     * Returns a copy of the bitset of permission ordinals associated with
+     * this User.
+     * 
+     * @return Bitset of permission ordinals.
+     */
+    public BitSet getPermissionOrdinals() {
+        return (BitSet) permissions.clone();
+    }
+
+    /**
+     * Replaces the bitset of permission ordinals associated with this User
+     * (used when restoring a snapshot).
+     * 
+     * @param permissionOrdinals Bitset of permission ordinals.
+     */
+    void setPermissionOrdinals(BitSet permissionOrdinals) {
+        permissions = permissionOrdinals;
     }
     
     /**
@@ -251,21 +330,100 @@ public class User implements AuthServiceVisitorElement {
     }
 
     /**
-     * Returns access tokens associated with this User.
+     * Returns a snapshot of the access tokens associated with this User.
      * 
      * @return List of User's access tokens.
      */
     public ArrayList<AccessToken> getAccessTokens() {
-        return accessTokens;
+        return new ArrayList<>(accessTokens);
     }
 
     /**
-     * Adds the specified access token to the User's list of access tokens.
+     * Adds the specified access token to the User's access token history,
+     * discarding the oldest tokens once the history exceeds
+     * ACCESS_TOKEN_HISTORY_SIZE tokens.
      * 
      * @param accessToken New User access token.
      */
     public void addAccessToken(AccessToken accessToken) {
         accessTokens.add(accessToken);
+        if (accessTokenCount.incrementAndGet() > ACCESS_TOKEN_HISTORY_SIZE) {
+            if (accessTokens.pollFirst() != null) {
+                accessTokenCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the effective permission bitset associated with this User. The
+     * returned bitset may be shared with concurrent readers and must not be
+     * modified; use setEffectivePermissions to publish a new one.
+     * 
+     * @return Bitset of effective permission ordinals.
+     */
+    public BitSet getEffectivePermissions() {
+        return effectivePermissions;
+    }
+
+    /**
+     * Replaces the effective permission bitset associated with this User and
+     * increments the User's permission epoch. The bitset is published before
+     * the epoch moves on, so a reader that sees the new epoch also sees the
+     * new bitset.
+     * 
+     * @param effectivePermissions New bitset of effective permission ordinals.
+     */
+    public void setEffectivePermissions(BitSet effectivePermissions) {
+        this.effectivePermissions = effectivePermissions;
+        permissionEpoch.incrementAndGet();
+    }
+
+    /**
+     * Returns the current permission epoch of this User. Read it before
+     * reading the effective permissions it is meant to describe.
+     * 
+     * @return Permission epoch.
+     */
+    public long getPermissionEpoch() {
+        return permissionEpoch.get();
+    }
+
+    /**
+     * Returns true if this User effectively holds the permission with the
+     * specified ordinal.
+     * 
+     * @param permissionOrdinal Ordinal of permission to check.
+     * @return True if User holds the permission, false otherwise.
+     */
+    public boolean hasEffectivePermission(int permissionOrdinal) {
+        return effectivePermissions.get(permissionOrdinal);
+    }
+
+    /**
+     * Returns the current access token epoch of this User.
+     * 
+     * @return Access token epoch.
+     */
+    public long getAccessTokenEpoch() {
+        return accessTokenEpoch.get();
+    }
+
+    /**
+     * Increments the access token epoch of this User, invalidating every
+     * signed access token issued to the User so far.
+     */
+    public void incrementAccessTokenEpoch() {
+        accessTokenEpoch.incrementAndGet();
+    }
+
+    /**
+     * Sets the access token epoch of this User (used when restoring a
+     * snapshot).
+     * 
+     * @param epoch Access token epoch.
+     */
+    void setAccessTokenEpoch(long epoch) {
+        accessTokenEpoch.set(epoch);
     }
 
     /**
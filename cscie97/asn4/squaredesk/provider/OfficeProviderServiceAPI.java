@@ -36,6 +36,19 @@ import java.util.*;
  */
 public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
 
+    /**
+     * Permissions required by validOfficeSpace (its own permission first,
+     * followed by those of the component validations it performs).
+     */
+    private static final String[] VALID_OFFICE_SPACE_PERMISSIONS = {"valid_office_space",
+        "valid_office_space_location", "valid_office_space_capacity",
+        "valid_office_space_facility", "valid_office_space_rates"};
+    /**
+     * Permissions required by validProvider (its own permission first).
+     */
+    private static final String[] VALID_PROVIDER_PERMISSIONS = {"valid_provider",
+        "valid_provider_ratings"};
+
     /**
      * Map of active Provider objects (Provider UUID to Provider object).
      */
@@ -419,16 +432,28 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             if (provider == null) {
                 throw new ProviderNotFoundException();
             } else {
-                List<Rating> providerRatings = provider.getRatings();
-                for (int i = 0; i < providerRatings.size(); i++) {
-                    if (!((providerRatings.get(i).getRating() >= 0)
-                            && (providerRatings.get(i).getRating() <= 5))) {
-                        throw new BadRatingException();
-                    }
-                }
+                return checkProviderRatings(provider);
+            }
+        }
+    }
+
+    /**
+     * Validates the Ratings of the specified Provider (the caller is
+     * responsible for authorization).
+     *
+     * @param provider Provider to validate.
+     * @return True if Provider ratings pass validation.
+     * @throws BadRatingException
+     */
+    private boolean checkProviderRatings(Provider provider) throws BadRatingException {
+        List<Rating> providerRatings = provider.getRatings();
+        for (int i = 0; i < providerRatings.size(); i++) {
+            if (!((providerRatings.get(i).getRating() >= 0)
+                    && (providerRatings.get(i).getRating() <= 5))) {
+                throw new BadRatingException();
             }
-            return true;
         }
+        return true;
     }
 
     /**
@@ -446,15 +471,19 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             ProviderNotFoundException, InvalidAccessTokenException, UnauthorizedAccessException {
         if (!validAccessToken(authToken)) {
             throw new InvalidAccessTokenException();
-        } else if (!authService.checkAccess("valid_provider", authToken)) {
+        }
+        long grantedMask = authService.checkAccessMask(VALID_PROVIDER_PERMISSIONS, authToken);
+        if ((grantedMask & 1L) == 0) {
             throw new UnauthorizedAccessException();
         } else {
             Provider provider = providerUUIDMap.get(providerID);
             if (provider == null) {
                 throw new ProviderNotFoundException();
+            } else if (grantedMask != ((1L << VALID_PROVIDER_PERMISSIONS.length) - 1)) {
+                throw new UnauthorizedAccessException();
             } else {
                 try {
-                    validProviderRatings(authToken, providerID);
+                    checkProviderRatings(provider);
                     return true;
                 } catch (BadRatingException bre) {
                     System.out.println("A bad Provider rating has been entered (rating must be between 0 to 5).");
@@ -1697,24 +1726,37 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             if (officeSpace == null) {
                 throw new OfficeSpaceNotFoundException();
             } else {
-                if (officeSpace.getLocation().getStreet1().isEmpty()) {
-                    System.out.println("Office space location error - Street1 cannot be blank.");
-                    throw new BadOfficeSpaceLocationException("Office space location error - Street1 cannot be blank.");
-                } else if (officeSpace.getLocation().getCity().isEmpty()) {
-                    System.out.println("Office space location error - City cannot be blank.");
-                    throw new BadOfficeSpaceLocationException("Office space location error - City cannot be blank.");
-                } else if (officeSpace.getLocation().getCountry().isEmpty()) {
-                    System.out.println("Office space location error - Country cannot be blank.");
-                    throw new BadOfficeSpaceLocationException("Office space location error - Country cannot be blank.");
-                } else if (!ISOCountries.contains(officeSpace.getLocation().getCountry())) {
-                    System.out.println("Office space location error - Illegal country specified (country must be in ISO format).");
-                    throw new BadOfficeSpaceLocationException("Office space location error - Illegal country specified (country must be in ISO format).");
-                }
-                return true;
+                return checkOfficeSpaceLocation(officeSpace);
             }
         }
     }
 
+    /**
+     * Validates the Location information of the specified OfficeSpace (the
+     * caller is responsible for authorization).
+     *
+     * @param officeSpace OfficeSpace to validate.
+     * @return True if OfficeSpace Location information passes validation.
+     * @throws BadOfficeSpaceLocationException
+     */
+    private boolean checkOfficeSpaceLocation(OfficeSpace officeSpace)
+            throws BadOfficeSpaceLocationException {
+        if (officeSpace.getLocation().getStreet1().isEmpty()) {
+            System.out.println("Office space location error - Street1 cannot be blank.");
+            throw new BadOfficeSpaceLocationException("Office space location error - Street1 cannot be blank.");
+        } else if (officeSpace.getLocation().getCity().isEmpty()) {
+            System.out.println("Office space location error - City cannot be blank.");
+            throw new BadOfficeSpaceLocationException("Office space location error - City cannot be blank.");
+        } else if (officeSpace.getLocation().getCountry().isEmpty()) {
+            System.out.println("Office space location error - Country cannot be blank.");
+            throw new BadOfficeSpaceLocationException("Office space location error - Country cannot be blank.");
+        } else if (!ISOCountries.contains(officeSpace.getLocation().getCountry())) {
+            System.out.println("Office space location error - Illegal country specified (country must be in ISO format).");
+            throw new BadOfficeSpaceLocationException("Office space location error - Illegal country specified (country must be in ISO format).");
+        }
+        return true;
+    }
+
     /**
      * Returns true if Capacity information for specified OfficeSpace meets
      * specifications, false otherwise.
@@ -1739,18 +1781,31 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             if (officeSpace == null) {
                 throw new OfficeSpaceNotFoundException();
             } else {
-                if (officeSpace.getCapacity().getMaxOccupants() < 1) {
-                    System.out.println("Office space capacity error - maximum # of occupants must be greater than 0.");
-                    throw new BadOfficeSpaceCapacityException("Office space capacity error - maximum # of occupants must be greater than 0.");
-                } else if (officeSpace.getCapacity().getWorkspaces() < 1) {
-                    System.out.println("Office space capacity error - # of available workspaces must be greater than 0.");
-                    throw new BadOfficeSpaceCapacityException("Office space capacity error - # of available workspaces must be greater than 0.");
-                }
-                return true;
+                return checkOfficeSpaceCapacity(officeSpace);
             }
         }
     }
 
+    /**
+     * Validates the Capacity information of the specified OfficeSpace (the
+     * caller is responsible for authorization).
+     *
+     * @param officeSpace OfficeSpace to validate.
+     * @return True if OfficeSpace Capacity information passes validation.
+     * @throws BadOfficeSpaceCapacityException
+     */
+    private boolean checkOfficeSpaceCapacity(OfficeSpace officeSpace)
+            throws BadOfficeSpaceCapacityException {
+        if (officeSpace.getCapacity().getMaxOccupants() < 1) {
+            System.out.println("Office space capacity error - maximum # of occupants must be greater than 0.");
+            throw new BadOfficeSpaceCapacityException("Office space capacity error - maximum # of occupants must be greater than 0.");
+        } else if (officeSpace.getCapacity().getWorkspaces() < 1) {
+            System.out.println("Office space capacity error - # of available workspaces must be greater than 0.");
+            throw new BadOfficeSpaceCapacityException("Office space capacity error - # of available workspaces must be greater than 0.");
+        }
+        return true;
+    }
+
     /**
      * Returns true if FacilityType/FacilitySubtype information for specified
      * OfficeSpace meets specifications, false otherwise.
@@ -1775,17 +1830,31 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             if (officeSpace == null) {
                 throw new OfficeSpaceNotFoundException();
             } else {
-                if (officeSpace.getFacilityType().equalsIgnoreCase("Home")
-                        && officeSpace.getFacilitySubtype().isEmpty()) {
-                    System.out.println("Office space facility subtype cannot be blank if facility type = 'Home'.");
-                    throw new OfficeSpaceFacilityException("Office space facility subtype cannot be blank if facility type = 'Home'.");
-                } else {
-                    return true;
-                }
+                return checkOfficeSpaceFacility(officeSpace);
             }
         }
     }
 
+    /**
+     * Validates the FacilityType/FacilitySubtype information of the specified
+     * OfficeSpace (the caller is responsible for authorization).
+     *
+     * @param officeSpace OfficeSpace to validate.
+     * @return True if OfficeSpace FacilityType/FacilitySubtype information
+     * passes validation.
+     * @throws OfficeSpaceFacilityException
+     */
+    private boolean checkOfficeSpaceFacility(OfficeSpace officeSpace)
+            throws OfficeSpaceFacilityException {
+        if (officeSpace.getFacilityType().equalsIgnoreCase("Home")
+                && officeSpace.getFacilitySubtype().isEmpty()) {
+            System.out.println("Office space facility subtype cannot be blank if facility type = 'Home'.");
+            throw new OfficeSpaceFacilityException("Office space facility subtype cannot be blank if facility type = 'Home'.");
+        } else {
+            return true;
+        }
+    }
+
     /**
      * Returns true if Rate information for specified OfficeSpace meets
      * specifications, false otherwise.
@@ -1810,16 +1879,29 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             if (officeSpace == null) {
                 throw new OfficeSpaceNotFoundException();
             } else {
-                if (officeSpace.getRateCount() < 1) {
-                    System.out.println("At least one rate must be entered for an office space");
-                    throw new OfficeSpaceRateException("At least one rate must be entered for an office space");
-                } else {
-                    return true;
-                }
+                return checkOfficeSpaceRates(officeSpace);
             }
         }
     }
 
+    /**
+     * Validates the Rate information of the specified OfficeSpace (the caller
+     * is responsible for authorization).
+     *
+     * @param officeSpace OfficeSpace to validate.
+     * @return True if OfficeSpace Rate information passes validation.
+     * @throws OfficeSpaceRateException
+     */
+    private boolean checkOfficeSpaceRates(OfficeSpace officeSpace)
+            throws OfficeSpaceRateException {
+        if (officeSpace.getRateCount() < 1) {
+            System.out.println("At least one rate must be entered for an office space");
+            throw new OfficeSpaceRateException("At least one rate must be entered for an office space");
+        } else {
+            return true;
+        }
+    }
+
     /**
      * Returns true if overall properties for specified OfficeSpace meet
      * specifications, false otherwise.
@@ -1835,18 +1917,27 @@ public class OfficeProviderServiceAPI implements ProviderAPI, OfficeSpaceAPI {
             throws OfficeSpaceNotFoundException, InvalidAccessTokenException, UnauthorizedAccessException {
         if (!validAccessToken(authToken)) {
             throw new InvalidAccessTokenException();
-        } else if (!authService.checkAccess("valid_office_space", authToken)) {
+        }
+
+        /*
+         * Authorize the overall check and its four component checks with a
+         * single token resolution.
+         */
+        long grantedMask = authService.checkAccessMask(VALID_OFFICE_SPACE_PERMISSIONS, authToken);
+        if ((grantedMask & 1L) == 0) {
             throw new UnauthorizedAccessException();
         } else {
             OfficeSpace officeSpace = officeSpaceMap.get(officeSpaceID);
             if (officeSpace == null) {
                 throw new OfficeSpaceNotFoundException();
+            } else if (grantedMask != ((1L << VALID_OFFICE_SPACE_PERMISSIONS.length) - 1)) {
+                throw new UnauthorizedAccessException();
             } else {
                 try {
-                    validOfficeSpaceLocation(authToken, officeSpaceID);
-                    validOfficeSpaceCapacity(authToken, officeSpaceID);
-                    validOfficeSpaceFacility(authToken, officeSpaceID);
-                    validOfficeSpaceRates(authToken, officeSpaceID);
+                    checkOfficeSpaceLocation(officeSpace);
+                    checkOfficeSpaceCapacity(officeSpace);
+                    checkOfficeSpaceFacility(officeSpace);
+                    checkOfficeSpaceRates(officeSpace);
                     return true;
                 } catch (BadOfficeSpaceLocationException bosle) {
                     return false;
@@ -22,6 +22,8 @@ import cscie97.asn4.squaredesk.authentication.UnauthorizedAccessException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -88,6 +90,11 @@ public class SearchEngine {
      */
     private static final String AVERAGE_RATING_PREDICATE = "has_average_rating";
 
+    /**
+     * Named variable standing for the OfficeSpace ID in search queries.
+     */
+    private static final String OFFICE_SPACE_VARIABLE = "?office_space";
+
     /**
      * SearchEngineHolder is loaded on the first execution of
      * SearchEngine.getInstance() or the first access to
@@ -132,41 +139,24 @@ public class SearchEngine {
         HashSet<UUID> intermediateResults;
 
         /*
-         * Search for features and use set intersection so finalResults only
-         * contains OfficeSpace objects that contain given RenterCriteria features.
-         */
-        if (criteria.getFeatures().size() > 0) {
-            for (int i = 0; i < criteria.getFeatures().size(); i++) {
-                String feature = criteria.getFeatures().get(i).replaceAll(" ", "_");
-                searchTriple = knowledgeGraph.getTriple(knowledgeGraph.getNode("?"),
-                        knowledgeGraph.getPredicate(FEATURE_PREDICATE),
-                        knowledgeGraph.getNode(feature));
-                intermediateResults = tripleSetOfficeSpaces((HashSet<Triple>) knowledgeGraph.executeQuery(searchTriple));
-                finalResults.retainAll(intermediateResults);
-            }
-        }
-
-        /*
-         * Search for location and use set intersection so finalResults only
-         * contains OfficeSpace objects that contain given RenterCriteria location.
+         * Search for features, location and facility type (and type category
+         * if applicable) as one conjunctive KnowledgeGraph query, whose
+         * patterns share the office space variable, so that the
+         * KnowledgeGraph joins them over its indexes starting from the most
+         * selective one, and use set intersection so finalResults only
+         * contains OfficeSpace objects that match all of them.
          * 
          * Format latitude, longitude per requirements.
          */
+        ArrayList<Triple> searchPatterns = new ArrayList<Triple>();
+        for (int i = 0; i < criteria.getFeatures().size(); i++) {
+            String feature = criteria.getFeatures().get(i).replaceAll(" ", "_");
+            searchPatterns.add(knowledgeGraph.getQueryTriple(OFFICE_SPACE_VARIABLE, FEATURE_PREDICATE, feature));
+        }
         int latitude = (int) Math.floor(criteria.getLocationLatitude());
         int longitude = (int) Math.floor(criteria.getLocationLongitude());
         queryObject = latitude + "_" + longitude;
-        searchTriple = knowledgeGraph.getTriple(knowledgeGraph.getNode("?"),
-                knowledgeGraph.getPredicate(LOCATION_PREDICATE),
-                knowledgeGraph.getNode(queryObject));
-        intermediateResults = tripleSetOfficeSpaces((HashSet<Triple>) knowledgeGraph.executeQuery(searchTriple));
-        finalResults.retainAll(intermediateResults);
-
-
-        /*
-         * Search for facility type (and type category if applicable) and use
-         * set intersection so finalResults only contains OfficeSpace objects 
-         * that contain given RenterCriteria facilityType/facilitySubtype.
-         */
+        searchPatterns.add(knowledgeGraph.getQueryTriple(OFFICE_SPACE_VARIABLE, LOCATION_PREDICATE, queryObject));
         if (!criteria.getFacilityType().isEmpty()) {
             if (!criteria.getFacilitySubtype().isEmpty()) {
                 queryObject = criteria.getFacilityType().replaceAll(" ", "_") + "_"
@@ -174,12 +164,9 @@ public class SearchEngine {
             } else {
                 queryObject = criteria.getFacilityType().replaceAll(" ", "_");
             }
-            searchTriple = knowledgeGraph.getTriple(knowledgeGraph.getNode("?"),
-                    knowledgeGraph.getPredicate(FACILITY_TYPE_PREDICATE),
-                    knowledgeGraph.getNode(queryObject));
-            intermediateResults = tripleSetOfficeSpaces((HashSet<Triple>) knowledgeGraph.executeQuery(searchTriple));
-            finalResults.retainAll(intermediateResults);
+            searchPatterns.add(knowledgeGraph.getQueryTriple(OFFICE_SPACE_VARIABLE, FACILITY_TYPE_PREDICATE, queryObject));
         }
+        finalResults.retainAll(solutionOfficeSpaces(knowledgeGraph.executeQuery(searchPatterns)));
 
         /*
          * Search for minimum average rating and use
@@ -188,15 +175,11 @@ public class SearchEngine {
          */
         if (criteria.getMinimumRating() > -1) {
             queryObject = Integer.toString(criteria.getMinimumRating());
-            searchTriple = knowledgeGraph.getTriple(knowledgeGraph.getNode("?"),
-                    knowledgeGraph.getPredicate(AVERAGE_RATING_PREDICATE),
-                    knowledgeGraph.getNode(queryObject));
+            searchTriple = knowledgeGraph.getQueryTriple("?", AVERAGE_RATING_PREDICATE, queryObject);
             intermediateResults = tripleSetOfficeSpaces((HashSet<Triple>) knowledgeGraph.executeQuery(searchTriple));
             for (int i = criteria.getMinimumRating() + 1; i <= Rating.MAXIMUM_RATING; i++) {
                 queryObject = Integer.toString(i);
-                searchTriple = knowledgeGraph.getTriple(knowledgeGraph.getNode("?"),
-                        knowledgeGraph.getPredicate(AVERAGE_RATING_PREDICATE),
-                        knowledgeGraph.getNode(queryObject));
+                searchTriple = knowledgeGraph.getQueryTriple("?", AVERAGE_RATING_PREDICATE, queryObject);
                 intermediateResults.addAll(tripleSetOfficeSpaces((HashSet<Triple>) knowledgeGraph.executeQuery(searchTriple)));
             }
             finalResults.retainAll(intermediateResults);
@@ -204,16 +187,39 @@ public class SearchEngine {
         return new ArrayList<UUID>(finalResults);
     }
 
+    /**
+     * Extracts OfficeSpace IDs from the specified conjunctive query solutions
+     * and returns these IDs as a HashSet.
+     * 
+     * @param solutions Solutions binding OFFICE_SPACE_VARIABLE to OfficeSpace
+     * IDs (null if there is no solution).
+     * @return Set of OfficeSpace UUIDs in specified solutions.
+     */
+    private HashSet<UUID> solutionOfficeSpaces(List<Map<String, String>> solutions) {
+        HashSet<UUID> officeSpaces = new HashSet<UUID>();
+        if (solutions == null) {
+            return officeSpaces;
+        }
+        for (int i = 0; i < solutions.size(); i++) {
+            officeSpaces.add(UUID.fromString(solutions.get(i).get(OFFICE_SPACE_VARIABLE)));
+        }
+        return officeSpaces;
+    }
+
     /**
      * Extracts OfficeSpace IDs from the specified Triple set and returns
      * these IDs as a HashSet.
      * 
      * @param triples Triples in form <officeSpace ID> <has_criteria> <criteria>
+     * (null if no triple matched).
      * @return Set of OfficeSpace UUIDs in specified Triple set.
      */
     private HashSet<UUID> tripleSetOfficeSpaces(HashSet<Triple> triples) {
-        Iterator<Triple> iterator = triples.iterator();
         HashSet<UUID> officeSpaces = new HashSet<UUID>();
+        if (triples == null) {
+            return officeSpaces;
+        }
+        Iterator<Triple> iterator = triples.iterator();
         while (iterator.hasNext()) {
             Triple currentTriple = iterator.next();
             officeSpaces.add(UUID.fromString(currentTriple.getSubject().getIdentifier()));
@@ -36,6 +36,13 @@ import java.util.UUID;
  */
 public class UserAPI {
 
+    /**
+     * Permissions required by validUser (its own permission first, followed
+     * by those of the component validations it performs).
+     */
+    private static final String[] VALID_USER_PERMISSIONS = {"valid_squaredesk_user",
+        "valid_squaredesk_user_contact_info", "valid_squaredesk_user_account"};
+
     /**
      * Map of active User objects (User UUID to User object).
      */
@@ -756,14 +763,26 @@ public class UserAPI {
             if (user == null) {
                 throw new UserNotFoundException();
             } else {
-                if (user.getContactInfoCount() < 1) {
-                    throw new UserContactInfoNotFoundException();
-                }
+                return checkUserContactInfo(user);
             }
-            return true;
         }
     }
 
+    /**
+     * Validates the contact info of the specified User (the caller is
+     * responsible for authorization).
+     *
+     * @param user User to validate.
+     * @return True if User contact info passes validation.
+     * @throws UserContactInfoNotFoundException
+     */
+    private boolean checkUserContactInfo(User user) throws UserContactInfoNotFoundException {
+        if (user.getContactInfoCount() < 1) {
+            throw new UserContactInfoNotFoundException();
+        }
+        return true;
+    }
+
     /**
      * Returns true if account information for specified User meets
      * specifications, false otherwise.
@@ -792,14 +811,26 @@ public class UserAPI {
             if (user == null) {
                 throw new UserNotFoundException();
             } else {
-                if (user.getAccount().isEmpty()) {
-                    throw new UserAccountNotFoundException();
-                }
+                return checkUserAccount(user);
             }
-            return true;
         }
     }
 
+    /**
+     * Validates the account information of the specified User (the caller is
+     * responsible for authorization).
+     *
+     * @param user User to validate.
+     * @return True if User account information passes validation.
+     * @throws UserAccountNotFoundException
+     */
+    private boolean checkUserAccount(User user) throws UserAccountNotFoundException {
+        if (user.getAccount().isEmpty()) {
+            throw new UserAccountNotFoundException();
+        }
+        return true;
+    }
+
     /**
      * Returns true if all specified User properties meets specifications, false
      * otherwise.
@@ -814,16 +845,25 @@ public class UserAPI {
             UserNotFoundException, InvalidAccessTokenException, UnauthorizedAccessException {
         if (!validAccessToken(authToken)) {
             throw new InvalidAccessTokenException();
-        } else if (!authService.checkAccess("valid_squaredesk_user", authToken)) {
+        }
+
+        /*
+         * Authorize the overall check and its component checks with a single
+         * token resolution.
+         */
+        long grantedMask = authService.checkAccessMask(VALID_USER_PERMISSIONS, authToken);
+        if ((grantedMask & 1L) == 0) {
             throw new UnauthorizedAccessException();
         } else {
             User user = userUUIDMap.get(userID);
             if (user == null) {
                 throw new UserNotFoundException();
+            } else if (grantedMask != ((1L << VALID_USER_PERMISSIONS.length) - 1)) {
+                throw new UnauthorizedAccessException();
             } else {
                 try {
-                    validUserContactInfo(authToken, userID);
-                    validUserAccount(authToken, userID);
+                    checkUserContactInfo(user);
+                    checkUserAccount(user);
                     return true;
                 } catch (UserContactInfoNotFoundException ucinfe) {
                     System.out.println("Specified User requires at least one method of contact.");
@@ -0,0 +1,627 @@
+/*
+ * AuthServiceBenchmark
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is a JMH-style benchmark suite for AuthServiceImpl, run against
+ * synthetic directories of increasing size.
+ *
+ * Each directory has PERMISSION_COUNT permissions and ROLE_TREES chains of
+ * ROLE_DEPTH nested roles, each role granting two permissions; every user
+ * holds the top role of one chain, and so inherits the whole chain. The
+ * first SESSION_COUNT users also have a credential.
+ *
+ * Each benchmark runs, at 1 thread and at the maximum number of threads, for
+ * WARMUP_ITERATIONS and then MEASURED_ITERATIONS timed iterations of
+ * ITERATION_TIME milliseconds. For the measured iterations it prints the
+ * aggregate throughput, the mean time per operation per thread and, like
+ * JMH's GC profiler, the bytes allocated per operation (read from each
+ * benchmark thread), the allocation rate and the number and duration of
+ * garbage collections. The benchmarks are:
+ *
+ *   checkAccess.hit      each thread checks a held permission with its own
+ *                        token (served from the decision cache)
+ *   checkAccess.miss     threads cycle through SESSION_COUNT tokens, more
+ *                        than the decision cache holds, so that every
+ *                        decision is computed
+ *   checkAccess.denied   a permission that is not held (the exception path)
+ *   login+logout         a full login/logout cycle (PBKDF2 with
+ *                        HASH_ITERATIONS iterations)
+ *   addUserRole          adding the top role of a ROLE_DEPTH-deep chain to a
+ *                        user, and removing it again
+ *   removeRole.cascade   removing a role linked into a chain held by
+ *                        1/ROLE_TREES of the users (its creation and linking
+ *                        are not timed)
+ *   currentConfiguration the full inventory
+ *
+ * Untimed setup is excluded from ns/op but not from ops/s.
+ *
+ * Usage: AuthServiceBenchmark [userCounts] [maxThreads] [benchmarkPrefix],
+ * for example "AuthServiceBenchmark 10000,100000,1000000 4 checkAccess".
+ * Directories of a million users need a heap of a few gigabytes (-Xmx4g).
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class AuthServiceBenchmark {
+
+    /**
+     * Number of warmup iterations per benchmark.
+     */
+    private static final int WARMUP_ITERATIONS = 3;
+
+    /**
+     * Number of measured iterations per benchmark.
+     */
+    private static final int MEASURED_ITERATIONS = 5;
+
+    /**
+     * Duration of each iteration in milliseconds.
+     */
+    private static final long ITERATION_TIME = 1000;
+
+    /**
+     * Number of permissions in the directory.
+     */
+    private static final int PERMISSION_COUNT = 400;
+
+    /**
+     * Number of role chains in the directory.
+     */
+    private static final int ROLE_TREES = 16;
+
+    /**
+     * Depth of each role chain.
+     */
+    private static final int ROLE_DEPTH = 12;
+
+    /**
+     * Number of users with a credential (and sessions used by the
+     * checkAccess benchmarks).
+     */
+    private static final int SESSION_COUNT = 1024;
+
+    /**
+     * Decision cache capacity, smaller than SESSION_COUNT.
+     */
+    private static final int DECISION_CACHE_CAPACITY = 256;
+
+    /**
+     * PBKDF2 iteration count (lower than the default, so that the login
+     * benchmark and the session setup measure the service rather than the
+     * hash; the hash cost grows linearly with the count).
+     */
+    private static final int HASH_ITERATIONS = 1000;
+
+    /**
+     * Password of every benchmark credential.
+     */
+    private static final String PASSWORD = "p4ssw0rd";
+
+    /**
+     * Thread MXBean used to read the number of bytes allocated by each
+     * benchmark thread.
+     */
+    private static com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Sink preventing the JIT from discarding benchmark results.
+     */
+    private static volatile int sink = 0;
+
+    /**
+     * This class describes a single benchmark. Threads are numbered from 0;
+     * invocation numbers count the operations run by a thread so far.
+     */
+    private abstract static class Benchmark {
+
+        /**
+         * Benchmark name.
+         */
+        private final String name;
+
+        /**
+         * Number of operations run between checks of the iteration deadline.
+         */
+        private final int batchSize;
+
+        /**
+         * True if setupInvocation must run (untimed) before each batch of
+         * operations.
+         */
+        private final boolean invocationSetup;
+
+        /**
+         * Number of threads of the current run.
+         */
+        int threadCount;
+
+        Benchmark(String name, int batchSize, boolean invocationSetup) {
+            this.name = name;
+            this.batchSize = batchSize;
+            this.invocationSetup = invocationSetup;
+        }
+
+        /**
+         * Prepares a run with the specified number of threads.
+         */
+        void setupTrial(int threadCount) throws Exception {
+        }
+
+        /**
+         * Cleans up after a run.
+         */
+        void teardownTrial(int threadCount) throws Exception {
+        }
+
+        /**
+         * Prepares the next batch of operations of a thread (not timed).
+         */
+        void setupInvocation(int thread, long invocation) throws Exception {
+        }
+
+        /**
+         * Runs one operation.
+         */
+        abstract boolean run(int thread, long invocation) throws Exception;
+    }
+
+    /**
+     * Per-thread result of one iteration.
+     */
+    private static class IterationResult {
+
+        private long operations;
+        private long timedNanos;
+        private long allocatedBytes;
+    }
+
+    /**
+     * @param args Command line arguments (args[0] optionally contains a comma
+     * separated list of user counts, args[1] the maximum number of threads and
+     * args[2] a prefix selecting the benchmarks to run).
+     */
+    public static void main(String[] args) {
+
+        String[] userCounts = ((args.length > 0) ? args[0] : "10000").split(",");
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String prefix = (args.length > 2) ? args[2] : "";
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        try {
+            for (int i = 0; i < userCounts.length; i++) {
+                int userCount = Integer.parseInt(userCounts[i].trim());
+                AuthServiceImpl authService = buildDirectory(userCount);
+                System.out.println("benchmark\t\tthreads\tops/s\t\tns/op\t\tB/op\t\tMB/s\tgc.count\tgc.ms");
+                Benchmark[] benchmarks = benchmarks(authService, userCount);
+                for (int j = 0; j < benchmarks.length; j++) {
+                    if (!benchmarks[j].name.startsWith(prefix)) {
+                        continue;
+                    }
+                    measure(benchmarks[j], 1);
+                    if (maxThreads > 1) {
+                        measure(benchmarks[j], maxThreads);
+                    }
+                }
+                System.out.println();
+            }
+        } catch (Exception e) {
+            System.out.println(e.getClass().getSimpleName() + " occurred.");
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Builds a synthetic directory with the specified number of users.
+     *
+     * @param userCount Number of users.
+     * @return AuthService holding the directory.
+     * @throws Exception
+     */
+    private static AuthServiceImpl buildDirectory(int userCount) throws Exception {
+        long startTime = System.nanoTime();
+        AuthServiceConfiguration configuration = new AuthServiceConfiguration();
+        configuration.setMaxSessionsPerLogin(SESSION_COUNT);
+        configuration.setDecisionCacheCapacity(DECISION_CACHE_CAPACITY);
+        configuration.setPasswordHashIterations(HASH_ITERATIONS);
+        AuthServiceImpl authService = new AuthServiceImpl(configuration);
+        String accessToken = authService.login("super_admin", PASSWORD);
+
+        /*
+         * Permissions, then chains of roles from the deepest up, each role
+         * granting two permissions and holding the role below it
+         */
+        for (int p = 0; p < PERMISSION_COUNT; p++) {
+            authService.createPermission(accessToken, permissionID(p), "Benchmark Permission " + p,
+                    "Benchmark permission");
+        }
+        for (int t = 0; t < ROLE_TREES; t++) {
+            for (int d = ROLE_DEPTH - 1; d >= 0; d--) {
+                String roleID = roleID(t, d);
+                authService.createRole(accessToken, roleID, "Benchmark Role " + t + "/" + d, "Benchmark role");
+                authService.addRolePermission(accessToken, roleID, permissionID(((t * ROLE_DEPTH) + d) % PERMISSION_COUNT));
+                authService.addRolePermission(accessToken, roleID,
+                        permissionID(((t * ROLE_DEPTH) + d + (PERMISSION_COUNT / 2)) % PERMISSION_COUNT));
+                if (d < ROLE_DEPTH - 1) {
+                    authService.addRoleEntitlement(accessToken, roleID, roleID(t, d + 1));
+                }
+            }
+        }
+
+        /*
+         * Users, each holding the top role of one chain
+         */
+        for (int u = 0; u < userCount; u++) {
+            authService.createUser(accessToken, "Benchmark User " + u, userID(u));
+            authService.addUserRole(accessToken, userID(u), roleID(u % ROLE_TREES, 0));
+            if (u < SESSION_COUNT) {
+                authService.addUserCredential(accessToken, userID(u), loginID(u), PASSWORD);
+            }
+        }
+        authService.logout(accessToken);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.println("Directory: " + userCount + " users, " + PERMISSION_COUNT + " permissions, "
+                + (ROLE_TREES * ROLE_DEPTH) + " roles (" + ROLE_TREES + " chains of depth " + ROLE_DEPTH + ") built in "
+                + ((System.nanoTime() - startTime) / 1000000) + " ms, heap used "
+                + ((runtime.totalMemory() - runtime.freeMemory()) >> 20) + " MB");
+        return authService;
+    }
+
+    /**
+     * Returns the benchmarks to run against the specified directory.
+     *
+     * @param authService AuthService holding the directory.
+     * @param userCount Number of users in the directory.
+     * @return Benchmarks.
+     */
+    private static Benchmark[] benchmarks(final AuthServiceImpl authService, final int userCount) {
+        final String[] sessions = new String[SESSION_COUNT];
+        final String[] adminAccessToken = new String[1];
+
+        return new Benchmark[] {
+            new Benchmark("checkAccess.hit\t", 1024, false) {
+                @Override
+                void setupTrial(int threadCount) throws Exception {
+                    login(authService, sessions, threadCount);
+                }
+
+                @Override
+                void teardownTrial(int threadCount) throws Exception {
+                    logout(authService, sessions, threadCount);
+                }
+
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    return authService.checkAccess(heldPermissionID(thread), sessions[thread]);
+                }
+            },
+            new Benchmark("checkAccess.miss", 1024, false) {
+                @Override
+                void setupTrial(int threadCount) throws Exception {
+                    login(authService, sessions, SESSION_COUNT);
+                }
+
+                @Override
+                void teardownTrial(int threadCount) throws Exception {
+                    logout(authService, sessions, SESSION_COUNT);
+                }
+
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    int session = (int) ((thread + (invocation * threadCount)) % SESSION_COUNT);
+                    return authService.checkAccess(heldPermissionID(session), sessions[session]);
+                }
+            },
+            new Benchmark("checkAccess.denied", 64, true) {
+                @Override
+                void setupTrial(int threadCount) throws Exception {
+                    login(authService, sessions, threadCount);
+                }
+
+                @Override
+                void teardownTrial(int threadCount) throws Exception {
+                    logout(authService, sessions, threadCount);
+                }
+
+                @Override
+                void setupInvocation(int thread, long invocation) throws Exception {
+                    /*
+                     * Denied checks do not slide the token expiry
+                     */
+                    authService.checkAccess(heldPermissionID(thread), sessions[thread]);
+                }
+
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    try {
+                        return authService.checkAccess("create_user", sessions[thread]);
+                    } catch (UnauthorizedAccessException uae) {
+                        return false;
+                    }
+                }
+            },
+            new Benchmark("login+logout\t", 1, false) {
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    authService.logout(authService.login(loginID(thread), PASSWORD));
+                    return true;
+                }
+            },
+            new Benchmark("addUserRole\t", 1, false) {
+                @Override
+                void setupTrial(int threadCount) throws Exception {
+                    adminAccessToken[0] = authService.login("super_admin", PASSWORD);
+                }
+
+                @Override
+                void teardownTrial(int threadCount) throws Exception {
+                    authService.logout(adminAccessToken[0]);
+                }
+
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    int user = (int) (((invocation * threadCount) + thread) % userCount);
+                    String roleID = roleID((user + 1) % ROLE_TREES, 0);
+                    authService.addUserRole(adminAccessToken[0], userID(user), roleID);
+                    authService.removeUserRole(adminAccessToken[0], userID(user), roleID);
+                    return true;
+                }
+            },
+            new Benchmark("removeRole.cascade", 1, true) {
+                @Override
+                void setupTrial(int threadCount) throws Exception {
+                    adminAccessToken[0] = authService.login("super_admin", PASSWORD);
+                }
+
+                @Override
+                void teardownTrial(int threadCount) throws Exception {
+                    authService.logout(adminAccessToken[0]);
+                }
+
+                @Override
+                void setupInvocation(int thread, long invocation) throws Exception {
+                    String roleID = cascadeRoleID(thread, invocation);
+                    authService.createRole(adminAccessToken[0], roleID, "Cascade Role", "Benchmark cascade role");
+                    authService.addRolePermission(adminAccessToken[0], roleID, permissionID(PERMISSION_COUNT - 1));
+                    authService.addRoleEntitlement(adminAccessToken[0],
+                            roleID((int) (invocation % ROLE_TREES), ROLE_DEPTH / 2), roleID);
+                }
+
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    authService.removeRole(adminAccessToken[0], cascadeRoleID(thread, invocation));
+                    return true;
+                }
+            },
+            new Benchmark("currentConfiguration", 1, false) {
+                @Override
+                boolean run(int thread, long invocation) throws Exception {
+                    return authService.currentConfiguration().length() > 0;
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs the specified benchmark with the specified number of threads and
+     * prints its results.
+     *
+     * @param benchmark Benchmark to run.
+     * @param threadCount Number of threads.
+     * @throws Exception If an operation fails.
+     */
+    private static void measure(final Benchmark benchmark, final int threadCount) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount + 1);
+        final IterationResult[] results = new IterationResult[threadCount];
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final long[] deadline = new long[1];
+        final int iterations = WARMUP_ITERATIONS + MEASURED_ITERATIONS;
+        benchmark.threadCount = threadCount;
+        benchmark.setupTrial(threadCount);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            results[t] = new IterationResult();
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long invocation = 0;
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            barrier.await();
+                            runIteration(benchmark, thread, invocation, deadline[0], results[thread]);
+                            invocation += results[thread].operations;
+                            barrier.await();
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        barrier.reset();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        /*
+         * Start each iteration once every thread is ready; the barrier
+         * publishes the deadline to the threads and their results back
+         */
+        long operations = 0;
+        long timedNanos = 0;
+        long allocatedBytes = 0;
+        long elapsedNanos = 0;
+        long gcCount = 0;
+        long gcTime = 0;
+        for (int i = 0; i < iterations; i++) {
+            long startGCCount = gcCount();
+            long startGCTime = gcTime();
+            long startTime = System.nanoTime();
+            deadline[0] = startTime + (ITERATION_TIME * 1000000);
+            try {
+                barrier.await();
+                barrier.await();
+            } catch (BrokenBarrierException bbe) {
+                /*
+                 * A benchmark thread failed
+                 */
+                break;
+            }
+            if (i >= WARMUP_ITERATIONS) {
+                elapsedNanos += System.nanoTime() - startTime;
+                gcCount += gcCount() - startGCCount;
+                gcTime += gcTime() - startGCTime;
+                for (int t = 0; t < threadCount; t++) {
+                    operations += results[t].operations;
+                    timedNanos += results[t].timedNanos;
+                    allocatedBytes += results[t].allocatedBytes;
+                }
+            }
+        }
+        for (int t = 0; t < threadCount; t++) {
+            threads[t].join();
+        }
+        benchmark.teardownTrial(threadCount);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(benchmark.name + "\t" + threadCount
+                + "\t" + String.format("%-12.0f", operations / seconds)
+                + "\t" + String.format("%-12.1f", (double) timedNanos / operations)
+                + "\t" + String.format("%-12.1f", (double) allocatedBytes / operations)
+                + "\t" + String.format("%.1f", allocatedBytes / seconds / (1 << 20))
+                + "\t" + gcCount + "\t\t" + gcTime);
+    }
+
+    /**
+     * Runs operations of the specified benchmark on the calling thread until
+     * the deadline passes.
+     *
+     * @param benchmark Benchmark.
+     * @param thread Thread number.
+     * @param invocation Number of operations already run by the thread.
+     * @param deadline End of the iteration (System.nanoTime).
+     * @param result Result of the iteration.
+     * @throws Exception If an operation fails.
+     */
+    private static void runIteration(Benchmark benchmark, int thread, long invocation, long deadline,
+            IterationResult result) throws Exception {
+        long threadID = Thread.currentThread().getId();
+        long startBytes = threadBean.getThreadAllocatedBytes(threadID);
+        long operations = 0;
+        long timedNanos = 0;
+        int batchSize = benchmark.batchSize;
+        int hits = 0;
+        do {
+            if (benchmark.invocationSetup) {
+                benchmark.setupInvocation(thread, invocation + operations);
+            }
+            long startTime = System.nanoTime();
+            for (int i = 0; i < batchSize; i++) {
+                if (benchmark.run(thread, invocation + operations + i)) {
+                    hits++;
+                }
+            }
+            timedNanos += System.nanoTime() - startTime;
+            operations += batchSize;
+        } while (System.nanoTime() < deadline);
+        result.operations = operations;
+        result.timedNanos = timedNanos;
+        result.allocatedBytes = threadBean.getThreadAllocatedBytes(threadID) - startBytes;
+        sink += hits;
+    }
+
+    /**
+     * Logs in the first count benchmark users.
+     */
+    private static void login(AuthServiceImpl authService, String[] sessions, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            sessions[i] = authService.login(loginID(i), PASSWORD);
+        }
+    }
+
+    /**
+     * Logs out the first count benchmark sessions.
+     */
+    private static void logout(AuthServiceImpl authService, String[] sessions, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            authService.logout(sessions[i]);
+        }
+    }
+
+    /**
+     * Returns the total number of garbage collections so far.
+     */
+    private static long gcCount() {
+        long count = 0;
+        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (int i = 0; i < gcBeans.size(); i++) {
+            count += Math.max(0, gcBeans.get(i).getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total garbage collection time so far, in milliseconds.
+     */
+    private static long gcTime() {
+        long time = 0;
+        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (int i = 0; i < gcBeans.size(); i++) {
+            time += Math.max(0, gcBeans.get(i).getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Returns the ID of a permission held (through the bottom of its chain)
+     * by the specified benchmark user.
+     */
+    private static String heldPermissionID(int user) {
+        return permissionID((((user % ROLE_TREES) * ROLE_DEPTH) + ROLE_DEPTH - 1) % PERMISSION_COUNT);
+    }
+
+    private static String permissionID(int permission) {
+        return "bench_permission_" + permission;
+    }
+
+    private static String roleID(int tree, int depth) {
+        return "bench_role_" + tree + "_" + depth;
+    }
+
+    private static String cascadeRoleID(int thread, long invocation) {
+        return "bench_cascade_" + thread + "_" + invocation;
+    }
+
+    private static String userID(int user) {
+        return "bench_user_" + user;
+    }
+
+    private static String loginID(int user) {
+        return "bench_login_" + user;
+    }
+}
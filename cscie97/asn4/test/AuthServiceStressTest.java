@@ -0,0 +1,189 @@
+/*
+ * AuthServiceStressTest
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class stress tests the authentication service from several threads at
+ * once. Each thread logs in as its own user and repeatedly calls checkAccess,
+ * logging out and back in periodically, while the main thread keeps adding
+ * and removing a role permission. The test is run for 1, 2, 4, ... threads up
+ * to the number of available processors, and the checkAccess throughput and
+ * speedup over a single thread are printed for each run.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class AuthServiceStressTest {
+
+    /**
+     * Singleton authentication service object.
+     */
+    private static AuthServiceImpl authService = AuthServiceImpl.getInstance();
+
+    /**
+     * Duration of each run in milliseconds.
+     */
+    private static final long RUN_DURATION = 1000;
+
+    /**
+     * Number of checkAccess calls between each logout/login cycle.
+     */
+    private static final int CHECKS_PER_LOGIN = 10000;
+
+    /**
+     * @param args Command line arguments (args[0] optionally contains the
+     * maximum number of threads).
+     */
+    public static void main(String[] args) {
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 0) {
+            maxThreads = Integer.parseInt(args[0]);
+        }
+
+        try {
+
+            /*
+             * Log in as super admin and create a permission, a role holding it
+             * and one user with that role per thread
+             */
+            System.out.println("Logging in as super_admin and creating stress test users:");
+            String superAdminAccessToken = authService.login("super_admin", "p4ssw0rd");
+            authService.createPermission(superAdminAccessToken, "stress_permission", "Stress Permission", "Stress test permission");
+            authService.createPermission(superAdminAccessToken, "stress_toggle", "Stress Toggle", "Stress test toggled permission");
+            authService.createRole(superAdminAccessToken, "stress_role", "Stress Role", "Stress test role");
+            authService.addRolePermission(superAdminAccessToken, "stress_role", "stress_permission");
+            for (int i = 0; i < maxThreads; i++) {
+                authService.createUser(superAdminAccessToken, "Stress User " + i, "stress_user_" + i);
+                authService.addUserCredential(superAdminAccessToken, "stress_user_" + i, "stress_user_" + i, "p4ssw0rd");
+                authService.addUserRole(superAdminAccessToken, "stress_user_" + i, "stress_role");
+            }
+            authService.logout(superAdminAccessToken);
+            System.out.println();
+
+            /*
+             * Run with increasing thread counts
+             */
+            double singleThreadRate = 0;
+            for (int threadCount = 1; threadCount <= maxThreads; threadCount = nextThreadCount(threadCount, maxThreads)) {
+                double rate = run(threadCount);
+                if (threadCount == 1) {
+                    singleThreadRate = rate;
+                }
+                System.out.println("threads: " + threadCount
+                        + "\tcheckAccess/s: " + Math.round(rate)
+                        + "\tspeedup: " + String.format("%.2f", rate / singleThreadRate));
+            }
+        } catch (InvalidUserIDException iue) {
+            System.out.println("InvalidUserIDException occurred.");
+        } catch (InvalidPasswordException ipe) {
+            System.out.println("InvalidPasswordException occurred.");
+        } catch (AuthServiceException ase) {
+            System.out.println("AuthServiceException occurred.");
+        } catch (InvalidAccessTokenException iate) {
+            System.out.println("InvalidAccessTokenException occurred.");
+        } catch (UnauthorizedAccessException uae) {
+            System.out.println("UnauthorizedAccessException occurred.");
+        } catch (InterruptedException ie) {
+            System.out.println("InterruptedException occurred.");
+        }
+    }
+
+    /**
+     * Returns the next thread count to test (doubling, but always ending with
+     * the maximum thread count).
+     *
+     * @param threadCount Current thread count.
+     * @param maxThreads Maximum thread count.
+     * @return Next thread count.
+     */
+    private static int nextThreadCount(int threadCount, int maxThreads) {
+        if (threadCount == maxThreads) {
+            return maxThreads + 1;
+        } else {
+            return Math.min(threadCount * 2, maxThreads);
+        }
+    }
+
+    /**
+     * Runs the specified number of checkAccess threads for RUN_DURATION
+     * milliseconds, while the calling thread toggles a role permission, and
+     * returns the aggregate number of checkAccess calls per second.
+     *
+     * @param threadCount Number of checkAccess threads.
+     * @return Aggregate checkAccess calls per second.
+     * @throws InterruptedException
+     */
+    private static double run(int threadCount) throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+        final AtomicLong checkCount = new AtomicLong();
+        final AtomicLong failureCount = new AtomicLong();
+        final long endTime = System.currentTimeMillis() + RUN_DURATION;
+
+        for (int i = 0; i < threadCount; i++) {
+            final String loginID = "stress_user_" + i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long checks = 0;
+                    try {
+                        startLatch.await();
+                        String accessToken = authService.login(loginID, "p4ssw0rd");
+                        while (System.currentTimeMillis() < endTime) {
+                            for (int j = 0; j < CHECKS_PER_LOGIN; j++) {
+                                authService.checkAccess("stress_permission", accessToken);
+                            }
+                            checks += CHECKS_PER_LOGIN;
+                            authService.logout(accessToken);
+                            accessToken = authService.login(loginID, "p4ssw0rd");
+                        }
+                        authService.logout(accessToken);
+                    } catch (Exception e) {
+                        failureCount.incrementAndGet();
+                    }
+                    checkCount.addAndGet(checks);
+                    doneLatch.countDown();
+                }
+            });
+            thread.start();
+        }
+
+        /*
+         * Keep publishing entitlement changes while the readers run
+         */
+        long startTime = System.nanoTime();
+        startLatch.countDown();
+        try {
+            String superAdminAccessToken = authService.login("super_admin", "p4ssw0rd");
+            while (doneLatch.getCount() > 0) {
+                authService.addRolePermission(superAdminAccessToken, "stress_role", "stress_toggle");
+                authService.removeRolePermission(superAdminAccessToken, "stress_role", "stress_toggle");
+                Thread.sleep(1);
+            }
+            authService.logout(superAdminAccessToken);
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+        }
+        doneLatch.await();
+        long elapsedTime = System.nanoTime() - startTime;
+
+        if (failureCount.get() > 0) {
+            System.out.println("Failures occurred with " + threadCount + " threads: " + failureCount.get());
+        }
+        return checkCount.get() / (elapsedTime / 1e9);
+    }
+}
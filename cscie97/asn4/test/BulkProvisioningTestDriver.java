@@ -0,0 +1,138 @@
+/*
+ * BulkProvisioningTestDriver
+ * 
+ * Version 1.0
+ * 
+ * November 20, 2014
+ * 
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Paths;
+
+/**
+ * This class tests the bulk provisioning of the authentication service from
+ * the test authentication file provided, as a single transaction. It prints
+ * the provisioning report (with any per-line errors) followed by the
+ * inventory of all authentication service objects. It then removes the
+ * user_role every new user is given and checks that a batch creating a user
+ * is rejected as a whole, and that a batch defining user_role again before
+ * creating the user is committed.
+ *
+ * Timings, access token IDs and times and password digests differ from run
+ * to run and are masked, so the output can be compared with the reference
+ * output in testOutput.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class BulkProvisioningTestDriver {
+
+    /**
+     * Singleton authentication service object.
+     */
+    private static AuthServiceImpl authService = AuthServiceImpl.getInstance();
+
+    /**
+     * @param args Command line arguments (args[0] contains name of test file.
+     */
+    public static void main(String[] args) {
+
+        String fileName;
+        if (args.length < 1) {
+            fileName = "authentication.csv";
+        } else {
+            fileName = args[0];
+        }
+        try {
+
+            /*
+             * Log in as super admin and provision the whole file
+             */
+            String superAdminAccessToken = authService.login("super_admin", "p4ssw0rd");
+            BulkProvisioner bulkProvisioner = new BulkProvisioner(authService);
+            BulkProvisioningReport report = bulkProvisioner.provision(superAdminAccessToken, Paths.get(fileName));
+            printReport(report);
+
+            /*
+             * Generate and print out the inventory of all authentication service
+             * objects
+             */
+            printMasked(authService.currentConfiguration());
+
+            /*
+             * Without user_role, a batch creating a user is rejected before
+             * any of its directives is applied
+             */
+            authService.removeRole(superAdminAccessToken, "user_role");
+            report = bulkProvisioner.provision(superAdminAccessToken, new StringReader(
+                    "define_service, missing_role_service, Missing Role Service, Service defined with the user\n"
+                    + "create_user, missing_role_user, Missing Role User\n"));
+            printReport(report);
+            System.out.println("Service of rejected batch exists: "
+                    + authService.currentConfiguration().contains("missing_role_service"));
+
+            /*
+             * Defining user_role earlier in the batch makes it valid
+             */
+            report = bulkProvisioner.provision(superAdminAccessToken, new StringReader(
+                    "define_role, user_role, User Role, User role\n"
+                    + "create_user, missing_role_user, Missing Role User\n"));
+            printReport(report);
+            System.out.println("User of committed batch exists: "
+                    + authService.currentConfiguration().contains("Missing Role User"));
+
+        } catch (IOException ioe) {
+            System.out.println("I/O exception occurred.");
+        }  catch (InvalidUserIDException iue) {
+            System.out.println("InvalidUserIDException occurred.");
+        }  catch (InvalidPasswordException ipe) {
+            System.out.println("InvalidPasswordException occurred.");
+        }  catch (AuthServiceException ase) {
+            System.out.println("AuthServiceException occurred.");
+        }  catch (InvalidAccessTokenException iate) {
+            System.out.println("InvalidAccessTokenException occurred.");
+        }  catch (UnauthorizedAccessException uae) {
+            System.out.println("UnauthorizedAccessException occurred.");
+        }
+    }
+
+    /**
+     * Prints a provisioning report without its timings.
+     *
+     * @param report Provisioning report.
+     */
+    private static void printReport(BulkProvisioningReport report) {
+        System.out.println((report.isCommitted() ? "Committed " : "Rejected ") + report.getDirectiveCount()
+                + " directives (" + report.getSkippedCount() + " skipped) from " + report.getLineCount() + " lines");
+        for (int i = 0; i < report.getErrors().size(); i++) {
+            System.out.println(report.getErrors().get(i));
+        }
+        System.out.println();
+    }
+
+    /**
+     * Prints an inventory with the values that differ from run to run
+     * (access token IDs and last access times, and salted password digests)
+     * masked.
+     *
+     * @param inventory Inventory.
+     */
+    private static void printMasked(String inventory) {
+        String[] lines = inventory.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.startsWith("passwordMessageDigest: ") || line.startsWith("lastAccessTime: ")
+                    || line.matches("ID: [0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}")) {
+                lines[i] = lines[i].substring(0, lines[i].indexOf(": ") + 2) + "<masked>";
+            }
+            System.out.println(lines[i]);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * CredentialAllocationBenchmark
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+
+/**
+ * This class is a small JMH-style microbenchmark of the credential
+ * verification path. Each benchmark is run for a number of warmup iterations
+ * and then for a number of measured iterations, and the mean time and the
+ * mean number of bytes allocated by the benchmark thread are printed per
+ * operation.
+ *
+ * The "legacy" benchmarks reproduce the previous implementation (a new SHA-1
+ * MessageDigest per check, hex encoding through Integer.toString and a
+ * linear, case-insensitive scan of the User's credentials) for comparison
+ * with the current Credential and User code.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class CredentialAllocationBenchmark {
+
+    /**
+     * Number of warmup iterations per benchmark.
+     */
+    private static final int WARMUP_ITERATIONS = 5;
+
+    /**
+     * Number of measured iterations per benchmark.
+     */
+    private static final int MEASURED_ITERATIONS = 5;
+
+    /**
+     * Number of operations per iteration.
+     */
+    private static final int OPERATIONS_PER_ITERATION = 100000;
+
+    /**
+     * Number of credentials held by the benchmark User.
+     */
+    private static final int CREDENTIAL_COUNT = 8;
+
+    /**
+     * Thread MXBean used to read the number of bytes allocated by the
+     * benchmark thread.
+     */
+    private static com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Sink preventing the JIT from discarding benchmark results.
+     */
+    private static int sink = 0;
+
+    /**
+     * This interface describes a single benchmarked operation.
+     */
+    private interface Operation {
+
+        boolean run();
+    }
+
+    /**
+     * @param args Command line arguments (not used).
+     */
+    public static void main(String[] args) {
+
+        /*
+         * Set up a User with several credentials, as well as a legacy copy of
+         * its last credential
+         */
+        final User user = new User("Benchmark User", "benchmark_user");
+        for (int i = 0; i < CREDENTIAL_COUNT; i++) {
+            user.addCredential("benchmark_login_" + i, "p4ssw0rd");
+        }
+        final String loginID = "Benchmark_Login_" + (CREDENTIAL_COUNT - 1);
+        final LegacyUser legacyUser = new LegacyUser();
+        for (int i = 0; i < CREDENTIAL_COUNT; i++) {
+            legacyUser.credentials.add(new LegacyCredential("benchmark_login_" + i, "p4ssw0rd"));
+        }
+        final Credential credential = user.getCredential(loginID);
+        final LegacyCredential legacyCredential = legacyUser.getCredential(loginID);
+
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocation measurement is not supported by this JVM.");
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.println("benchmark\t\t\tns/op\tbytes/op");
+        measure("legacy validPassword\t\t", new Operation() {
+            @Override
+            public boolean run() {
+                return legacyCredential.validPassword("p4ssw0rd");
+            }
+        });
+        measure("validPassword\t\t\t", new Operation() {
+            @Override
+            public boolean run() {
+                return credential.validPassword("p4ssw0rd");
+            }
+        });
+        measure("legacy lookup + validPassword\t", new Operation() {
+            @Override
+            public boolean run() {
+                return legacyUser.getCredential(loginID).validPassword("p4ssw0rd");
+            }
+        });
+        measure("lookup + validPassword\t\t", new Operation() {
+            @Override
+            public boolean run() {
+                return user.getCredential(loginID).validPassword("p4ssw0rd");
+            }
+        });
+        measure("lookup + invalid password\t", new Operation() {
+            @Override
+            public boolean run() {
+                return user.getCredential(loginID).validPassword("wrong");
+            }
+        });
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Runs the specified operation for the warmup and measured iterations and
+     * prints its mean time and allocation per operation.
+     *
+     * @param name Benchmark name.
+     * @param operation Operation to measure.
+     */
+    private static void measure(String name, Operation operation) {
+        long threadID = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(operation);
+        }
+        long totalTime = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long startBytes = threadBean.getThreadAllocatedBytes(threadID);
+            long startTime = System.nanoTime();
+            runIteration(operation);
+            totalTime += System.nanoTime() - startTime;
+            totalBytes += threadBean.getThreadAllocatedBytes(threadID) - startBytes;
+        }
+        long operations = (long) MEASURED_ITERATIONS * OPERATIONS_PER_ITERATION;
+        System.out.println(name + (totalTime / operations) + "\t"
+                + String.format("%.1f", (double) totalBytes / operations));
+    }
+
+    /**
+     * Runs one iteration of the specified operation.
+     *
+     * @param operation Operation to run.
+     */
+    private static void runIteration(Operation operation) {
+        for (int i = 0; i < OPERATIONS_PER_ITERATION; i++) {
+            if (operation.run()) {
+                sink++;
+            }
+        }
+    }
+
+    /**
+     * Copy of the previous User credential lookup (linear scan).
+     */
+    private static class LegacyUser {
+
+        private ArrayList<LegacyCredential> credentials = new ArrayList<>();
+
+        LegacyCredential getCredential(String loginID) {
+            for (LegacyCredential credential : credentials) {
+                if (credential.loginID.equalsIgnoreCase(loginID)) {
+                    return credential;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Copy of the previous Credential digest and comparison.
+     */
+    private static class LegacyCredential {
+
+        private String loginID;
+        private String passwordMessageDigest;
+        private byte[] salt = new byte[16];
+
+        LegacyCredential(String loginID, String password) {
+            this.loginID = loginID;
+            new SecureRandom().nextBytes(salt);
+            passwordMessageDigest = messageDigest(password);
+        }
+
+        boolean validPassword(String password) {
+            return messageDigest(password).equals(passwordMessageDigest);
+        }
+
+        private String messageDigest(String input) {
+            String passwordHash = new String();
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                md.update(salt);
+                byte[] bytes = md.digest(input.getBytes());
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < bytes.length; i++) {
+                    sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+                }
+                passwordHash = sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+            }
+            return passwordHash;
+        }
+    }
+}
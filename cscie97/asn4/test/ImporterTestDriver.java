@@ -0,0 +1,132 @@
+/*
+ * ImporterTestDriver
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.knowledge.engine.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class tests the Importer's bulk import against its line by line
+ * import. The test triple file is imported line by line, and the malformed
+ * lines reported and the triples in the knowledge graph are printed; the
+ * triples are then removed, the same file is bulk imported, and the driver
+ * checks that the bulk import reports the same lines with the same messages
+ * and leaves the same triples in the knowledge graph.
+ *
+ * The test triple file mixes line feed, carriage return and carriage return
+ * line feed line endings and has no line feed after its last line. Its
+ * malformed lines include empty lines, lines starting with a blank or a
+ * tab, a line with four elements, a line without its terminating . and a
+ * line with a bad subject.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class ImporterTestDriver {
+
+    /**
+     * Wild card.
+     */
+    private static final String WILDCARD = "?";
+
+    /**
+     * Singleton knowledge graph object.
+     */
+    private static KnowledgeGraph kg = KnowledgeGraph.getInstance();
+
+    /**
+     * @param args Command line arguments (args[0] contains name of test file.
+     */
+    public static void main(String[] args) {
+
+        String fileName;
+        if (args.length < 1) {
+            fileName = "import_test.nt";
+        } else {
+            fileName = args[0];
+        }
+        Importer importer = new Importer();
+        PrintStream out = System.out;
+        try {
+
+            /*
+             * Import the file line by line
+             */
+            ByteArrayOutputStream lineErrors = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(lineErrors, true));
+            try {
+                importer.importTripleFile(fileName);
+            } finally {
+                System.setOut(out);
+            }
+            List<String> lineTriples = triples();
+            System.out.print(lineErrors.toString());
+            System.out.println();
+            for (int i = 0; i < lineTriples.size(); i++) {
+                System.out.println(lineTriples.get(i));
+            }
+            System.out.println();
+
+            /*
+             * Remove the triples and bulk import the file
+             */
+            Set<String> subjects = new HashSet<String>();
+            for (int i = 0; i < lineTriples.size(); i++) {
+                subjects.add(lineTriples.get(i).split(" ")[0]);
+            }
+            for (String subject : subjects) {
+                kg.removeSubjectFromKnowledgeGraph(subject);
+            }
+            System.out.println("Knowledge graph empty after removing subjects: " + triples().isEmpty());
+            ByteArrayOutputStream bulkErrors = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(bulkErrors, true));
+            try {
+                importer.bulkImportTripleFile(fileName);
+            } finally {
+                System.setOut(out);
+            }
+            System.out.println("Bulk import reports the same malformed lines: "
+                    + bulkErrors.toString().equals(lineErrors.toString()));
+            System.out.println("Bulk import adds the same triples: " + triples().equals(lineTriples));
+
+        } catch (ImportException ie) {
+            System.out.println("ImportException occurred.");
+        } catch (IOException ioe) {
+            System.out.println("I/O exception occurred.");
+        }
+    }
+
+    /**
+     * Returns the triples in the knowledge graph.
+     *
+     * @return Triples as "subject predicate object", sorted.
+     */
+    private static List<String> triples() {
+        Set<Triple> triples = kg.executeQuery(kg.getQueryTriple(WILDCARD, WILDCARD, WILDCARD));
+        ArrayList<String> result = new ArrayList<String>();
+        if (triples != null) {
+            for (Triple triple : triples) {
+                result.add(triple.getSubject().getIdentifier() + " " + triple.getPredicate().getIdentifier()
+                        + " " + triple.getObject().getIdentifier());
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * PersistenceTestDriver
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * This class tests the durability of the authentication service. An
+ * instance with a mutation log is provisioned from the test authentication
+ * file and then changed through the administrative methods; the driver then
+ * checks that
+ *
+ *   an instance reopened from the mutation log alone,
+ *   an instance restored from a snapshot taken part way through, with the
+ *   mutation log records written after the snapshot replayed on top, and
+ *   an instance restored from the snapshot alone
+ *
+ * have the same inventory as the instance they were saved from (at the time
+ * of the snapshot for the last one), and that users can log in to them with
+ * their current passwords but not their old ones. The log and snapshot are
+ * written to a temporary directory, which is deleted afterwards.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class PersistenceTestDriver {
+
+    /**
+     * @param args Command line arguments (args[0] contains name of test file.
+     */
+    public static void main(String[] args) throws InterruptedException {
+
+        String fileName;
+        if (args.length < 1) {
+            fileName = "authentication.csv";
+        } else {
+            fileName = args[0];
+        }
+
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("auth_persistence");
+            Path logPath = directory.resolve("auth.log");
+            Path snapshotPath = directory.resolve("auth.snapshot");
+
+            /*
+             * Provision an instance with a mutation log and change it
+             */
+            AuthServiceImpl original = new AuthServiceImpl(configuration(logPath, null));
+            String superAdminAccessToken = original.login("super_admin", "p4ssw0rd");
+            BulkProvisioningReport report = new BulkProvisioner(original).provision(superAdminAccessToken,
+                    Paths.get(fileName));
+            System.out.println("Provisioned original: " + report.isCommitted());
+            original.createPermission(superAdminAccessToken, "durable_permission", "Durable Permission",
+                    "Permission created before the restart");
+            original.createRole(superAdminAccessToken, "durable_role", "Durable Role",
+                    "Role created before the restart");
+            original.addRolePermission(superAdminAccessToken, "durable_role", "durable_permission");
+            original.createUser(superAdminAccessToken, "Durable User", "durable_user");
+            original.addUserCredential(superAdminAccessToken, "durable_user", "durable_login", "old_password");
+            original.addUserRole(superAdminAccessToken, "durable_user", "durable_role");
+            original.updateUserPassword(superAdminAccessToken, "durable_user", "durable_login", "new_password");
+            original.updateUserName(superAdminAccessToken, "durable_user", "Renamed Durable User");
+            original.addUserPermission(superAdminAccessToken, "sd_admin_user", "durable_permission");
+            List<String> originalInventory = inventory(original);
+            original.closeMutationLog();
+
+            /*
+             * Reopen the model from the mutation log
+             */
+            AuthServiceImpl replayed = new AuthServiceImpl(configuration(logPath, null));
+            System.out.println("Replayed from mutation log, inventory matches original: "
+                    + inventory(replayed).equals(originalInventory));
+            System.out.println("Replayed login with new password: " + login(replayed, "new_password"));
+            System.out.println("Replayed login with old password: " + login(replayed, "old_password"));
+
+            /*
+             * Take a snapshot, then change the model further
+             */
+            long snapshotSequence = replayed.writeSnapshot(snapshotPath, false).get();
+            System.out.println("Snapshot reflects mutation log records: " + (snapshotSequence > 0));
+            List<String> snapshotInventory = inventory(replayed);
+            superAdminAccessToken = replayed.login("super_admin", "p4ssw0rd");
+            replayed.removeUserRole(superAdminAccessToken, "durable_user", "durable_role");
+            replayed.createRole(superAdminAccessToken, "later_role", "Later Role",
+                    "Role created after the snapshot");
+            replayed.addUserRole(superAdminAccessToken, "durable_user", "later_role");
+            replayed.updateUserPassword(superAdminAccessToken, "durable_user", "durable_login", "newest_password");
+            List<String> finalInventory = inventory(replayed);
+            replayed.closeMutationLog();
+            System.out.println("Snapshot inventory differs from final inventory: "
+                    + !snapshotInventory.equals(finalInventory));
+
+            /*
+             * Restore the snapshot and replay the rest of the mutation log
+             */
+            AuthServiceImpl restored = new AuthServiceImpl(configuration(logPath, snapshotPath));
+            System.out.println("Restored from snapshot and mutation log, inventory matches final: "
+                    + inventory(restored).equals(finalInventory));
+            System.out.println("Restored login with newest password: " + login(restored, "newest_password"));
+            System.out.println("Restored login with new password: " + login(restored, "new_password"));
+            restored.closeMutationLog();
+
+            /*
+             * Restore the snapshot alone
+             */
+            AuthServiceImpl snapshotOnly = new AuthServiceImpl(configuration(null, snapshotPath));
+            System.out.println("Restored from snapshot alone, inventory matches snapshot: "
+                    + inventory(snapshotOnly).equals(snapshotInventory));
+            System.out.println("Snapshot login with new password: " + login(snapshotOnly, "new_password"));
+
+        } catch (ExecutionException ee) {
+            System.out.println("Snapshot could not be written.");
+        } catch (IOException ioe) {
+            System.out.println("I/O exception occurred.");
+        }  catch (InvalidUserIDException iue) {
+            System.out.println("InvalidUserIDException occurred.");
+        }  catch (InvalidPasswordException ipe) {
+            System.out.println("InvalidPasswordException occurred.");
+        }  catch (AuthServiceException ase) {
+            System.out.println("AuthServiceException occurred.");
+        }  catch (InvalidAccessTokenException iate) {
+            System.out.println("InvalidAccessTokenException occurred.");
+        }  catch (UnauthorizedAccessException uae) {
+            System.out.println("UnauthorizedAccessException occurred.");
+        } finally {
+            if (directory != null) {
+                File[] files = directory.toFile().listFiles();
+                for (int i = 0; (files != null) && (i < files.length); i++) {
+                    files[i].delete();
+                }
+                directory.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Returns a configuration with the specified mutation log and snapshot.
+     *
+     * @param logPath Mutation log path (null for none).
+     * @param snapshotPath Snapshot path (null for none).
+     * @return Configuration.
+     */
+    private static AuthServiceConfiguration configuration(Path logPath, Path snapshotPath) {
+        AuthServiceConfiguration configuration = new AuthServiceConfiguration();
+        configuration.setMutationLogPath(logPath);
+        configuration.setMutationLogSyncPolicy(MutationLogSyncPolicy.EVERY_COMMIT);
+        configuration.setSnapshotPath(snapshotPath);
+        return configuration;
+    }
+
+    /**
+     * Returns the outcome of logging in as the durable user with the
+     * specified password as a word.
+     *
+     * @param authService Instance to log in to.
+     * @param password Password.
+     * @return "succeeded" or "failed".
+     */
+    private static String login(AuthServiceImpl authService, String password) {
+        try {
+            authService.logout(authService.login("durable_login", password));
+            return "succeeded";
+        } catch (InvalidUserIDException iue) {
+            return "failed";
+        } catch (InvalidPasswordException ipe) {
+            return "failed";
+        } catch (InvalidAccessTokenException iate) {
+            return "failed";
+        } catch (AuthServiceException ase) {
+            return "failed";
+        }
+    }
+
+    /**
+     * Returns the YAML inventory of an instance as a sorted list of lines,
+     * without access tokens (which are not part of the durable model), so
+     * that the inventories of two instances can be compared regardless of
+     * the order their maps list objects in.
+     *
+     * @param authService Instance.
+     * @return Sorted inventory lines.
+     * @throws IOException If the inventory could not be written.
+     */
+    private static List<String> inventory(AuthServiceImpl authService) throws IOException {
+        StringWriter writer = new StringWriter();
+        authService.writeConfiguration(writer, InventoryFormat.YAML);
+        String[] lines = writer.toString().split("\\n");
+        List<String> inventory = new ArrayList<String>();
+        int accessTokensIndent = -1;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            int indent = lines[i].indexOf(line);
+            if ((accessTokensIndent >= 0) && (indent > accessTokensIndent)) {
+                continue;
+            }
+            if (line.startsWith("accessTokens:")) {
+                accessTokensIndent = indent;
+                inventory.add("accessTokens:");
+            } else {
+                accessTokensIndent = -1;
+                inventory.add(line);
+            }
+        }
+        Collections.sort(inventory);
+        return inventory;
+    }
+}
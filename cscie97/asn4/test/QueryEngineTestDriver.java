@@ -0,0 +1,54 @@
+/*
+ * QueryEngineTestDriver
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.knowledge.engine.*;
+import java.io.IOException;
+
+/**
+ * This class tests the QueryEngine's single and conjunctive queries. It
+ * imports the test triple file and then executes the test query file, whose
+ * queries include variables shared between patterns, a variable repeated
+ * within one pattern, a predicate variable, identifiers the knowledge graph
+ * has never seen, ? wild cards that would otherwise repeat a solution,
+ * queries without variables and malformed queries.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class QueryEngineTestDriver {
+
+    /**
+     * @param args Command line arguments (args[0] contains name of triple
+     * file, args[1] name of query file).
+     */
+    public static void main(String[] args) {
+
+        String tripleFileName;
+        String queryFileName;
+        if (args.length < 2) {
+            tripleFileName = "query_test.nt";
+            queryFileName = "query_test_queries.nt";
+        } else {
+            tripleFileName = args[0];
+            queryFileName = args[1];
+        }
+        try {
+            new Importer().importTripleFile(tripleFileName);
+            new QueryEngine().executeQueryFile(queryFileName);
+        } catch (ImportException ie) {
+            System.out.println("ImportException occurred.");
+        } catch (IOException ioe) {
+            System.out.println("I/O exception occurred.");
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * RatingUpdateBenchmark
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import cscie97.asn4.squaredesk.provider.*;
+import cscie97.asn4.squaredesk.renter.SearchEngine;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * This class benchmarks office space rating updates against a catalog of
+ * increasing size. Every rating added or removed through the
+ * OfficeProviderServiceAPI clears the office space's triples from the
+ * knowledge graph and imports them again, so the time of an update shows
+ * whether removing a subject from the KnowledgeGraph depends on the size of
+ * the graph.
+ *
+ * The catalog is grown in steps to each of the requested sizes. Each office
+ * space has a location on one of a few hundred grid squares, a facility type,
+ * two features and a rating, so that it has five triples. After each step,
+ * the benchmark runs WARMUP_ITERATIONS and then MEASURED_ITERATIONS
+ * iterations of OPERATIONS_PER_ITERATION updates, each adding a rating to a
+ * random office space and removing it again, and prints the mean time per
+ * rating update together with the time taken to grow the catalog. It then
+ * measures the SearchEngine part of an update on its own, clearing a random
+ * office space's triples and adding them again, which leaves out the
+ * authentication checks and the office space lookups of the API. A full
+ * garbage collection is run before each measured iteration, so that the
+ * collection of the catalog's garbage is not charged to the updates.
+ *
+ * Usage: RatingUpdateBenchmark [spaceCounts], for example
+ * "RatingUpdateBenchmark 10000,100000,1000000" (the default). A catalog of a
+ * million office spaces needs a heap of a few gigabytes (-Xmx4g).
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class RatingUpdateBenchmark {
+
+    /**
+     * Number of warmup iterations per catalog size.
+     */
+    private static final int WARMUP_ITERATIONS = 3;
+
+    /**
+     * Number of measured iterations per catalog size.
+     */
+    private static final int MEASURED_ITERATIONS = 5;
+
+    /**
+     * Number of rating updates (one addition and one removal each) per
+     * iteration.
+     */
+    private static final int OPERATIONS_PER_ITERATION = 10000;
+
+    /**
+     * Features given to the office spaces.
+     */
+    private static final String[] FEATURES = {"WIFI", "Coffee", "Allows pets", "Printer", "Parking",
+        "Kitchen", "Whiteboard", "Projector"};
+
+    /**
+     * Provider user login ID.
+     */
+    private static final String PROVIDER_LOGIN_ID = "benchmark_provider_loginID";
+
+    /**
+     * Provider user password.
+     */
+    private static final String PROVIDER_PASSWORD = "benchmark_provider_password";
+
+    /**
+     * Office provider service.
+     */
+    private static OfficeProviderServiceAPI officeProviderServiceAPI;
+
+    /**
+     * Search engine.
+     */
+    private static SearchEngine searchEngine;
+
+    /**
+     * Authentication service.
+     */
+    private static AuthServiceImpl authService;
+
+    /**
+     * Office spaces in the catalog.
+     */
+    private static ArrayList<OfficeSpace> officeSpaces = new ArrayList<OfficeSpace>();
+
+    /**
+     * Provider user access token.
+     */
+    private static String accessToken;
+
+    /**
+     * Time the provider user access token was last handed out.
+     */
+    private static long accessTokenTime;
+
+    /**
+     * @param args Command line arguments (args[0] optionally contains a comma
+     * separated list of catalog sizes, in increasing order).
+     */
+    public static void main(String[] args) {
+
+        String[] spaceCounts = ((args.length > 0) ? args[0] : "10000,100000,1000000").split(",");
+        officeProviderServiceAPI = OfficeProviderServiceAPI.getInstance();
+        searchEngine = SearchEngine.getInstance();
+        authService = AuthServiceImpl.getInstance();
+        Random random = new Random(97);
+
+        try {
+
+            /*
+             * Create a provider user allowed to create office spaces and to
+             * add and remove ratings
+             */
+            String superAdminAccessToken = authService.login("super_admin", "p4ssw0rd");
+            authService.createUser(superAdminAccessToken, "Benchmark Provider", "benchmark_provider");
+            authService.addUserCredential(superAdminAccessToken, "benchmark_provider", PROVIDER_LOGIN_ID,
+                    PROVIDER_PASSWORD);
+            authService.addUserRole(superAdminAccessToken, "benchmark_provider", "squaredesk_provider");
+            authService.logout(superAdminAccessToken);
+
+            System.out.println("spaces\t\tgrowth s\tus/update\tus/reindex");
+            for (int i = 0; i < spaceCounts.length; i++) {
+                int spaceCount = Integer.parseInt(spaceCounts[i].trim());
+                long startTime = System.nanoTime();
+                growCatalog(spaceCount, random);
+                double growthTime = (System.nanoTime() - startTime) / 1e9;
+
+                /*
+                 * Each update operation is two rating updates
+                 */
+                long operations = (long) MEASURED_ITERATIONS * OPERATIONS_PER_ITERATION;
+                double updateTime = measure(random, false) / 1e3 / (2 * operations);
+                double reindexTime = measure(random, true) / 1e3 / operations;
+                System.out.println(officeSpaces.size() + "\t\t" + String.format("%.1f", growthTime) + "\t\t"
+                        + String.format("%.2f", updateTime) + "\t\t" + String.format("%.2f", reindexTime));
+            }
+        } catch (Exception e) {
+            System.out.println(e.getClass().getSimpleName() + " occurred.");
+        }
+    }
+
+    /**
+     * Creates office spaces through the OfficeProviderServiceAPI until the
+     * catalog holds the specified number of them.
+     *
+     * @param spaceCount Number of office spaces.
+     * @param random Random number generator.
+     * @throws Exception
+     */
+    private static void growCatalog(int spaceCount, Random random) throws Exception {
+        while (officeSpaces.size() < spaceCount) {
+            int n = officeSpaces.size();
+            String name = "office_space_" + n;
+            Location location = new Location("Street " + n, "", "Cambridge", "MA", "12345", "USA",
+                    random.nextInt(20) + 30 + random.nextDouble(), random.nextInt(20) - 90 + random.nextDouble());
+            Capacity capacity = new Capacity((short) 1, (short) 1, (float) 1.0);
+            Rate rate = new Rate("Daily", 10);
+            Rating rating = new Rating("benchmark_renter", (short) (random.nextInt(5) + 1), "Benchmark rating");
+            int feature = random.nextInt(FEATURES.length);
+
+            /*
+             * Everything is allocated before the calls, so that no garbage
+             * collection can run between taking the token and using it
+             */
+            OfficeSpace officeSpace = officeProviderServiceAPI.createOfficeSpace(accessToken(), name, location,
+                    capacity, rate, (random.nextBoolean() ? "Home" : "Garage"), "");
+            officeProviderServiceAPI.addOfficeSpaceFeature(accessToken(), officeSpace.getID(), FEATURES[feature]);
+            officeProviderServiceAPI.addOfficeSpaceFeature(accessToken(), officeSpace.getID(),
+                    FEATURES[(feature + 1) % FEATURES.length]);
+            officeProviderServiceAPI.addOfficeSpaceRating(accessToken(), officeSpace.getID(), rating);
+            officeSpaces.add(officeSpace);
+        }
+    }
+
+    /**
+     * Runs the warmup and measured iterations of rating updates or of
+     * reindexing.
+     *
+     * @param random Random number generator.
+     * @param reindex True to clear and add the triples of office spaces
+     * through the SearchEngine, rather than to add and remove ratings.
+     * @return Time taken by the measured iterations, in nanoseconds.
+     * @throws Exception
+     */
+    private static long measure(Random random, boolean reindex) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(random, reindex);
+        }
+        long totalTime = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            System.gc();
+            totalTime += runIteration(random, reindex);
+        }
+        return totalTime;
+    }
+
+    /**
+     * Runs one iteration of rating updates or of reindexing.
+     *
+     * @param random Random number generator.
+     * @param reindex True to clear and add the triples of office spaces
+     * through the SearchEngine, rather than to add and remove ratings.
+     * @return Time taken, in nanoseconds.
+     * @throws Exception
+     */
+    private static long runIteration(Random random, boolean reindex) throws Exception {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < OPERATIONS_PER_ITERATION; i++) {
+            OfficeSpace officeSpace = officeSpaces.get(random.nextInt(officeSpaces.size()));
+            if (reindex) {
+
+                /*
+                 * The SearchEngine does not check the token, so using it here
+                 * does not keep it alive
+                 */
+                searchEngine.clearTriples(accessToken, officeSpace.getID());
+                searchEngine.addTriples(accessToken, officeSpace);
+            } else {
+                Rating rating = new Rating("benchmark_renter", (short) (random.nextInt(5) + 1), "Benchmark rating");
+                officeProviderServiceAPI.addOfficeSpaceRating(accessToken(), officeSpace.getID(), rating);
+                officeProviderServiceAPI.removeOfficeSpaceRating(accessToken(), officeSpace.getID(), rating);
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Returns the provider user's access token, logging in again if it has
+     * not been used for half of its timeout period. It is called before
+     * every API call, so that the token does not time out when a long
+     * garbage collection pauses the benchmark between two calls.
+     *
+     * @return Access token.
+     * @throws Exception
+     */
+    private static String accessToken() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        if ((accessToken == null) || ((currentTime - accessTokenTime) > (AccessToken.TIMEOUT_PERIOD / 2))) {
+            if (accessToken != null) {
+                try {
+                    authService.logout(accessToken);
+                } catch (InvalidAccessTokenException iate) {
+                    /* The token has already timed out */
+                }
+            }
+            accessToken = authService.login(PROVIDER_LOGIN_ID, PROVIDER_PASSWORD);
+        }
+        accessTokenTime = currentTime;
+        return accessToken;
+    }
+}
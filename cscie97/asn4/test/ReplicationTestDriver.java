@@ -0,0 +1,273 @@
+/*
+ * ReplicationTestDriver
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.squaredesk.authentication.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class tests leader/follower replication of the authentication
+ * service in a single JVM. A leader is provisioned from the test
+ * authentication file while two followers, connected through in-process
+ * transports, catch up from a snapshot and then from the change feed. The
+ * driver then checks that logins, permission changes and logouts on the
+ * leader reach both followers, that a follower cut off from the leader
+ * stops serving checkAccess once its maximum staleness has passed and
+ * resumes once reconnected, and that a follower that falls out of the
+ * leader's feed catches up from a new snapshot. Followers must reject
+ * administrative calls and logouts with an AuthServiceException. The
+ * output does not include replication lags or other timings, so it can be
+ * compared with the reference output in testOutput.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class ReplicationTestDriver {
+
+    /**
+     * Maximum staleness of the followers, in milliseconds.
+     */
+    private static final long MAX_STALENESS = 500;
+
+    /**
+     * @param args Command line arguments (args[0] contains name of test file.
+     */
+    public static void main(String[] args) throws InterruptedException {
+
+        String fileName;
+        if (args.length < 1) {
+            fileName = "authentication.csv";
+        } else {
+            fileName = args[0];
+        }
+
+        AuthServiceConfiguration leaderConfiguration = new AuthServiceConfiguration();
+        leaderConfiguration.setReplicationRole(ReplicationRole.LEADER);
+        leaderConfiguration.setReplicationFeedCapacity(64);
+        AuthServiceImpl leader = new AuthServiceImpl(leaderConfiguration);
+
+        AuthServiceConfiguration followerConfiguration = new AuthServiceConfiguration();
+        followerConfiguration.setReplicationRole(ReplicationRole.FOLLOWER);
+        followerConfiguration.setReplicationMaxStaleness(MAX_STALENESS);
+        AuthServiceImpl[] followers = new AuthServiceImpl[2];
+        InProcessReplicationTransport[] transports = new InProcessReplicationTransport[2];
+        ReplicationFollower[] replicationFollowers = new ReplicationFollower[2];
+        for (int i = 0; i < followers.length; i++) {
+            followers[i] = new AuthServiceImpl(followerConfiguration);
+            transports[i] = new InProcessReplicationTransport(leader);
+            replicationFollowers[i] = new ReplicationFollower(followers[i], transports[i]);
+            replicationFollowers[i].start();
+        }
+
+        try {
+
+            /*
+             * Provision the leader and wait for both followers
+             */
+            String superAdminAccessToken = leader.login("super_admin", "p4ssw0rd");
+            BulkProvisioningReport report = new BulkProvisioner(leader).provision(superAdminAccessToken,
+                    Paths.get(fileName));
+            System.out.println("Provisioned leader: " + report.isCommitted());
+            awaitFollowers(leader, replicationFollowers);
+            for (int i = 0; i < followers.length; i++) {
+                System.out.println("Follower " + i + " inventory matches leader: "
+                        + inventory(followers[i]).equals(inventory(leader)));
+            }
+
+            /*
+             * Permission changes and sessions made on the leader reach the
+             * followers
+             */
+            leader.createPermission(superAdminAccessToken, "replicated_permission", "Replicated Permission",
+                    "Permission granted on the leader");
+            leader.addUserPermission(superAdminAccessToken, "sd_admin_user", "replicated_permission");
+            String userAccessToken = leader.login("sam", "secret");
+            awaitFollowers(leader, replicationFollowers);
+            for (int i = 0; i < followers.length; i++) {
+                System.out.println("Follower " + i + " checkAccess after login: "
+                        + checkAccess(followers[i], "replicated_permission", userAccessToken));
+            }
+            leader.removeUserPermission(superAdminAccessToken, "sd_admin_user", "replicated_permission");
+            awaitFollowers(leader, replicationFollowers);
+            System.out.println("Follower 0 checkAccess after revocation: "
+                    + checkAccess(followers[0], "replicated_permission", userAccessToken));
+            leader.logout(userAccessToken);
+            awaitFollowers(leader, replicationFollowers);
+            System.out.println("Follower 1 checkAccess after logout: "
+                    + checkAccess(followers[1], "replicated_permission", userAccessToken));
+
+            /*
+             * Followers are read-only
+             */
+            try {
+                followers[0].createRole(superAdminAccessToken, "follower_role", "Follower Role", "Rejected");
+                System.out.println("Follower accepted an administrative call.");
+            } catch (AuthServiceException ase) {
+                System.out.println("Follower rejected an administrative call.");
+            }
+            try {
+                followers[0].logout(superAdminAccessToken);
+                System.out.println("Follower accepted a logout.");
+            } catch (AuthServiceException ase) {
+                System.out.println("Follower rejected a logout.");
+            }
+
+            /*
+             * A follower cut off from the leader stops serving checkAccess
+             * once its maximum staleness has passed
+             */
+            String adminAccessToken = leader.login("jill", "1234567");
+            awaitFollowers(leader, replicationFollowers);
+            System.out.println("Follower 0 checkAccess before partition: "
+                    + checkAccess(followers[0], "create_user_permission", adminAccessToken));
+            transports[0].setConnected(false);
+            Thread.sleep(MAX_STALENESS * 2);
+            System.out.println("Partitioned follower checkAccess: "
+                    + checkAccess(followers[0], "create_user_permission", adminAccessToken));
+            System.out.println("Partitioned follower within staleness bound: "
+                    + replicationFollowers[0].getStatus().isWithinStalenessBound());
+            transports[0].setConnected(true);
+            awaitFresh(replicationFollowers);
+            System.out.println("Reconnected follower checkAccess: "
+                    + checkAccess(followers[0], "create_user_permission", adminAccessToken));
+
+            /*
+             * A follower that falls further behind than the leader's feed
+             * reaches catches up from a new snapshot
+             */
+            transports[1].setConnected(false);
+            for (int i = 0; i < 100; i++) {
+                leader.createRole(superAdminAccessToken, "bulk_role_" + i, "Bulk Role " + i, "Bulk role");
+            }
+            transports[1].setConnected(true);
+            awaitFresh(replicationFollowers);
+            awaitFollowers(leader, replicationFollowers);
+            System.out.println("Lagging follower inventory matches leader: "
+                    + inventory(followers[1]).equals(inventory(leader)));
+            System.out.println("Lagging follower caught up from a new snapshot: "
+                    + (replicationFollowers[1].getStatus().getSnapshotCount() > 1));
+            for (int i = 0; i < followers.length; i++) {
+                System.out.println("Follower " + i + " within staleness bound: "
+                        + replicationFollowers[i].getStatus().isWithinStalenessBound());
+            }
+
+        } catch (IOException ioe) {
+            System.out.println("I/O exception occurred.");
+        }  catch (InvalidUserIDException iue) {
+            System.out.println("InvalidUserIDException occurred.");
+        }  catch (InvalidPasswordException ipe) {
+            System.out.println("InvalidPasswordException occurred.");
+        }  catch (AuthServiceException ase) {
+            System.out.println("AuthServiceException occurred.");
+        }  catch (InvalidAccessTokenException iate) {
+            System.out.println("InvalidAccessTokenException occurred.");
+        }  catch (UnauthorizedAccessException uae) {
+            System.out.println("UnauthorizedAccessException occurred.");
+        } finally {
+            for (int i = 0; i < replicationFollowers.length; i++) {
+                replicationFollowers[i].stop();
+            }
+        }
+    }
+
+    /**
+     * Waits until every follower has applied everything the leader has
+     * published so far.
+     *
+     * @param leader Leader.
+     * @param replicationFollowers Followers.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    private static void awaitFollowers(AuthServiceImpl leader, ReplicationFollower[] replicationFollowers)
+            throws InterruptedException {
+        long sequence = leader.getReplicationFeedSequence();
+        for (int i = 0; i < replicationFollowers.length; i++) {
+            if (!replicationFollowers[i].awaitSequence(sequence, 5000)) {
+                System.out.println("Follower " + i + " did not catch up: " + replicationFollowers[i].getStatus());
+            }
+        }
+    }
+
+    /**
+     * Returns the outcome of a checkAccess call as a word.
+     *
+     * @param authService Instance to check.
+     * @param permissionID Permission ID.
+     * @param accessToken Access token.
+     * @return "allowed", "denied" or "invalid token".
+     */
+    private static String checkAccess(AuthServiceImpl authService, String permissionID, String accessToken) {
+        try {
+            authService.checkAccess(permissionID, accessToken);
+            return "allowed";
+        } catch (UnauthorizedAccessException uae) {
+            return "denied";
+        } catch (InvalidAccessTokenException iate) {
+            return "invalid token";
+        }
+    }
+
+    /**
+     * Waits until every follower is within its staleness bound again.
+     *
+     * @param replicationFollowers Followers.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    private static void awaitFresh(ReplicationFollower[] replicationFollowers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (int i = 0; i < replicationFollowers.length; i++) {
+            while (!replicationFollowers[i].getStatus().isWithinStalenessBound()
+                    && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Returns the YAML inventory of an instance as a sorted list of lines,
+     * without access tokens (whose expiry each instance tracks on its own),
+     * so that the inventories of two instances can be compared regardless
+     * of the order their maps list objects in.
+     *
+     * @param authService Instance.
+     * @return Sorted inventory lines.
+     * @throws IOException If the inventory could not be written.
+     */
+    private static List<String> inventory(AuthServiceImpl authService) throws IOException {
+        StringWriter writer = new StringWriter();
+        authService.writeConfiguration(writer, InventoryFormat.YAML);
+        String[] lines = writer.toString().split("\\n");
+        List<String> inventory = new ArrayList<String>();
+        int accessTokensIndent = -1;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            int indent = lines[i].indexOf(line);
+            if ((accessTokensIndent >= 0) && (indent > accessTokensIndent)) {
+                continue;
+            }
+            if (line.startsWith("accessTokens:")) {
+                accessTokensIndent = indent;
+                inventory.add("accessTokens:");
+            } else {
+                accessTokensIndent = -1;
+                inventory.add(line);
+            }
+        }
+        Collections.sort(inventory);
+        return inventory;
+    }
+}
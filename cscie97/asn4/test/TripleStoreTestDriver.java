@@ -0,0 +1,273 @@
+/*
+ * TripleStoreTestDriver
+ *
+ * Version 1.0
+ *
+ * November 20, 2014
+ *
+ * Written by Roland L. Galibert for Harvard Extension course
+ * CSCI E-97 Software Design: Principles, Models, and Patterns
+ * Assignment #4.
+ */
+package cscie97.asn4.test;
+
+import cscie97.asn4.knowledge.engine.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This class tests the knowledge graph's triple store against a plain set of
+ * triples. Each round adds triples one at a time, enough for the permutation
+ * indexes to merge their deltas, removes random subjects, adds back some of
+ * the removed triples (which revives them in the indexes), and bulk imports
+ * a file of triples that repeats some of itself and some of the store. After
+ * each step the driver checks that the store holds exactly the triples of
+ * the set, and that queries with random combinations of wildcards return
+ * the same triples as a scan of the set.
+ *
+ * The triples are drawn from a fixed seed, so the output can be compared
+ * with the reference output in testOutput.
+ *
+ * @author Roland L. Galibert
+ * @version 1.0
+ */
+public class TripleStoreTestDriver {
+
+    /**
+     * Number of rounds.
+     */
+    private static final int ROUND_COUNT = 4;
+
+    /**
+     * Number of distinct nodes, used as both subjects and objects.
+     */
+    private static final int NODE_COUNT = 300;
+
+    /**
+     * Number of distinct predicates.
+     */
+    private static final int PREDICATE_COUNT = 8;
+
+    /**
+     * Number of triples added one at a time per round.
+     */
+    private static final int ADD_COUNT = 3000;
+
+    /**
+     * Number of subjects removed per round.
+     */
+    private static final int REMOVE_COUNT = 25;
+
+    /**
+     * Number of new triples in each round's bulk import file.
+     */
+    private static final int BULK_COUNT = 2000;
+
+    /**
+     * Number of random queries per check.
+     */
+    private static final int QUERY_COUNT = 100;
+
+    /**
+     * Wild card.
+     */
+    private static final String WILDCARD = "?";
+
+    /**
+     * Singleton knowledge graph object.
+     */
+    private static KnowledgeGraph kg = KnowledgeGraph.getInstance();
+
+    /**
+     * Triples the knowledge graph should hold, as "subject predicate object".
+     */
+    private static HashSet<String> reference = new HashSet<String>();
+
+    /**
+     * Source of the triples and queries.
+     */
+    private static Random random = new Random(97);
+
+    /**
+     * @param args Command line arguments (not used).
+     */
+    public static void main(String[] args) {
+
+        Path file = null;
+        try {
+            file = Files.createTempFile("triple_store", ".nt");
+            Importer importer = new Importer();
+            for (int round = 1; round <= ROUND_COUNT; round++) {
+
+                /*
+                 * Add triples one at a time
+                 */
+                for (int i = 0; i < ADD_COUNT; i++) {
+                    add(randomTriple());
+                }
+                check(round, "single adds");
+
+                /*
+                 * Remove random subjects, remembering their triples
+                 */
+                ArrayList<String> removed = new ArrayList<String>();
+                for (int i = 0; i < REMOVE_COUNT; i++) {
+                    String subject = node(random.nextInt(NODE_COUNT));
+                    kg.removeSubjectFromKnowledgeGraph(subject);
+                    Iterator<String> iterator = reference.iterator();
+                    while (iterator.hasNext()) {
+                        String triple = iterator.next();
+                        if (triple.startsWith(subject + " ")) {
+                            removed.add(triple);
+                            iterator.remove();
+                        }
+                    }
+                }
+                check(round, "subject removals");
+
+                /*
+                 * Add back every other removed triple
+                 */
+                for (int i = 0; i < removed.size(); i += 2) {
+                    add(removed.get(i));
+                }
+                check(round, "re-adds of removed triples");
+
+                /*
+                 * Bulk import new triples, triples repeated within the file
+                 * and triples the store already holds
+                 */
+                ArrayList<String> bulk = new ArrayList<String>();
+                for (int i = 0; i < BULK_COUNT; i++) {
+                    bulk.add(randomTriple());
+                }
+                for (int i = 0; i < BULK_COUNT / 4; i++) {
+                    bulk.add(bulk.get(random.nextInt(BULK_COUNT)));
+                }
+                ArrayList<String> held = new ArrayList<String>(reference);
+                for (int i = 0; i < BULK_COUNT / 4; i++) {
+                    bulk.add(held.get(random.nextInt(held.size())));
+                }
+                try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    for (int i = 0; i < bulk.size(); i++) {
+                        writer.write(bulk.get(i) + ".\n");
+                    }
+                }
+                importer.bulkImportTripleFile(file.toString());
+                reference.addAll(bulk);
+                check(round, "bulk import");
+            }
+
+        } catch (ImportException ie) {
+            System.out.println("ImportException occurred.");
+        } catch (IOException ioe) {
+            System.out.println("I/O exception occurred.");
+        } finally {
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the identifier of the specified node.
+     *
+     * @param ordinal Node number.
+     * @return Node identifier.
+     */
+    private static String node(int ordinal) {
+        return "n" + ordinal;
+    }
+
+    /**
+     * Returns a random triple as "subject predicate object".
+     *
+     * @return Triple.
+     */
+    private static String randomTriple() {
+        return node(random.nextInt(NODE_COUNT)) + " p" + random.nextInt(PREDICATE_COUNT) + " "
+                + node(random.nextInt(NODE_COUNT));
+    }
+
+    /**
+     * Adds a triple, given as "subject predicate object", to the knowledge
+     * graph and to the reference set.
+     *
+     * @param triple Triple.
+     */
+    private static void add(String triple) {
+        String[] elements = triple.split(" ");
+        kg.importTriple(elements[0], elements[1], elements[2]);
+        reference.add(triple);
+    }
+
+    /**
+     * Checks the knowledge graph against the reference set and prints the
+     * outcome. The query ? ? ? must return every triple of the set, and
+     * random queries (whose subject, predicate and object are each a wild
+     * card, an identifier or, now and then, an identifier the graph holds no
+     * triple with) must return the triples of the set that match them.
+     *
+     * @param round Round number.
+     * @param step Step just completed.
+     */
+    private static void check(int round, String step) {
+        boolean matches = query(WILDCARD, WILDCARD, WILDCARD).equals(reference);
+        ArrayList<String[]> triples = new ArrayList<String[]>(reference.size());
+        for (String triple : reference) {
+            triples.add(triple.split(" "));
+        }
+        for (int i = 0; matches && (i < QUERY_COUNT); i++) {
+            String[] query = new String[3];
+            for (int j = 0; j < 3; j++) {
+                if (random.nextBoolean()) {
+                    query[j] = WILDCARD;
+                } else if (j == 1) {
+                    query[j] = "p" + random.nextInt(PREDICATE_COUNT + 1);
+                } else {
+                    query[j] = node(random.nextInt(NODE_COUNT + 10));
+                }
+            }
+            HashSet<String> expected = new HashSet<String>();
+            for (int k = 0; k < triples.size(); k++) {
+                String[] triple = triples.get(k);
+                if ((query[0].equals(WILDCARD) || query[0].equals(triple[0]))
+                        && (query[1].equals(WILDCARD) || query[1].equals(triple[1]))
+                        && (query[2].equals(WILDCARD) || query[2].equals(triple[2]))) {
+                    expected.add(triple[0] + " " + triple[1] + " " + triple[2]);
+                }
+            }
+            matches = query(query[0], query[1], query[2]).equals(expected);
+        }
+        System.out.println("Round " + round + " after " + step + ", " + reference.size()
+                + " triples, matches reference: " + matches);
+    }
+
+    /**
+     * Executes a query over the knowledge graph.
+     *
+     * @param subject Subject identifier or wild card.
+     * @param predicate Predicate identifier or wild card.
+     * @param object Object identifier or wild card.
+     * @return Matching triples as "subject predicate object".
+     */
+    private static Set<String> query(String subject, String predicate, String object) {
+        Set<Triple> triples = kg.executeQuery(kg.getQueryTriple(subject, predicate, object));
+        HashSet<String> result = new HashSet<String>();
+        if (triples != null) {
+            for (Triple triple : triples) {
+                result.add(triple.getSubject().getIdentifier() + " " + triple.getPredicate().getIdentifier()
+                        + " " + triple.getObject().getIdentifier());
+            }
+        }
+        return result;
+    }
+}